@@ -0,0 +1,42 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.api.engine;
+
+import java.util.List;
+
+/**
+ * A system listener that declares which other listeners it needs, so that listeners that do not need each other can be
+ * started at the same time. Listeners that do not implement this interface are started one at a time, in the order
+ * they are configured.
+ */
+public interface IConcurrentPentahoSystemListener extends IPentahoSystemListener {
+
+  /**
+   * @return the class names of the system listeners that must have started before this one. Listeners that are not
+   *         configured are ignored.
+   */
+  public List<String> getDependencies();
+
+  /**
+   * @return <code>true</code> if this listener may start while listeners it does not depend on are starting,
+   *         <code>false</code> to start it once all the listeners configured before it have started, and before any
+   *         configured after it.
+   */
+  public boolean isConcurrent();
+
+}
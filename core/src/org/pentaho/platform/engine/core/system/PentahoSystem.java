@@ -134,6 +134,11 @@ public class PentahoSystem {
 
   private static List<IPentahoSystemListener> listeners = new ArrayList<IPentahoSystemListener>();
 
+  private static final int LISTENER_THREADS = Integer.getInteger( PentahoSystem.class.getName()
+      + ".listenerThreads", Math.min( Runtime.getRuntime().availableProcessors(), 4 ) ); //$NON-NLS-1$
+
+  private static volatile Map<String, Long> listenerStartupTimes = Collections.emptyMap();
+
   private static List<ISessionStartupAction> sessionStartupActions = new ArrayList<ISessionStartupAction>();
 
   private static AggregateObjectFactory aggObjectFactory = new AggregateObjectFactory();
@@ -420,48 +425,77 @@ public class PentahoSystem {
 
   private static void notifySystemListenersOfStartup( final IPentahoSession session ) throws PentahoSystemException {
     if ( listeners != null && listeners.size() > 0 ) {
+      SystemListenerStartup startup =
+          new SystemListenerStartup( new ArrayList<IPentahoSystemListener>( listeners ), LISTENER_THREADS );
+      try {
+        startup.start( new SystemListenerStartup.ListenerStarter() {
+          @Override
+          public void start( final IPentahoSystemListener systemListener ) throws PentahoSystemException {
+            PentahoSystem.startSystemListener( systemListener, session );
+          }
+        } );
+      } finally {
+        listenerStartupTimes = Collections.unmodifiableMap( startup.getStartupTimes() );
+        if ( debug ) {
+          Logger.debug( PentahoSystem.class, "System Listener startup times (ms): " //$NON-NLS-1$
+              + listenerStartupTimes );
+        }
+      }
+    }
+  }
 
-      for ( final IPentahoSystemListener systemListener : listeners ) {
-        try {
-          // ensure that the Authentication/IPentahoSession is correct between ISystemListeners
-          runAsSystem( new Callable<Void>() {
-            @Override
-            public Void call() throws Exception {
-              PentahoSystem.systemEntryPoint(); // make sure all startups occur in the context of a transaction
-
-              try {
-                if ( debug ) {
-                  Logger.debug( PentahoSystem.class, "System Listener Start: " + systemListener.getClass().getName() ); //$NON-NLS-1$
-                }
-                if ( !systemListener.startup( session ) ) {
-                  throw new PentahoSystemException( Messages.getInstance().getErrorString(
-                      "PentahoSystem.ERROR_0014_STARTUP_FAILURE", systemListener.getClass().getName() ) ); //$NON-NLS-1$
-                }
-                if ( debug ) {
-                  Logger
-                      .debug( PentahoSystem.class, "System Listener Complete: " + systemListener.getClass().getName() ); //$NON-NLS-1$
-                }
-              } catch ( Throwable e ) {
-                throw new PentahoSystemException( Messages.getInstance().getErrorString(
-                    "PentahoSystem.ERROR_0014_STARTUP_FAILURE", systemListener.getClass().getName() ), e ); //$NON-NLS-1$
-              } finally {
-                PentahoSystem.systemExitPoint(); // commit transaction
-              }
-              return null;
+  private static void startSystemListener( final IPentahoSystemListener systemListener,
+      final IPentahoSession session ) throws PentahoSystemException {
+    try {
+      // ensure that the Authentication/IPentahoSession is correct between ISystemListeners
+      runAsSystem( new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          PentahoSystem.systemEntryPoint(); // make sure all startups occur in the context of a transaction
+
+          try {
+            if ( debug ) {
+              Logger.debug( PentahoSystem.class, "System Listener Start: " //$NON-NLS-1$
+                  + systemListener.getClass().getName() );
             }
-          } );
-        } catch ( Exception e ) {
-          if ( e instanceof PentahoSystemException ) {
-            throw (PentahoSystemException) e;
-          } else {
-            throw new PentahoSystemException( e );
+            if ( !systemListener.startup( session ) ) {
+              throw new PentahoSystemException( Messages.getInstance().getErrorString(
+                  "PentahoSystem.ERROR_0014_STARTUP_FAILURE", systemListener.getClass().getName() ) ); //$NON-NLS-1$
+            }
+            if ( debug ) {
+              Logger.debug( PentahoSystem.class, "System Listener Complete: " //$NON-NLS-1$
+                  + systemListener.getClass().getName() );
+            }
+          } catch ( Throwable e ) {
+            throw new PentahoSystemException( Messages.getInstance().getErrorString(
+                "PentahoSystem.ERROR_0014_STARTUP_FAILURE", systemListener.getClass().getName() ), e ); //$NON-NLS-1$
+          } finally {
+            PentahoSystem.systemExitPoint(); // commit transaction
           }
+          return null;
         }
-
+      } );
+    } catch ( Exception e ) {
+      if ( e instanceof PentahoSystemException ) {
+        throw (PentahoSystemException) e;
+      } else {
+        throw new PentahoSystemException( e );
       }
     }
   }
 
+  /**
+   * Returns how long each system listener took to start during the last startup, in the order the listeners are
+   * configured. Listeners that implement {@link org.pentaho.platform.api.engine.IConcurrentPentahoSystemListener} may
+   * have started at the same time as others, on up to
+   * <code>org.pentaho.platform.engine.core.system.PentahoSystem.listenerThreads</code> threads.
+   *
+   * @return listener class name to startup time in milliseconds
+   */
+  public static Map<String, Long> getSystemListenerStartupTimes() {
+    return listenerStartupTimes;
+  }
+
   /**
    * Using data in the systemSettings (this data typically originates in the pentaho.xml file), initialize 3 System
    * properties to explicitly identify the Transformer, SAX, and DOM factory implementations. (i.e. Crimson, Xerces,
@@ -0,0 +1,282 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2013 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.engine.core.system;
+
+import org.pentaho.platform.api.engine.IConcurrentPentahoSystemListener;
+import org.pentaho.platform.api.engine.IPentahoSystemListener;
+import org.pentaho.platform.api.engine.PentahoSystemException;
+import org.pentaho.platform.engine.core.messages.Messages;
+import org.pentaho.platform.util.logging.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Starts the system listeners in the order their dependencies allow. A listener that is not an
+ * {@link IConcurrentPentahoSystemListener}, or is one that is not concurrent, starts alone, after the listeners
+ * configured before it and before the ones configured after it, on the calling thread. A concurrent listener starts
+ * once the last such listener configured before it and the listeners it depends on have started, on a pool of
+ * <code>threads</code> threads. If a listener fails, no other listener is started and the failure of the first one is
+ * thrown once the running ones are done.
+ */
+class SystemListenerStartup {
+
+  /**
+   * Starts a single listener.
+   */
+  interface ListenerStarter {
+    void start( IPentahoSystemListener listener ) throws PentahoSystemException;
+  }
+
+  private final List<IPentahoSystemListener> listeners;
+
+  private final int threads;
+
+  private final List<Set<Integer>> dependencies;
+
+  private final Map<String, Long> startupTimes = Collections.synchronizedMap( new HashMap<String, Long>() );
+
+  SystemListenerStartup( final List<IPentahoSystemListener> listeners, final int threads ) {
+    this.listeners = listeners;
+    this.threads = threads;
+    this.dependencies = resolveDependencies( listeners );
+  }
+
+  /**
+   * @return for each listener, the indexes of the listeners that must have started before it
+   */
+  List<Set<Integer>> getDependencies() {
+    return dependencies;
+  }
+
+  private static List<Set<Integer>> resolveDependencies( final List<IPentahoSystemListener> listeners ) {
+    Map<String, List<Integer>> byName = new HashMap<String, List<Integer>>();
+    for ( int i = 0; i < listeners.size(); i++ ) {
+      String name = listeners.get( i ).getClass().getName();
+      if ( !byName.containsKey( name ) ) {
+        byName.put( name, new ArrayList<Integer>() );
+      }
+      byName.get( name ).add( i );
+    }
+
+    List<Set<Integer>> result = new ArrayList<Set<Integer>>();
+    int lastSerial = -1;
+    for ( int i = 0; i < listeners.size(); i++ ) {
+      Set<Integer> deps = new LinkedHashSet<Integer>();
+      IPentahoSystemListener listener = listeners.get( i );
+      if ( isConcurrent( listener ) ) {
+        if ( lastSerial >= 0 ) {
+          deps.add( lastSerial );
+        }
+      } else {
+        for ( int j = 0; j < i; j++ ) {
+          deps.add( j );
+        }
+        lastSerial = i;
+      }
+      if ( listener instanceof IConcurrentPentahoSystemListener ) {
+        List<String> declared = ( (IConcurrentPentahoSystemListener) listener ).getDependencies();
+        if ( declared != null ) {
+          for ( String name : declared ) {
+            List<Integer> indexes = byName.get( name );
+            if ( indexes == null ) {
+              Logger.debug( SystemListenerStartup.class, "System listener " //$NON-NLS-1$
+                  + listener.getClass().getName() + " depends on " + name + ", which is not configured" ); //$NON-NLS-1$ //$NON-NLS-2$
+              continue;
+            }
+            deps.addAll( indexes );
+          }
+        }
+      }
+      deps.remove( i );
+      result.add( deps );
+    }
+    return result;
+  }
+
+  private static boolean isConcurrent( final IPentahoSystemListener listener ) {
+    return listener instanceof IConcurrentPentahoSystemListener
+        && ( (IConcurrentPentahoSystemListener) listener ).isConcurrent();
+  }
+
+  /**
+   * Starts all listeners.
+   *
+   * @throws PentahoSystemException
+   *           if the listeners depend on each other in a cycle, or the first failure of a listener
+   */
+  void start( final ListenerStarter starter ) throws PentahoSystemException {
+    int count = listeners.size();
+    int[] waitingFor = new int[count];
+    List<List<Integer>> dependents = new ArrayList<List<Integer>>();
+    for ( int i = 0; i < count; i++ ) {
+      dependents.add( new ArrayList<Integer>() );
+    }
+    Deque<Integer> ready = new ArrayDeque<Integer>();
+    for ( int i = 0; i < count; i++ ) {
+      waitingFor[i] = dependencies.get( i ).size();
+      for ( Integer dep : dependencies.get( i ) ) {
+        dependents.get( dep ).add( i );
+      }
+      if ( waitingFor[i] == 0 ) {
+        ready.add( i );
+      }
+    }
+    checkForCycles( waitingFor.clone(), dependents, new ArrayDeque<Integer>( ready ) );
+
+    ExecutorService executor = null;
+    CompletionService<Integer> completion = null;
+    int running = 0;
+    PentahoSystemException failure = null;
+    try {
+      while ( true ) {
+        while ( !ready.isEmpty() && failure == null ) {
+          final int index = ready.poll();
+          final IPentahoSystemListener listener = listeners.get( index );
+          if ( !isConcurrent( listener ) || threads <= 1 ) {
+            // nothing else is running when a serial listener is ready
+            try {
+              startListener( starter, listener );
+              release( index, waitingFor, dependents, ready );
+            } catch ( PentahoSystemException e ) {
+              failure = e;
+            }
+            continue;
+          }
+          if ( executor == null ) {
+            executor = Executors.newFixedThreadPool( threads, new ListenerThreadFactory() );
+            completion = new ExecutorCompletionService<Integer>( executor );
+          }
+          completion.submit( new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+              startListener( starter, listener );
+              return index;
+            }
+          } );
+          running++;
+        }
+        if ( running == 0 ) {
+          break;
+        }
+        Future<Integer> done = completion.take();
+        running--;
+        try {
+          release( done.get(), waitingFor, dependents, ready );
+        } catch ( ExecutionException e ) {
+          if ( failure == null ) {
+            failure = e.getCause() instanceof PentahoSystemException
+                ? (PentahoSystemException) e.getCause() : new PentahoSystemException( e.getCause() );
+          }
+        }
+      }
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      failure = new PentahoSystemException( e );
+    } finally {
+      if ( executor != null ) {
+        executor.shutdown();
+      }
+    }
+    if ( failure != null ) {
+      throw failure;
+    }
+  }
+
+  private void startListener( final ListenerStarter starter, final IPentahoSystemListener listener )
+    throws PentahoSystemException {
+    long start = System.currentTimeMillis();
+    try {
+      starter.start( listener );
+    } finally {
+      startupTimes.put( listener.getClass().getName(), System.currentTimeMillis() - start );
+    }
+  }
+
+  private static void release( final int index, final int[] waitingFor, final List<List<Integer>> dependents,
+      final Deque<Integer> ready ) {
+    for ( Integer dependent : dependents.get( index ) ) {
+      if ( --waitingFor[dependent] == 0 ) {
+        ready.add( dependent );
+      }
+    }
+  }
+
+  private void checkForCycles( final int[] waitingFor, final List<List<Integer>> dependents,
+      final Deque<Integer> ready ) throws PentahoSystemException {
+    int started = 0;
+    while ( !ready.isEmpty() ) {
+      started++;
+      release( ready.poll(), waitingFor, dependents, ready );
+    }
+    if ( started < listeners.size() ) {
+      List<String> names = new ArrayList<String>();
+      for ( int i = 0; i < waitingFor.length; i++ ) {
+        if ( waitingFor[i] > 0 ) {
+          names.add( listeners.get( i ).getClass().getName() );
+        }
+      }
+      throw new PentahoSystemException( Messages.getInstance().getErrorString(
+          "PentahoSystem.ERROR_0031_SYSTEM_LISTENER_CYCLE", names.toString() ) ); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * @return the time (in milliseconds) each listener took to start, in the order the listeners are configured
+   */
+  Map<String, Long> getStartupTimes() {
+    Map<String, Long> times = new LinkedHashMap<String, Long>();
+    for ( IPentahoSystemListener listener : listeners ) {
+      String name = listener.getClass().getName();
+      Long time = startupTimes.get( name );
+      if ( time != null ) {
+        times.put( name, time );
+      }
+    }
+    return times;
+  }
+
+  private static class ListenerThreadFactory implements ThreadFactory {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread( final Runnable r ) {
+      Thread thread = new Thread( r, "SystemListenerStartup-" + count.incrementAndGet() ); //$NON-NLS-1$
+      thread.setDaemon( true );
+      return thread;
+    }
+  }
+}
@@ -316,7 +316,12 @@ public class RuntimeObjectFactory implements IPentahoRegistrableObjectFactory {
 
   protected <T> List<IPentahoObjectReference<?>> getReferencesByQuery( Class<T> type,
                                                                        Map<String, String> query ) {
-    Collection<IPentahoObjectReference<?>> iPentahoObjectReferences = registry.get( type );
+    // the views of a synchronized multimap must be iterated holding its mutex; copy the references so that objects
+    // registered by other threads (e.g. plugins loaded in parallel) do not fail the iteration below
+    Collection<IPentahoObjectReference<?>> iPentahoObjectReferences;
+    synchronized ( registry ) {
+      iPentahoObjectReferences = new ArrayList<IPentahoObjectReference<?>>( registry.get( type ) );
+    }
 
     if ( iPentahoObjectReferences.isEmpty() ) {
       return Collections.emptyList();
@@ -100,7 +100,8 @@ public class StandaloneSpringPentahoObjectFactory extends AbstractSpringPentahoO
   }
 
   /**
-   * Factory method guaranteed to return the same instance for a given applicationContext.
+   * Factory method guaranteed to return the same instance for a given applicationContext. Plugin contexts are
+   * refreshed in parallel, so this may be called from several threads.
    *
    * @param applicationContext
    * @return
@@ -109,13 +110,15 @@ public class StandaloneSpringPentahoObjectFactory extends AbstractSpringPentahoO
     if ( applicationContext == null ) {
       throw new IllegalArgumentException( "ApplicationContext cannot be null" );
     }
-    StandaloneSpringPentahoObjectFactory retVal = factoryMap.get( applicationContext );
-    if ( retVal == null ) {
-      retVal = new StandaloneSpringPentahoObjectFactory();
-      retVal.init( null, applicationContext );
-      factoryMap.put( applicationContext, retVal );
+    synchronized ( factoryMap ) {
+      StandaloneSpringPentahoObjectFactory retVal = factoryMap.get( applicationContext );
+      if ( retVal == null ) {
+        retVal = new StandaloneSpringPentahoObjectFactory();
+        retVal.init( null, applicationContext );
+        factoryMap.put( applicationContext, retVal );
+      }
+      return retVal;
     }
-    return retVal;
   }
 
   private static class ThreadLocalScope implements Scope {
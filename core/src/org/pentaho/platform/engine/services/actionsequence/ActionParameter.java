@@ -49,6 +49,9 @@ public class ActionParameter implements IActionParameter {
 
   private boolean isOutputParameter = true;
 
+  // false while the value is shared with the parameter this one was copied from
+  private boolean ownsValue = true;
+
   private static final Log logger = LogFactory.getLog( ActionParameter.class );
 
   // should we force this to String for serialization?
@@ -100,6 +103,23 @@ public class ActionParameter implements IActionParameter {
     }
   }
 
+  /**
+   * Creates a copy of the given parameter for an isolated parameter scope. The copy starts with the value of the
+   * source but never disposes it; only values set on the copy afterwards are disposed by the copy.
+   */
+  public ActionParameter( final ActionParameter source ) {
+    this.name = source.name;
+    this.type = source.type;
+    this.value = source.value;
+    this.variables = source.variables;
+    this.defaultValue = source.defaultValue;
+    this.paramSelections = source.paramSelections;
+    this.promptType = source.promptType;
+    this.saveLocations = ( source.saveLocations == null ) ? null : new ArrayList( source.saveLocations );
+    this.isOutputParameter = source.isOutputParameter;
+    this.ownsValue = false;
+  }
+
   public List getSaveLocations() {
     return ( saveLocations == null ) ? new ArrayList() : saveLocations;
   }
@@ -166,6 +186,7 @@ public class ActionParameter implements IActionParameter {
     if ( this.value != value ) {
       dispose();
       this.value = value;
+      ownsValue = true;
     }
   }
 
@@ -186,7 +207,7 @@ public class ActionParameter implements IActionParameter {
   }
 
   public void dispose() {
-    if ( ( value != null ) && ( value instanceof IDisposable ) ) {
+    if ( ownsValue && ( value != null ) && ( value instanceof IDisposable ) ) {
       ( (IDisposable) value ).dispose();
     }
   }
@@ -18,8 +18,10 @@
 
 package org.pentaho.platform.engine.services.actionsequence;
 
+import org.dom4j.Node;
 import org.pentaho.platform.api.engine.IActionSequence;
 import org.pentaho.platform.api.engine.IConditionalExecution;
+import org.pentaho.platform.api.engine.ILogger;
 import org.pentaho.platform.api.engine.ISequenceDefinition;
 
 import java.util.List;
@@ -36,6 +38,19 @@ public class ActionSequence implements IActionSequence {
 
   private boolean loopUsingPeek;
 
+  private int loopParallelism = 1;
+
+  private boolean loopCollectingErrors;
+
+  // the definition this loop group was parsed from, so independent copies can be created for parallel iterations
+  private Node actionsNode;
+
+  private String solutionPath;
+
+  private ILogger logger;
+
+  private int loggingLevel;
+
   protected ActionSequence( final String loopParameter, final ISequenceDefinition sequenceDefinition,
       final List actionDefinitions, boolean loopUsingPeek ) {
     this.loopParameter = loopParameter;
@@ -128,4 +143,45 @@ public class ActionSequence implements IActionSequence {
     return loopUsingPeek;
   }
 
+  /**
+   * Maximum number of loop iterations to run concurrently, from the {@code parallel} attribute of the
+   * {@code actions} element; {@code 1} (the default) runs the iterations serially.
+   */
+  public int getLoopParallelism() {
+    return loopParallelism;
+  }
+
+  /**
+   * Whether the remaining iterations of a parallel loop keep running after one of them failed ({@code
+   * on-error="collect"}) instead of being skipped.
+   */
+  public boolean isLoopCollectingErrors() {
+    return loopCollectingErrors;
+  }
+
+  void setLoopParallelism( final int loopParallelism, final boolean loopCollectingErrors ) {
+    this.loopParallelism = loopParallelism;
+    this.loopCollectingErrors = loopCollectingErrors;
+  }
+
+  void setSource( final Node actionsNode, final String solutionPath, final ILogger logger, final int loggingLevel ) {
+    this.actionsNode = actionsNode;
+    this.solutionPath = solutionPath;
+    this.logger = logger;
+    this.loggingLevel = loggingLevel;
+  }
+
+  /**
+   * Parses this loop group again, giving action definitions (and so components) that are not shared with this
+   * instance. Used to run loop iterations in parallel.
+   * 
+   * @return a new instance, or {@code null} if this instance was not created by {@link SequenceDefinition}
+   */
+  public ActionSequence newInstance() {
+    if ( actionsNode == null ) {
+      return null;
+    }
+    return SequenceDefinition.getNextLoopGroup( sequenceDefinition, actionsNode, solutionPath, logger, loggingLevel );
+  }
+
 }
@@ -29,6 +29,7 @@ import org.pentaho.platform.api.repository2.unified.UnifiedRepositoryException;
 import org.pentaho.platform.api.repository2.unified.data.simple.SimpleRepositoryFileData;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.util.messages.LocaleHelper;
 import org.pentaho.platform.util.web.HttpUtil;
 
 import java.io.ByteArrayInputStream;
@@ -185,6 +186,36 @@ public class ActionSequenceResource implements org.pentaho.platform.api.engine.I
     return -1L;
   }
 
+  /**
+   * Identifies a resource independent of the action sequence that declares it.
+   */
+  public static String getResourceKey( final IActionSequenceResource resource ) {
+    return resource.getSourceType() + ":" + resource.getAddress(); //$NON-NLS-1$
+  }
+
+  /**
+   * Returns a value that changes whenever the content of the resource changes, which is the last modified date for
+   * files and repository files. URL resources are assumed to not change; inline XML resources carry their content in
+   * their address and have a constant version.
+   */
+  public static long getResourceVersion( final IActionSequenceResource resource ) {
+    try {
+      if ( resource.getSourceType() == IActionSequenceResource.FILE_RESOURCE ) {
+        return new File( resource.getAddress() ).lastModified();
+      }
+      if ( resource.getSourceType() == IActionSequenceResource.SOLUTION_FILE_RESOURCE ) {
+        File file = new File( PentahoSystem.getApplicationContext().getSolutionPath( resource.getAddress() ) );
+        if ( file.exists() ) {
+          return file.lastModified();
+        }
+        return getLastModifiedDate( resource.getAddress(), LocaleHelper.getLocale() );
+      }
+    } catch ( Exception e ) {
+      // an unknown version is still a version
+    }
+    return -1L;
+  }
+
   @SuppressWarnings( { "resource", "deprecation" } )
   public static InputStream getInputStream( String filePath, Locale locale ) {
     InputStream inputStream = null;
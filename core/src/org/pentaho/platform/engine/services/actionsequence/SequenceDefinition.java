@@ -99,11 +99,21 @@ public class SequenceDefinition implements ISequenceDefinition {
     return ( SequenceDefinition.getNextLoopGroup( seqDef, actionNode, solutionPath, logger, loggingLevel ) );
   }
 
-  private static IActionSequence getNextLoopGroup( final ISequenceDefinition seqDef, final Node actionsNode,
+  static ActionSequence getNextLoopGroup( final ISequenceDefinition seqDef, final Node actionsNode,
       final String solutionPath, final ILogger logger, final int loggingLevel ) {
 
     String loopParameterName = XmlDom4JHelper.getNodeText( "@loop-on", actionsNode ); //$NON-NLS-1$
     boolean loopUsingPeek = "true".equalsIgnoreCase( XmlDom4JHelper.getNodeText( "@peek-only", actionsNode ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    String parallel = XmlDom4JHelper.getNodeText( "@parallel", actionsNode ); //$NON-NLS-1$
+    int loopParallelism = 1;
+    if ( parallel != null ) {
+      try {
+        loopParallelism = Math.max( 1, Integer.parseInt( parallel.trim() ) );
+      } catch ( NumberFormatException e ) {
+        logger.warn( Messages.getInstance().getString( "SequenceDefinition.WARN_INVALID_LOOP_PARALLELISM", parallel ) ); //$NON-NLS-1$
+      }
+    }
+    boolean loopCollectingErrors = "collect".equalsIgnoreCase( XmlDom4JHelper.getNodeText( "@on-error", actionsNode ) ); //$NON-NLS-1$ //$NON-NLS-2$
 
     Node actionDefinitionNode;
     ActionDefinition actionDefinition;
@@ -131,6 +141,8 @@ public class SequenceDefinition implements ISequenceDefinition {
     ActionSequence sequence = new ActionSequence( loopParameterName, seqDef, actionDefinitionList, loopUsingPeek );
 
     sequence.setConditionalExecution( conditionalExecution );
+    sequence.setLoopParallelism( loopParallelism, loopCollectingErrors );
+    sequence.setSource( actionsNode, solutionPath, logger, loggingLevel );
     return sequence;
   }
 
@@ -0,0 +1,144 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2014 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.engine.services.actionsequence;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds objects parsed from action sequence resources (report definitions, transformations, ...) so that a resource is
+ * parsed once per version of its source instead of once per execution. The cached objects are prototypes; callers
+ * always receive a copy (see {@link #copy(Object)}) they are free to modify.
+ * <p/>
+ * Entries are validated against the version of their source (see
+ * {@link ActionSequenceResource#getResourceVersion(org.pentaho.platform.api.engine.IActionSequenceResource)}) on every
+ * lookup, so a changed resource is parsed again the next time it is used. At most <code>maxEntries</code> objects are
+ * kept, the least recently used ones are dropped beyond that.
+ */
+public abstract class VersionedPrototypeCache<T> {
+
+  /**
+   * Parses an object on a cache miss.
+   */
+  public interface Loader<T> {
+    T load() throws Exception;
+  }
+
+  private final Map<String, Entry<T>> entries;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  protected VersionedPrototypeCache( final int maxEntries ) {
+    entries = new LinkedHashMap<String, Entry<T>>( 16, 0.75f, true ) {
+      private static final long serialVersionUID = 4364713284367911206L;
+
+      @Override
+      protected boolean removeEldestEntry( final Map.Entry<String, Entry<T>> eldest ) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Returns a private copy of the object stored under the given key, parsing it with the loader if the key is unknown
+   * or was cached for a different version. Objects the loader cannot produce are not cached.
+   *
+   * @param key
+   *          the location of the resource, including anything that influences parsing
+   * @param version
+   *          the version of the resource, compared for equality only
+   * @param loader
+   *          parses the resource
+   * @return a copy of the cached object, or <code>null</code> if the loader returned <code>null</code>
+   */
+  public T get( final String key, final long version, final Loader<? extends T> loader ) throws Exception {
+    Entry<T> entry;
+    synchronized ( entries ) {
+      entry = entries.get( key );
+    }
+    if ( entry != null && entry.version == version ) {
+      hits.incrementAndGet();
+      return copy( entry.prototype );
+    }
+
+    misses.incrementAndGet();
+    // parse outside the lock, an object that is parsed twice concurrently is simply stored twice
+    final T prototype = loader.load();
+    if ( prototype == null ) {
+      return null;
+    }
+    synchronized ( entries ) {
+      entries.put( key, new Entry<T>( version, prototype ) );
+    }
+    return copy( prototype );
+  }
+
+  /**
+   * Returns a copy of a cached object that shares no mutable state with it.
+   */
+  protected abstract T copy( T prototype );
+
+  /**
+   * Drops every cached object whose key starts with the given location.
+   */
+  public void invalidate( final String location ) {
+    synchronized ( entries ) {
+      for ( Iterator<String> it = entries.keySet().iterator(); it.hasNext(); ) {
+        if ( it.next().startsWith( location ) ) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  public void clear() {
+    synchronized ( entries ) {
+      entries.clear();
+    }
+  }
+
+  public int getSize() {
+    synchronized ( entries ) {
+      return entries.size();
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  private static class Entry<T> {
+    private final long version;
+
+    private final T prototype;
+
+    Entry( final long version, final T prototype ) {
+      this.version = version;
+      this.prototype = prototype;
+    }
+  }
+}
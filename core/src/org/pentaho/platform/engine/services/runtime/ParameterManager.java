@@ -32,6 +32,8 @@ import org.pentaho.platform.engine.services.actionsequence.ActionParameterSource
 import org.pentaho.platform.engine.services.messages.Messages;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -89,6 +91,58 @@ public class ParameterManager implements IParameterManager {
     sequenceOutputDefs.putAll( actionSequence.getOutputDefinitions() );
   }
 
+  /**
+   * Creates the parameter scope of one iteration of a parallel loop. It starts with copies of all parameters of this
+   * scope, so values set during the iteration are neither seen by this scope nor by other iterations until they are
+   * merged back with {@link #mergeChildScope(Map)}.
+   */
+  ParameterManager createChildScope() {
+    ParameterManager child = new ParameterManager();
+    for ( Iterator it = allParams.entrySet().iterator(); it.hasNext(); ) {
+      Map.Entry entry = (Map.Entry) it.next();
+      Object param = entry.getValue();
+      child.allParams.put( entry.getKey(), ( param instanceof ActionParameter ) ? new ActionParameter(
+          (ActionParameter) param ) : param );
+    }
+    child.allResources.putAll( allResources );
+    child.sequenceInputNames = sequenceInputNames;
+    child.sequenceResourceNames = sequenceResourceNames;
+    child.sequenceOutputDefs.putAll( sequenceOutputDefs );
+    return child;
+  }
+
+  /**
+   * Returns the named parameters of this scope that exist, so that the outputs of a child scope can be kept without the
+   * scope itself.
+   */
+  Map<String, IActionParameter> getParameters( final Collection<String> names ) {
+    Map<String, IActionParameter> params = new HashMap<String, IActionParameter>();
+    for ( String name : names ) {
+      IActionParameter param = (IActionParameter) allParams.get( name );
+      if ( param != null ) {
+        params.put( name, param );
+      }
+    }
+    return params;
+  }
+
+  /**
+   * Sets the values of parameters of a child scope, taken with {@link #getParameters(Collection)}, in this scope, as if
+   * the child's actions had run here.
+   */
+  void mergeChildScope( final Map<String, IActionParameter> childParams ) {
+    for ( Map.Entry<String, IActionParameter> entry : childParams.entrySet() ) {
+      String name = entry.getKey();
+      IActionParameter childParam = entry.getValue();
+      IActionParameter param = (IActionParameter) allParams.get( name );
+      if ( param == null ) {
+        addToAllInputs( name, childParam );
+      } else if ( param != childParam ) {
+        param.setValue( childParam.getValue() );
+      }
+    }
+  }
+
   public Map getAllParameters() {
     return ( allParams );
   }
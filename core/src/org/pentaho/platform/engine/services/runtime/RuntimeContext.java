@@ -38,12 +38,23 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -97,11 +108,13 @@ import org.pentaho.platform.api.util.XmlParseException;
 import org.pentaho.platform.engine.core.audit.AuditHelper;
 import org.pentaho.platform.engine.core.audit.MessageTypes;
 import org.pentaho.platform.engine.core.output.MultiContentItem;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.services.PentahoMessenger;
 import org.pentaho.platform.engine.services.SolutionURIResolver;
 import org.pentaho.platform.engine.services.actionsequence.ActionParameter;
 import org.pentaho.platform.engine.services.actionsequence.ActionParameterSource;
+import org.pentaho.platform.engine.services.actionsequence.ActionSequence;
 import org.pentaho.platform.engine.services.actionsequence.ActionSequenceParameterMgr;
 import org.pentaho.platform.engine.services.actionsequence.ActionSequenceResourceWrapper;
 import org.pentaho.platform.engine.services.messages.Messages;
@@ -112,6 +125,8 @@ import org.pentaho.platform.util.messages.LocaleHelper;
 import org.pentaho.platform.util.xml.XForm;
 import org.pentaho.platform.util.xml.XmlHelper;
 import org.pentaho.platform.util.xml.dom4j.XmlDom4JHelper;
+import org.springframework.security.context.SecurityContext;
+import org.springframework.security.context.SecurityContextHolder;
 
 /**
  * @author James Dixon
@@ -193,10 +208,20 @@ public class RuntimeContext extends PentahoMessenger implements IRuntimeContext
 
   private static final Log logger = LogFactory.getLog( RuntimeContext.class );
 
+  // threads shared by the parallel loops of all action sequences
+  private static final int LOOP_THREADS =
+      Integer.getInteger( RuntimeContext.class.getName() + ".loopThreads", //$NON-NLS-1$
+          Math.max( 2, Runtime.getRuntime().availableProcessors() ) );
+
+  private static ThreadPoolExecutor loopExecutor;
+
   private ICreateFeedbackParameterCallback createFeedbackParameterCallback;
 
   private IPluginManager pluginManager;
 
+  // actions completed by an iteration of a parallel loop; only set on iteration contexts
+  private List<ISolutionActionDefinition> completedActions;
+
   static {
     RuntimeContext.getComponentClassMap();
   }
@@ -891,7 +916,10 @@ public class RuntimeContext extends PentahoMessenger implements IRuntimeContext
 
     }
 
-    if ( loopList instanceof List ) {
+    if ( ( loopParm != null ) && ( getLoopParallelism( sequence ) > 1 )
+        && ( ( loopList instanceof List ) || ( ( loopList instanceof IPentahoResultSet ) && !peekOnly ) ) ) {
+      executeParallelLoop( loopParm, loopList, (ActionSequence) sequence, doneListener, execListener, async );
+    } else if ( loopList instanceof List ) {
       executeLoop( loopParm, (List) loopList, sequence, doneListener, execListener, async );
       if ( loopParm != null ) {
         addInputParameter( loopParm.getName(), loopParm ); // replace the loop param in case the last loop muggled
@@ -940,24 +968,7 @@ public class RuntimeContext extends PentahoMessenger implements IRuntimeContext
         for ( int columnNo = 0; columnNo < headers.length; columnNo++ ) {
           String name = headers[columnNo].toString();
           Object value = row[columnNo];
-          String type = null;
-          if ( value instanceof String ) {
-            type = IActionParameter.TYPE_STRING;
-          } else if ( value instanceof Date ) {
-            type = IActionParameter.TYPE_DATE;
-          } else if ( ( value instanceof Long ) || ( value instanceof Integer ) ) {
-            type = IActionParameter.TYPE_INTEGER;
-          } else if ( ( value instanceof BigDecimal ) || ( value instanceof Double ) || ( value instanceof Float ) ) {
-            type = IActionParameter.TYPE_DECIMAL;
-          } else if ( value instanceof String[] ) {
-            type = IActionParameter.TYPE_STRING;
-          } else if ( value == null ) {
-            warn( Messages.getInstance().getString( "RuntimeContext.WARN_VARIABLE_IN_LOOP_IS_NULL", name ) ); //$NON-NLS-1$
-          } else {
-            type = IActionParameter.TYPE_OBJECT;
-            warn( Messages.getInstance().getString(
-                "RuntimeContext.WARN_VARIABLE_IN_LOOP_NOT_RECOGNIZED", name, value.getClass().toString() ) ); //$NON-NLS-1$
-          }
+          String type = getLoopValueType( name, value );
           // TODO make sure any previous loop values are removed
           ap = paramManager.getInput( name );
           if ( ap == null ) {
@@ -1022,6 +1033,334 @@ public class RuntimeContext extends PentahoMessenger implements IRuntimeContext
     status = IRuntimeContext.RUNTIME_STATUS_SUCCESS;
   }
 
+  private String getLoopValueType( final String name, final Object value ) {
+    String type = null;
+    if ( value instanceof String ) {
+      type = IActionParameter.TYPE_STRING;
+    } else if ( value instanceof Date ) {
+      type = IActionParameter.TYPE_DATE;
+    } else if ( ( value instanceof Long ) || ( value instanceof Integer ) ) {
+      type = IActionParameter.TYPE_INTEGER;
+    } else if ( ( value instanceof BigDecimal ) || ( value instanceof Double ) || ( value instanceof Float ) ) {
+      type = IActionParameter.TYPE_DECIMAL;
+    } else if ( value instanceof String[] ) {
+      type = IActionParameter.TYPE_STRING;
+    } else if ( value == null ) {
+      warn( Messages.getInstance().getString( "RuntimeContext.WARN_VARIABLE_IN_LOOP_IS_NULL", name ) ); //$NON-NLS-1$
+    } else {
+      type = IActionParameter.TYPE_OBJECT;
+      warn( Messages.getInstance().getString(
+          "RuntimeContext.WARN_VARIABLE_IN_LOOP_NOT_RECOGNIZED", name, value.getClass().toString() ) ); //$NON-NLS-1$
+    }
+    return type;
+  }
+
+  private static int getLoopParallelism( final IActionSequence sequence ) {
+    return ( sequence instanceof ActionSequence ) ? ( (ActionSequence) sequence ).getLoopParallelism() : 1;
+  }
+
+  /**
+   * Returns the loop parameters of each iteration: the list element, or the columns of the result set row.
+   */
+  private List<Map<String, IActionParameter>> getLoopIterationInputs( final IActionParameter loopParm,
+      final Object loopList ) {
+    List<Map<String, IActionParameter>> iterations = new ArrayList<Map<String, IActionParameter>>();
+    if ( loopList instanceof List ) {
+      for ( Object loopVar : (List) loopList ) {
+        Map<String, IActionParameter> inputs = new LinkedHashMap<String, IActionParameter>();
+        String type = ( loopVar instanceof Map ) ? "property-map" : "string"; //$NON-NLS-1$ //$NON-NLS-2$
+        inputs.put( loopParm.getName(), new ActionParameter( loopParm.getName(), type, loopVar, null, null ) );
+        iterations.add( inputs );
+      }
+    } else {
+      IPentahoResultSet loopSet = (IPentahoResultSet) loopList;
+      if ( loopSet.isScrollable() ) {
+        loopSet.beforeFirst();
+      }
+      Object[] headers = loopSet.getMetaData().getColumnHeaders()[0];
+      for ( Object[] row = loopSet.next(); row != null; row = loopSet.next() ) {
+        Map<String, IActionParameter> inputs = new LinkedHashMap<String, IActionParameter>();
+        for ( int columnNo = 0; columnNo < headers.length; columnNo++ ) {
+          String name = headers[columnNo].toString();
+          Object value = row[columnNo];
+          inputs.put( name, new ActionParameter( name, getLoopValueType( name, value ), value, null, null ) );
+        }
+        iterations.add( inputs );
+      }
+    }
+    return iterations;
+  }
+
+  /**
+   * Runs the iterations of a loop declared with {@code parallel="n"} on up to n threads. Each iteration runs in its
+   * own runtime context, with its own components and a copy of the current parameters, so iterations cannot see each
+   * other's values; the context is created when the iteration starts and only its outputs, messages and completed
+   * actions are kept once it is done. Once all iterations are done these outputs, messages and listener callbacks
+   * (including {@link IExecutionListener#loop(IRuntimeContext, long)}) are applied to this context in iteration order,
+   * which leaves the same parameter values and callback order as a serial loop.
+   * <p/>
+   * The threads come from a pool shared by all loops, of at most
+   * <code>org.pentaho.platform.engine.services.runtime.RuntimeContext.loopThreads</code> threads (the number of
+   * processors by default), so n is an upper bound; threads that have been idle for a minute are released. A parallel
+   * loop inside an iteration of another one runs its iterations on the thread of that iteration.
+   * <p/>
+   * By default the first failure stops iterations that have not started yet and nothing after the failed iteration
+   * is applied. With {@code on-error="collect"} all iterations run, the successful ones are applied and the first
+   * failure is rethrown after the others have been logged. Iterations cannot prompt for parameters.
+   */
+  private void executeParallelLoop( final IActionParameter loopParm, final Object loopList,
+      final ActionSequence sequence, final IActionCompleteListener doneListener, final IExecutionListener execListener,
+      final boolean async ) throws ActionSequenceException {
+    final List<Map<String, IActionParameter>> iterations = getLoopIterationInputs( loopParm, loopList );
+    final boolean collectErrors = sequence.isLoopCollectingErrors();
+    final AtomicBoolean failed = new AtomicBoolean( false );
+    final AtomicInteger nextIteration = new AtomicInteger();
+    // the result of each iteration: its outputs, messages and completed actions, or what it failed with
+    final Object[] outcomes = new Object[iterations.size()];
+    final Set<String> outputNames = new HashSet<String>();
+    collectOutputNames( sequence, outputNames );
+
+    // takes the next iteration that has not started, until there are none left or one has failed
+    class LoopWorker implements Runnable {
+      public void run() {
+        for ( int loopCount = nextIteration.getAndIncrement(); loopCount < outcomes.length; loopCount =
+            nextIteration.getAndIncrement() ) {
+          if ( !collectErrors && failed.get() ) {
+            return;
+          }
+          // each iteration has its own context and copy of the loop group, dropped once its outputs are taken
+          RuntimeContext iteration = createLoopIterationContext( loopCount );
+          IActionSequence loopGroup;
+          synchronized ( sequence ) {
+            // parsing shares the action sequence document
+            loopGroup = sequence.newInstance();
+          }
+          if ( RuntimeContext.debug ) {
+            // the messages of the iteration are added to those of this context after the loop
+            iteration.debug( Messages.getInstance().getString(
+                "RuntimeContext.DEBUG_EXECUTING_ACTION", Integer.toString( loopCount ) ) ); //$NON-NLS-1$
+          }
+          try {
+            iteration.executeLoopIteration( loopGroup, iterations.get( loopCount ), async );
+            Set<String> names = new HashSet<String>( outputNames );
+            names.addAll( iterations.get( loopCount ).keySet() );
+            if ( loopList instanceof List ) {
+              // like the serial loop, keep the list rather than its last element
+              names.remove( loopParm.getName() );
+            }
+            outcomes[loopCount] =
+                new LoopIterationResult( ( (ParameterManager) iteration.paramManager ).getParameters( names ),
+                    iteration.getMessages(), iteration.completedActions );
+          } catch ( ActionSequenceException e ) {
+            e.setLoopIndex( loopCount );
+            outcomes[loopCount] = e;
+            failed.set( true );
+          } catch ( RuntimeException e ) {
+            outcomes[loopCount] = e;
+            failed.set( true );
+          }
+        }
+      }
+    }
+
+    int threads = Math.max( 1, Math.min( sequence.getLoopParallelism(), iterations.size() ) );
+    if ( Thread.currentThread() instanceof LoopThread ) {
+      // waiting for threads of the shared pool from one of them could wait forever
+      new LoopWorker().run();
+    } else {
+      final IPentahoSession pentahoSession = PentahoSessionHolder.getSession();
+      final SecurityContext securityContext = SecurityContextHolder.getContext();
+      final Locale locale = LocaleHelper.getLocale();
+      List<Future<?>> workers = new ArrayList<Future<?>>( threads );
+      try {
+        for ( int i = 0; i < threads; i++ ) {
+          workers.add( getLoopExecutor().submit( new Runnable() {
+            public void run() {
+              PentahoSessionHolder.setSession( pentahoSession );
+              SecurityContextHolder.setContext( securityContext );
+              LocaleHelper.setLocale( locale );
+              try {
+                new LoopWorker().run();
+              } finally {
+                PentahoSessionHolder.removeSession();
+                SecurityContextHolder.clearContext();
+                LocaleHelper.setLocale( null );
+              }
+            }
+          } ) );
+        }
+        // wait for all iterations before applying anything: they share the values of this context
+        for ( Future<?> worker : workers ) {
+          worker.get();
+        }
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+        failed.set( true );
+        for ( Future<?> worker : workers ) {
+          worker.cancel( true );
+        }
+        status = IRuntimeContext.RUNTIME_STATUS_FAILURE;
+        throw new ActionExecutionException( Messages.getInstance().getErrorString(
+            "RuntimeContext.ERROR_0037_PARALLEL_LOOP_INTERRUPTED" ), e, //$NON-NLS-1$
+            session.getName(), instanceId, getActionSequence().getSequenceName(), null );
+      } catch ( ExecutionException e ) {
+        // the workers keep the exceptions of the iterations, so this can only be an Error
+        failed.set( true );
+        status = IRuntimeContext.RUNTIME_STATUS_FAILURE;
+        throw (Error) e.getCause();
+      }
+    }
+
+    ActionSequenceException firstFailure = null;
+    for ( int loopCount = 0; loopCount < outcomes.length; loopCount++ ) {
+      Object outcome = outcomes[loopCount];
+      if ( ( outcome != null ) && ( execListener != null ) ) {
+        execListener.loop( this, loopCount );
+      }
+      if ( outcome instanceof LoopIterationResult ) {
+        LoopIterationResult iteration = (LoopIterationResult) outcome;
+        ( (ParameterManager) paramManager ).mergeChildScope( iteration.outputs );
+        if ( ( getMessages() != null ) && ( iteration.messages != null ) ) {
+          getMessages().addAll( iteration.messages );
+        }
+        for ( ISolutionActionDefinition action : iteration.completedActions ) {
+          if ( doneListener != null ) {
+            doneListener.actionComplete( this );
+          }
+          if ( execListener != null ) {
+            execListener.action( this, action );
+          }
+        }
+      } else if ( outcome instanceof Throwable ) {
+        ActionSequenceException failure;
+        if ( outcome instanceof ActionSequenceException ) {
+          failure = (ActionSequenceException) outcome;
+        } else {
+          failure = new ActionExecutionException( Messages.getInstance().getErrorString(
+              "RuntimeContext.ERROR_0036_PARALLEL_LOOP_ITERATION_FAILED", Integer.toString( loopCount ) ), //$NON-NLS-1$
+              (Throwable) outcome, session.getName(), instanceId, getActionSequence().getSequenceName(), null );
+          failure.setLoopIndex( loopCount );
+        }
+        if ( firstFailure == null ) {
+          firstFailure = failure;
+        } else {
+          error( Messages.getInstance().getErrorString(
+              "RuntimeContext.ERROR_0036_PARALLEL_LOOP_ITERATION_FAILED", Integer.toString( loopCount ) ), failure ); //$NON-NLS-1$
+        }
+        if ( !collectErrors ) {
+          break;
+        }
+      }
+      // null: skipped after an earlier failure
+    }
+
+    if ( firstFailure != null ) {
+      currentComponent = ""; //$NON-NLS-1$
+      status = IRuntimeContext.RUNTIME_STATUS_FAILURE;
+      throw firstFailure;
+    }
+    status = IRuntimeContext.RUNTIME_STATUS_SUCCESS;
+  }
+
+  private RuntimeContext createLoopIterationContext( final int loopCount ) {
+    RuntimeContext iteration =
+        new RuntimeContext( instanceId, solutionEngine, null, runtimeData, session, outputHandler, processId,
+            urlFactory, parameterProviders, new ArrayList(), createFeedbackParameterCallback );
+    iteration.actionSequence = actionSequence;
+    iteration.paramManager = ( (ParameterManager) paramManager ).createChildScope();
+    iteration.logId = logId + "loop[" + loopCount + "] "; //$NON-NLS-1$ //$NON-NLS-2$
+    iteration.audit = audit;
+    iteration.parameterXsl = parameterXsl;
+    iteration.setLoggingLevel( loggingLevel );
+    iteration.completedActions = new ArrayList<ISolutionActionDefinition>();
+    return iteration;
+  }
+
+  private static synchronized ThreadPoolExecutor getLoopExecutor() {
+    if ( loopExecutor == null ) {
+      loopExecutor =
+          new ThreadPoolExecutor( LOOP_THREADS, LOOP_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+              new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread( final Runnable r ) {
+                  return new LoopThread( r, "action-sequence-loop-" + count.incrementAndGet() ); //$NON-NLS-1$
+                }
+              } );
+      loopExecutor.allowCoreThreadTimeOut( true );
+    }
+    return loopExecutor;
+  }
+
+  /**
+   * What is left of a successful iteration of a parallel loop once its context has been dropped.
+   */
+  private static class LoopIterationResult {
+    final Map<String, IActionParameter> outputs;
+
+    final List messages;
+
+    final List<ISolutionActionDefinition> completedActions;
+
+    LoopIterationResult( final Map<String, IActionParameter> outputs, final List messages,
+        final List<ISolutionActionDefinition> completedActions ) {
+      this.outputs = outputs;
+      this.messages = messages;
+      this.completedActions = completedActions;
+    }
+  }
+
+  /**
+   * A thread of the pool that runs the iterations of parallel loops.
+   */
+  private static class LoopThread extends Thread {
+    LoopThread( final Runnable r, final String name ) {
+      super( r, name );
+      setDaemon( true );
+    }
+  }
+
+  /**
+   * Runs one iteration of a parallel loop in this (iteration) context; see
+   * {@link #executeParallelLoop(IActionParameter, Object, ActionSequence, IActionCompleteListener, IExecutionListener, boolean)}.
+   */
+  private void executeLoopIteration( final IActionSequence loopGroup, final Map<String, IActionParameter> inputs,
+      final boolean async ) throws ActionSequenceException {
+    status = IRuntimeContext.RUNTIME_STATUS_RUNNING;
+    validateComponents( loopGroup, null );
+    for ( Map.Entry<String, IActionParameter> input : inputs.entrySet() ) {
+      addInputParameter( input.getKey(), input.getValue() );
+    }
+    // actions are recorded and reported to the listeners of the parent context in iteration order
+    performActions( loopGroup, null, new IExecutionListener() {
+      public void loaded( final IRuntimeContext runtime ) {
+      }
+
+      public void validated( final IRuntimeContext runtime ) {
+      }
+
+      public void action( final IRuntimeContext runtime, final ISolutionActionDefinition action ) {
+        completedActions.add( action );
+      }
+
+      public void loop( final IRuntimeContext runtime, final long count ) {
+      }
+    }, async );
+  }
+
+  private static void collectOutputNames( final IActionSequence sequence, final Set<String> outputNames ) {
+    for ( Object listItem : sequence.getActionDefinitionsAndSequences() ) {
+      if ( listItem instanceof IActionSequence ) {
+        collectOutputNames( (IActionSequence) listItem, outputNames );
+      } else if ( listItem instanceof ISolutionActionDefinition ) {
+        ISolutionActionDefinition actionDef = (ISolutionActionDefinition) listItem;
+        for ( Object outputName : actionDef.getActionOutputDefinitions().keySet() ) {
+          outputNames.add( actionDef.getMappedOutputName( (String) outputName ) );
+        }
+      }
+    }
+  }
+
   private void performActions( final IActionSequence sequence, final IActionCompleteListener doneListener,
       final IExecutionListener execListener, final boolean async ) throws ActionSequenceException {
     IConditionalExecution conditional = sequence.getConditionalExecution();
@@ -18,6 +18,8 @@
 
 package org.pentaho.platform.engine.services.runtime;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.pentaho.commons.connection.IPentahoMetaData;
@@ -70,6 +72,24 @@ public class TemplateUtil {
 
   private static final Log logger = LogFactory.getLog( TemplateUtil.class );
 
+  private static final int TEMPLATE_CACHE_SIZE = Integer.getInteger(
+      "org.pentaho.platform.engine.services.runtime.TemplateUtil.cacheSize", 1000 ); //$NON-NLS-1$
+
+  // builders larger than this are not kept for the next call of the thread
+  private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+  private static final Cache<TemplateKey, CompiledTemplate> compiledTemplates = CacheBuilder.newBuilder()
+      .maximumSize( TEMPLATE_CACHE_SIZE ).build();
+
+  private static final Cache<String, Pattern> parameterPatterns = CacheBuilder.newBuilder().maximumSize( 100 ).build();
+
+  private static final ThreadLocal<StringBuilder> renderBuffers = new ThreadLocal<StringBuilder>() {
+    @Override
+    protected StringBuilder initialValue() {
+      return new StringBuilder( 256 );
+    }
+  };
+
   static {
     TemplateUtil.SystemInputs.add( "$user" ); //$NON-NLS-1$
     TemplateUtil.SystemInputs.add( "$url" ); //$NON-NLS-1$
@@ -106,7 +126,11 @@ public class TemplateUtil {
 
   public static String applyTemplate( final String template, final IRuntimeContext context,
       final String parameterPatternStr ) {
-    Pattern pattern = Pattern.compile( parameterPatternStr );
+    Pattern pattern = parameterPatterns.getIfPresent( parameterPatternStr );
+    if ( pattern == null ) {
+      pattern = Pattern.compile( parameterPatternStr );
+      parameterPatterns.put( parameterPatternStr, pattern );
+    }
     return TemplateUtil.applyTemplate( template, new InputProperties( context ), pattern, null );
   }
 
@@ -135,81 +159,47 @@ public class TemplateUtil {
    */
   public static String applyTemplate( final String template, final Properties inputs, final Pattern parameterPattern,
       final IParameterResolver resolver ) {
-    StringBuffer results = new StringBuffer();
-    Matcher parameterMatcher = parameterPattern.matcher( template );
-    int copyStart = 0;
+    TemplateKey key = new TemplateKey( parameterPattern, template );
+    CompiledTemplate compiledTemplate = compiledTemplates.getIfPresent( key );
+    if ( compiledTemplate == null ) {
+      // compiling twice on a race is harmless, the results are equal
+      compiledTemplate = TemplateUtil.compileTemplate( template, parameterPattern );
+      compiledTemplates.put( key, compiledTemplate );
+    }
+    return compiledTemplate.render( inputs, resolver );
+  }
 
+  /**
+   * Finds the parameters of a template; see {@link CompiledTemplate}.
+   */
+  static CompiledTemplate compileTemplate( final String template, final Pattern parameterPattern ) {
+    List<TemplateParameter> parameters = new ArrayList<TemplateParameter>();
+    Matcher parameterMatcher = parameterPattern.matcher( template );
     while ( parameterMatcher.find() ) {
-      int start = parameterMatcher.start();
-      String parameter = parameterMatcher.group( 1 );
-      String value = null;
-      int colonPosition = parameter.indexOf( ':' );
-      boolean hasSpaces = parameter.indexOf( ' ' ) != -1;
-      boolean isTableTemplate = !hasSpaces && parameter.indexOf( ":col:" ) != -1; //$NON-NLS-1$
-      boolean isComponentResoved = !hasSpaces && colonPosition != -1;
-      boolean isNamedParameter = !hasSpaces;
-      boolean isDateParamter = hasSpaces;
-      if ( isTableTemplate ) {
-        TemplateUtil.applyTableTemplate( template, inputs, parameterPattern, results );
-        return results.toString();
-      }
-      if ( isComponentResoved ) {
-        // Allow alternate parameter resolution to be provided by the
-        // component.
-        if ( resolver != null ) {
-          int newCopyStart = resolver.resolveParameter( template, parameter, parameterMatcher, copyStart, results );
-          if ( newCopyStart >= 0 ) {
-            copyStart = newCopyStart;
-            continue;
-          }
-        }
-        StringTokenizer tokenizer = new StringTokenizer( parameter, ":" ); //$NON-NLS-1$
-        if ( tokenizer.countTokens() >= 5 ) {
-          // this looks like a data table key
-          parameter = tokenizer.nextToken();
-          String keyColumn = tokenizer.nextToken();
-          String keyValue = tokenizer.nextToken();
-          String valueColumn = tokenizer.nextToken();
-          StringBuffer defaultValue = new StringBuffer();
-          defaultValue.append( tokenizer.nextToken() );
-          while ( tokenizer.hasMoreTokens() ) {
-            defaultValue.append( ':' ).append( tokenizer.nextToken() );
-          }
-          // see if we can find this in the data
-          if ( inputs instanceof InputProperties ) {
-            value =
-                ( (InputProperties) inputs ).getProperty( parameter, keyColumn, keyValue, valueColumn, defaultValue
-                    .toString() );
-          }
-        }
-      } else if ( isNamedParameter ) {
-        // TODO support type conversion
-        value = inputs.getProperty( parameter );
-        if ( value == null ) {
-          if ( TemplateUtil.logger.isDebugEnabled() ) {
-            TemplateUtil.logger.debug( Messages.getInstance().getString( "TemplateUtil.NOT_FOUND", parameter ) ); //$NON-NLS-1$
-          }
-        }
-      }
-
-      results.append( template.substring( copyStart, start ) );
-      copyStart = parameterMatcher.end();
-      if ( isDateParamter || value == null ) {
-        value = TemplateUtil.matchDateRegex( parameter, inputs );
-      }
-
-      if ( value == null ) {
-        results.append( parameterMatcher.group() );
-      } else {
-        results.append( value );
-      }
+      parameters.add( new TemplateParameter( parameterMatcher.start(), parameterMatcher.end(), parameterMatcher
+          .group( 1 ), parameterMatcher.group() ) );
     }
+    return new CompiledTemplate( template, parameterPattern, parameters
+        .toArray( new TemplateParameter[parameters.size()] ) );
+  }
 
-    if ( copyStart < template.length() ) {
-      results.append( template.substring( copyStart ) );
+  private static StringBuilder acquireRenderBuffer() {
+    StringBuilder buffer = renderBuffers.get();
+    if ( buffer == null ) {
+      // a resolver is applying a template while this thread renders one
+      return new StringBuilder( 256 );
     }
+    renderBuffers.set( null );
+    buffer.setLength( 0 );
+    return buffer;
+  }
 
-    return results.toString();
+  private static void releaseRenderBuffer( final StringBuilder buffer ) {
+    if ( buffer.capacity() <= MAX_RETAINED_BUFFER_SIZE ) {
+      renderBuffers.set( buffer );
+    } else {
+      renderBuffers.remove();
+    }
   }
 
   public static void applyTableTemplate( final String template, final Properties inputs,
@@ -433,6 +423,267 @@ public class TemplateUtil {
 
   }
 
+  /**
+   * A template whose parameters have been located and classified, so that applying it only has to look up the
+   * parameter values. Rendering gives the same result as scanning the template with the parameter pattern each
+   * time.
+   */
+  static final class CompiledTemplate {
+    private final String template;
+
+    private final Pattern parameterPattern;
+
+    private final TemplateParameter[] parameters;
+
+    CompiledTemplate( final String template, final Pattern parameterPattern, final TemplateParameter[] parameters ) {
+      this.template = template;
+      this.parameterPattern = parameterPattern;
+      this.parameters = parameters;
+    }
+
+    String render( final Properties inputs, final IParameterResolver resolver ) {
+      if ( parameters.length == 0 ) {
+        return template;
+      }
+      StringBuilder results = TemplateUtil.acquireRenderBuffer();
+      try {
+        Matcher parameterMatcher = null;
+        int copyStart = 0;
+        for ( TemplateParameter parameter : parameters ) {
+          if ( parameter.isTableTemplate ) {
+            StringBuffer tableResults = new StringBuffer();
+            TemplateUtil.applyTableTemplate( template, inputs, parameterPattern, tableResults );
+            return results.append( tableResults ).toString();
+          }
+          String value = null;
+          if ( parameter.isComponentResolved ) {
+            // Allow alternate parameter resolution to be provided by the
+            // component.
+            if ( resolver != null ) {
+              if ( parameterMatcher == null ) {
+                parameterMatcher = parameterPattern.matcher( template );
+              }
+              // resolvers expect the matcher to be positioned on the parameter
+              parameterMatcher.find( parameter.start );
+              StringBuffer resolved = new StringBuffer();
+              int newCopyStart =
+                  resolver.resolveParameter( template, parameter.parameter, parameterMatcher, copyStart, resolved );
+              results.append( resolved );
+              if ( newCopyStart >= 0 ) {
+                copyStart = newCopyStart;
+                continue;
+              }
+            }
+            if ( ( parameter.dataTableKey != null ) && ( inputs instanceof InputProperties ) ) {
+              String[] key = parameter.dataTableKey;
+              value = ( (InputProperties) inputs ).getProperty( key[0], key[1], key[2], key[3], key[4] );
+            }
+          } else if ( parameter.isNamedParameter ) {
+            // TODO support type conversion
+            value = inputs.getProperty( parameter.parameter );
+            if ( value == null ) {
+              if ( TemplateUtil.logger.isDebugEnabled() ) {
+                TemplateUtil.logger.debug( Messages.getInstance().getString(
+                    "TemplateUtil.NOT_FOUND", parameter.parameter ) ); //$NON-NLS-1$
+              }
+            }
+          }
+
+          results.append( template, copyStart, parameter.start );
+          copyStart = parameter.end;
+          if ( ( parameter.isDateParameter || value == null ) && ( parameter.dateExpression != null ) ) {
+            value = parameter.dateExpression.evaluate( inputs );
+          }
+
+          if ( value == null ) {
+            results.append( parameter.text );
+          } else {
+            results.append( value );
+          }
+        }
+
+        if ( copyStart < template.length() ) {
+          results.append( template, copyStart, template.length() );
+        }
+        return results.toString();
+      } finally {
+        TemplateUtil.releaseRenderBuffer( results );
+      }
+    }
+  }
+
+  /**
+   * A parameter found in a template, with the decisions of {@link TemplateUtil#applyTemplate(String, Properties,
+   * Pattern, IParameterResolver)} that only depend on its text made in advance.
+   */
+  static final class TemplateParameter {
+    final int start;
+
+    final int end;
+
+    // the name or expression between the brackets
+    final String parameter;
+
+    // the parameter including the brackets, kept in the result when it can not be resolved
+    final String text;
+
+    final boolean isTableTemplate;
+
+    final boolean isComponentResolved;
+
+    final boolean isNamedParameter;
+
+    final boolean isDateParameter;
+
+    // parameter, key column, key value, value column and default value of a data table lookup, or null
+    final String[] dataTableKey;
+
+    // null if the parameter can never be a date expression
+    final DateExpression dateExpression;
+
+    TemplateParameter( final int start, final int end, final String parameter, final String text ) {
+      this.start = start;
+      this.end = end;
+      this.parameter = parameter;
+      this.text = text;
+      boolean hasSpaces = parameter.indexOf( ' ' ) != -1;
+      isTableTemplate = !hasSpaces && parameter.indexOf( ":col:" ) != -1; //$NON-NLS-1$
+      isComponentResolved = !hasSpaces && parameter.indexOf( ':' ) != -1;
+      isNamedParameter = !hasSpaces;
+      isDateParameter = hasSpaces;
+
+      String dateParameter = parameter;
+      String[] key = null;
+      if ( isComponentResolved ) {
+        StringTokenizer tokenizer = new StringTokenizer( parameter, ":" ); //$NON-NLS-1$
+        if ( tokenizer.countTokens() >= 5 ) {
+          // this looks like a data table key
+          key = new String[5];
+          for ( int i = 0; i < 4; i++ ) {
+            key[i] = tokenizer.nextToken();
+          }
+          StringBuilder defaultValue = new StringBuilder( tokenizer.nextToken() );
+          while ( tokenizer.hasMoreTokens() ) {
+            defaultValue.append( ':' ).append( tokenizer.nextToken() );
+          }
+          key[4] = defaultValue.toString();
+          dateParameter = key[0];
+        }
+      }
+      dataTableKey = key;
+      dateExpression = DateExpression.compile( dateParameter );
+    }
+  }
+
+  /**
+   * The forms of date expression recognized by {@link TemplateUtil#matchDateRegex(String, Properties)}, matched
+   * once. The date itself is calculated each time the expression is evaluated.
+   */
+  static final class DateExpression {
+    // an expression with a format, for DateMath
+    private String expression;
+
+    // the expression quoted in DATEMATH('...')
+    private DateExpression quotedExpression;
+
+    // the input named by DATEMATH:name
+    private String variable;
+
+    // a date in yyyy-MM-dd format
+    private String date;
+
+    static DateExpression compile( String parameter ) {
+      DateExpression dateExpression = new DateExpression();
+      boolean matched = false;
+      if ( TemplateUtil.dateExpressionPattern.matcher( parameter ).matches() ) {
+        // default to yyyy-MM-dd format for date strings
+        dateExpression.expression = ( parameter.indexOf( ';' ) != -1 ) ? parameter : parameter + ";yyyy-MM-dd"; //$NON-NLS-1$
+        matched = true;
+      }
+      if ( TemplateUtil.dateMathExpressionPattern.matcher( parameter ).matches() ) {
+        // remove the 'DATEMATH' part, look for the first single or double quote
+        int pos = parameter.indexOf( '\'' );
+        if ( pos == -1 ) {
+          pos = parameter.indexOf( '"' );
+        }
+        if ( pos != -1 ) {
+          parameter = parameter.substring( pos + 1 );
+          // now look for the last one
+          pos = parameter.lastIndexOf( '\'' );
+          if ( pos == -1 ) {
+            pos = parameter.lastIndexOf( '"' );
+          }
+          if ( pos != -1 ) {
+            parameter = parameter.substring( 0, pos );
+            dateExpression.quotedExpression = DateExpression.compile( parameter );
+            matched = true;
+          }
+        }
+      }
+      if ( TemplateUtil.dateMathVarPattern.matcher( parameter ).matches() ) {
+        dateExpression.variable = parameter.substring( parameter.indexOf( ':' ) + 1 );
+        matched = true;
+      }
+      if ( TemplateUtil.datePattern.matcher( parameter ).matches() ) {
+        dateExpression.date = parameter;
+        matched = true;
+      }
+      return matched ? dateExpression : null;
+    }
+
+    String evaluate( final Properties inputs ) {
+      String value = null;
+      if ( expression != null ) {
+        value = DateMath.calculateDateString( null, expression );
+      }
+      if ( ( value == null ) && ( quotedExpression != null ) ) {
+        value = quotedExpression.evaluate( inputs );
+      }
+      if ( ( value == null ) && ( variable != null ) && ( inputs != null ) ) {
+        String variableValue = inputs.getProperty( variable );
+        if ( variableValue != null ) {
+          value = TemplateUtil.matchDateRegex( variableValue, inputs );
+        }
+      }
+      if ( value == null ) {
+        value = date;
+      }
+      return value;
+    }
+  }
+
+  private static final class TemplateKey {
+    private final String pattern;
+
+    private final int flags;
+
+    private final String template;
+
+    private final int hashCode;
+
+    TemplateKey( final Pattern parameterPattern, final String template ) {
+      this.pattern = parameterPattern.pattern();
+      this.flags = parameterPattern.flags();
+      this.template = template;
+      this.hashCode = ( 31 * pattern.hashCode() + flags ) * 31 + template.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals( final Object obj ) {
+      if ( !( obj instanceof TemplateKey ) ) {
+        return false;
+      }
+      TemplateKey other = (TemplateKey) obj;
+      return ( hashCode == other.hashCode ) && ( flags == other.flags ) && pattern.equals( other.pattern )
+          && template.equals( other.template );
+    }
+  }
+
   /**
    * Acts as a facade for a {@link IRuntimeContext} to access the input values as from a
    * {@link java.util.Properties Properties}. The class only overrides the {@link #getProperty(String)} method, as
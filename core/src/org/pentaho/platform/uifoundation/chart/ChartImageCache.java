@@ -0,0 +1,284 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2013 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.uifoundation.chart;
+
+import org.apache.commons.codec.binary.Hex;
+import org.jfree.chart.ChartRenderingInfo;
+import org.jfree.chart.entity.EntityCollection;
+import org.jfree.data.general.Dataset;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.util.messages.LocaleHelper;
+
+import java.awt.image.BufferedImage;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps rendered chart images, so that a chart that is shown to many users (the same chart on a shared dashboard) is
+ * drawn and encoded once. Images are keyed on a hash of the chart definition including its data, the title, the
+ * size and the output type, and are held outside of the heap in direct buffers together with the rendering info that
+ * image maps are built from.
+ * <p/>
+ * The cache holds at most <code>org.pentaho.platform.uifoundation.chart.ChartImageCache.maxBytes</code> bytes of
+ * images (32MB by default) and drops the least recently used ones beyond that; 0 disables it.
+ */
+public class ChartImageCache {
+
+  private static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+  private static final ChartImageCache instance = new ChartImageCache( Long.getLong(
+      ChartImageCache.class.getName() + ".maxBytes", DEFAULT_MAX_BYTES ) ); //$NON-NLS-1$
+
+  private final long maxBytes;
+
+  private final LinkedHashMap<String, CachedChart> charts = new LinkedHashMap<String, CachedChart>( 16, 0.75f, true );
+
+  private long bytes;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong renders = new AtomicLong();
+
+  private final AtomicLong renderNanos = new AtomicLong();
+
+  public static ChartImageCache getInstance() {
+    return instance;
+  }
+
+  ChartImageCache( final long maxBytes ) {
+    this.maxBytes = maxBytes;
+  }
+
+  public boolean isEnabled() {
+    return maxBytes > 0;
+  }
+
+  /**
+   * Returns the key of a chart, or <code>null</code> if the chart cannot be cached because its definition holds
+   * values that cannot be hashed.
+   */
+  public static String getKey( final Dataset dataset, final String title, final String units, final int width,
+      final int height, final int outputType ) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance( "SHA-1" ); //$NON-NLS-1$
+      OutputStream digestStream = new DigestOutputStream( new NullOutputStream(), digest );
+      DataOutputStream parameters = new DataOutputStream( digestStream );
+      parameters.writeUTF( String.valueOf( title ) );
+      parameters.writeUTF( String.valueOf( units ) );
+      parameters.writeInt( width );
+      parameters.writeInt( height );
+      parameters.writeInt( outputType );
+      parameters.writeUTF( LocaleHelper.getLocale().toString() );
+      parameters.flush();
+      ObjectOutputStream definition = new KeyOutputStream( digestStream );
+      definition.writeObject( dataset );
+      definition.flush();
+      return new String( Hex.encodeHex( digest.digest() ) );
+    } catch ( Exception e ) {
+      // not serializable, such a chart is rendered every time
+      return null;
+    }
+  }
+
+  public CachedChart get( final String key ) {
+    CachedChart chart;
+    synchronized ( charts ) {
+      chart = charts.get( key );
+    }
+    if ( chart != null ) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+    return chart;
+  }
+
+  /**
+   * Stores a rendered chart. The rendering info is copied, the caller may go on to modify its entities.
+   */
+  public void put( final String key, final byte[] image, final ChartRenderingInfo info ) {
+    if ( image.length > maxBytes ) {
+      return;
+    }
+    CachedChart chart;
+    try {
+      chart = new CachedChart( image, info == null ? null : (ChartRenderingInfo) info.clone() );
+    } catch ( CloneNotSupportedException e ) {
+      return;
+    }
+    synchronized ( charts ) {
+      CachedChart previous = charts.put( key, chart );
+      if ( previous != null ) {
+        bytes -= previous.getLength();
+      }
+      bytes += chart.getLength();
+      for ( Iterator<CachedChart> it = charts.values().iterator(); bytes > maxBytes && it.hasNext(); ) {
+        bytes -= it.next().getLength();
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Records the time spent drawing and encoding a chart that was not cached.
+   */
+  public void recordRender( final long nanos ) {
+    renders.incrementAndGet();
+    renderNanos.addAndGet( nanos );
+  }
+
+  public void clear() {
+    synchronized ( charts ) {
+      charts.clear();
+      bytes = 0;
+    }
+  }
+
+  public int getSize() {
+    synchronized ( charts ) {
+      return charts.size();
+    }
+  }
+
+  public long getBytes() {
+    synchronized ( charts ) {
+      return bytes;
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public double getHitRate() {
+    long lookups = hits.get() + misses.get();
+    return lookups == 0 ? 0 : (double) hits.get() / lookups;
+  }
+
+  public long getRenders() {
+    return renders.get();
+  }
+
+  public long getRenderMillis() {
+    return renderNanos.get() / 1000000L;
+  }
+
+  /**
+   * A rendered chart image.
+   */
+  public static class CachedChart {
+    private final ByteBuffer image;
+
+    private final ChartRenderingInfo info;
+
+    CachedChart( final byte[] image, final ChartRenderingInfo info ) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect( image.length );
+      buffer.put( image );
+      buffer.flip();
+      this.image = buffer.asReadOnlyBuffer();
+      this.info = info;
+    }
+
+    public int getLength() {
+      return image.limit();
+    }
+
+    public void writeTo( final File file ) throws IOException {
+      FileOutputStream out = new FileOutputStream( file );
+      try {
+        FileChannel channel = out.getChannel();
+        ByteBuffer source = image.duplicate();
+        while ( source.hasRemaining() ) {
+          channel.write( source );
+        }
+      } finally {
+        out.close();
+      }
+    }
+
+    /**
+     * Fills the given rendering info with the chart area and entities of the rendered chart.
+     */
+    public void copyInfoTo( final ChartRenderingInfo target ) throws CloneNotSupportedException {
+      if ( info == null || target == null ) {
+        return;
+      }
+      ChartRenderingInfo copy = (ChartRenderingInfo) info.clone();
+      target.setChartArea( copy.getChartArea() );
+      target.getPlotInfo().setPlotArea( copy.getPlotInfo().getPlotArea() );
+      target.getPlotInfo().setDataArea( copy.getPlotInfo().getDataArea() );
+      EntityCollection entities = target.getEntityCollection();
+      if ( entities != null && copy.getEntityCollection() != null ) {
+        entities.addAll( copy.getEntityCollection() );
+      }
+    }
+  }
+
+  /**
+   * Serializes a chart definition for hashing. The session a definition was built for does not change the image, and
+   * images are hashed by their pixels.
+   */
+  private static class KeyOutputStream extends ObjectOutputStream {
+    KeyOutputStream( final OutputStream out ) throws IOException {
+      super( out );
+      enableReplaceObject( true );
+    }
+
+    @Override
+    protected Object replaceObject( final Object obj ) throws IOException {
+      if ( obj instanceof IPentahoSession ) {
+        return IPentahoSession.class.getName();
+      }
+      if ( obj instanceof BufferedImage ) {
+        BufferedImage image = (BufferedImage) obj;
+        int[] pixels = image.getRGB( 0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth() );
+        return image.getWidth() + "x" + image.getHeight() + ":" + Arrays.hashCode( pixels ); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+      return obj;
+    }
+  }
+
+  private static class NullOutputStream extends OutputStream {
+    @Override
+    public void write( final int b ) {
+    }
+
+    @Override
+    public void write( final byte[] b, final int off, final int len ) {
+    }
+  }
+}
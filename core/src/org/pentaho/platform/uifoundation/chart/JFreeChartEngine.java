@@ -104,10 +104,12 @@ import java.awt.Stroke;
 import java.awt.TexturePaint;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
@@ -1098,24 +1100,23 @@ public class JFreeChartEngine {
   }
 
   /**
-   * Create a PNG image file from a JFreeChart object
+   * Encode a JFreeChart object as a PNG image
    * 
    * @param chart
    *          The chart object to create an image from
-   * @param path
-   *          The path and name of the image file to create
    * @param width
    *          The width of the image in pixels
    * @param height
    *          The height of the image in pixels
    * @param writer
    *          A writer for the iamge map to be written to
+   * @return the PNG image
    * @throws IOException
    */
-  private static void saveChartAsPNG( final JFreeChart chart, final String path, final int width, final int height,
+  private static byte[] renderChartAsPNG( final JFreeChart chart, final int width, final int height,
       final PrintWriter writer, final ChartRenderingInfo info ) throws IOException {
-    File file = new File( path + ".png" ); //$NON-NLS-1$
-    ChartUtilities.saveChartAsPNG( file, chart, width, height, info );
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ChartUtilities.writeChartAsPNG( out, chart, width, height, info );
 
     // TODO support tool tip generators
 
@@ -1125,22 +1126,22 @@ public class JFreeChartEngine {
     if ( writer != null ) {
       ChartUtilities.writeImageMap( writer, "map-name", info, true ); //$NON-NLS-1$
     }
+    return out.toByteArray();
   }
 
   /**
-   * Create an SVG image file from a JFreeChart object
+   * Encode a JFreeChart object as an SVG image
    * 
    * @param chart
    *          The chart object to create an image from
-   * @param path
-   *          The path and name of the image file to create
    * @param width
    *          The width of the image in pixels
    * @param height
    *          The height of the image in pixels
+   * @return the SVG document
    * @throws IOException
    */
-  private static void saveChartAsSVG( final JFreeChart chart, final String path, final int width, final int height,
+  private static byte[] renderChartAsSVG( final JFreeChart chart, final int width, final int height,
       final ChartRenderingInfo info ) throws IOException {
     // THE FOLLOWING CODE BASED ON THE EXAMPLE IN THE BATIK DOCUMENTATION...
     // Get a DOMImplementation
@@ -1153,12 +1154,14 @@ public class JFreeChartEngine {
     svgGenerator.getGeneratorContext().setPrecision( 6 );
     // Ask the chart to render into the SVG Graphics2D implementation
     chart.draw( svgGenerator, new Rectangle2D.Double( 0, 0, width, height ), info );
-    // Finally, stream out SVG to a file using UTF-8 character to byte
+    // Finally, stream out SVG using UTF-8 character to byte
     // encoding
     boolean useCSS = true;
-    Writer out =
-        new OutputStreamWriter( new FileOutputStream( new File( path + ".svg" ) ), LocaleHelper.getSystemEncoding() ); //$NON-NLS-1$
-    svgGenerator.stream( out, useCSS );
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Writer writer = new OutputStreamWriter( out, LocaleHelper.getSystemEncoding() );
+    svgGenerator.stream( writer, useCSS );
+    writer.flush();
+    return out.toByteArray();
   }
 
   /**
@@ -1166,8 +1169,6 @@ public class JFreeChartEngine {
    * 
    * @param chart
    *          The chart object to create an image from
-   * @param path
-   *          The path and name of the image file to create
    * @param width
    *          The width of the image in pixels
    * @param height
@@ -1175,16 +1176,22 @@ public class JFreeChartEngine {
    * @param outputType
    *          The type of the image to create, OUPUT_PNG or OUTPUT_SVG
    * @param writer
+   * @return the image, or <code>null</code> for other output types
    * @throws IOException
    */
-  private static void saveChart( final JFreeChart chart, final String path, final int width, final int height,
+  private static byte[] renderChart( final JFreeChart chart, final int width, final int height,
       final int outputType, final PrintWriter writer, final ChartRenderingInfo info ) throws IOException {
     if ( outputType == JFreeChartEngine.OUTPUT_PNG ) {
-      JFreeChartEngine.saveChartAsPNG( chart, path, width, height, writer, info );
+      return JFreeChartEngine.renderChartAsPNG( chart, width, height, writer, info );
     } else if ( outputType == JFreeChartEngine.OUTPUT_SVG ) {
-      JFreeChartEngine.saveChartAsSVG( chart, path, width, height, info );
+      return JFreeChartEngine.renderChartAsSVG( chart, width, height, info );
     }
     // TODO support other image types, e.g. JPG, GIF
+    return null;
+  }
+
+  private static String getImageExtension( final int outputType ) {
+    return outputType == JFreeChartEngine.OUTPUT_SVG ? ".svg" : ".png"; //$NON-NLS-1$ //$NON-NLS-2$
   }
 
   /**
@@ -1243,11 +1250,47 @@ public class JFreeChartEngine {
       final int width, final int height, final int outputType, final PrintWriter writer, final ChartRenderingInfo info,
       final ILogger logger ) {
 
-    JFreeChart chart = JFreeChartEngine.getChart( dataset, title, units, width, height, logger );
+    ChartImageCache cache = ChartImageCache.getInstance();
+    String key = null;
+    if ( cache.isEnabled()
+        && ( outputType == JFreeChartEngine.OUTPUT_PNG || outputType == JFreeChartEngine.OUTPUT_SVG ) ) {
+      key = ChartImageCache.getKey( dataset, title, units, width, height, outputType );
+    }
 
     try {
       String filePath = PentahoSystem.getApplicationContext().getFileOutputPath( fileName );
-      JFreeChartEngine.saveChart( chart, filePath, width, height, outputType, writer, info );
+      File file = new File( filePath + JFreeChartEngine.getImageExtension( outputType ) );
+
+      // an identical chart was drawn before, reuse its image and image map
+      ChartImageCache.CachedChart cached = ( key == null ) ? null : cache.get( key );
+      if ( cached != null ) {
+        try {
+          cached.copyInfoTo( info );
+          cached.writeTo( file );
+          if ( ( outputType == JFreeChartEngine.OUTPUT_PNG ) && ( writer != null ) ) {
+            ChartUtilities.writeImageMap( writer, "map-name", info, true ); //$NON-NLS-1$
+          }
+          return;
+        } catch ( CloneNotSupportedException e ) {
+          // render it instead
+        }
+      }
+
+      long start = System.nanoTime();
+      JFreeChart chart = JFreeChartEngine.getChart( dataset, title, units, width, height, logger );
+      byte[] image = JFreeChartEngine.renderChart( chart, width, height, outputType, writer, info );
+      if ( image != null ) {
+        cache.recordRender( System.nanoTime() - start );
+        OutputStream out = new FileOutputStream( file );
+        try {
+          out.write( image );
+        } finally {
+          out.close();
+        }
+        if ( key != null ) {
+          cache.put( key, image, info );
+        }
+      }
     } catch ( IOException e ) {
       logger.error( Messages.getInstance().getString( "ChartEngine.ERROR_0001_COULD_NOT_CREATE_CHART" ), e ); //$NON-NLS-1$
     }
@@ -26,10 +26,12 @@ import org.pentaho.platform.util.logging.Logger;
 import org.pentaho.platform.util.messages.LocaleHelper;
 import org.pentaho.platform.util.messages.Messages;
 
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.URIResolver;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
@@ -38,6 +40,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
@@ -333,10 +336,46 @@ public class XmlHelper {
    * @throws TransformerException
    *           If attempt to transform the document fails.
    */
-  @SuppressWarnings( { "unchecked" } )
   public static final StringBuffer transformXml( final String xslName, final String xslPath,
       final InputStream docInStrm, Map params, final IDocumentResourceLoader loader ) throws TransformerException {
-    StringBuffer result = null;
+    StringWriter writer = new StringWriter();
+    if ( XmlHelper.transform( xslName, xslPath, docInStrm, params, loader, new StreamResult( writer ) ) ) {
+      return writer.getBuffer();
+    }
+    return null;
+  }
+
+  /**
+   * Use the transform specified by xslPath and xslName and transform the document specified by docInStrm, writing
+   * the resulting document straight to out instead of collecting it in memory.
+   * 
+   * @param xslName
+   *          String containing the name of a file in the repository containing the xsl transform
+   * @param xslPath
+   *          String containing the path to the file identifyied by <code>xslName</code>
+   * @param docInStrm
+   *          InputStream containing the document to be transformed
+   * @param params
+   *          Map of properties to set on the transform
+   * @param loader
+   *          IDocumentResourceLoader to load the xsl and to resolve URI's in the output document.
+   * @param out
+   *          OutputStream receiving the transformed document, e.g. the response stream
+   * 
+   * @return false if the xsl or the document could not be found, nothing was written then.
+   * @throws TransformerException
+   *           If attempt to transform the document fails.
+   */
+  public static final boolean transformXml( final String xslName, final String xslPath,
+      final InputStream docInStrm, final Map params, final IDocumentResourceLoader loader, final OutputStream out )
+    throws TransformerException {
+    return XmlHelper.transform( xslName, xslPath, docInStrm, params, loader, new StreamResult( out ) );
+  }
+
+  @SuppressWarnings( { "unchecked" } )
+  private static boolean transform( final String xslName, final String xslPath, final InputStream docInStrm,
+      Map params, final IDocumentResourceLoader loader, final Result output ) throws TransformerException {
+    boolean result = false;
 
     InputStream xslInStrm = XmlHelper.getLocalizedXsl( xslPath, xslName, loader );
     if ( null == xslInStrm ) {
@@ -356,7 +395,8 @@ public class XmlHelper {
       params.put( "output-encoding", LocaleHelper.getSystemEncoding() ); //$NON-NLS-1$
 
       try {
-        result = XmlHelper.transformXml( xslInStrm, docInStrm, params, loader );
+        XmlHelper.transformXml( new StreamSource( xslInStrm ), new StreamSource( docInStrm ), params, loader, output );
+        result = true;
       } catch ( TransformerException e ) {
         Logger.error( XmlHelper.class.getName(), Messages.getInstance().getErrorString(
             "XmlHelper.ERROR_0006_TRANSFORM_XML_ERROR", e.getMessage(), xslName ), e ); //$NON-NLS-1$
@@ -417,16 +457,41 @@ public class XmlHelper {
   protected static final StringBuffer transformXml( final StreamSource xslSrc, final StreamSource docSrc,
       final Map params, final URIResolver resolver ) throws TransformerConfigurationException, TransformerException {
 
-    StringBuffer sb = null;
     StringWriter writer = new StringWriter();
+    XmlHelper.transformXml( xslSrc, docSrc, params, resolver, new StreamResult( writer ) );
+    return writer.getBuffer();
+  }
 
-    TransformerFactory tf = TransformerFactory.newInstance();
+  /**
+   * Use the transform specified by xslSrc and transform the document specified by docSrc, writing the resulting
+   * document to result. The compiled transform is kept in the {@link XslTemplatesCache}.
+   * 
+   * @param xslSrc
+   *          StreamSrc containing the xsl transform
+   * @param docSrc
+   *          Source containing the document to be transformed
+   * @param params
+   *          Map of properties to set on the transform
+   * @param resolver
+   *          URIResolver instance to resolve URI's in the output document.
+   * @param result
+   *          Result receiving the transformed document
+   * 
+   * @throws TransformerConfigurationException
+   *           if the TransformerFactory fails to create a Transformer.
+   * @throws TransformerException
+   *           if actual transform fails.
+   */
+  public static final void transformXml( final StreamSource xslSrc, final Source docSrc, final Map params,
+      final URIResolver resolver, final Result result ) throws TransformerConfigurationException,
+    TransformerException {
+
+    Templates templates = XslTemplatesCache.getInstance().getTemplates( xslSrc, resolver ); // can throw
+    // TransformerConfigurationException
+    Transformer t = templates.newTransformer();
     if ( null != resolver ) {
-      tf.setURIResolver( resolver );
+      t.setURIResolver( resolver );
     }
-    // TODO need to look into compiling the XSLs...
-    Transformer t = tf.newTransformer( xslSrc ); // can throw
-    // TransformerConfigurationException
     // Start the transformation
     if ( params != null ) {
       Set keys = params.keySet();
@@ -440,11 +505,8 @@ public class XmlHelper {
         }
       }
     }
-    t.transform( docSrc, new StreamResult( writer ) ); // can throw
+    t.transform( docSrc, result ); // can throw
     // TransformerException
-    sb = writer.getBuffer();
-
-    return sb;
   }
 
   /**
@@ -0,0 +1,157 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.util.xml;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.IOUtils;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps compiled XSL stylesheets, so that a stylesheet used on every page view is parsed and compiled once. The
+ * compiled {@link Templates} are thread-safe; each transform gets its own <code>Transformer</code> from them.
+ * <p/>
+ * Stylesheets are keyed on a digest of their content (and the class of the resolver that resolved their includes),
+ * so an edited stylesheet is compiled again the next time it is loaded. Edits to a stylesheet that is only included
+ * by another one are not noticed until the cache is cleared. At most
+ * <code>org.pentaho.platform.util.xml.XslTemplatesCache.maxEntries</code> stylesheets (100 by default) are kept, the
+ * least recently used ones are dropped beyond that.
+ */
+public class XslTemplatesCache {
+
+  private static final int DEFAULT_MAX_ENTRIES = 100;
+
+  private static final XslTemplatesCache instance = new XslTemplatesCache( Integer.getInteger(
+      XslTemplatesCache.class.getName() + ".maxEntries", DEFAULT_MAX_ENTRIES ) ); //$NON-NLS-1$
+
+  private final Map<String, Templates> templates;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  public static XslTemplatesCache getInstance() {
+    return instance;
+  }
+
+  XslTemplatesCache( final int maxEntries ) {
+    templates = new LinkedHashMap<String, Templates>( 16, 0.75f, true ) {
+      private static final long serialVersionUID = 6817532034215734071L;
+
+      @Override
+      protected boolean removeEldestEntry( final Map.Entry<String, Templates> eldest ) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Returns the compiled form of a stylesheet. The stream or reader of the source is read to its end, but not closed.
+   *
+   * @param xslSrc
+   *          the stylesheet
+   * @param resolver
+   *          resolves the includes and imports of the stylesheet, may be <code>null</code>
+   * @throws TransformerConfigurationException
+   *           if the stylesheet cannot be read or compiled
+   */
+  public Templates getTemplates( final StreamSource xslSrc, final URIResolver resolver )
+    throws TransformerConfigurationException {
+    StreamSource source;
+    String key;
+    try {
+      MessageDigest digest = MessageDigest.getInstance( "SHA-1" ); //$NON-NLS-1$
+      if ( xslSrc.getInputStream() != null ) {
+        byte[] content = IOUtils.toByteArray( xslSrc.getInputStream() );
+        digest.update( content );
+        source = new StreamSource( new ByteArrayInputStream( content ), xslSrc.getSystemId() );
+      } else if ( xslSrc.getReader() != null ) {
+        String content = IOUtils.toString( xslSrc.getReader() );
+        digest.update( content.getBytes( "UTF-8" ) ); //$NON-NLS-1$
+        source = new StreamSource( new StringReader( content ), xslSrc.getSystemId() );
+      } else {
+        // only a location, whose content could change unnoticed
+        misses.incrementAndGet();
+        return newTemplates( xslSrc, resolver );
+      }
+      key = new String( Hex.encodeHex( digest.digest() ) ) + ":" //$NON-NLS-1$
+          + ( resolver == null ? "" : resolver.getClass().getName() ) + ":" //$NON-NLS-1$ //$NON-NLS-2$
+          + xslSrc.getSystemId();
+    } catch ( IOException e ) {
+      throw new TransformerConfigurationException( e );
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new TransformerConfigurationException( e );
+    }
+
+    Templates compiled;
+    synchronized ( templates ) {
+      compiled = templates.get( key );
+    }
+    if ( compiled != null ) {
+      hits.incrementAndGet();
+      return compiled;
+    }
+    misses.incrementAndGet();
+    compiled = newTemplates( source, resolver );
+    synchronized ( templates ) {
+      templates.put( key, compiled );
+    }
+    return compiled;
+  }
+
+  private static Templates newTemplates( final StreamSource xslSrc, final URIResolver resolver )
+    throws TransformerConfigurationException {
+    TransformerFactory tf = TransformerFactory.newInstance();
+    if ( null != resolver ) {
+      tf.setURIResolver( resolver );
+    }
+    return tf.newTemplates( xslSrc );
+  }
+
+  public void clear() {
+    synchronized ( templates ) {
+      templates.clear();
+    }
+  }
+
+  public int getSize() {
+    synchronized ( templates ) {
+      return templates.size();
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+}
@@ -28,6 +28,7 @@ import org.dom4j.io.SAXReader;
 import org.dom4j.io.XMLWriter;
 import org.pentaho.platform.api.util.XmlParseException;
 import org.pentaho.platform.util.messages.Messages;
+import org.pentaho.platform.util.xml.XmlHelper;
 import org.xml.sax.EntityResolver;
 
 import javax.xml.transform.Source;
@@ -46,9 +47,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.StringWriter;
-import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
 
 // TODO sbarkdull, exernalize strings, comment methods
 
@@ -173,34 +172,9 @@ public class XmlDom4JHelper {
   protected static final StringBuffer transformXml( final StreamSource xslSrc, final StreamSource docSrc,
       final Map params, final URIResolver resolver ) throws TransformerConfigurationException, TransformerException {
 
-    StringBuffer sb = null;
     StringWriter writer = new StringWriter();
-
-    TransformerFactory tf = TransformerFactory.newInstance();
-    if ( null != resolver ) {
-      tf.setURIResolver( resolver );
-    }
-    // TODO need to look into compiling the XSLs...
-    Transformer t = tf.newTransformer( xslSrc ); // can throw
-    // TransformerConfigurationException
-    // Start the transformation
-    if ( params != null ) {
-      Set<?> keys = params.keySet();
-      Iterator<?> it = keys.iterator();
-      String key, val;
-      while ( it.hasNext() ) {
-        key = (String) it.next();
-        val = (String) params.get( key );
-        if ( val != null ) {
-          t.setParameter( key, val );
-        }
-      }
-    }
-    t.transform( docSrc, new StreamResult( writer ) ); // can throw
-    // TransformerException
-    sb = writer.getBuffer();
-
-    return sb;
+    XmlHelper.transformXml( xslSrc, docSrc, params, resolver, new StreamResult( writer ) );
+    return writer.getBuffer();
   }
 
   /**
@@ -0,0 +1,185 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2015 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.engine.core.system;
+
+import org.junit.Test;
+import org.pentaho.platform.api.engine.IConcurrentPentahoSystemListener;
+import org.pentaho.platform.api.engine.IPentahoSession;
+import org.pentaho.platform.api.engine.IPentahoSystemListener;
+import org.pentaho.platform.api.engine.PentahoSystemException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SystemListenerStartupTest {
+
+  private final List<String> started = Collections.synchronizedList( new ArrayList<String>() );
+
+  @Test
+  public void testSerialListenersStartInOrderOnCallerThread() throws Exception {
+    final Thread caller = Thread.currentThread();
+    SystemListenerStartup startup = new SystemListenerStartup(
+        Arrays.<IPentahoSystemListener>asList( new SerialA(), new SerialB() ), 4 );
+    startup.start( new SystemListenerStartup.ListenerStarter() {
+      @Override
+      public void start( IPentahoSystemListener listener ) throws PentahoSystemException {
+        assertEquals( caller, Thread.currentThread() );
+        started.add( listener.getClass().getSimpleName() );
+      }
+    } );
+    assertEquals( Arrays.asList( "SerialA", "SerialB" ), started );
+    assertEquals( Arrays.asList( SerialA.class.getName(), SerialB.class.getName() ),
+        new ArrayList<String>( startup.getStartupTimes().keySet() ) );
+  }
+
+  @Test
+  public void testConcurrentListenersStartTogether() throws Exception {
+    final CountDownLatch bothStarted = new CountDownLatch( 2 );
+    SystemListenerStartup startup = new SystemListenerStartup( Arrays.<IPentahoSystemListener>asList(
+        new SerialA(), new ConcurrentA(), new ConcurrentB(), new SerialB() ), 2 );
+    startup.start( new SystemListenerStartup.ListenerStarter() {
+      @Override
+      public void start( IPentahoSystemListener listener ) throws PentahoSystemException {
+        if ( listener instanceof IConcurrentPentahoSystemListener ) {
+          bothStarted.countDown();
+          try {
+            if ( !bothStarted.await( 10, TimeUnit.SECONDS ) ) {
+              throw new PentahoSystemException( "not started at the same time" ); //$NON-NLS-1$
+            }
+          } catch ( InterruptedException e ) {
+            throw new PentahoSystemException( e );
+          }
+        }
+        started.add( listener.getClass().getSimpleName() );
+      }
+    } );
+    assertEquals( 4, started.size() );
+    assertEquals( "SerialA", started.get( 0 ) );
+    assertEquals( "SerialB", started.get( 3 ) );
+  }
+
+  @Test
+  public void testDeclaredDependenciesStartFirst() throws Exception {
+    SystemListenerStartup startup = new SystemListenerStartup( Arrays.<IPentahoSystemListener>asList(
+        new ConcurrentB( ConcurrentA.class.getName(), "org.example.NotConfigured" ), new ConcurrentA() ), 4 );
+    assertEquals( Collections.singleton( 1 ), startup.getDependencies().get( 0 ) );
+    startup.start( new SystemListenerStartup.ListenerStarter() {
+      @Override
+      public void start( IPentahoSystemListener listener ) throws PentahoSystemException {
+        if ( listener instanceof ConcurrentA ) {
+          try {
+            Thread.sleep( 50 );
+          } catch ( InterruptedException e ) {
+            throw new PentahoSystemException( e );
+          }
+        }
+        started.add( listener.getClass().getSimpleName() );
+      }
+    } );
+    assertEquals( Arrays.asList( "ConcurrentA", "ConcurrentB" ), started );
+  }
+
+  @Test
+  public void testCycleIsRejected() throws Exception {
+    SystemListenerStartup startup = new SystemListenerStartup( Arrays.<IPentahoSystemListener>asList(
+        new ConcurrentA( ConcurrentB.class.getName() ), new ConcurrentB( ConcurrentA.class.getName() ) ), 4 );
+    try {
+      startup.start( new SystemListenerStartup.ListenerStarter() {
+        @Override
+        public void start( IPentahoSystemListener listener ) throws PentahoSystemException {
+          started.add( listener.getClass().getSimpleName() );
+        }
+      } );
+      fail( "cycle not detected" ); //$NON-NLS-1$
+    } catch ( PentahoSystemException e ) {
+      assertTrue( started.isEmpty() );
+    }
+  }
+
+  @Test
+  public void testFailureStopsStartup() throws Exception {
+    final PentahoSystemException failure = new PentahoSystemException( "failed" ); //$NON-NLS-1$
+    SystemListenerStartup startup = new SystemListenerStartup( Arrays.<IPentahoSystemListener>asList(
+        new ConcurrentA(), new ConcurrentB( ConcurrentA.class.getName() ), new SerialA() ), 4 );
+    try {
+      startup.start( new SystemListenerStartup.ListenerStarter() {
+        @Override
+        public void start( IPentahoSystemListener listener ) throws PentahoSystemException {
+          if ( listener instanceof ConcurrentA ) {
+            throw failure;
+          }
+          started.add( listener.getClass().getSimpleName() );
+        }
+      } );
+      fail( "failure not reported" ); //$NON-NLS-1$
+    } catch ( PentahoSystemException e ) {
+      assertEquals( failure, e );
+    }
+    assertTrue( started.isEmpty() );
+    assertTrue( startup.getStartupTimes().containsKey( ConcurrentA.class.getName() ) );
+    assertFalse( startup.getStartupTimes().containsKey( SerialA.class.getName() ) );
+  }
+
+  private static class SerialA implements IPentahoSystemListener {
+    @Override
+    public boolean startup( IPentahoSession session ) {
+      return true;
+    }
+
+    @Override
+    public void shutdown() {
+    }
+  }
+
+  private static class SerialB extends SerialA {
+  }
+
+  private static class ConcurrentA extends SerialA implements IConcurrentPentahoSystemListener {
+    private final List<String> dependencies;
+
+    ConcurrentA( String... dependencies ) {
+      this.dependencies = Arrays.asList( dependencies );
+    }
+
+    @Override
+    public List<String> getDependencies() {
+      return dependencies;
+    }
+
+    @Override
+    public boolean isConcurrent() {
+      return true;
+    }
+  }
+
+  private static class ConcurrentB extends ConcurrentA {
+    ConcurrentB( String... dependencies ) {
+      super( dependencies );
+    }
+  }
+}
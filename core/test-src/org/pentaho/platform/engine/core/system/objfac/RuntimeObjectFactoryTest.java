@@ -13,8 +13,13 @@ import org.pentaho.platform.engine.core.system.StandaloneSession;
 import org.pentaho.platform.engine.core.system.objfac.references.PrototypePentahoObjectReference;
 import org.pentaho.platform.engine.core.system.objfac.references.SingletonPentahoObjectReference;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.*;
 
@@ -358,4 +363,43 @@ public class RuntimeObjectFactoryTest {
     handle.remove();
     assertNull( PentahoSystem.get( String.class ) );
   }
+
+  @Test
+  public void testConcurrentRegistrationAndLookup() throws Exception {
+    final RuntimeObjectFactory factory = new RuntimeObjectFactory();
+    final int count = 2000;
+    ExecutorService executor = Executors.newFixedThreadPool( 4 );
+    try {
+      List<Future<?>> futures = new ArrayList<Future<?>>();
+      for ( int t = 0; t < 2; t++ ) {
+        final int offset = t * count;
+        futures.add( executor.submit( new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for ( int i = 0; i < count; i++ ) {
+              factory.registerReference( new SingletonPentahoObjectReference<Integer>( Integer.class, offset + i ),
+                  Integer.class );
+            }
+            return null;
+          }
+        } ) );
+        // lookups iterate the references while the other threads add to them
+        futures.add( executor.submit( new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for ( int i = 0; i < count; i++ ) {
+              factory.getReferencesByQuery( Integer.class, Collections.singletonMap( "id", "none" ) );
+            }
+            return null;
+          }
+        } ) );
+      }
+      for ( Future<?> future : futures ) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals( 2 * count, factory.getReferencesByQuery( Integer.class, null ).size() );
+  }
 }
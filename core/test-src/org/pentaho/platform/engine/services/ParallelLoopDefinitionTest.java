@@ -0,0 +1,97 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2014 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.engine.services;
+
+import java.util.List;
+
+import org.dom4j.Document;
+import org.pentaho.platform.api.engine.IActionSequence;
+import org.pentaho.platform.api.util.XmlParseException;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.services.actionsequence.ActionSequence;
+import org.pentaho.platform.engine.services.actionsequence.SequenceDefinition;
+import org.pentaho.platform.util.xml.dom4j.XmlDom4JHelper;
+import org.pentaho.test.platform.engine.core.BaseTest;
+
+@SuppressWarnings( { "all" } )
+public class ParallelLoopDefinitionTest extends BaseTest {
+  private static final String SOLUTION_PATH = "test-res/solution";
+
+  public String getSolutionPath() {
+    return SOLUTION_PATH;
+  }
+
+  private static String getXAction( final String loopAttributes ) {
+    return "<action-sequence>" //$NON-NLS-1$
+        + "<name>parallel.xaction</name><title>Parallel loop</title><version>1</version>" //$NON-NLS-1$
+        + "<inputs><regions type=\"string-list\"/></inputs><outputs/><resources/>" //$NON-NLS-1$
+        + "<actions><actions loop-on=\"regions\" " + loopAttributes + ">" //$NON-NLS-1$ //$NON-NLS-2$
+        + "<action-definition><action-name>Report</action-name><component-name>TestComponent</component-name>" //$NON-NLS-1$
+        + "<action-inputs><regions type=\"string\"/></action-inputs>" //$NON-NLS-1$
+        + "<action-outputs><report type=\"string\"/></action-outputs>" //$NON-NLS-1$
+        + "<component-definition/></action-definition>" //$NON-NLS-1$
+        + "</actions></actions></action-sequence>"; //$NON-NLS-1$
+  }
+
+  private ActionSequence getLoopGroup( final String loopAttributes ) throws XmlParseException {
+    Document document = XmlDom4JHelper.getDocFromString( getXAction( loopAttributes ), null );
+    IActionSequence actionSequence =
+        SequenceDefinition.ActionSequenceFactory( document, "", this, PentahoSystem.getApplicationContext(), DEBUG ); //$NON-NLS-1$
+    List items = actionSequence.getActionDefinitionsAndSequences();
+    assertEquals( 1, items.size() );
+    return (ActionSequence) items.get( 0 );
+  }
+
+  public void testSerialByDefault() throws XmlParseException {
+    startTest();
+    ActionSequence loopGroup = getLoopGroup( "" ); //$NON-NLS-1$
+    assertEquals( "regions", loopGroup.getLoopParameter() ); //$NON-NLS-1$
+    assertEquals( 1, loopGroup.getLoopParallelism() );
+    assertFalse( loopGroup.isLoopCollectingErrors() );
+    finishTest();
+  }
+
+  public void testParallelAttributes() throws XmlParseException {
+    startTest();
+    ActionSequence loopGroup = getLoopGroup( "parallel=\"4\" on-error=\"collect\"" ); //$NON-NLS-1$
+    assertEquals( 4, loopGroup.getLoopParallelism() );
+    assertTrue( loopGroup.isLoopCollectingErrors() );
+    finishTest();
+  }
+
+  public void testInvalidParallelismRunsSerially() throws XmlParseException {
+    startTest();
+    assertEquals( 1, getLoopGroup( "parallel=\"many\"" ).getLoopParallelism() ); //$NON-NLS-1$
+    assertEquals( 1, getLoopGroup( "parallel=\"0\"" ).getLoopParallelism() ); //$NON-NLS-1$
+    finishTest();
+  }
+
+  public void testNewInstanceHasOwnActionDefinitions() throws XmlParseException {
+    startTest();
+    ActionSequence loopGroup = getLoopGroup( "parallel=\"2\"" ); //$NON-NLS-1$
+    ActionSequence copy = loopGroup.newInstance();
+    assertNotNull( copy );
+    assertEquals( 2, copy.getLoopParallelism() );
+    assertEquals( 1, copy.getActionDefinitionsAndSequences().size() );
+    assertNotSame( loopGroup.getActionDefinitionsAndSequences().get( 0 ), copy.getActionDefinitionsAndSequences()
+        .get( 0 ) );
+    finishTest();
+  }
+
+}
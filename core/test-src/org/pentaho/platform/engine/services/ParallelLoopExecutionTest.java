@@ -0,0 +1,140 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2014 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.engine.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.pentaho.platform.api.engine.IActionParameter;
+import org.pentaho.platform.api.engine.IExecutionListener;
+import org.pentaho.platform.api.engine.IRuntimeContext;
+import org.pentaho.platform.api.engine.ISolutionActionDefinition;
+import org.pentaho.platform.api.engine.ISolutionEngine;
+import org.pentaho.platform.util.web.SimpleUrlFactory;
+import org.pentaho.test.platform.engine.core.BaseTest;
+
+@SuppressWarnings( { "all" } )
+public class ParallelLoopExecutionTest extends BaseTest {
+  private static final String SOLUTION_PATH = "test-res/solution";
+
+  private static final String[] REGIONS = { "Central", "Eastern", "Northern", "Southern", "Western" };
+
+  public String getSolutionPath() {
+    return SOLUTION_PATH;
+  }
+
+  private static String getXAction( final String[] regionNames, final String loopAttributes ) {
+    StringBuilder regions = new StringBuilder();
+    for ( String region : regionNames ) {
+      regions.append( "<list-item>" ).append( region ).append( "</list-item>" ); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    return "<action-sequence>" //$NON-NLS-1$
+        + "<name>parallel.xaction</name><title>Parallel loop</title><version>1</version>" //$NON-NLS-1$
+        + "<inputs><regions type=\"string-list\"><default-value type=\"string-list\">" + regions //$NON-NLS-1$
+        + "</default-value></regions></inputs>" //$NON-NLS-1$
+        + "<outputs><report type=\"string\"/></outputs><resources/>" //$NON-NLS-1$
+        + "<actions><actions loop-on=\"regions\" " + loopAttributes + ">" //$NON-NLS-1$ //$NON-NLS-2$
+        + "<action-definition><action-name>Report</action-name>" //$NON-NLS-1$
+        + "<component-name>org.pentaho.platform.engine.services.solution.PojoComponent</component-name>" //$NON-NLS-1$
+        + "<action-inputs><regions type=\"string\"/></action-inputs>" //$NON-NLS-1$
+        + "<action-outputs><report type=\"string\"/></action-outputs>" //$NON-NLS-1$
+        + "<component-definition><class>org.pentaho.platform.engine.services.TestPojo6</class>" //$NON-NLS-1$
+        + "</component-definition>" //$NON-NLS-1$
+        + "</action-definition></actions></actions></action-sequence>"; //$NON-NLS-1$
+  }
+
+  private static IRuntimeContext execute( final String xaction, final List<Long> loops ) {
+    TestPojo6.threads.clear();
+    TestPojo6.started.set( 0 );
+    ISolutionEngine solutionEngine = ServiceTestHelper.getSolutionEngine();
+    solutionEngine.setlistener( new IExecutionListener() {
+      public void loaded( IRuntimeContext runtime ) {
+      }
+
+      public void validated( IRuntimeContext runtime ) {
+      }
+
+      public void action( IRuntimeContext runtime, ISolutionActionDefinition action ) {
+      }
+
+      public void loop( IRuntimeContext runtime, long count ) {
+        loops.add( count );
+      }
+    } );
+    IRuntimeContext runtimeContext =
+        solutionEngine.execute( xaction, "parallel.xaction", //$NON-NLS-1$
+            "parallel loop test", false, true, null, false, //$NON-NLS-1$
+            new HashMap(), null, null, new SimpleUrlFactory( "" ), new ArrayList() ); //$NON-NLS-1$
+    assertNotNull( "RuntimeContext is null", runtimeContext ); //$NON-NLS-1$
+    return runtimeContext;
+  }
+
+  public void testIterationsReportedInOrder() {
+    startTest();
+    List<Long> loops = new ArrayList<Long>();
+    IRuntimeContext runtimeContext = execute( getXAction( REGIONS, "parallel=\"3\"" ), loops ); //$NON-NLS-1$
+    assertEquals( IRuntimeContext.RUNTIME_STATUS_SUCCESS, runtimeContext.getStatus() );
+
+    // every region ran, on the threads of the loop pool
+    assertEquals( REGIONS.length, TestPojo6.threads.size() );
+    for ( String region : REGIONS ) {
+      assertTrue( TestPojo6.threads.get( region ).startsWith( "action-sequence-loop-" ) ); //$NON-NLS-1$
+    }
+
+    // the first iterations finish last, but are still reported and applied in order, as in a serial loop
+    assertEquals( Arrays.asList( 0L, 1L, 2L, 3L, 4L ), loops );
+    IActionParameter report = runtimeContext.getOutputParameter( "report" ); //$NON-NLS-1$
+    assertEquals( "report for Western", report.getValue() ); //$NON-NLS-1$
+    finishTest();
+  }
+
+  public void testFailureStopsIterations() {
+    startTest();
+    String[] regions = { "Failing", "Central", "Eastern", "Northern", "Southern", "Western" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+    List<Long> loops = new ArrayList<Long>();
+    IRuntimeContext runtimeContext = execute( getXAction( regions, "parallel=\"2\"" ), loops ); //$NON-NLS-1$
+    assertEquals( IRuntimeContext.RUNTIME_STATUS_FAILURE, runtimeContext.getStatus() );
+
+    // the first iteration fails at once, so the slow ones already started are the only others that run
+    assertTrue( TestPojo6.threads.size() < regions.length - 1 );
+    // the failed iteration is reported, but nothing after it
+    assertEquals( Arrays.asList( 0L ), loops );
+    finishTest();
+  }
+
+  public void testCollectedFailure() {
+    startTest();
+    String[] regions = { "Central", "Eastern", "Failing", "Northern", "Southern", "Western" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+    List<Long> loops = new ArrayList<Long>();
+    IRuntimeContext runtimeContext =
+        execute( getXAction( regions, "parallel=\"3\" on-error=\"collect\"" ), loops ); //$NON-NLS-1$
+    assertEquals( IRuntimeContext.RUNTIME_STATUS_FAILURE, runtimeContext.getStatus() );
+
+    // every other iteration still ran and was applied in order
+    assertEquals( regions.length - 1, TestPojo6.threads.size() );
+    assertFalse( TestPojo6.threads.containsKey( "Failing" ) ); //$NON-NLS-1$
+    assertEquals( Arrays.asList( 0L, 1L, 2L, 3L, 4L, 5L ), loops );
+    IActionParameter report = runtimeContext.getOutputParameter( "report" ); //$NON-NLS-1$
+    assertEquals( "report for Western", report.getValue() ); //$NON-NLS-1$
+    finishTest();
+  }
+
+}
@@ -25,6 +25,7 @@ import org.pentaho.platform.util.DateMath;
 
 import java.util.Properties;
 import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 @SuppressWarnings( { "all" } )
 public class TemplateUtilTest extends TestCase implements IParameterResolver {
@@ -52,6 +53,57 @@ public class TemplateUtilTest extends TestCase implements IParameterResolver {
 
   }
 
+  public void testTemplateAppliedWithDifferentInputs() {
+
+    String template = "select * from QUADRANT_ACTUALS where REGION = '{REGION}' and DEPARTMENT = '{DEPARTMENT}'";
+    Properties props = new Properties();
+    props.put( "REGION", "Eastern" );
+    props.put( "DEPARTMENT", "Sales" );
+    assertEquals( "select * from QUADRANT_ACTUALS where REGION = 'Eastern' and DEPARTMENT = 'Sales'", TemplateUtil
+        .applyTemplate( template, props, (IParameterResolver) null ) );
+
+    props.put( "REGION", "Western" );
+    props.remove( "DEPARTMENT" );
+    assertEquals( "select * from QUADRANT_ACTUALS where REGION = 'Western' and DEPARTMENT = '{DEPARTMENT}'",
+        TemplateUtil.applyTemplate( template, props, (IParameterResolver) null ) );
+
+  }
+
+  public void testCustomParameterPattern() {
+
+    Properties props = new Properties();
+    props.put( "name1", "value1" );
+
+    String template = "{name1} ${name1}";
+    Pattern pattern = Pattern.compile( "\\$\\{([^\\}]*)\\}" );
+    assertEquals( "{name1} value1", TemplateUtil.applyTemplate( template, props, pattern, null ) );
+    assertEquals( "value1 $value1", TemplateUtil.applyTemplate( template, props, (IParameterResolver) null ) );
+
+  }
+
+  public void testResolverPositionedOnParameter() {
+
+    Properties props = new Properties();
+    props.put( "name1", "value1" );
+
+    IParameterResolver resolver = new IParameterResolver() {
+      public int resolveParameter( String template, String parameter, Matcher parameterMatcher, int copyStart,
+          StringBuffer results ) {
+        if ( !parameter.startsWith( "PREPARE:" ) ) {
+          return -1;
+        }
+        results.append( template.substring( copyStart, parameterMatcher.start() ) ).append( '?' );
+        return parameterMatcher.end();
+      }
+    };
+    String template = "a = {PREPARE:a} and b = {PREPARE:b} and c = '{name1}' {other:thing}";
+    for ( int i = 0; i < 2; i++ ) {
+      assertEquals( "a = ? and b = ? and c = 'value1' {other:thing}", TemplateUtil.applyTemplate( template, props,
+          resolver ) );
+    }
+
+  }
+
   public void testDateRegexSimple() {
 
     doCompare( "+1:MS" );
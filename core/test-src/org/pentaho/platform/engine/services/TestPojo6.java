@@ -0,0 +1,63 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2014 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.engine.services;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SuppressWarnings( { "all" } )
+public class TestPojo6 {
+
+  /**
+   * the thread each region was reported on
+   */
+  public static final Map<String, String> threads = Collections.synchronizedMap( new HashMap<String, String>() );
+
+  public static final AtomicInteger started = new AtomicInteger();
+
+  protected String region;
+
+  protected String report;
+
+  public boolean execute() throws Exception {
+    if ( region.startsWith( "Fail" ) ) { //$NON-NLS-1$
+      return false;
+    }
+    // the first regions take longest, so that the iterations finish out of order
+    Thread.sleep( Math.max( 0, 300 - 50 * started.getAndIncrement() ) );
+    threads.put( region, Thread.currentThread().getName() );
+    report = "report for " + region;
+    return true;
+  }
+
+  public void setRegions( String region ) {
+    this.region = region;
+  }
+
+  public String getReport() {
+    return report;
+  }
+
+  public boolean validate() throws Exception {
+    return true;
+  }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2014 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.engine.services.actionsequence;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class VersionedPrototypeCacheTest {
+
+  private static class StringBuilderCache extends VersionedPrototypeCache<StringBuilder> {
+    StringBuilderCache( final int maxEntries ) {
+      super( maxEntries );
+    }
+
+    @Override
+    protected StringBuilder copy( final StringBuilder prototype ) {
+      return new StringBuilder( prototype );
+    }
+  }
+
+  private static class CountingLoader implements VersionedPrototypeCache.Loader<StringBuilder> {
+    private final AtomicInteger loads = new AtomicInteger();
+
+    public StringBuilder load() throws Exception {
+      return new StringBuilder( "parsed" + loads.incrementAndGet() ); //$NON-NLS-1$
+    }
+  }
+
+  @Test
+  public void testSameVersionParsedOnce() throws Exception {
+    StringBuilderCache cache = new StringBuilderCache( 10 );
+    CountingLoader loader = new CountingLoader();
+
+    StringBuilder first = cache.get( "1:test/report.xml", 1, loader ); //$NON-NLS-1$
+    StringBuilder second = cache.get( "1:test/report.xml", 1, loader ); //$NON-NLS-1$
+
+    assertEquals( 1, loader.loads.get() );
+    assertEquals( "parsed1", second.toString() ); //$NON-NLS-1$
+    assertEquals( 1, cache.getHits() );
+    assertEquals( 1, cache.getMisses() );
+
+    // every caller gets its own copy
+    assertNotSame( first, second );
+    first.append( " and changed" ); //$NON-NLS-1$
+    assertEquals( "parsed1", cache.get( "1:test/report.xml", 1, loader ).toString() ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  @Test
+  public void testChangedVersionParsedAgain() throws Exception {
+    StringBuilderCache cache = new StringBuilderCache( 10 );
+    CountingLoader loader = new CountingLoader();
+
+    cache.get( "1:test/report.xml", 1, loader ); //$NON-NLS-1$
+    assertEquals( "parsed2", cache.get( "1:test/report.xml", 2, loader ).toString() ); //$NON-NLS-1$ //$NON-NLS-2$
+    assertEquals( "parsed2", cache.get( "1:test/report.xml", 2, loader ).toString() ); //$NON-NLS-1$ //$NON-NLS-2$
+    assertEquals( 2, loader.loads.get() );
+    assertEquals( 1, cache.getSize() );
+  }
+
+  @Test
+  public void testInvalidateAndEviction() throws Exception {
+    StringBuilderCache cache = new StringBuilderCache( 2 );
+    CountingLoader loader = new CountingLoader();
+
+    cache.get( "1:test/a.xml?x", 1, loader ); //$NON-NLS-1$
+    cache.get( "1:test/a.xml?y", 1, loader ); //$NON-NLS-1$
+    cache.get( "1:test/b.xml", 1, loader ); //$NON-NLS-1$
+    assertEquals( 2, cache.getSize() );
+
+    cache.invalidate( "1:test/a.xml" ); //$NON-NLS-1$
+    assertEquals( 1, cache.getSize() );
+
+    cache.clear();
+    assertEquals( 0, cache.getSize() );
+  }
+
+  @Test
+  public void testNullNotCached() throws Exception {
+    StringBuilderCache cache = new StringBuilderCache( 10 );
+    VersionedPrototypeCache.Loader<StringBuilder> loader = new VersionedPrototypeCache.Loader<StringBuilder>() {
+      public StringBuilder load() throws Exception {
+        return null;
+      }
+    };
+    assertNull( cache.get( "1:test/missing.xml", 1, loader ) ); //$NON-NLS-1$
+    assertEquals( 0, cache.getSize() );
+  }
+}
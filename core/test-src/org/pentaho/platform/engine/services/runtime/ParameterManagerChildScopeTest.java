@@ -0,0 +1,64 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2014 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.engine.services.runtime;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import org.pentaho.platform.api.engine.IActionParameter;
+import org.pentaho.platform.engine.services.actionsequence.ActionParameter;
+
+@SuppressWarnings( { "all" } )
+public class ParameterManagerChildScopeTest extends TestCase {
+
+  public void testChildScopeIsIsolated() {
+    ParameterManager parent = new ParameterManager();
+    parent.addToAllInputs( "region", new ActionParameter( "region", "string", "east", null, null ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+    ParameterManager first = parent.createChildScope();
+    ParameterManager second = parent.createChildScope();
+    first.getInput( "region" ).setValue( "west" ); //$NON-NLS-1$ //$NON-NLS-2$
+
+    assertEquals( "east", parent.getInput( "region" ).getValue() ); //$NON-NLS-1$ //$NON-NLS-2$
+    assertEquals( "east", second.getInput( "region" ).getValue() ); //$NON-NLS-1$ //$NON-NLS-2$
+    assertEquals( "west", first.getInput( "region" ).getValue() ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  public void testMergeChildScope() {
+    ParameterManager parent = new ParameterManager();
+    IActionParameter region = new ActionParameter( "region", "string", "east", null, null ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    parent.addToAllInputs( "region", region ); //$NON-NLS-1$
+    parent.addToAllInputs( "total", new ActionParameter( "total", "string", "0", null, null ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+    ParameterManager child = parent.createChildScope();
+    child.getInput( "region" ).setValue( "west" ); //$NON-NLS-1$ //$NON-NLS-2$
+    child.getInput( "total" ).setValue( "42" ); //$NON-NLS-1$ //$NON-NLS-2$
+    child.addToAllInputs( "report", new ActionParameter( "report", "string", "done", null, null ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+    parent.mergeChildScope( child.getParameters( Arrays.asList( "region", "report", "missing" ) ) ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+    assertSame( region, parent.getInput( "region" ) ); //$NON-NLS-1$
+    assertEquals( "west", region.getValue() ); //$NON-NLS-1$
+    assertEquals( "done", parent.getInput( "report" ).getValue() ); //$NON-NLS-1$ //$NON-NLS-2$
+    // not named, so not merged
+    assertEquals( "0", parent.getInput( "total" ).getValue() ); //$NON-NLS-1$ //$NON-NLS-2$
+    assertNull( parent.getInput( "missing" ) ); //$NON-NLS-1$
+  }
+
+}
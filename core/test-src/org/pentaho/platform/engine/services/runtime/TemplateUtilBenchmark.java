@@ -0,0 +1,122 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2014 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.engine.services.runtime;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.dom4j.Document;
+import org.dom4j.Node;
+import org.dom4j.io.SAXReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.pentaho.platform.api.engine.IParameterResolver;
+
+/**
+ * Measures {@link TemplateUtil#applyTemplate(String, Properties, IParameterResolver)} with the queries of the test
+ * solutions, against compiling each template on every call as was done before templates were cached. Run it from
+ * the core directory with the test classpath:
+ * 
+ * <pre>
+ * java -cp &lt;test classpath&gt; org.openjdk.jmh.Main TemplateUtilBenchmark
+ * </pre>
+ * 
+ * The solution folders are read from the <tt>templateutil.benchmark.solutions</tt> system property, a path list.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class TemplateUtilBenchmark {
+
+  private static final Pattern PARAMETER_PATTERN = Pattern.compile( "\\{([^\\}\\{$^]*)\\}" ); //$NON-NLS-1$
+
+  private List<String> templates;
+
+  private Properties inputs;
+
+  @Setup
+  public void loadTemplates() throws Exception {
+    templates = new ArrayList<String>();
+    inputs = new Properties();
+    String solutions =
+        System.getProperty( "templateutil.benchmark.solutions", "test-res/solution" + File.pathSeparator //$NON-NLS-1$ //$NON-NLS-2$
+            + "../extensions/test-src/solution" ); //$NON-NLS-1$
+    for ( String solution : solutions.split( File.pathSeparator ) ) {
+      addTemplates( new File( solution ) );
+    }
+    if ( templates.isEmpty() ) {
+      throw new IllegalStateException( "No parameterized queries found in " + solutions ); //$NON-NLS-1$
+    }
+    // give every named parameter a value, so the benchmark measures substitution rather than misses
+    for ( String template : templates ) {
+      Matcher matcher = PARAMETER_PATTERN.matcher( template );
+      while ( matcher.find() ) {
+        String name = matcher.group( 1 );
+        if ( name.indexOf( ' ' ) == -1 && name.indexOf( ':' ) == -1 ) {
+          inputs.setProperty( name, "Eastern" ); //$NON-NLS-1$
+        }
+      }
+    }
+  }
+
+  private void addTemplates( final File file ) throws Exception {
+    if ( file.isDirectory() ) {
+      File[] children = file.listFiles();
+      if ( children != null ) {
+        for ( File child : children ) {
+          addTemplates( child );
+        }
+      }
+    } else if ( file.getName().endsWith( ".xaction" ) ) { //$NON-NLS-1$
+      Document document = new SAXReader().read( file );
+      for ( Object query : document.selectNodes( "//component-definition/query" ) ) { //$NON-NLS-1$
+        String template = ( (Node) query ).getText();
+        if ( PARAMETER_PATTERN.matcher( template ).find() ) {
+          templates.add( template );
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public void applyTemplate( final Blackhole blackhole ) {
+    for ( String template : templates ) {
+      blackhole.consume( TemplateUtil.applyTemplate( template, inputs, (IParameterResolver) null ) );
+    }
+  }
+
+  @Benchmark
+  public void compileAndApplyTemplate( final Blackhole blackhole ) {
+    for ( String template : templates ) {
+      blackhole.consume( TemplateUtil.compileTemplate( template, PARAMETER_PATTERN ).render( inputs, null ) );
+    }
+  }
+
+}
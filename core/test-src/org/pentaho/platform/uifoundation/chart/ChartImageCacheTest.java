@@ -0,0 +1,73 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2013 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.uifoundation.chart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.jfree.data.category.DefaultCategoryDataset;
+import org.junit.Test;
+
+public class ChartImageCacheTest {
+
+  private static DefaultCategoryDataset createDataset( final double value ) {
+    DefaultCategoryDataset dataset = new DefaultCategoryDataset();
+    dataset.addValue( value, "Sales", "East" ); //$NON-NLS-1$ //$NON-NLS-2$
+    dataset.addValue( 20.0, "Sales", "West" ); //$NON-NLS-1$ //$NON-NLS-2$
+    return dataset;
+  }
+
+  @Test
+  public void testKeyDependsOnDataAndSize() {
+    String key = ChartImageCache.getKey( createDataset( 10.0 ), "title", null, 400, 300, //$NON-NLS-1$
+        JFreeChartEngine.OUTPUT_PNG );
+    assertNotNull( key );
+    assertEquals( key, ChartImageCache.getKey( createDataset( 10.0 ), "title", null, 400, 300, //$NON-NLS-1$
+        JFreeChartEngine.OUTPUT_PNG ) );
+    assertFalse( key.equals( ChartImageCache.getKey( createDataset( 11.0 ), "title", null, 400, 300, //$NON-NLS-1$
+        JFreeChartEngine.OUTPUT_PNG ) ) );
+    assertFalse( key.equals( ChartImageCache.getKey( createDataset( 10.0 ), "title", null, 400, 301, //$NON-NLS-1$
+        JFreeChartEngine.OUTPUT_PNG ) ) );
+  }
+
+  @Test
+  public void testLeastRecentlyUsedImagesDropped() {
+    ChartImageCache cache = new ChartImageCache( 250 );
+    cache.put( "a", new byte[100], null ); //$NON-NLS-1$
+    cache.put( "b", new byte[100], null ); //$NON-NLS-1$
+    assertNotNull( cache.get( "a" ) ); //$NON-NLS-1$
+    cache.put( "c", new byte[100], null ); //$NON-NLS-1$
+
+    assertNull( cache.get( "b" ) ); //$NON-NLS-1$
+    assertEquals( 100, cache.get( "c" ).getLength() ); //$NON-NLS-1$
+    assertEquals( 2, cache.getSize() );
+    assertEquals( 200, cache.getBytes() );
+    assertEquals( 2, cache.getHits() );
+    assertEquals( 1, cache.getMisses() );
+
+    // images larger than the whole cache are not kept
+    cache.put( "d", new byte[300], null ); //$NON-NLS-1$
+    assertEquals( 2, cache.getSize() );
+
+    cache.clear();
+    assertEquals( 0, cache.getBytes() );
+  }
+}
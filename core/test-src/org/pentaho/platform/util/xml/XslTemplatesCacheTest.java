@@ -0,0 +1,84 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.util.xml;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.util.Collections;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.junit.Test;
+
+@SuppressWarnings( "nls" )
+public class XslTemplatesCacheTest {
+
+  private static final String XSL = "<xsl:stylesheet version=\"1.0\" "
+      + "xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"><xsl:output method=\"text\"/>"
+      + "<xsl:param name=\"greeting\"/>"
+      + "<xsl:template match=\"/\"><xsl:value-of select=\"$greeting\"/><xsl:text> </xsl:text>"
+      + "<xsl:value-of select=\"/name\"/></xsl:template></xsl:stylesheet>";
+
+  private static StreamSource createXsl( final String xsl ) throws Exception {
+    return new StreamSource( new ByteArrayInputStream( xsl.getBytes( "UTF-8" ) ) );
+  }
+
+  @Test
+  public void testSameStylesheetCompiledOnce() throws Exception {
+    XslTemplatesCache cache = new XslTemplatesCache( 10 );
+
+    Templates first = cache.getTemplates( createXsl( XSL ), null );
+    Templates second = cache.getTemplates( new StreamSource( new StringReader( XSL ) ), null );
+    Templates third = cache.getTemplates( createXsl( XSL ), null );
+
+    assertSame( first, second );
+    assertSame( first, third );
+    assertEquals( 2, cache.getHits() );
+    assertEquals( 1, cache.getSize() );
+
+    // an edited stylesheet is compiled again
+    assertNotSame( first, cache.getTemplates( createXsl( XSL.replace( "/name", "/title" ) ), null ) );
+    assertEquals( 2, cache.getMisses() );
+
+    cache.clear();
+    assertEquals( 0, cache.getSize() );
+  }
+
+  @Test
+  public void testLeastRecentlyUsedDropped() throws Exception {
+    XslTemplatesCache cache = new XslTemplatesCache( 1 );
+    cache.getTemplates( createXsl( XSL ), null );
+    cache.getTemplates( createXsl( XSL.replace( "/name", "/title" ) ), null );
+    assertEquals( 1, cache.getSize() );
+  }
+
+  @Test
+  public void testStreamingTransform() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    XmlHelper.transformXml( createXsl( XSL ), new StreamSource( new StringReader( "<name>world</name>" ) ),
+        Collections.singletonMap( "greeting", "hello" ), null, new StreamResult( out ) );
+    assertEquals( "hello world", out.toString( "UTF-8" ) );
+  }
+}
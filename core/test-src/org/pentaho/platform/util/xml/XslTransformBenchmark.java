@@ -0,0 +1,100 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.util.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures the transforms of {@link XmlHelper}, which take the compiled stylesheet from the
+ * {@link XslTemplatesCache}, against compiling the stylesheet on every transform as was done before. The document
+ * is a navigation-sized list of 50 entries. Run it from the core directory with the test classpath:
+ * 
+ * <pre>
+ * java -cp &lt;test classpath&gt; org.openjdk.jmh.Main XslTransformBenchmark
+ * </pre>
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class XslTransformBenchmark {
+
+  private static final String XSL = "<xsl:stylesheet version=\"1.0\" " //$NON-NLS-1$
+      + "xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">" //$NON-NLS-1$
+      + "<xsl:output method=\"html\"/><xsl:param name=\"baseUrl\"/>" //$NON-NLS-1$
+      + "<xsl:template match=\"/files\"><table><xsl:apply-templates select=\"file\"><xsl:sort select=\"@title\"/>" //$NON-NLS-1$
+      + "</xsl:apply-templates></table></xsl:template>" //$NON-NLS-1$
+      + "<xsl:template match=\"file\"><tr><td><a href=\"{$baseUrl}/{@path}\"><xsl:value-of select=\"@title\"/>" //$NON-NLS-1$
+      + "</a></td><td><xsl:choose><xsl:when test=\"@folder='true'\">folder</xsl:when>" //$NON-NLS-1$
+      + "<xsl:otherwise><xsl:value-of select=\"description\"/></xsl:otherwise></xsl:choose></td></tr>" //$NON-NLS-1$
+      + "</xsl:template></xsl:stylesheet>"; //$NON-NLS-1$
+
+  private byte[] xsl;
+
+  private String document;
+
+  private Map<String, String> params;
+
+  @Setup
+  public void setUp() throws Exception {
+    xsl = XSL.getBytes( "UTF-8" ); //$NON-NLS-1$
+    StringBuilder sb = new StringBuilder( "<files>" ); //$NON-NLS-1$
+    for ( int i = 0; i < 50; i++ ) {
+      sb.append( "<file path=\"public/report" ).append( i ).append( ".xaction\" title=\"Report " ).append( i ) //$NON-NLS-1$ //$NON-NLS-2$
+          .append( "\" folder=\"" ).append( i % 10 == 0 ).append( "\"><description>Sales by region " ) //$NON-NLS-1$ //$NON-NLS-2$
+          .append( i ).append( "</description></file>" ); //$NON-NLS-1$
+    }
+    document = sb.append( "</files>" ).toString(); //$NON-NLS-1$
+    params = Collections.singletonMap( "baseUrl", "http://localhost:8080/pentaho" ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  @Benchmark
+  public String cachedTemplates() throws Exception {
+    StringWriter writer = new StringWriter();
+    XmlHelper.transformXml( new StreamSource( new ByteArrayInputStream( xsl ) ), new StreamSource( new StringReader(
+        document ) ), params, null, new StreamResult( writer ) );
+    return writer.toString();
+  }
+
+  @Benchmark
+  public String compileEveryTransform() throws Exception {
+    StringWriter writer = new StringWriter();
+    Transformer t =
+        TransformerFactory.newInstance().newTransformer( new StreamSource( new ByteArrayInputStream( xsl ) ) );
+    t.setParameter( "baseUrl", params.get( "baseUrl" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    t.transform( new StreamSource( new StringReader( document ) ), new StreamResult( writer ) );
+    return writer.toString();
+  }
+}
@@ -17,8 +17,6 @@
 
 package org.pentaho.platform.plugin.action.builtin;
 
-import org.apache.commons.lang.ObjectUtils;
-import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.pentaho.actionsequence.dom.ActionInputConstant;
@@ -33,16 +31,15 @@ import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.services.solution.ComponentBase;
 import org.pentaho.platform.plugin.action.messages.Messages;
+import org.pentaho.platform.plugin.services.email.SmtpTransportPool;
 import org.pentaho.platform.util.PasswordHelper;
 import org.pentaho.platform.util.messages.LocaleHelper;
 
 import javax.activation.DataHandler;
 import javax.activation.DataSource;
 import javax.mail.AuthenticationFailedException;
-import javax.mail.Authenticator;
 import javax.mail.Message;
 import javax.mail.Multipart;
-import javax.mail.PasswordAuthentication;
 import javax.mail.SendFailedException;
 import javax.mail.Session;
 import javax.mail.Transport;
@@ -52,7 +49,6 @@ import javax.mail.internet.MimeMessage;
 import javax.mail.internet.MimeMultipart;
 import java.io.OutputStream;
 import java.util.Date;
-import java.util.Properties;
 
 /**
  * @author James Dixon
@@ -235,37 +231,19 @@ public class EmailComponent extends ComponentBase {
     }
 
     try {
-      Properties props = new Properties();
       final IEmailService service =
           PentahoSystem.get( IEmailService.class, "IEmailService", PentahoSessionHolder.getSession() );
-      props.put( "mail.smtp.host", service.getEmailConfig().getSmtpHost() );
-      props.put( "mail.smtp.port", ObjectUtils.toString( service.getEmailConfig().getSmtpPort() ) );
-      props.put( "mail.transport.protocol", service.getEmailConfig().getSmtpProtocol() );
-      props.put( "mail.smtp.starttls.enable", ObjectUtils.toString( service.getEmailConfig().isUseStartTls() ) );
-      props.put( "mail.smtp.auth", ObjectUtils.toString( service.getEmailConfig().isAuthenticate() ) );
-      props.put( "mail.smtp.ssl", ObjectUtils.toString( service.getEmailConfig().isUseSsl() ) );
-      props.put( "mail.smtp.quitwait", ObjectUtils.toString( service.getEmailConfig().isSmtpQuitWait() ) );
-      props.put( "mail.from.default", service.getEmailConfig().getDefaultFrom() );
-      String fromName = service.getEmailConfig().getFromName();
-      if ( StringUtils.isEmpty( fromName ) ) {
-        fromName = Messages.getInstance().getString( "schedulerEmailFromName" );
-      }
-      props.put( "mail.from.name", fromName );
-      props.put( "mail.debug", ObjectUtils.toString( service.getEmailConfig().isDebug() ) );
-
-      Session session;
-      if ( service.getEmailConfig().isAuthenticate() ) {
-        props.put( "mail.userid", service.getEmailConfig().getUserId() );
-        props.put( "mail.password", service.getEmailConfig().getPassword() );
-        Authenticator authenticator = new EmailAuthenticator();
-        session = Session.getInstance( props, authenticator );
-      } else {
-        session = Session.getInstance( props );
-      }
-
-      // debugging is on if either component (xaction) or email config debug is on
-      if ( service.getEmailConfig().isDebug() || ComponentBase.debug ) {
-        session.setDebug( true );
+      // connections to the mail server are reused across messages, e.g. when bursting
+      SmtpTransportPool transportPool =
+          SmtpTransportPool.getInstance( service.getEmailConfig(), Messages.getInstance().getString(
+              "schedulerEmailFromName" ) ); //$NON-NLS-1$
+      Session session = transportPool.getSession();
+
+      // debugging is on if either component (xaction) or email config debug is on; the pooled session is shared, so
+      // a debug run of the component gets a session of its own
+      boolean debugSession = ComponentBase.debug && !session.getDebug();
+      if ( debugSession ) {
+        session = transportPool.createDebugSession();
       }
 
       // construct the message
@@ -350,7 +328,11 @@ public class EmailComponent extends ComponentBase {
       msg.setHeader( "X-Mailer", EmailComponent.MAILER ); //$NON-NLS-1$
       msg.setSentDate( new Date() );
 
-      Transport.send( msg );
+      if ( debugSession ) {
+        Transport.send( msg );
+      } else {
+        transportPool.send( msg );
+      }
 
       if ( ComponentBase.debug ) {
         debug( Messages.getInstance().getString( "Email.DEBUG_EMAIL_SUCCESS" ) ); //$NON-NLS-1$
@@ -382,17 +364,4 @@ public class EmailComponent extends ComponentBase {
   public String decryptPassword( String encpass ) {
     return new PasswordHelper().getPassword( encpass );
   }
-
-  private class EmailAuthenticator extends Authenticator {
-
-    @Override
-    protected PasswordAuthentication getPasswordAuthentication() {
-      String user = PentahoSystem.getSystemSetting( "smtp-email/email_config.xml", "mail.userid", null ); //$NON-NLS-1$ //$NON-NLS-2$
-      String password = PentahoSystem.getSystemSetting( "smtp-email/email_config.xml", "mail.password", null ); //$NON-NLS-1$ //$NON-NLS-2$
-      if ( password != null ) {
-        password = decryptPassword( password );
-      }
-      return new PasswordAuthentication( user, password );
-    }
-  }
 }
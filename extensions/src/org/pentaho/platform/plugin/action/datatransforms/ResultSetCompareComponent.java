@@ -26,6 +26,11 @@ import org.pentaho.commons.connection.IPentahoResultSet;
 import org.pentaho.platform.engine.services.solution.ComponentBase;
 import org.pentaho.platform.plugin.action.messages.Messages;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
 public class ResultSetCompareComponent extends ComponentBase {
 
   private static final long serialVersionUID = -1449352563247459588L;
@@ -138,49 +143,93 @@ public class ResultSetCompareComponent extends ComponentBase {
       return false;
     }
     boolean anyMismatches = false;
-    boolean foundIt;
-    Object srcValue = null, compValue = null;
     ResultSetCompareAction compareAction = (ResultSetCompareAction) getActionDefinition();
     IActionOutput output = compareAction.getOutputCompareResult();
-    for ( int sourceRows = 0; sourceRows < sourceRowCount; sourceRows++ ) {
-      foundIt = false;
-      srcValue = rs1.getValueAt( sourceRows, compareCol );
-      // n+1 traversal. This accommodates non-ordered input
-      for ( int compRows = 0; compRows < compRowCount; compRows++ ) {
-        compValue = rs2.getValueAt( compRows, compareCol );
-        if ( compValue.equals( srcValue ) ) {
-          foundIt = true;
-          break;
-        }
+    boolean stopAtFirst = !outputMismatches && stopOnError;
+    for ( Object srcValue : ResultSetCompareComponent.getMismatches( rs1, rs2, compareCol, stopAtFirst ) ) {
+      if ( outputBuf.length() > 0 ) {
+        outputBuf.append( "," ).append( String.valueOf( srcValue ).trim() ); //$NON-NLS-1$
+      } else {
+        outputBuf.append( String.valueOf( srcValue ).trim() );
       }
-      if ( !foundIt ) {
-        if ( outputBuf.length() > 0 ) {
-          outputBuf.append( "," ).append( srcValue.toString().trim() ); //$NON-NLS-1$
-        } else {
-          outputBuf.append( srcValue.toString().trim() );
-        }
-        if ( output != null ) {
-          output.setValue( outputBuf.toString() );
-        }
-        if ( outputMismatches ) {
-          error( Messages.getInstance().getErrorString(
-              "ResultSetCompareComponent.ERROR_0010_MISMATCH_OUTPUT", srcValue.toString() ) ); //$NON-NLS-1$
-          anyMismatches = true;
-        } else {
-          if ( stopOnError ) {
-            return false;
+      if ( outputMismatches ) {
+        error( Messages.getInstance().getErrorString(
+            "ResultSetCompareComponent.ERROR_0010_MISMATCH_OUTPUT", String.valueOf( srcValue ) ) ); //$NON-NLS-1$
+        anyMismatches = true;
+      } else {
+        if ( stopOnError ) {
+          if ( output != null ) {
+            output.setValue( outputBuf.toString() );
           }
+          return false;
         }
       }
     }
-    if ( !anyMismatches ) {
-      if ( output != null ) {
-        output.setValue( ResultSetCompareComponent.COMPARE_RESULT_OK );
-      }
+    if ( output != null ) {
+      output.setValue( anyMismatches ? outputBuf.toString() : ResultSetCompareComponent.COMPARE_RESULT_OK );
     }
     return stopOnError ? !anyMismatches : true;
   }
 
+  /**
+   * Returns the values of the compare column of <code>rs1</code> that do not occur in the compare column of
+   * <code>rs2</code>, in row order. The values of <code>rs2</code> are hashed once, so unordered input costs a single
+   * pass over each result set instead of a pass over <code>rs2</code> for every row of <code>rs1</code>. Two values
+   * match when either of them equals the other, or when both are <code>null</code>.
+   */
+  static List<Object> getMismatches( final IPentahoResultSet rs1, final IPentahoResultSet rs2, final int compareCol,
+      final boolean stopAtFirst ) {
+    int compRowCount = rs2.getRowCount();
+    Set<CompareKey> compValues = new HashSet<CompareKey>( Math.max( 16, (int) ( compRowCount / 0.75f ) + 1 ) );
+    for ( int compRows = 0; compRows < compRowCount; compRows++ ) {
+      compValues.add( new CompareKey( rs2.getValueAt( compRows, compareCol ) ) );
+    }
+
+    List<Object> mismatches = new ArrayList<Object>();
+    int sourceRowCount = rs1.getRowCount();
+    for ( int sourceRows = 0; sourceRows < sourceRowCount; sourceRows++ ) {
+      Object srcValue = rs1.getValueAt( sourceRows, compareCol );
+      if ( !compValues.contains( new CompareKey( srcValue ) ) ) {
+        mismatches.add( srcValue );
+        if ( stopAtFirst ) {
+          break;
+        }
+      }
+    }
+    return mismatches;
+  }
+
+  /**
+   * A value of the compare column, with an <code>equals</code> that does not depend on which result set the value came
+   * from. Some <code>equals</code> implementations are not symmetric, e.g. a <code>java.util.Date</code> equals a
+   * <code>java.sql.Timestamp</code> of the same time but not the other way around.
+   */
+  private static final class CompareKey {
+
+    private final Object value;
+
+    CompareKey( final Object value ) {
+      this.value = value;
+    }
+
+    @Override
+    public int hashCode() {
+      return value == null ? 0 : value.hashCode();
+    }
+
+    @Override
+    public boolean equals( final Object obj ) {
+      if ( !( obj instanceof CompareKey ) ) {
+        return false;
+      }
+      Object other = ( (CompareKey) obj ).value;
+      if ( value == null || other == null ) {
+        return value == other;
+      }
+      return value.equals( other ) || other.equals( value );
+    }
+  }
+
   @Override
   public boolean init() {
     // no initialization required
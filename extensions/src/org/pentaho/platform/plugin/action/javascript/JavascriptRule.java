@@ -31,7 +31,7 @@ import org.pentaho.commons.connection.IPentahoResultSet;
 import org.pentaho.platform.api.engine.IActionSequenceResource;
 import org.pentaho.platform.engine.services.solution.ComponentBase;
 import org.pentaho.platform.plugin.action.messages.Messages;
-import org.pentaho.platform.plugin.condition.javascript.RhinoScriptable;
+import org.pentaho.platform.plugin.condition.javascript.RhinoScriptCache;
 import org.pentaho.platform.plugin.services.connections.javascript.JavaScriptResultSet;
 
 import java.util.ArrayList;
@@ -175,9 +175,9 @@ public class JavascriptRule extends ComponentBase {
           debug( "script=" + script ); //$NON-NLS-1$
         }
         try {
-          ScriptableObject scriptable = new RhinoScriptable();
-          // initialize the standard javascript objects
-          Scriptable scope = cx.initStandardObjects( scriptable );
+          // a scope with its own standard objects, JavaScriptResultSet comes from the shared scope
+          ScriptableObject scriptable = RhinoScriptCache.getInstance().newScope( cx );
+          Scriptable scope = scriptable;
 
           Object resultObject = executeScript( scriptable, scope, script, cx );
           if ( oldStyleOutputs ) {
@@ -242,7 +242,6 @@ public class JavascriptRule extends ComponentBase {
 
   protected Object executeScript( final ScriptableObject scriptable, final Scriptable scope, final String script,
       final Context cx ) throws Exception {
-    ScriptableObject.defineClass( scope, JavaScriptResultSet.class );
     @SuppressWarnings( "unchecked" )
     Set<String> inputNames = getInputNames();
     Iterator<String> inputNamesIterator = inputNames.iterator();
@@ -277,7 +276,7 @@ public class JavascriptRule extends ComponentBase {
     ScriptableObject.putProperty( scope, "out", wrappedOut ); //$NON-NLS-1$
     ScriptableObject.putProperty( scope, "rule", wrappedThis ); //$NON-NLS-1$
     // evaluate the script
-    return cx.evaluateString( scope, script, "<cmd>", 1, null ); //$NON-NLS-1$
+    return RhinoScriptCache.getInstance().getScript( cx, script ).exec( cx, scope );
 
   }
 
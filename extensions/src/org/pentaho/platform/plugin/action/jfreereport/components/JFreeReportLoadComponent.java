@@ -26,8 +26,10 @@ import org.pentaho.platform.api.engine.IPentahoRequestContext;
 import org.pentaho.platform.api.repository2.unified.RepositoryFilePermission;
 import org.pentaho.platform.engine.core.system.PentahoRequestContextHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.services.actionsequence.ActionSequenceResource;
 import org.pentaho.platform.plugin.action.jfreereport.AbstractJFreeReportComponent;
 import org.pentaho.platform.plugin.action.jfreereport.helper.PentahoResourceLoader;
+import org.pentaho.platform.plugin.action.jfreereport.helper.ReportDefinitionCache;
 import org.pentaho.platform.plugin.action.jfreereport.helper.ReportUtils;
 import org.pentaho.platform.plugin.action.messages.Messages;
 import org.pentaho.reporting.engine.classic.core.MasterReport;
@@ -46,6 +48,8 @@ import java.io.UnsupportedEncodingException;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * A JFreeReport run contains at least three steps. Step 1: Parse the report definition. Step 2: Grab some data. Step 3:
@@ -128,21 +132,26 @@ public class JFreeReportLoadComponent extends AbstractJFreeReportComponent {
 
   }
 
-  private MasterReport getReportFromResource() throws ResourceException, IOException {
+  private MasterReport getReportFromResource() throws Exception {
     MasterReport report = null;
     if ( isDefinedResource( AbstractJFreeReportComponent.REPORTGENERATEDEFN_REPORTDEFN ) ) {
       final IActionSequenceResource resource = getResource(
         AbstractJFreeReportComponent.REPORTGENERATEDEFN_REPORTDEFN );
 
       if ( resource.getSourceType() == IActionResource.XML ) {
-        String repDef = resource.getAddress();
-        ReportGenerator generator = ReportGenerator.getInstance();
-
+        final String repDef = resource.getAddress();
+        final URL definedResourceURL = getDefinedResourceURL( null );
         report =
-            generator.parseReport( new InputSource( new ByteArrayInputStream( repDef.getBytes() ) ),
-                getDefinedResourceURL( null ) );
+            ReportDefinitionCache.getInstance().getReport( "xml:" + definedResourceURL + ":" + repDef, 0, //$NON-NLS-1$ //$NON-NLS-2$
+                new ReportDefinitionCache.ReportLoader() {
+                  public MasterReport load() throws Exception {
+                    return ReportGenerator.getInstance().parseReport(
+                        new InputSource( new ByteArrayInputStream( repDef.getBytes() ) ), definedResourceURL );
+                  }
+                } );
+      } else {
+        report = parseReport( resource );
       }
-      report = parseReport( resource );
     } else if ( isDefinedInput( AbstractJFreeReportComponent.REPORTLOAD_RESOURCENAME ) ) {
       final String resName = getInputStringValue( AbstractJFreeReportComponent.REPORTLOAD_RESOURCENAME );
       if ( isDefinedResource( resName ) ) {
@@ -189,16 +198,24 @@ public class JFreeReportLoadComponent extends AbstractJFreeReportComponent {
         "JFreeReportLoadComponent.ERROR_0035_COULD_NOT_CREATE_CLASSLOADER" ) ); //$NON-NLS-1$
     }
 
-    String reportLocation = getInputStringValue( AbstractJFreeReportComponent.REPORTLOAD_REPORTLOC );
-    URL resourceUrl = loader.getResource( reportLocation );
+    final String reportLocation = getInputStringValue( AbstractJFreeReportComponent.REPORTLOAD_REPORTLOC );
+    final URL resourceUrl = loader.getResource( reportLocation );
     if ( resourceUrl == null ) {
       throw new Exception( Messages.getInstance().getErrorString( "JFreeReport.ERROR_0016_REPORT_RESOURCE_INVALID", //$NON-NLS-1$
           reportLocation, resource.getAddress() ) );
     }
 
+    final URL definedResourceURL = getDefinedResourceURL( resourceUrl );
+    final String cacheKey =
+        "jar:" + ActionSequenceResource.getResourceKey( resource ) + "!" + reportLocation + ":" + definedResourceURL; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
     try {
-      ReportGenerator generator = ReportGenerator.getInstance();
-      report = generator.parseReport( resourceUrl, getDefinedResourceURL( resourceUrl ) );
+      report =
+          ReportDefinitionCache.getInstance().getReport( cacheKey,
+              ActionSequenceResource.getResourceVersion( resource ), new ReportDefinitionCache.ReportLoader() {
+                public MasterReport load() throws Exception {
+                  return ReportGenerator.getInstance().parseReport( resourceUrl, definedResourceURL );
+                }
+              } );
     } catch ( Exception ex ) {
       throw new Exception( Messages.getInstance().getErrorString(
           "JFreeReport.ERROR_0007_COULD_NOT_PARSE", reportLocation ), ex ); //$NON-NLS-1$
@@ -267,7 +284,8 @@ public class JFreeReportLoadComponent extends AbstractJFreeReportComponent {
   }
 
   /**
-   * Parses the report, using the given ActionResource as initial report definition.
+   * Parses the report, using the given ActionResource as initial report definition. Parsed reports are cached per
+   * resource version and factory parameters, see {@link ReportDefinitionCache}.
    * 
    * @param resource
    * @return
@@ -275,48 +293,56 @@ public class JFreeReportLoadComponent extends AbstractJFreeReportComponent {
   private MasterReport parseReport( final IActionSequenceResource resource ) {
     try {
       // define the resource url so that PentahoResourceLoader recognizes the path.
-      String resourceUrl =
+      final String resourceUrl =
           PentahoResourceLoader.SOLUTION_SCHEMA_NAME + PentahoResourceLoader.SCHEMA_SEPARATOR + resource.getAddress();
 
       String fullyQualifiedServerUrl = PentahoSystem.getApplicationContext().getFullyQualifiedServerURL();
 
-      HashMap helperObjects = new HashMap();
+      // sorted, so that the cache key does not depend on the order of the inputs
+      TreeMap<String, Object> factoryParameters = new TreeMap<String, Object>();
 
-      helperObjects.put( new FactoryParameterKey( "pentahoBaseURL" ), fullyQualifiedServerUrl ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ 
+      factoryParameters.put( "pentahoBaseURL", fullyQualifiedServerUrl ); //$NON-NLS-1$
 
       // trim out the server and port
-      helperObjects.put( new FactoryParameterKey( "serverBaseURL" ), getBaseServerURL( fullyQualifiedServerUrl ) ); //$NON-NLS-1$
+      factoryParameters.put( "serverBaseURL", getBaseServerURL( fullyQualifiedServerUrl ) ); //$NON-NLS-1$
 
-      helperObjects.put(
-          new FactoryParameterKey( "solutionRoot" ), PentahoSystem.getApplicationContext().getSolutionPath( "" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+      factoryParameters.put( "solutionRoot", PentahoSystem.getApplicationContext().getSolutionPath( "" ) ); //$NON-NLS-1$ //$NON-NLS-2$
 
       // get the host:port portion only
-      helperObjects.put( new FactoryParameterKey( "hostColonPort" ), getHostColonPort( fullyQualifiedServerUrl ) ); //$NON-NLS-1$
+      factoryParameters.put( "hostColonPort", getHostColonPort( fullyQualifiedServerUrl ) ); //$NON-NLS-1$
 
       // get the requestContextPath
-      helperObjects
-          .put(
-            new FactoryParameterKey( "requestContextPath" ),
-            PentahoRequestContextHolder.getRequestContext().getContextPath() ); //$NON-NLS-1$
+      factoryParameters.put( "requestContextPath", PentahoRequestContextHolder.getRequestContext().getContextPath() ); //$NON-NLS-1$
 
       Iterator it = getInputNames().iterator();
       while ( it.hasNext() ) {
         try {
           String inputName = (String) it.next();
           String inputValue = getInputStringValue( inputName );
-          helperObjects.put( new FactoryParameterKey( inputName ), inputValue );
+          factoryParameters.put( inputName, inputValue );
         } catch ( Exception e ) {
           //ignore
         }
       }
 
-      ResourceManager resourceManager = new ResourceManager();
-      resourceManager.registerDefaults();
+      final HashMap helperObjects = new HashMap();
+      for ( Map.Entry<String, Object> parameter : factoryParameters.entrySet() ) {
+        helperObjects.put( new FactoryParameterKey( parameter.getKey() ), parameter.getValue() );
+      }
+
+      return ReportDefinitionCache.getInstance().getReport(
+          ActionSequenceResource.getResourceKey( resource ) + "?" + factoryParameters, //$NON-NLS-1$
+          ActionSequenceResource.getResourceVersion( resource ), new ReportDefinitionCache.ReportLoader() {
+            public MasterReport load() throws Exception {
+              ResourceManager resourceManager = new ResourceManager();
+              resourceManager.registerDefaults();
 
-      ResourceKey contextKey = resourceManager.createKey( resourceUrl, helperObjects );
-      ResourceKey key = resourceManager.createKey( resourceUrl, helperObjects );
+              ResourceKey contextKey = resourceManager.createKey( resourceUrl, helperObjects );
+              ResourceKey key = resourceManager.createKey( resourceUrl, helperObjects );
 
-      return ReportGenerator.getInstance().parseReport( resourceManager, key, contextKey );
+              return ReportGenerator.getInstance().parseReport( resourceManager, key, contextKey );
+            }
+          } );
 
     } catch ( Exception ex ) {
       error(
@@ -0,0 +1,66 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.plugin.action.jfreereport.helper;
+
+import org.pentaho.platform.engine.services.actionsequence.VersionedPrototypeCache;
+import org.pentaho.reporting.engine.classic.core.MasterReport;
+
+/**
+ * Holds parsed report definitions so that a report is parsed once per version of its source instead of once per
+ * execution. The cached reports are prototypes; callers always receive a clone they are free to modify.
+ * <p/>
+ * Entries are keyed on the location of the definition and validated against its version on every lookup, see
+ * {@link VersionedPrototypeCache}. The cache holds at most
+ * <code>org.pentaho.platform.plugin.action.jfreereport.helper.ReportDefinitionCache.maxEntries</code> reports (200 by
+ * default).
+ */
+public class ReportDefinitionCache extends VersionedPrototypeCache<MasterReport> {
+
+  /**
+   * Parses a report definition on a cache miss.
+   */
+  public interface ReportLoader extends Loader<MasterReport> {
+  }
+
+  private static final int DEFAULT_MAX_ENTRIES = 200;
+
+  private static final ReportDefinitionCache instance = new ReportDefinitionCache( Integer.getInteger(
+      ReportDefinitionCache.class.getName() + ".maxEntries", DEFAULT_MAX_ENTRIES ) ); //$NON-NLS-1$
+
+  public static ReportDefinitionCache getInstance() {
+    return instance;
+  }
+
+  ReportDefinitionCache( final int maxEntries ) {
+    super( maxEntries );
+  }
+
+  /**
+   * Returns a private copy of the report stored under the given key, parsing it with the loader if needed.
+   *
+   * @see VersionedPrototypeCache#get(String, long, Loader)
+   */
+  public MasterReport getReport( final String key, final long version, final ReportLoader loader ) throws Exception {
+    return get( key, version, loader );
+  }
+
+  @Override
+  protected MasterReport copy( final MasterReport prototype ) {
+    return (MasterReport) prototype.clone();
+  }
+}
@@ -23,6 +23,7 @@ import org.pentaho.platform.api.engine.IApplicationContext;
 import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.api.repository2.unified.RepositoryFilePermission;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.services.actionsequence.ActionSequenceResource;
 import org.pentaho.platform.plugin.action.messages.Messages;
 import org.pentaho.util.messages.LocaleHelper;
 
@@ -32,11 +33,10 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.Serializable;
 import java.net.URL;
 import java.net.URLClassLoader;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Creation-Date: 07.07.2006, 15:49:35
@@ -44,17 +44,20 @@ import java.util.Map;
  * @author Thomas Morgner
  */
 public class ReportUtils {
-  private static class ClassLoaderEntry implements Serializable {
-    private static final long serialVersionUID = 8925334939030498948L;
+  /**
+   * Jar class loaders shared by all sessions, keyed on the jar resource.
+   */
+  private static final ConcurrentMap<String, SharedClassLoader> sharedClassLoaders =
+      new ConcurrentHashMap<String, SharedClassLoader>();
 
-    private transient ClassLoader entry;
+  private static class SharedClassLoader {
+    private final long version;
 
-    public ClassLoaderEntry( final ClassLoader entry ) {
-      this.entry = entry;
-    }
+    private final ClassLoader classLoader;
 
-    public ClassLoader getEntry() {
-      return entry;
+    public SharedClassLoader( final long version, final ClassLoader classLoader ) {
+      this.version = version;
+      this.classLoader = classLoader;
     }
   }
 
@@ -83,29 +86,35 @@ public class ReportUtils {
     throw new IllegalStateException( Messages.getInstance().getString( "ReportUtils.ERROR_0036_PENTAHO_SYSTEM_NOT_OK" ) ); //$NON-NLS-1$
   }
 
+  /**
+   * Returns a class loader for the given jar resource. Class loaders are shared between sessions and recreated only
+   * when the version of the jar changes (see
+   * {@link ActionSequenceResource#getResourceVersion(IActionSequenceResource)}).
+   */
   public static ClassLoader createJarLoader( final IPentahoSession session, final IActionSequenceResource resource ) {
+    final String key = ActionSequenceResource.getResourceKey( resource );
+    final long version = ActionSequenceResource.getResourceVersion( resource );
+    SharedClassLoader entry = sharedClassLoaders.get( key );
+    if ( entry != null && entry.version == version ) {
+      return entry.classLoader;
+    }
 
-    // todo: We cant clean the temp directory ...
-    // session.addListener (,..) is needed
-    synchronized ( session ) {
+    // copying a jar is rare enough to not bother with more than one at a time
+    synchronized ( sharedClassLoaders ) {
+      entry = sharedClassLoaders.get( key );
+      if ( entry != null && entry.version == version ) {
+        return entry.classLoader;
+      }
       try {
         final URL url = ReportUtils.getURL( session, resource, true );
         if ( url == null ) {
           return null;
         }
 
-        final Map cache = ReportUtils.getClassLoaderCache( session );
-        ClassLoaderEntry entry = (ClassLoaderEntry) cache.get( url );
-        if ( entry != null ) {
-          if ( entry.getEntry() != null ) {
-            return entry.getEntry();
-          }
-        }
-
         // now wrap the beast into a jar URL ...
         final URL jarURL = new URL( "jar:" + url.toExternalForm() + "!/" ); //$NON-NLS-1$ //$NON-NLS-2$
         final URLClassLoader urlClassLoader = URLClassLoader.newInstance( new URL[] { jarURL } );
-        cache.put( url, new ClassLoaderEntry( urlClassLoader ) );
+        sharedClassLoaders.put( key, new SharedClassLoader( version, urlClassLoader ) );
         return urlClassLoader;
       } catch ( IOException e ) {
         // something went wrong ..
@@ -114,18 +123,6 @@ public class ReportUtils {
     }
   }
 
-  private static Map getClassLoaderCache( final IPentahoSession session ) {
-    synchronized ( session ) {
-      Object maybeMap = session.getAttribute( "-x-pentaho-classloaders" ); //$NON-NLS-1$
-      if ( maybeMap instanceof Map ) {
-        return (Map) maybeMap;
-      }
-      Map map = new HashMap();
-      session.setAttribute( "-x-pentaho-classloaders", map ); //$NON-NLS-1$
-      return map;
-    }
-  }
-
   private static URL
   getURL( final IPentahoSession session, final IActionSequenceResource resource, final boolean create )
     throws IOException {
@@ -148,9 +145,9 @@ public class ReportUtils {
 
     if ( create ) {
       // ok, fall back to copy the file into the temp dir and to load it from
-      // there...
-      File temp = ReportUtils.getTempDirectory( session );
-      File tempFile = PentahoSystem.getApplicationContext().createTempFile( session, "loaded-jar-", ".jar", temp, true ); //$NON-NLS-1$ //$NON-NLS-2$
+      // there. The copy is shared by all sessions, so it must outlive this one.
+      File tempFile = PentahoSystem.getApplicationContext().createTempFile( session, "loaded-jar-", ".jar", false ); //$NON-NLS-1$ //$NON-NLS-2$
+      tempFile.deleteOnExit();
       // if that fails, we dont have to waste our time on copying the stuff ..
       final URL url = tempFile.toURI().toURL();
 
@@ -39,18 +39,22 @@ import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.xml.XMLHandlerCache;
 import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobAdapter;
 import org.pentaho.di.job.JobMeta;
 import org.pentaho.di.repository.RepositoriesMeta;
 import org.pentaho.di.repository.Repository;
 import org.pentaho.di.repository.RepositoryDirectoryInterface;
 import org.pentaho.di.repository.RepositoryMeta;
 import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransAdapter;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.RowListener;
 import org.pentaho.di.trans.step.StepMetaDataCombi;
 import org.pentaho.platform.api.engine.IActionSequenceResource;
 import org.pentaho.platform.api.engine.ILogger;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.engine.services.actionsequence.ActionSequenceResource;
+import org.pentaho.platform.engine.services.actionsequence.VersionedPrototypeCache;
 import org.pentaho.platform.engine.services.solution.ComponentBase;
 import org.pentaho.platform.plugin.action.messages.Messages;
 import org.pentaho.platform.util.xml.w3c.XmlW3CHelper;
@@ -91,6 +95,10 @@ import java.util.Map;
  * 
  * KETTLELOGLEVEL Sets the logging level to be used in the EXECUTION_LOG_OUTPUT Valid settings: basic detail error debug
  * minimal rowlevel
+ * 
+ * RUN_IN_BACKGROUND (run-in-background) When "true", returns as soon as the transformation or job is started instead of
+ * waiting for it to finish. EXECUTION_STATUS_OUTPUT and EXECUTION_LOG_OUTPUT then describe the started execution. Not
+ * possible with row outputs or a Kettle repository, in which case the execution runs in the foreground.
  */
 public class KettleComponent extends ComponentBase implements RowListener {
 
@@ -113,6 +121,8 @@ public class KettleComponent extends ComponentBase implements RowListener {
 
   private static final String KETTLELOGLEVEL = "kettle-logging-level"; //$NON-NLS-1$
 
+  private static final String RUN_IN_BACKGROUND = "run-in-background"; //$NON-NLS-1$
+
   private static final String EXECUTION_STATUS_OUTPUT = "kettle-execution-status"; //$NON-NLS-1$
 
   private static final String EXECUTION_LOG_OUTPUT = "kettle-execution-log"; //$NON-NLS-1$
@@ -135,6 +145,32 @@ public class KettleComponent extends ComponentBase implements RowListener {
       EXECUTION_LOG_OUTPUT, TRANSFORM_SUCCESS_OUTPUT, TRANSFORM_ERROR_OUTPUT, TRANSFORM_SUCCESS_COUNT_OUTPUT,
       TRANSFORM_ERROR_COUNT_OUTPUT ) );
 
+  private static final int MAX_CACHED_META = Integer.getInteger(
+      KettleComponent.class.getName() + ".maxCachedMeta", 100 ); //$NON-NLS-1$
+
+  /**
+   * Transformations read from files and solution resources, shared by all executions which each parameterize and
+   * clear their own clone.
+   */
+  private static final VersionedPrototypeCache<TransMeta> transMetaCache =
+      new VersionedPrototypeCache<TransMeta>( MAX_CACHED_META ) {
+        @Override
+        protected TransMeta copy( final TransMeta prototype ) {
+          return (TransMeta) prototype.clone();
+        }
+      };
+
+  /**
+   * Jobs read from solution resources, shared like {@link #transMetaCache}.
+   */
+  private static final VersionedPrototypeCache<JobMeta> jobMetaCache =
+      new VersionedPrototypeCache<JobMeta>( MAX_CACHED_META ) {
+        @Override
+        protected JobMeta copy( final JobMeta prototype ) {
+          return (JobMeta) prototype.clone();
+        }
+      };
+
   /**
    * The repositories.xml file location, if empty take the default $HOME/.kettle/repositories.xml
    */
@@ -168,6 +204,11 @@ public class KettleComponent extends ComponentBase implements RowListener {
    */
   private String logChannelId;
 
+  /**
+   * Whether the transformation or job was left running, its metadata is cleaned up when it finishes
+   */
+  private boolean runningInBackground;
+
   @Override
   public Log getLogger() {
     return LogFactory.getLog( KettleComponent.class );
@@ -327,6 +368,7 @@ public class KettleComponent extends ComponentBase implements RowListener {
 
     TransMeta transMeta = null;
     JobMeta jobMeta = null;
+    runningInBackground = false;
 
     // Build lists of parameters, variables and command line arguments
 
@@ -469,13 +511,21 @@ public class KettleComponent extends ComponentBase implements RowListener {
           }
         }
       } else if ( isDefinedResource( KettleComponent.TRANSFORMFILE ) ) {
-        IActionSequenceResource transformResource = getResource( KettleComponent.TRANSFORMFILE );
+        final IActionSequenceResource transformResource = getResource( KettleComponent.TRANSFORMFILE );
         String fileAddress = getActualFileName( transformResource );
+        final Repository transRepository = repository;
 
         try {
           if ( fileAddress != null ) { // We have an actual loadable
             // filesystem and file
-            transMeta = new TransMeta( fileAddress, repository, true );
+            final String transFile = fileAddress;
+            transMeta =
+                getMeta( transMetaCache, "file:" + transFile, new File( transFile ).lastModified(), //$NON-NLS-1$
+                    transRepository, new VersionedPrototypeCache.Loader<TransMeta>() {
+                      public TransMeta load() throws Exception {
+                        return new TransMeta( transFile, transRepository, true );
+                      }
+                    } );
             transMeta.setFilename( fileAddress );
           } else if ( repository != null && repository.isConnected() ) {
 
@@ -483,12 +533,19 @@ public class KettleComponent extends ComponentBase implements RowListener {
             // load transformation resource from kettle/settings.xml configured repository
             transMeta = loadTransformFromRepository( FilenameUtils.getPathNoEndSeparator( fileAddress ), FilenameUtils.getBaseName( fileAddress ), repository );
           } else {
-            String jobXmlStr = getResourceAsString( getResource( KettleComponent.TRANSFORMFILE ) );
-            jobXmlStr = jobXmlStr.replaceAll( "\\$\\{pentaho.solutionpath\\}", solutionPath ); //$NON-NLS-1$
-            jobXmlStr = jobXmlStr.replaceAll( "\\%\\%pentaho.solutionpath\\%\\%", solutionPath ); //$NON-NLS-1$
-            org.w3c.dom.Document doc = XmlW3CHelper.getDomFromString( jobXmlStr );
-            // create a tranformation from the document
-            transMeta = new TransMeta( doc.getFirstChild(), repository );
+            final String transSolutionPath = solutionPath;
+            transMeta =
+                getMeta( transMetaCache, ActionSequenceResource.getResourceKey( transformResource ),
+                    ActionSequenceResource.getResourceVersion( transformResource ), transRepository,
+                    new VersionedPrototypeCache.Loader<TransMeta>() {
+                      public TransMeta load() throws Exception {
+                        String jobXmlStr = getResourceAsString( transformResource );
+                        jobXmlStr = replaceSolutionPath( jobXmlStr, transSolutionPath );
+                        org.w3c.dom.Document doc = XmlW3CHelper.getDomFromString( jobXmlStr );
+                        // create a tranformation from the document
+                        return new TransMeta( doc.getFirstChild(), transRepository );
+                      }
+                    } );
           }
         } catch ( Exception e ) {
           error( Messages.getInstance().getErrorString(
@@ -535,27 +592,32 @@ public class KettleComponent extends ComponentBase implements RowListener {
 
           } else {
 
-            String jobXmlStr = getResourceAsString( getResource( KettleComponent.JOBFILE ) );
-            // String jobXmlStr =
-            // XmlW3CHelper.getContentFromSolutionResource(fileAddress);
-            jobXmlStr = jobXmlStr.replaceAll( "\\$\\{pentaho.solutionpath\\}", solutionPath ); //$NON-NLS-1$
-            jobXmlStr = jobXmlStr.replaceAll( "\\%\\%pentaho.solutionpath\\%\\%", solutionPath ); //$NON-NLS-1$
-            org.w3c.dom.Document doc = XmlW3CHelper.getDomFromString( jobXmlStr );
-            if ( doc == null ) {
-              error( Messages.getInstance().getErrorString(
-                  "Kettle.ERROR_0015_BAD_RESOURCE", KettleComponent.JOBFILE, fileAddress ) ); //$NON-NLS-1$
-              debug( getKettleLog( true ) );
-              return false;
-            }
-            // create a job from the document
+            final IActionSequenceResource jobResource = getResource( KettleComponent.JOBFILE );
+            final String jobFile = solutionPath + fileAddress;
+            // if we get a valid repository its great, if not try it
+            // without
+            repository = connectToRepository();
+            final Repository jobRepository = repository;
             try {
-              repository = connectToRepository();
-              // if we get a valid repository its great, if not try it
-              // without
-
-              jobMeta = new JobMeta( solutionPath + fileAddress, repository );
-            } catch ( Exception e ) {
-              error( Messages.getInstance().getString( "Kettle.ERROR_0023_NO_META" ), e ); //$NON-NLS-1$
+              jobMeta =
+                  getMeta( jobMetaCache, ActionSequenceResource.getResourceKey( jobResource ),
+                      ActionSequenceResource.getResourceVersion( jobResource ), jobRepository,
+                      new VersionedPrototypeCache.Loader<JobMeta>() {
+                        public JobMeta load() throws Exception {
+                          // the job is loaded from its file name, the document only tells whether it is readable
+                          org.w3c.dom.Document doc = XmlW3CHelper.getDomFromString( getResourceAsString( jobResource ) );
+                          if ( doc == null ) {
+                            return null;
+                          }
+                          // create a job from the document
+                          try {
+                            return new JobMeta( jobFile, jobRepository );
+                          } catch ( Exception e ) {
+                            error( Messages.getInstance().getString( "Kettle.ERROR_0023_NO_META" ), e ); //$NON-NLS-1$
+                            return null;
+                          }
+                        }
+                      } );
             } finally {
               if ( repository != null ) {
                 if ( ComponentBase.debug ) {
@@ -596,11 +658,12 @@ public class KettleComponent extends ComponentBase implements RowListener {
       // OK, we have the information, let's load and execute the
       // transformation or job
 
+      boolean background = isRunInBackground( repository );
       if ( transMeta != null ) {
-        result = executeTransformation( transMeta );
+        result = executeTransformation( transMeta, background );
       }
       if ( jobMeta != null ) {
-        result = executeJob( jobMeta, repository );
+        result = executeJob( jobMeta, repository, background );
       }
 
     } finally {
@@ -616,7 +679,7 @@ public class KettleComponent extends ComponentBase implements RowListener {
         }
       }
 
-      if ( transMeta != null ) {
+      if ( transMeta != null && !runningInBackground ) {
         try {
           cleanLogChannel( transMeta );
           transMeta.clear();
@@ -625,7 +688,7 @@ public class KettleComponent extends ComponentBase implements RowListener {
         }
         transMeta = null;
       }
-      if ( jobMeta != null ) {
+      if ( jobMeta != null && !runningInBackground ) {
         try {
           cleanLogChannel( jobMeta );
           jobMeta.clear();
@@ -650,6 +713,39 @@ public class KettleComponent extends ComponentBase implements RowListener {
 
   }
 
+  /**
+   * Returns a clone of the cached metadata, loading it on a miss. Metadata loaded with a Kettle repository may refer to
+   * it, so it is only shared when there is none.
+   */
+  private static <T> T getMeta( final VersionedPrototypeCache<T> cache, final String key, final long version,
+      final Repository repository, final VersionedPrototypeCache.Loader<T> loader ) throws Exception {
+    if ( repository != null ) {
+      return loader.load();
+    }
+    return cache.get( key, version, loader );
+  }
+
+  /**
+   * Points the <tt>pentaho.solutionpath</tt> variables of a transformation or job document to the solution.
+   */
+  static String replaceSolutionPath( final String xml, final String solutionPath ) {
+    return xml.replace( "${pentaho.solutionpath}", solutionPath ).replace( "%%pentaho.solutionpath%%", solutionPath ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  private boolean isRunInBackground( final Repository repository ) {
+    if ( !isDefinedInput( KettleComponent.RUN_IN_BACKGROUND )
+        || !"true".equalsIgnoreCase( getInputStringValue( KettleComponent.RUN_IN_BACKGROUND ) ) ) { //$NON-NLS-1$
+      return false;
+    }
+    // rows are only complete once the transformation finished, and the repository is disconnected on return
+    if ( repository != null || getTransformSuccessOutputName() != null || isDefinedOutput( TRANSFORM_ERROR_OUTPUT )
+        || isDefinedOutput( TRANSFORM_SUCCESS_COUNT_OUTPUT ) || isDefinedOutput( TRANSFORM_ERROR_COUNT_OUTPUT ) ) {
+      warn( Messages.getInstance().getString( "Kettle.WARN_BACKGROUND_NOT_SUPPORTED" ) ); //$NON-NLS-1$
+      return false;
+    }
+    return true;
+  }
+
   private void cleanLogChannel( LoggingObjectInterface loi ) {
     try {
       cleanLogChannelFromMap( loi );
@@ -700,7 +796,7 @@ public class KettleComponent extends ComponentBase implements RowListener {
     return true;
   }
 
-  private boolean executeTransformation( final TransMeta transMeta ) {
+  private boolean executeTransformation( final TransMeta transMeta, final boolean background ) {
     boolean success = true;
     Trans trans = null;
 
@@ -757,6 +853,18 @@ public class KettleComponent extends ComponentBase implements RowListener {
             "Kettle.ERROR_0012_ROW_LISTENER_CREATE_FAILED" ), e ); //$NON-NLS-1$
       }
 
+      if ( background ) {
+        trans.addTransListener( new TransAdapter() {
+          @Override
+          public void transFinished( final Trans finishedTrans ) {
+            cleanLogChannel( finishedTrans );
+            finishedTrans.cleanup();
+            cleanLogChannel( transMeta );
+            transMeta.clear();
+          }
+        } );
+      }
+
       try {
         debug( Messages.getInstance().getString( "Kettle.DEBUG_STARTING_TRANSFORMATION" ) ); //$NON-NLS-1$
         trans.startThreads();
@@ -765,6 +873,13 @@ public class KettleComponent extends ComponentBase implements RowListener {
             "Kettle.ERROR_0013_TRANSFORMATION_START_FAILED" ), e ); //$NON-NLS-1$
       }
 
+      if ( background ) {
+        runningInBackground = true;
+        debug( Messages.getInstance().getString( "Kettle.DEBUG_RUNNING_IN_BACKGROUND" ) ); //$NON-NLS-1$
+        prepareKettleOutput( trans );
+        return success;
+      }
+
       try {
         // It's running in a separate thread to allow monitoring,
         // etc.
@@ -975,7 +1090,7 @@ public class KettleComponent extends ComponentBase implements RowListener {
     return null;
   }
 
-  private boolean executeJob( final JobMeta jobMeta, final Repository repository ) {
+  private boolean executeJob( final JobMeta jobMeta, final Repository repository, final boolean background ) {
     boolean success = true;
     Job job = null;
 
@@ -1005,12 +1120,29 @@ public class KettleComponent extends ComponentBase implements RowListener {
         }
         LogLevel lvl = getLogLevel();
         job.setLogLevel( lvl );
+        if ( background ) {
+          job.addJobListener( new JobAdapter() {
+            @Override
+            public void jobFinished( final Job finishedJob ) {
+              cleanLogChannel( finishedJob );
+              cleanLogChannel( jobMeta );
+              jobMeta.clear();
+            }
+          } );
+        }
         job.start();
       } catch ( Exception e ) {
         throw new KettleComponentException( Messages.getInstance()
             .getErrorString( "Kettle.ERROR_0022_JOB_START_FAILED" ), e ); //$NON-NLS-1$
       }
 
+      if ( background ) {
+        runningInBackground = true;
+        debug( Messages.getInstance().getString( "Kettle.DEBUG_RUNNING_IN_BACKGROUND" ) ); //$NON-NLS-1$
+        prepareKettleOutput( job );
+        return success;
+      }
+
       try {
         // It's running in a separate tread to allow monitoring,
         // etc.
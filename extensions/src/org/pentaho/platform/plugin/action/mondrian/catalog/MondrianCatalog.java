@@ -37,7 +37,9 @@ public class MondrianCatalog implements Serializable {
 
   private String definition;
 
-  private MondrianSchema schema;
+  private volatile MondrianSchema schema;
+
+  private transient volatile SchemaLoader schemaLoader;
 
   // We will hold the extra information not directly related to XMLA properties
   private MondrianCatalogComplementInfo mondrianCatalogComplementInfo;
@@ -56,6 +58,16 @@ public class MondrianCatalog implements Serializable {
     this.mondrianCatalogComplementInfo = mondrianCatalogComplementInfo;
   }
 
+  /**
+   * Creates a catalog whose schema is parsed by <code>schemaLoader</code> the first time {@link #getSchema()} is
+   * called, so that catalog definitions can be listed without reading every schema file.
+   */
+  MondrianCatalog( final String name, final String dataSourceInfo, final String definition,
+      final SchemaLoader schemaLoader, final MondrianCatalogComplementInfo mondrianCatalogComplementInfo ) {
+    this( name, dataSourceInfo, definition, (MondrianSchema) null, mondrianCatalogComplementInfo );
+    this.schemaLoader = schemaLoader;
+  }
+
   public String getName() {
     return name;
   }
@@ -77,13 +89,39 @@ public class MondrianCatalog implements Serializable {
   }
 
   public MondrianSchema getSchema() {
-    return schema;
+    MondrianSchema result = schema;
+    if ( result == null && schemaLoader != null ) {
+      synchronized ( this ) {
+        SchemaLoader loader = schemaLoader;
+        if ( schema == null && loader != null ) {
+          schema = loader.loadSchema( this );
+          schemaLoader = null;
+        }
+        result = schema;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return true if the schema has been parsed (or was supplied up front), false if it is still pending
+   */
+  public boolean isSchemaLoaded() {
+    return schemaLoader == null;
   }
 
   public MondrianCatalogComplementInfo getMondrianCatalogComplementInfo() {
     return mondrianCatalogComplementInfo;
   }
 
+  /**
+   * Parses the schema of a lazily loaded catalog. Implementations should return <code>null</code> rather than throw
+   * when the schema cannot be read; the loader is called at most once per catalog.
+   */
+  public interface SchemaLoader {
+    MondrianSchema loadSchema( MondrianCatalog catalog );
+  }
+
   @Override
   public String toString() {
     return new ToStringBuilder( this ).append( "name", name ).append( "dataSourceInfo", dataSourceInfo ).append(
@@ -79,12 +79,17 @@ import org.pentaho.platform.repository2.unified.jcr.JcrAclNodeHelper;
 import org.pentaho.platform.util.logging.Logger;
 import org.pentaho.platform.util.messages.LocaleHelper;
 import org.pentaho.platform.util.xml.dom4j.XmlDom4JHelper;
+import org.springframework.security.context.SecurityContext;
+import org.springframework.security.context.SecurityContextHolder;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXParseException;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -102,9 +107,17 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Reads in file containing Mondrian data sources and catalogs. (Contains code copied from <code>XmlaServlet</code>.)
@@ -143,6 +156,17 @@ public class MondrianCatalogHelper implements IAclAwareMondrianCatalogService {
   private IAclNodeHelper aclHelper;
   private MondrianCatalogRepositoryHelper catalogRepositoryHelper;
 
+  /**
+   * Number of background threads used to parse the schemas of lazily loaded catalogs after the catalog definitions
+   * are cached. Zero (the default) parses each schema on demand only.
+   */
+  private int schemaWarmUpThreads = 0;
+
+  /**
+   * Incremented each time catalogs are reinitialized, see {@link #getCatalogVersion()}.
+   */
+  private final AtomicLong catalogVersion = new AtomicLong();
+
   public static final String MONDRIAN_DATASOURCE_FOLDER = "mondrian"; //$NON-NLS-1$
 
   // ~ Constructors ====================================================================================================
@@ -273,6 +297,7 @@ public class MondrianCatalogHelper implements IAclAwareMondrianCatalogService {
   }
 
   public synchronized void reInit( final IPentahoSession pentahoSession ) {
+    catalogVersion.incrementAndGet();
     final ICacheManager cacheMgr = PentahoSystem.getCacheManager( pentahoSession );
     if ( cacheMgr.cacheEnabled( MONDRIAN_CATALOG_CACHE_REGION ) ) {
       cacheMgr.clearRegionCache( MONDRIAN_CATALOG_CACHE_REGION );
@@ -280,6 +305,60 @@ public class MondrianCatalogHelper implements IAclAwareMondrianCatalogService {
     init( pentahoSession );
   }
 
+  /**
+   * Invalidates a single catalog, identified by name or definition, instead of clearing the whole
+   * <code>mondrian-catalog-cache</code> region. The catalog definitions for the current locale are reloaded right
+   * away while other catalogs keep their parsed schemas; catalog maps cached for other locales are dropped and rebuilt
+   * on their next use.
+   */
+  public synchronized void reInitCatalog( final String catalogName, final IPentahoSession pentahoSession ) {
+    catalogVersion.incrementAndGet();
+    final ICacheManager cacheMgr = PentahoSystem.getCacheManager( pentahoSession );
+    if ( cacheMgr.cacheEnabled( MONDRIAN_CATALOG_CACHE_REGION ) ) {
+      final String currentLocale = getLocale().toString();
+      Set<?> keys = cacheMgr.getAllKeysFromRegionCache( MONDRIAN_CATALOG_CACHE_REGION );
+      for ( Object key : keys == null ? Collections.emptyList() : new ArrayList<Object>( keys ) ) {
+        Object value = cacheMgr.getFromRegionCache( MONDRIAN_CATALOG_CACHE_REGION, key );
+        // Analyzer cache is also placed in the MONDRIAN_CATALOG_CACHE_REGION, leave its entries alone
+        if ( !isCatalogMap( value ) ) {
+          continue;
+        }
+        if ( currentLocale.equals( key ) ) {
+          Iterator<?> catalogs = ( (Map<?, ?>) value ).values().iterator();
+          while ( catalogs.hasNext() ) {
+            MondrianCatalog catalog = (MondrianCatalog) catalogs.next();
+            if ( catalogName.equals( catalog.getName() ) || catalogName.equals( catalog.getDefinition() ) ) {
+              catalogs.remove();
+            }
+          }
+        } else {
+          cacheMgr.removeFromRegionCache( MONDRIAN_CATALOG_CACHE_REGION, key );
+        }
+      }
+      if ( cacheMgr.getFromRegionCache( MONDRIAN_CATALOG_CACHE_REGION, currentLocale ) != null ) {
+        loadCatalogsIntoCache( makeDataSources(), pentahoSession );
+        return;
+      }
+    }
+    init( pentahoSession );
+  }
+
+  /**
+   * Returns a number that changes whenever catalogs are added, removed or reinitialized, so that callers can keep what
+   * they derive from the catalogs until it changes.
+   */
+  public long getCatalogVersion() {
+    return catalogVersion.get();
+  }
+
+  private static boolean isCatalogMap( final Object value ) {
+    if ( !( value instanceof Map ) ) {
+      return false;
+    }
+    Iterator<?> values = ( (Map<?, ?>) value ).values().iterator();
+    return values.hasNext() && values.next() instanceof MondrianCatalog;
+  }
+
   private static Locale getLocale() {
     final Locale locale = LocaleHelper.getLocale();
     if ( locale != null ) {
@@ -643,7 +722,7 @@ public class MondrianCatalogHelper implements IAclAwareMondrianCatalogService {
       MondrianCatalogHelper.logger
           .debug( "refreshing from dataSourcesConfig (" + dataSourcesConfig + ")" ); //$NON-NLS-1$ //$NON-NLS-2$
     }
-    reInit( pentahoSession );
+    reInitCatalog( catalog.getName(), pentahoSession );
 
     setAclFor( catalog.getName(), acl );
 
@@ -734,7 +813,7 @@ public class MondrianCatalogHelper implements IAclAwareMondrianCatalogService {
               .get( IUnifiedRepository.class ) );
       helper.addSchema( schemaInputStream, catalogName, datasourceInfo );
 
-      reInit( PentahoSessionHolder.getSession() );
+      reInitCatalog( catalogName, PentahoSessionHolder.getSession() );
 
       flushCacheForCatalog( catalogName, PentahoSessionHolder.getSession() );
     } catch ( SAXParseException e ) {
@@ -830,43 +909,34 @@ public class MondrianCatalogHelper implements IAclAwareMondrianCatalogService {
     if ( cacheMgr.getFromRegionCache( MONDRIAN_CATALOG_CACHE_REGION, getLocale().toString() ) == null ) {
       // Put the map in the region
       cacheMgr.putInRegionCache( MONDRIAN_CATALOG_CACHE_REGION, getLocale().toString(),
-          new HashMap<String, List<MondrianCatalog>>() );
+          new ConcurrentHashMap<String, MondrianCatalog>() );
+    }
+    if ( dataSources == null ) {
+      return;
     }
 
-    for ( DataSourcesConfig.DataSource dataSource : dataSources.dataSources ) {
-      List<String> catalogNames = new ArrayList<String>();
-      for ( DataSourcesConfig.Catalog catalog : dataSource.catalogs.catalogs ) {
-        catalogNames.add( catalog.name );
-      }
-
-      Map<String, MondrianCatalog> catalogs =
-          (Map<String, MondrianCatalog>) cacheMgr.getFromRegionCache( MONDRIAN_CATALOG_CACHE_REGION, getLocale()
-              .toString() );
+    Map<String, MondrianCatalog> catalogs =
+        (Map<String, MondrianCatalog>) cacheMgr.getFromRegionCache( MONDRIAN_CATALOG_CACHE_REGION, getLocale()
+            .toString() );
+    List<MondrianCatalog> pendingCatalogs = new ArrayList<MondrianCatalog>();
 
+    for ( DataSourcesConfig.DataSource dataSource : dataSources.dataSources ) {
       for ( DataSourcesConfig.Catalog catalog : dataSource.catalogs.catalogs ) {
         if ( catalog.definition.startsWith( "mondrian:" ) || catalog.definition
             .startsWith( "solution:" ) ) { //$NON-NLS-1$
 
-          // try catch here so the whole thing doesn't blow up if one datasource is configured incorrectly.
-          MondrianSchema schema = null;
-          try {
-            schema = makeSchema( getCatalogAsString( pentahoSession, catalog ) );
-
-          } catch ( Exception e ) {
-            MondrianCatalogHelper.logger.error( Messages.getInstance().getErrorString(
-                "MondrianCatalogHelper.ERROR_0013_FAILED_TO_LOAD_SCHEMA", catalog.definition ), e ); //$NON-NLS-1$
-          }
-          MondrianCatalog mondrianCatalog = null;
-          if ( schema == null ) {
-            mondrianCatalog = new MondrianCatalog( catalog.name, catalog.dataSourceInfo, catalog.definition, schema );
-          } else {
-            mondrianCatalog =
-                new MondrianCatalog( useSchemaNameAsCatalogName ? schema.getName() : catalog.name,
-                    catalog.dataSourceInfo, catalog.definition, schema );
+          // keep catalogs (and their already parsed schemas) that were not invalidated since the last load
+          MondrianCatalog mondrianCatalog = catalogs.get( catalog.definition );
+          if ( mondrianCatalog == null
+              || !StringUtils.equals( mondrianCatalog.getDataSourceInfo(), catalog.dataSourceInfo ) ) {
+            mondrianCatalog = makeCatalog( catalog, pentahoSession );
           }
 
           catalogs.put( mondrianCatalog.getName(), mondrianCatalog );
           catalogs.put( mondrianCatalog.getDefinition(), mondrianCatalog );
+          if ( !mondrianCatalog.isSchemaLoaded() ) {
+            pendingCatalogs.add( mondrianCatalog );
+          }
 
         } else {
           MondrianCatalogHelper.logger.warn( Messages.getInstance().getString(
@@ -874,6 +944,135 @@ public class MondrianCatalogHelper implements IAclAwareMondrianCatalogService {
         }
       }
     }
+    warmUpSchemas( pendingCatalogs, pentahoSession );
+  }
+
+  /**
+   * Creates the cache entry for a catalog definition. The schema of hosted (<code>mondrian:</code>) catalogs is fetched
+   * and parsed lazily on first use; when the catalog is named after its schema, only the root element of the stored
+   * file is read up front (see {@link #readSchemaName(DataSourcesConfig.Catalog)}).
+   * Other catalogs whose name can only be learned from the schema itself are parsed right away.
+   */
+  protected MondrianCatalog makeCatalog( final DataSourcesConfig.Catalog catalog,
+      final IPentahoSession pentahoSession ) {
+    if ( !useSchemaNameAsCatalogName || catalog.definition.startsWith( "mondrian:" ) ) { //$NON-NLS-1$
+      String name = useSchemaNameAsCatalogName ? readSchemaName( catalog ) : null;
+      return new MondrianCatalog( name == null ? catalog.name : name, catalog.dataSourceInfo, catalog.definition,
+          new CatalogSchemaLoader( catalog, getLocale() ), new MondrianCatalogComplementInfo() );
+    }
+    MondrianSchema schema = loadCatalogSchema( catalog, pentahoSession );
+    if ( schema == null ) {
+      return new MondrianCatalog( catalog.name, catalog.dataSourceInfo, catalog.definition, schema );
+    } else {
+      return new MondrianCatalog( schema.getName(), catalog.dataSourceInfo, catalog.definition, schema );
+    }
+  }
+
+  /**
+   * Reads the name of a catalog's schema from the root element of the stored file. Only the start of the file is read,
+   * and neither the dynamic schema processor nor the localizer is run; the schema itself is still fetched and parsed
+   * lazily.
+   */
+  protected String readSchemaName( final DataSourcesConfig.Catalog catalog ) {
+    InputStream in = null;
+    try {
+      in = VFS.getManager().resolveFile( catalog.definition ).getContent().getInputStream();
+      XMLInputFactory factory = XMLInputFactory.newInstance();
+      factory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+      XMLStreamReader reader = factory.createXMLStreamReader( in );
+      try {
+        while ( reader.hasNext() ) {
+          if ( reader.next() == XMLStreamConstants.START_ELEMENT ) {
+            return reader.getAttributeValue( null, "name" ); //$NON-NLS-1$
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch ( Exception e ) {
+      MondrianCatalogHelper.logger.error( Messages.getInstance().getErrorString(
+          "MondrianCatalogHelper.ERROR_0013_FAILED_TO_LOAD_SCHEMA", catalog.definition ), e ); //$NON-NLS-1$
+    } finally {
+      IOUtils.closeQuietly( in );
+    }
+    return null;
+  }
+
+  private MondrianSchema loadCatalogSchema( final DataSourcesConfig.Catalog catalog,
+      final IPentahoSession pentahoSession ) {
+    // try catch here so the whole thing doesn't blow up if one datasource is configured incorrectly.
+    try {
+      return makeSchema( getCatalogAsString( pentahoSession, catalog ) );
+    } catch ( Exception e ) {
+      MondrianCatalogHelper.logger.error( Messages.getInstance().getErrorString(
+          "MondrianCatalogHelper.ERROR_0013_FAILED_TO_LOAD_SCHEMA", catalog.definition ), e ); //$NON-NLS-1$
+      return null;
+    }
+  }
+
+  /**
+   * Parses the given catalogs' schemas in the background, on at most <code>schemaWarmUpThreads</code> threads. A
+   * request that needs one of these schemas before the warm-up reaches it simply parses it on its own thread.
+   */
+  protected void warmUpSchemas( final List<MondrianCatalog> catalogs, final IPentahoSession pentahoSession ) {
+    if ( schemaWarmUpThreads <= 0 || catalogs.isEmpty() ) {
+      return;
+    }
+    final SecurityContext securityContext = SecurityContextHolder.getContext();
+    ExecutorService executor =
+        Executors.newFixedThreadPool( Math.min( schemaWarmUpThreads, catalogs.size() ), new ThreadFactory() {
+          private final AtomicInteger count = new AtomicInteger();
+
+          public Thread newThread( Runnable r ) {
+            Thread thread = new Thread( r, "mondrian-schema-warmup-" + count.incrementAndGet() ); //$NON-NLS-1$
+            thread.setDaemon( true );
+            return thread;
+          }
+        } );
+    for ( final MondrianCatalog catalog : catalogs ) {
+      executor.execute( new Runnable() {
+        public void run() {
+          PentahoSessionHolder.setSession( pentahoSession );
+          SecurityContextHolder.setContext( securityContext );
+          try {
+            catalog.getSchema();
+          } catch ( Exception e ) {
+            MondrianCatalogHelper.logger.error( Messages.getInstance().getErrorString(
+                "MondrianCatalogHelper.ERROR_0013_FAILED_TO_LOAD_SCHEMA", catalog.getDefinition() ), e ); //$NON-NLS-1$
+          } finally {
+            PentahoSessionHolder.removeSession();
+            SecurityContextHolder.clearContext();
+          }
+        }
+      } );
+    }
+    executor.shutdown();
+  }
+
+  /**
+   * Parses a lazily loaded catalog's schema for the locale the catalog was cached under, regardless of the locale of
+   * the thread that first asks for it.
+   */
+  private class CatalogSchemaLoader implements MondrianCatalog.SchemaLoader {
+
+    private final DataSourcesConfig.Catalog catalog;
+
+    private final Locale locale;
+
+    CatalogSchemaLoader( final DataSourcesConfig.Catalog catalog, final Locale locale ) {
+      this.catalog = catalog;
+      this.locale = locale;
+    }
+
+    public MondrianSchema loadSchema( final MondrianCatalog mondrianCatalog ) {
+      Locale origLocaleOverride = LocaleHelper.getLocaleOverride();
+      LocaleHelper.setLocaleOverride( locale );
+      try {
+        return loadCatalogSchema( catalog, PentahoSessionHolder.getSession() );
+      } finally {
+        LocaleHelper.setLocaleOverride( origLocaleOverride );
+      }
+    }
   }
 
   protected String applyDSP( IPentahoSession ps, String catalogDsInfo, String catalogDefinition ) throws Exception {
@@ -1091,6 +1290,14 @@ public class MondrianCatalogHelper implements IAclAwareMondrianCatalogService {
 
   }
 
+  public int getSchemaWarmUpThreads() {
+    return schemaWarmUpThreads;
+  }
+
+  public void setSchemaWarmUpThreads( final int schemaWarmUpThreads ) {
+    this.schemaWarmUpThreads = schemaWarmUpThreads;
+  }
+
   public boolean isUseSchemaNameAsCatalogName() {
     return useSchemaNameAsCatalogName;
   }
@@ -1202,6 +1409,6 @@ public class MondrianCatalogHelper implements IAclAwareMondrianCatalogService {
     RepositoryFile deletingFile = solutionRepository.getFile( RepositoryFile.SEPARATOR + "etc" //$NON-NLS-1$
         + RepositoryFile.SEPARATOR + "mondrian" + RepositoryFile.SEPARATOR + catalog.getName() ); //$NON-NLS-1$
     solutionRepository.deleteFile( deletingFile.getId(), true, "" ); //$NON-NLS-1$
-    reInit( pentahoSession );
+    reInitCatalog( catalog.getName(), pentahoSession );
   }
 }
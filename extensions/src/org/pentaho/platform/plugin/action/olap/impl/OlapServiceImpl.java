@@ -27,14 +27,22 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.common.base.Predicate;
 import com.google.common.collect.Collections2;
@@ -55,7 +63,6 @@ import org.apache.commons.vfs2.VFS;
 import org.apache.commons.vfs2.impl.DefaultFileSystemManager;
 import org.olap4j.OlapConnection;
 import org.olap4j.OlapException;
-import org.pentaho.platform.api.engine.ICacheManager;
 import org.pentaho.platform.api.engine.IConnectionUserRoleMapper;
 import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.api.engine.PentahoAccessControlException;
@@ -86,17 +93,21 @@ import org.springframework.security.userdetails.UserDetailsService;
  * <p>It will also check for the presence of a {@link IConnectionUserRoleMapper}
  * and change the roles accordingly before creating a connection.
  * <p/>
- * <p>This implementation is thread safe. It will use a {@link ReadWriteLock}
- * to manage the access to its metadata.
+ * <p>This implementation is thread safe. The catalog metadata is kept in
+ * immutable per-locale snapshots which are published atomically, so readers
+ * never lock. Snapshots are rebuilt, one catalog at a time where possible,
+ * by a single background thread.
  */
 public class OlapServiceImpl implements IOlapService {
 
+  /**
+   * @deprecated The catalog metadata is no longer kept in the platform cache.
+   */
+  @Deprecated
   public static String CATALOG_CACHE_REGION = "iolapservice-catalog-cache"; //$NON-NLS-1$
 
   static final String MONDRIAN_DATASOURCE_FOLDER = "mondrian"; //$NON-NLS-1$
 
-  final ReadWriteLock cacheLock = new ReentrantReadWriteLock();
-
   /**
    * This is the default name of an XMLA data source on the server.
    * Mondrian XMLA servers only support a single data source.
@@ -117,6 +128,44 @@ public class OlapServiceImpl implements IOlapService {
   private final List<IOlapConnectionFilter> filters;
   private Role role;
 
+  /**
+   * The published catalog snapshots, keyed by {@link #makeCacheSubRegionKey(Locale)}.
+   * A snapshot is never modified; it is replaced as a whole.
+   */
+  private final ConcurrentMap<Object, CatalogSnapshot> snapshots =
+    new ConcurrentHashMap<Object, CatalogSnapshot>();
+
+  /**
+   * Initial builds in progress, so that concurrent first readers of a
+   * locale wait for the same build.
+   */
+  private final ConcurrentMap<Object, FutureTask<CatalogSnapshot>> pendingBuilds =
+    new ConcurrentHashMap<Object, FutureTask<CatalogSnapshot>>();
+
+  /**
+   * Runs all snapshot rebuilds, one at a time, off the request threads.
+   */
+  private final ExecutorService rebuildExecutor =
+    Executors.newSingleThreadExecutor( new ThreadFactory() {
+      public Thread newThread( Runnable r ) {
+        final Thread thread = new Thread( r, "olap-catalog-cache-rebuild" ); //$NON-NLS-1$
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+
+  /**
+   * Guards the publication of snapshots against a concurrent {@link #resetCache(IPentahoSession)}.
+   * Readers never take it.
+   */
+  private final Object publishLock = new Object();
+
+  private long cacheGeneration = 0;
+
+  private final AtomicLong rebuildCount = new AtomicLong();
+  private final AtomicLong rebuildTotalMillis = new AtomicLong();
+  private volatile long lastRebuildMillis = 0;
+
   private static Log getLogger() {
     return LogFactory.getLog( IOlapService.class );
   }
@@ -191,57 +240,24 @@ public class OlapServiceImpl implements IOlapService {
   }
 
   /**
-   * Returns a list of catalogs for the current session.
-   *
-   * <p>The cache is stored in the platform's caches in the region
-   * {@link #CATALOG_CACHE_REGION}. It is also segmented by
-   * locale, but we only return the correct sub-region according to the
-   * session passed as a parameter.
+   * Returns the list of catalogs published for the current locale, or an
+   * empty list if it wasn't built yet. The list is immutable.
    */
-  @SuppressWarnings( "unchecked" )
-  protected synchronized List<IOlapService.Catalog> getCache( IPentahoSession session ) {
-    // Create the cache region if necessary.
-    final ICacheManager cacheMgr = PentahoSystem.getCacheManager( session );
-    final Object cacheKey = makeCacheSubRegionKey( getLocale() );
-
-
-    final Lock writeLock = cacheLock.writeLock();
-    try {
-
-      writeLock.lock();
-
-      if ( !cacheMgr.cacheEnabled( CATALOG_CACHE_REGION ) ) {
-        // Create the region. This requires write access.
-        cacheMgr.addCacheRegion( CATALOG_CACHE_REGION );
-      }
-
-      if ( cacheMgr.getFromRegionCache( CATALOG_CACHE_REGION, cacheKey ) == null ) {
-        // Create the sub-region. This requires write access.
-        cacheMgr.putInRegionCache(
-          CATALOG_CACHE_REGION,
-          cacheKey,
-          new ArrayList<IOlapService.Catalog>() );
-      }
-
-      return (List<IOlapService.Catalog>)
-        cacheMgr.getFromRegionCache( CATALOG_CACHE_REGION, cacheKey );
-
-    } finally {
-      writeLock.unlock();
-    }
+  protected List<IOlapService.Catalog> getCache( IPentahoSession session ) {
+    final CatalogSnapshot snapshot =
+      snapshots.get( makeCacheSubRegionKey( getLocale() ) );
+    return snapshot == null
+      ? Collections.<IOlapService.Catalog>emptyList()
+      : snapshot.catalogs;
   }
 
   /**
    * Clears all caches for all locales.
    */
   protected void resetCache( IPentahoSession session ) {
-    final Lock writeLock = cacheLock.writeLock();
-    try {
-      writeLock.lock();
-      final ICacheManager cacheMgr = PentahoSystem.getCacheManager( session );
-      cacheMgr.clearRegionCache( CATALOG_CACHE_REGION );
-    } finally {
-      writeLock.unlock();
+    synchronized ( publishLock ) {
+      cacheGeneration++;
+      snapshots.clear();
     }
   }
 
@@ -254,96 +270,198 @@ public class OlapServiceImpl implements IOlapService {
    * will be populated.
    */
   protected void initCache( IPentahoSession session ) {
+    getSnapshot();
+  }
 
-    final List<Catalog> cache = getCache( session );
+  /**
+   * Returns the snapshot of the current locale, building it first if
+   * needed. Concurrent callers share the same build.
+   */
+  private CatalogSnapshot getSnapshot() {
+    final Locale locale = getLocale();
+    final Object cacheKey = makeCacheSubRegionKey( locale );
 
-    final boolean needUpdate;
-    final Lock readLock = cacheLock.readLock();
+    final CatalogSnapshot snapshot = snapshots.get( cacheKey );
+    if ( snapshot != null ) {
+      return snapshot;
+    }
 
-    try {
-      readLock.lock();
-      // Check if the cache is empty.
-      if ( cache.size() == 0 ) {
-        needUpdate = true;
-      } else {
-        needUpdate = false;
+    FutureTask<CatalogSnapshot> build = pendingBuilds.get( cacheKey );
+    if ( build == null ) {
+      final FutureTask<CatalogSnapshot> newBuild =
+        new FutureTask<CatalogSnapshot>( makeRebuildTask( locale, null ) );
+      build = pendingBuilds.putIfAbsent( cacheKey, newBuild );
+      if ( build == null ) {
+        build = newBuild;
+        rebuildExecutor.execute( newBuild );
       }
+    }
+
+    try {
+      return build.get();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new IOlapServiceException( e );
+    } catch ( ExecutionException e ) {
+      LOG.error(
+        "Failed to initialize the connection cache",
+        e.getCause() );
+      throw new IOlapServiceException( e.getCause() );
     } finally {
-      readLock.unlock();
+      pendingBuilds.remove( cacheKey, build );
     }
+  }
 
-    if ( needUpdate ) {
-      final Lock writeLock = cacheLock.writeLock();
-      try {
-        writeLock.lock();
-
-        // First clear the cache
-        cache.clear();
-
-        final Callable<Void> call = new Callable<Void>() {
-          public Void call() throws Exception {
-            // Now build the cache. Use the system session in the holder.
-            for ( String name : getHelper().getHostedCatalogs() ) {
-              try {
-                addCatalogToCache( PentahoSessionHolder.getSession(), name );
-              } catch ( Throwable t ) {
-                LOG.error(
-                  "Failed to initialize the cache for OLAP connection "
-                  + name,
-                  t );
-              }
-            }
-            for ( String name : getHelper().getOlap4jServers() ) {
-              try {
-                addCatalogToCache( PentahoSessionHolder.getSession(), name );
-              } catch ( Throwable t ) {
-                LOG.error(
-                  "Failed to initialize the cache for OLAP connection "
-                  + name,
-                  t );
-              }
-            }
-            return null;
+  /**
+   * Drops a catalog from all the published snapshots right away and
+   * reloads it in the background, leaving the other catalogs untouched.
+   */
+  protected void refreshCatalog( final String catalogName ) {
+    final List<Locale> locales = new ArrayList<Locale>();
+    synchronized ( publishLock ) {
+      if ( !pendingBuilds.isEmpty() ) {
+        // A full build in progress may have listed the catalogs before this
+        // change. Let it complete, but don't publish its result.
+        cacheGeneration++;
+      }
+      for ( Map.Entry<Object, CatalogSnapshot> entry : snapshots.entrySet() ) {
+        final CatalogSnapshot snapshot = entry.getValue();
+        entry.setValue( snapshot.without( Collections.singleton( catalogName ) ) );
+        locales.add( snapshot.locale );
+      }
+    }
+    for ( Locale locale : locales ) {
+      final Callable<CatalogSnapshot> task =
+        makeRebuildTask( locale, Collections.singleton( catalogName ) );
+      rebuildExecutor.execute( new Runnable() {
+        public void run() {
+          try {
+            task.call();
+          } catch ( Exception e ) {
+            LOG.error(
+              "Failed to refresh the cache for OLAP connection "
+              + catalogName,
+              e );
           }
-        };
+        }
+      } );
+    }
+  }
 
-        if ( isSecurityEnabled() ) {
-          SecurityHelper.getInstance().runAsSystem( call );
-        } else {
-          call.call();
+  /**
+   * Creates a task which rebuilds the snapshot of the given locale. If
+   * <code>catalogNames</code> is null, all catalogs are loaded. Otherwise,
+   * only the named catalogs are reloaded and all others are carried over
+   * from the currently published snapshot.
+   */
+  private Callable<CatalogSnapshot> makeRebuildTask(
+    final Locale locale,
+    final Set<String> catalogNames ) {
+    final IPentahoSession callerSession = PentahoSessionHolder.getSession();
+    return new Callable<CatalogSnapshot>() {
+      public CatalogSnapshot call() throws Exception {
+        PentahoSessionHolder.setSession( callerSession );
+        LocaleHelper.setLocaleOverride( locale );
+        try {
+          return rebuildSnapshot( locale, catalogNames );
+        } finally {
+          LocaleHelper.setLocaleOverride( null );
+          PentahoSessionHolder.removeSession();
         }
+      }
+    };
+  }
 
-        // Sort it all.
-        Collections.sort(
-          cache,
-          new Comparator<IOlapService.Catalog>() {
-            public int compare( Catalog o1, Catalog o2 ) {
-              return o1.name.compareTo( o2.name );
-            }
-          } );
+  private CatalogSnapshot rebuildSnapshot(
+    final Locale locale,
+    final Set<String> catalogNames ) throws Exception {
 
-      } catch ( Throwable t ) {
+    final Object cacheKey = makeCacheSubRegionKey( locale );
+    final long generation;
+    final boolean published;
+    synchronized ( publishLock ) {
+      generation = cacheGeneration;
+      published = snapshots.containsKey( cacheKey );
+    }
+    if ( catalogNames != null && !published ) {
+      // Nothing to update. The next reader will do a full build.
+      return null;
+    }
 
-        LOG.error(
-          "Failed to initialize the connection cache",
-          t );
+    final long start = System.currentTimeMillis();
+    final List<Catalog> loaded = new ArrayList<Catalog>();
+    final Callable<Void> call = new Callable<Void>() {
+      public Void call() throws Exception {
+        // Use the system session in the holder.
+        final Set<String> existing = new HashSet<String>();
+        existing.addAll( getHelper().getHostedCatalogs() );
+        existing.addAll( getHelper().getOlap4jServers() );
+        for ( String name : catalogNames == null ? existing : catalogNames ) {
+          if ( !existing.contains( name ) ) {
+            continue;
+          }
+          try {
+            final Catalog catalog = loadCatalog( PentahoSessionHolder.getSession(), name );
+            if ( catalog != null ) {
+              loaded.add( catalog );
+            }
+          } catch ( Throwable t ) {
+            LOG.error(
+              "Failed to initialize the cache for OLAP connection "
+              + name,
+              t );
+          }
+        }
+        return null;
+      }
+    };
 
-        throw new IOlapServiceException( t );
+    if ( isSecurityEnabled() ) {
+      SecurityHelper.getInstance().runAsSystem( call );
+    } else {
+      call.call();
+    }
 
-      } finally {
-        writeLock.unlock();
+    CatalogSnapshot snapshot = null;
+    synchronized ( publishLock ) {
+      // Don't resurrect a snapshot which was reset while we were busy.
+      if ( generation == cacheGeneration ) {
+        if ( catalogNames == null ) {
+          snapshot = new CatalogSnapshot( locale, loaded );
+        } else if ( snapshots.containsKey( cacheKey ) ) {
+          snapshot = snapshots.get( cacheKey ).without( catalogNames ).with( loaded );
+        }
+        if ( snapshot != null ) {
+          snapshots.put( cacheKey, snapshot );
+        }
       }
     }
+    if ( snapshot == null && catalogNames == null ) {
+      // The cache was reset during the build. Hand the result to the
+      // waiting readers anyway, but don't publish it.
+      snapshot = new CatalogSnapshot( locale, loaded );
+    }
+
+    final long elapsed = System.currentTimeMillis() - start;
+    lastRebuildMillis = elapsed;
+    rebuildTotalMillis.addAndGet( elapsed );
+    rebuildCount.incrementAndGet();
+    if ( LOG.isDebugEnabled() ) {
+      LOG.debug(
+        "Rebuilt OLAP catalog cache for locale " + locale //$NON-NLS-1$
+        + ( catalogNames == null ? "" : " (catalogs " + catalogNames + ")" ) //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        + " in " + elapsed + " ms" ); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    return snapshot;
   }
 
   /**
-   * Adds a catalog and its children to the cache.
-   * Do not use directly. This must be called with a write lock
-   * on the cache.
+   * Loads a catalog and its children.
    *
-   * @param catalogName The name of the catalog to load in cache.
+   * @param catalogName The name of the catalog to load.
+   * @return the catalog, or null if no connection could be made to it.
    */
-  private void addCatalogToCache( IPentahoSession session, String catalogName ) {
+  private Catalog loadCatalog( IPentahoSession session, String catalogName ) {
 
     final IOlapService.Catalog catalog =
       new Catalog( catalogName, new ArrayList<IOlapService.Schema>() );
@@ -375,7 +493,7 @@ public class OlapServiceImpl implements IOlapService {
       }
 
       // We're done.
-      getCache( session ).add( catalog );
+      return catalog;
 
     } catch ( OlapException e ) {
 
@@ -383,6 +501,7 @@ public class OlapServiceImpl implements IOlapService {
         "Failed to initialize the olap connection cache for catalog "
         + catalogName,
         e );
+      return null;
 
     } finally {
       try {
@@ -398,6 +517,64 @@ public class OlapServiceImpl implements IOlapService {
     }
   }
 
+  /**
+   * @return the number of catalog cache rebuilds, full or incremental, since startup.
+   */
+  public long getCatalogCacheRebuildCount() {
+    return rebuildCount.get();
+  }
+
+  /**
+   * @return the duration of the last catalog cache rebuild, in milliseconds.
+   */
+  public long getLastCatalogCacheRebuildMillis() {
+    return lastRebuildMillis;
+  }
+
+  /**
+   * @return the accumulated duration of all catalog cache rebuilds, in milliseconds.
+   */
+  public long getTotalCatalogCacheRebuildMillis() {
+    return rebuildTotalMillis.get();
+  }
+
+  /**
+   * An immutable list of catalogs, sorted by name, for one locale.
+   */
+  private static final class CatalogSnapshot {
+    final Locale locale;
+    final List<IOlapService.Catalog> catalogs;
+
+    CatalogSnapshot( Locale locale, Collection<IOlapService.Catalog> catalogs ) {
+      final List<IOlapService.Catalog> sorted = new ArrayList<IOlapService.Catalog>( catalogs );
+      Collections.sort(
+        sorted,
+        new Comparator<IOlapService.Catalog>() {
+          public int compare( Catalog o1, Catalog o2 ) {
+            return o1.name.compareTo( o2.name );
+          }
+        } );
+      this.locale = locale;
+      this.catalogs = Collections.unmodifiableList( sorted );
+    }
+
+    CatalogSnapshot without( Set<String> names ) {
+      final List<IOlapService.Catalog> remaining = new ArrayList<IOlapService.Catalog>();
+      for ( Catalog catalog : catalogs ) {
+        if ( !names.contains( catalog.name ) ) {
+          remaining.add( catalog );
+        }
+      }
+      return new CatalogSnapshot( locale, remaining );
+    }
+
+    CatalogSnapshot with( Collection<IOlapService.Catalog> added ) {
+      final List<IOlapService.Catalog> all = new ArrayList<IOlapService.Catalog>( catalogs );
+      all.addAll( added );
+      return new CatalogSnapshot( locale, all );
+    }
+  }
+
   public void addHostedCatalog(
     String name,
     String dataSourceInfo,
@@ -431,6 +608,8 @@ public class OlapServiceImpl implements IOlapService {
         e,
         IOlapServiceException.Reason.convert( e ) );
     }
+
+    refreshCatalog( name );
   }
 
   protected boolean hasAccess(
@@ -471,6 +650,8 @@ public class OlapServiceImpl implements IOlapService {
         new MondrianCatalogRepositoryHelper( getRepository() );
 
     helper.addOlap4jServer( name, className, URL, user, password, props );
+
+    refreshCatalog( name );
   }
 
   public void removeCatalog( String name, IPentahoSession session ) {
@@ -493,21 +674,18 @@ public class OlapServiceImpl implements IOlapService {
 
     // This could be a remote connection
     getHelper().deleteCatalog( name );
+
+    refreshCatalog( name );
   }
 
   public void flushAll( IPentahoSession session ) {
-    final Lock writeLock = cacheLock.writeLock();
     try {
-      writeLock.lock();
-
       // Start by flushing the local cache.
       resetCache( session );
 
       flushHostedAndRemote( session );
     } catch ( Exception e ) {
       throw new IOlapServiceException( e );
-    } finally {
-      writeLock.unlock();
     }
   }
 
@@ -588,30 +766,19 @@ public class OlapServiceImpl implements IOlapService {
 
   public List<IOlapService.Catalog> getCatalogs( IPentahoSession session ) throws IOlapServiceException {
 
-    // Make sure the cache is initialized.
-    initCache( session );
-    final List<Catalog> cache = getCache( session );
+    // Make sure the cache is initialized. The snapshot is immutable.
+    final List<Catalog> cache = getSnapshot().catalogs;
 
-    final Lock readLock = cacheLock.readLock();
-    try {
-      readLock.lock();
-
-      final List<IOlapService.Catalog> catalogs =
-        new ArrayList<IOlapService.Catalog>();
-      for ( Catalog catalog : cache ) {
-        if ( hasAccess( catalog.name, EnumSet.of( RepositoryFilePermission.READ ), session ) ) {
-          catalogs.add( catalog );
-        }
+    final List<IOlapService.Catalog> catalogs =
+      new ArrayList<IOlapService.Catalog>();
+    for ( Catalog catalog : cache ) {
+      if ( hasAccess( catalog.name, EnumSet.of( RepositoryFilePermission.READ ), session ) ) {
+        catalogs.add( catalog );
       }
-
-      // Do not leak the cache list.
-      // Do not allow modifications on the list.
-      return Collections.unmodifiableList(
-        new ArrayList<IOlapService.Catalog>( cache ) );
-
-    } finally {
-      readLock.unlock();
     }
+
+    // Do not allow modifications on the list.
+    return Collections.unmodifiableList( catalogs );
   }
 
   public List<IOlapService.Schema> getSchemas(
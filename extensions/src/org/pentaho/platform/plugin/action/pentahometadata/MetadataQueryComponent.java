@@ -30,7 +30,10 @@ import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.services.runtime.TemplateUtil;
 import org.pentaho.platform.plugin.action.messages.Messages;
+import org.pentaho.platform.util.messages.LocaleHelper;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -196,6 +199,12 @@ public class MetadataQueryComponent {
       }
     }
 
+    int resultCacheTtl = MetadataQueryResultCache.getInstance().getDefaultTtlSeconds();
+    Object resultCacheTtlProperty = queryObject.getLogicalModel().getProperty( "result_cache_ttl" ); //$NON-NLS-1$
+    if ( resultCacheTtlProperty != null && resultCacheTtlProperty instanceof Number ) {
+      resultCacheTtl = ( (Number) resultCacheTtlProperty ).intValue();
+    }
+
     String queryExecName = queryObject.getLogicalModel().getPhysicalModel().getQueryExecName();
     String queryExecDefault = queryObject.getLogicalModel().getPhysicalModel().getDefaultQueryClassname();
     // String modelType = (String) inputs.get("modeltype");
@@ -228,6 +237,7 @@ public class MetadataQueryComponent {
       }
     }
     // determine parameter values
+    List<String> keyParts = new ArrayList<String>();
     if ( queryObject.getParameters() != null ) {
       for ( Parameter param : queryObject.getParameters() ) {
 
@@ -237,6 +247,8 @@ public class MetadataQueryComponent {
         }
 
         executor.setParameter( param, value );
+        keyParts.add( param.getName() );
+        keyParts.add( MetadataQueryResultCache.toKeyPart( value ) );
 
       }
     }
@@ -252,18 +264,42 @@ public class MetadataQueryComponent {
         executor.setInputs( this.inputs );
       }
 
+      // results read into memory anyway can be shared with later runs of the same query that get the same row
+      // level security constraint
+      String domainId = queryObject.getDomain().getId();
+      String resultCacheKey = null;
+      if ( !live && executor.isLive() && resultCacheTtl > 0 && repo != null ) {
+        keyParts.add( helper.toXML( queryObject ) );
+        keyParts.add( String.valueOf( maxRows ) );
+        keyParts.add( executor.getClass().getName() );
+        keyParts.add( String.valueOf( LocaleHelper.getLocale() ) );
+        keyParts.add( repo.generateRowLevelSecurityConstraint( queryObject.getLogicalModel() ) );
+        resultCacheKey =
+            MetadataQueryResultCache.createKey( domainId, keyParts.toArray( new String[keyParts.size()] ) );
+        resultSet = MetadataQueryResultCache.getInstance().get( resultCacheKey );
+        if ( resultSet != null ) {
+          return true;
+        }
+      }
+
       resultSet = executor.executeQuery( queryObject );
       if ( resultSet != null && !live && executor.isLive() ) {
         // read the results and cache them
         MemoryResultSet cachedResultSet = new MemoryResultSet( resultSet.getMetaData() );
+        List<Object[]> rows = new ArrayList<Object[]>();
         Object[] rowObjects = resultSet.next();
         while ( rowObjects != null ) {
           cachedResultSet.addRow( rowObjects );
+          rows.add( rowObjects );
           rowObjects = resultSet.next();
         }
         resultSet.close();
         resultSet.closeConnection();
         resultSet = cachedResultSet;
+        if ( resultCacheKey != null ) {
+          MetadataQueryResultCache.getInstance().put( domainId, resultCacheKey, cachedResultSet.getMetaData(), rows,
+              resultCacheTtl );
+        }
       }
 
       return resultSet != null;
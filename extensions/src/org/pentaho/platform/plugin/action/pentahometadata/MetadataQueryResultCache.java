@@ -0,0 +1,252 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.plugin.action.pentahometadata;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.pentaho.commons.connection.IPentahoMetaData;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.commons.connection.memory.MemoryResultSet;
+
+import java.lang.reflect.Array;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the rows of metadata query results, so that the same query run again by users who get the same row level
+ * security constraint is answered without going to the database. Entries are keyed on everything that decides the
+ * generated SQL (see {@link #createKey(String, String...)}), never on the session, so users sharing a constraint share
+ * the cached rows while users with different constraints never see each other's.
+ * <p/>
+ * Entries live for the time to live given when they are stored, and all entries of a domain are dropped when the
+ * domain is published again or removed. At most
+ * <code>org.pentaho.platform.plugin.action.pentahometadata.MetadataQueryResultCache.maxEntries</code> results (500 by
+ * default) of up to <code>...maxRows</code> rows each (10000 by default) are kept, the least recently used ones are
+ * dropped beyond that. Results are only cached when a time to live is set, either on the logical model
+ * (<code>result_cache_ttl</code>, in seconds) or through <code>...ttlSeconds</code> (0, i.e. off, by default).
+ */
+public class MetadataQueryResultCache {
+
+  private static final int DEFAULT_MAX_ENTRIES = 500;
+
+  private static final int DEFAULT_MAX_ROWS = 10000;
+
+  private static final MetadataQueryResultCache instance = new MetadataQueryResultCache( Integer.getInteger(
+      MetadataQueryResultCache.class.getName() + ".maxEntries", DEFAULT_MAX_ENTRIES ), //$NON-NLS-1$
+      Integer.getInteger( MetadataQueryResultCache.class.getName() + ".maxRows", DEFAULT_MAX_ROWS ), //$NON-NLS-1$
+      Integer.getInteger( MetadataQueryResultCache.class.getName() + ".ttlSeconds", 0 ) ); //$NON-NLS-1$
+
+  private final Map<String, CachedResult> results;
+
+  private final int maxRows;
+
+  private final int defaultTtlSeconds;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  public static MetadataQueryResultCache getInstance() {
+    return instance;
+  }
+
+  MetadataQueryResultCache( final int maxEntries, final int maxRows, final int defaultTtlSeconds ) {
+    this.maxRows = maxRows;
+    this.defaultTtlSeconds = defaultTtlSeconds;
+    results = new LinkedHashMap<String, CachedResult>( 16, 0.75f, true ) {
+      private static final long serialVersionUID = -2931788465420193467L;
+
+      @Override
+      protected boolean removeEldestEntry( final Map.Entry<String, CachedResult> eldest ) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Builds the key of a query result. The parts must together decide the SQL that is run: the query, its parameter
+   * values, the row limit, the executor and the row level security constraint of the current user.
+   */
+  public static String createKey( final String domainId, final String... parts ) {
+    StringBuilder sb = new StringBuilder();
+    for ( String part : parts ) {
+      // the length keeps ("a", "bc") and ("ab", "c") apart
+      sb.append( part == null ? -1 : part.length() ).append( ':' ).append( part ).append( '\n' );
+    }
+    return domainId + ":" + DigestUtils.shaHex( sb.toString() ); //$NON-NLS-1$
+  }
+
+  /**
+   * Turns a parameter value into a part of a key. Unlike its <code>toString()</code>, the part tells values of
+   * different types apart, holds the full precision of dates and walks arrays and collections, so that values which can
+   * lead to different SQL never get the same part.
+   */
+  public static String toKeyPart( final Object value ) {
+    StringBuilder sb = new StringBuilder();
+    appendKeyPart( sb, value );
+    return sb.toString();
+  }
+
+  private static void appendKeyPart( final StringBuilder sb, final Object value ) {
+    if ( value == null ) {
+      sb.append( "null" ); //$NON-NLS-1$
+      return;
+    }
+    sb.append( value.getClass().getName() );
+    if ( value.getClass().isArray() ) {
+      int length = Array.getLength( value );
+      sb.append( '[' ).append( length ).append( ']' );
+      for ( int i = 0; i < length; i++ ) {
+        sb.append( '(' );
+        appendKeyPart( sb, Array.get( value, i ) );
+        sb.append( ')' );
+      }
+    } else if ( value instanceof Collection ) {
+      Collection<?> collection = (Collection<?>) value;
+      sb.append( '[' ).append( collection.size() ).append( ']' );
+      for ( Object item : collection ) {
+        sb.append( '(' );
+        appendKeyPart( sb, item );
+        sb.append( ')' );
+      }
+    } else if ( value instanceof Date ) {
+      // toString() drops the milliseconds and depends on the time zone
+      sb.append( ':' ).append( ( (Date) value ).getTime() );
+      if ( value instanceof Timestamp ) {
+        sb.append( '.' ).append( ( (Timestamp) value ).getNanos() );
+      }
+    } else {
+      String string = value.toString();
+      sb.append( ':' ).append( string.length() ).append( ':' ).append( string );
+    }
+  }
+
+  /**
+   * @return the time to live used when the logical model does not set one, in seconds
+   */
+  public int getDefaultTtlSeconds() {
+    return defaultTtlSeconds;
+  }
+
+  /**
+   * Returns a copy of the cached result, or <code>null</code> if there is none or it has expired. The copy can be read
+   * and closed without affecting other callers.
+   */
+  public IPentahoResultSet get( final String key ) {
+    CachedResult result;
+    synchronized ( results ) {
+      result = results.get( key );
+      if ( result != null && result.expires <= System.currentTimeMillis() ) {
+        results.remove( key );
+        result = null;
+      }
+    }
+    if ( result == null ) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    MemoryResultSet copy = new MemoryResultSet( result.metaData );
+    for ( Object[] row : result.rows ) {
+      copy.addRow( row.clone() );
+    }
+    return copy;
+  }
+
+  /**
+   * Stores the rows of a result read to its end. Results with more rows than allowed are not stored.
+   *
+   * @param ttlSeconds
+   *          how long the result may be served, nothing is stored if this is not positive
+   * @return whether the result was stored
+   */
+  public boolean put( final String domainId, final String key, final IPentahoMetaData metaData,
+      final List<Object[]> rows, final int ttlSeconds ) {
+    if ( ttlSeconds <= 0 || rows.size() > maxRows ) {
+      return false;
+    }
+    List<Object[]> copies = new ArrayList<Object[]>( rows.size() );
+    for ( Object[] row : rows ) {
+      copies.add( row.clone() );
+    }
+    CachedResult result =
+        new CachedResult( domainId, metaData, copies, System.currentTimeMillis() + ttlSeconds * 1000L );
+    synchronized ( results ) {
+      results.put( key, result );
+    }
+    return true;
+  }
+
+  /**
+   * Drops the results of all queries against a domain.
+   */
+  public void clearDomain( final String domainId ) {
+    synchronized ( results ) {
+      for ( Iterator<CachedResult> it = results.values().iterator(); it.hasNext(); ) {
+        if ( it.next().domainId.equals( domainId ) ) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  public void clear() {
+    synchronized ( results ) {
+      results.clear();
+    }
+  }
+
+  public int getSize() {
+    synchronized ( results ) {
+      return results.size();
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  private static class CachedResult {
+
+    final String domainId;
+
+    final IPentahoMetaData metaData;
+
+    final List<Object[]> rows;
+
+    final long expires;
+
+    CachedResult( final String domainId, final IPentahoMetaData metaData, final List<Object[]> rows,
+        final long expires ) {
+      this.domainId = domainId;
+      this.metaData = metaData;
+      this.rows = rows;
+      this.expires = expires;
+    }
+  }
+}
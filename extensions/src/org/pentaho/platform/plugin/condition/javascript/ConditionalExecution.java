@@ -20,7 +20,6 @@ package org.pentaho.platform.plugin.condition.javascript;
 import org.apache.commons.logging.Log;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.ContextFactory;
-import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
 import org.pentaho.commons.connection.IPentahoResultSet;
 import org.pentaho.platform.api.engine.IActionParameter;
@@ -50,10 +49,9 @@ public class ConditionalExecution implements IConditionalExecution {
     boolean shouldExecute = true;
     Context cx = ContextFactory.getGlobal().enterContext();
     try {
-      ScriptableObject scriptable = new RhinoScriptable();
-      // initialize the standard javascript objects
-      Scriptable scope = cx.initStandardObjects( scriptable );
-      ScriptableObject.defineClass( scope, JavaScriptResultSet.class );
+      RhinoScriptCache scriptCache = RhinoScriptCache.getInstance();
+      // a scope with its own standard objects, JavaScriptResultSet comes from the shared scope
+      ScriptableObject scope = scriptCache.newScope( cx );
       Object inputValue;
       IActionParameter inputParameter;
       String inputName;
@@ -75,7 +73,7 @@ public class ConditionalExecution implements IConditionalExecution {
 
           // Required as of Rhino 1.7R1 to resolve caching, base object
           // inheritance and property tree
-          results.setPrototype( scriptable );
+          results.setPrototype( scope );
 
           results.setResultSet( (IPentahoResultSet) inputValue );
           wrapper = Context.javaToJS( inputValue, results );
@@ -90,7 +88,7 @@ public class ConditionalExecution implements IConditionalExecution {
       ScriptableObject.putProperty( scope, "rule", wrappedThis ); //$NON-NLS-1$
 
       // evaluate the script
-      Object resultObject = cx.evaluateString( scope, script, "<cmd>", 1, null ); //$NON-NLS-1$
+      Object resultObject = scriptCache.getScript( cx, script ).exec( cx, scope );
 
       Object actualObject = null;
       if ( resultObject instanceof org.mozilla.javascript.NativeJavaObject ) {
@@ -0,0 +1,164 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.plugin.condition.javascript;
+
+import org.apache.commons.codec.binary.Hex;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Script;
+import org.mozilla.javascript.ScriptableObject;
+import org.pentaho.platform.plugin.services.connections.javascript.JavaScriptResultSet;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps what the javascript rule and conditions need to run a script, so that it is not set up again for each
+ * execution:
+ * <ul>
+ * <li>the compiled scripts, keyed on a digest of their source. At most
+ * <code>org.pentaho.platform.plugin.condition.javascript.RhinoScriptCache.maxEntries</code> scripts (200 by default)
+ * are kept, the least recently used ones are dropped beyond that.</li>
+ * <li>a sealed scope with the <code>JavaScriptResultSet</code> class, which is the prototype of the scope of each
+ * execution. Defining the class is the expensive part of setting up a scope.</li>
+ * </ul>
+ * Each execution still gets its own standard javascript objects, so that scripts may change built-in objects without
+ * affecting other scripts, and variables they define stay in their own scope.
+ */
+public class RhinoScriptCache {
+
+  private static final int DEFAULT_MAX_ENTRIES = 200;
+
+  private static final RhinoScriptCache instance = new RhinoScriptCache( Integer.getInteger(
+      RhinoScriptCache.class.getName() + ".maxEntries", DEFAULT_MAX_ENTRIES ) ); //$NON-NLS-1$
+
+  private final Map<String, Script> scripts;
+
+  private volatile ScriptableObject sharedScope;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  public static RhinoScriptCache getInstance() {
+    return instance;
+  }
+
+  RhinoScriptCache( final int maxEntries ) {
+    scripts = new LinkedHashMap<String, Script>( 16, 0.75f, true ) {
+      private static final long serialVersionUID = -3150863170236592862L;
+
+      @Override
+      protected boolean removeEldestEntry( final Map.Entry<String, Script> eldest ) {
+        return size() > maxEntries;
+      }
+    };
+  }
+
+  /**
+   * Returns a new scope with its own standard objects, whose prototype is the shared scope with
+   * <code>JavaScriptResultSet</code>.
+   *
+   * @param cx
+   *          the entered context
+   */
+  public ScriptableObject newScope( final Context cx ) throws Exception {
+    ScriptableObject scope = new RhinoScriptable();
+    scope.setPrototype( getSharedScope( cx ) );
+    scope.setParentScope( null );
+    cx.initStandardObjects( scope );
+    return scope;
+  }
+
+  private ScriptableObject getSharedScope( final Context cx ) throws Exception {
+    ScriptableObject shared = sharedScope;
+    if ( shared == null ) {
+      synchronized ( this ) {
+        shared = sharedScope;
+        if ( shared == null ) {
+          // only the platform's own class is sealed; the standard objects here are just what defineClass needs
+          shared = cx.initStandardObjects( new RhinoScriptable(), true );
+          ScriptableObject.defineClass( shared, JavaScriptResultSet.class, true, false );
+          shared.sealObject();
+          sharedScope = shared;
+        }
+      }
+    }
+    return shared;
+  }
+
+  /**
+   * Returns the compiled form of a script.
+   *
+   * @param cx
+   *          the entered context, used to compile the script the first time
+   * @param source
+   *          the script
+   */
+  public Script getScript( final Context cx, final String source ) {
+    String key = digest( source );
+    Script script;
+    synchronized ( scripts ) {
+      script = scripts.get( key );
+    }
+    if ( script != null ) {
+      hits.incrementAndGet();
+      return script;
+    }
+    misses.incrementAndGet();
+    script = cx.compileString( source, "<cmd>", 1, null ); //$NON-NLS-1$
+    synchronized ( scripts ) {
+      scripts.put( key, script );
+    }
+    return script;
+  }
+
+  private static String digest( final String source ) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance( "SHA-1" ); //$NON-NLS-1$
+      return new String( Hex.encodeHex( digest.digest( source.getBytes( "UTF-8" ) ) ) ); //$NON-NLS-1$
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new IllegalStateException( e );
+    } catch ( UnsupportedEncodingException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+
+  public void clear() {
+    synchronized ( scripts ) {
+      scripts.clear();
+    }
+  }
+
+  public int getSize() {
+    synchronized ( scripts ) {
+      return scripts.size();
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+}
@@ -203,6 +203,25 @@ public class EmailConfiguration implements Serializable, IEmailConfiguration {
         && isEquals( this.userId, that.userId ) && isEquals( this.password, that.password ) );
   }
 
+  @Override
+  public int hashCode() {
+    // blank and null strings are equal, see equals()
+    int result = ( authenticate ? 1 : 0 ) | ( debug ? 2 : 0 ) | ( smtpQuitWait ? 4 : 0 ) | ( useSsl ? 8 : 0 )
+        | ( useStartTls ? 16 : 0 );
+    result = 31 * result + getSmtpPort().hashCode();
+    result = 31 * result + hashCode( defaultFrom );
+    result = 31 * result + hashCode( fromName );
+    result = 31 * result + hashCode( smtpHost );
+    result = 31 * result + hashCode( smtpProtocol );
+    result = 31 * result + hashCode( userId );
+    result = 31 * result + hashCode( password );
+    return result;
+  }
+
+  private int hashCode( final String value ) {
+    return StringUtils.isBlank( value ) ? 0 : value.hashCode();
+  }
+
   private boolean isEquals( final String a, final String b ) {
     return StringUtils.equals( a, b ) || ( StringUtils.isBlank( a ) && StringUtils.isBlank( b ) );
   }
@@ -18,7 +18,6 @@
 
 package org.pentaho.platform.plugin.services.email;
 
-import org.apache.commons.lang.ObjectUtils;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -29,18 +28,14 @@ import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.plugin.services.messages.Messages;
 import org.pentaho.platform.util.xml.dom4j.XmlDom4JHelper;
 
-import javax.mail.Authenticator;
 import javax.mail.Message;
-import javax.mail.PasswordAuthentication;
 import javax.mail.Session;
-import javax.mail.Transport;
 import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Date;
-import java.util.Properties;
 
 /**
  * Manages the email connection information
@@ -139,27 +134,8 @@ public class EmailService implements IEmailService {
    *           indicates an error running the test (as in an invalid configuration)
    */
   public String sendEmailTest( final IEmailConfiguration emailConfig ) {
-    final Properties emailProperties = new Properties();
-    emailProperties.setProperty( "mail.smtp.host", emailConfig.getSmtpHost() );
-    emailProperties.setProperty( "mail.smtp.port", ObjectUtils.toString( emailConfig.getSmtpPort() ) );
-    emailProperties.setProperty( "mail.transport.protocol", emailConfig.getSmtpProtocol() );
-    emailProperties.setProperty( "mail.smtp.starttls.enable", ObjectUtils.toString( emailConfig.isUseStartTls() ) );
-    emailProperties.setProperty( "mail.smtp.auth", ObjectUtils.toString( emailConfig.isAuthenticate() ) );
-    emailProperties.setProperty( "mail.smtp.ssl", ObjectUtils.toString( emailConfig.isUseSsl() ) );
-    emailProperties.setProperty( "mail.debug", ObjectUtils.toString( emailConfig.isDebug() ) );
-
-    Session session = null;
-    if ( emailConfig.isAuthenticate() ) {
-      Authenticator authenticator = new Authenticator() {
-        @Override
-        protected PasswordAuthentication getPasswordAuthentication() {
-          return new PasswordAuthentication( emailConfig.getUserId(), emailConfig.getPassword() );
-        }
-      };
-      session = Session.getInstance( emailProperties, authenticator );
-    } else {
-      session = Session.getInstance( emailProperties );
-    }
+    final SmtpTransportPool transportPool = SmtpTransportPool.getInstance( emailConfig );
+    final Session session = transportPool.getSession();
 
     String sendEmailMessage = "";
     try {
@@ -170,7 +146,7 @@ public class EmailService implements IEmailService {
       msg.setText( messages.getString( "EmailService.MESSAGE" ) );
       msg.setHeader( "X-Mailer", "smtpsend" );
       msg.setSentDate( new Date() );
-      Transport.send( msg );
+      transportPool.send( msg );
       sendEmailMessage = "EmailTester.SUCESS";
     } catch ( Exception e ) {
       logger.error( messages.getString( "EmailService.NOT_CONFIGURED" ), e );
@@ -0,0 +1,574 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2014 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.plugin.services.email;
+
+import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.pentaho.platform.api.email.IEmailConfiguration;
+import org.pentaho.platform.plugin.services.messages.Messages;
+import org.pentaho.platform.util.PasswordHelper;
+
+import javax.mail.Address;
+import javax.mail.AuthenticationFailedException;
+import javax.mail.Authenticator;
+import javax.mail.MessagingException;
+import javax.mail.PasswordAuthentication;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends mail over SMTP connections that are kept open and reused, instead of opening, authenticating and closing a
+ * connection for every message as {@link Transport#send(javax.mail.Message)} does. There is one pool per email
+ * configuration, see {@link #getInstance(IEmailConfiguration)}.
+ * <p/>
+ * A pooled connection is checked with a NOOP before it is reused, and failures to open a connection are retried. A
+ * message is never sent again once it has been handed to the server, since the server may have accepted it before the
+ * failure, and sending it again could deliver it twice. {@link SmtpTransportPoolSystemListener} closes the pools when
+ * the platform shuts down.
+ * <p/>
+ * Messages can be sent synchronously with {@link #send(MimeMessage)}, or queued with a {@link Batch}. The queue is
+ * bounded: when it is full the caller sends the message itself, which slows down producers to the rate the mail
+ * server accepts.
+ * <p/>
+ * The pools are configured with system properties prefixed with
+ * <tt>org.pentaho.platform.plugin.services.email.SmtpTransportPool.</tt>: <tt>maxConnections</tt>,
+ * <tt>maxIdleSeconds</tt>, <tt>maxMessagesPerConnection</tt>, <tt>maxRetries</tt>, <tt>retryDelayMillis</tt> and
+ * <tt>queueCapacity</tt>.
+ */
+public class SmtpTransportPool {
+
+  private static final Log logger = LogFactory.getLog( SmtpTransportPool.class );
+
+  private static final Messages messages = Messages.getInstance();
+
+  private static final String PROPERTY_PREFIX = SmtpTransportPool.class.getName() + "."; //$NON-NLS-1$
+
+  private static final int MAX_CONNECTIONS = Integer.getInteger( PROPERTY_PREFIX + "maxConnections", 4 ); //$NON-NLS-1$
+
+  private static final int MAX_IDLE_SECONDS =
+      Integer.getInteger( PROPERTY_PREFIX + "maxIdleSeconds", 60 ); //$NON-NLS-1$
+
+  private static final int MAX_MESSAGES_PER_CONNECTION = Integer.getInteger(
+      PROPERTY_PREFIX + "maxMessagesPerConnection", 100 ); //$NON-NLS-1$
+
+  private static final int MAX_RETRIES = Integer.getInteger( PROPERTY_PREFIX + "maxRetries", 2 ); //$NON-NLS-1$
+
+  private static final int RETRY_DELAY_MILLIS =
+      Integer.getInteger( PROPERTY_PREFIX + "retryDelayMillis", 1000 ); //$NON-NLS-1$
+
+  private static final int QUEUE_CAPACITY = Integer.getInteger( PROPERTY_PREFIX + "queueCapacity", 1000 ); //$NON-NLS-1$
+
+  private static final ConcurrentMap<EmailConfiguration, SmtpTransportPool> pools =
+      new ConcurrentHashMap<EmailConfiguration, SmtpTransportPool>();
+
+  private final IEmailConfiguration emailConfig;
+
+  private final Session session;
+
+  private final int maxConnections;
+
+  private final long maxIdleMillis;
+
+  private final int maxMessagesPerConnection;
+
+  private final int maxRetries;
+
+  private final long retryDelayMillis;
+
+  private final int queueCapacity;
+
+  // limits the open connections; sending blocks while all of them are busy
+  private final Semaphore connectionPermits;
+
+  // most recently used first, so that surplus connections expire
+  private final LinkedBlockingDeque<PooledTransport> idleTransports = new LinkedBlockingDeque<PooledTransport>();
+
+  // sends the messages of batches, created on first use
+  private ThreadPoolExecutor sender;
+
+  private volatile boolean shutdown;
+
+  private volatile long lastUsed = System.currentTimeMillis();
+
+  private final AtomicLong messagesSent = new AtomicLong();
+
+  private final AtomicLong messagesFailed = new AtomicLong();
+
+  private final AtomicLong retries = new AtomicLong();
+
+  private final AtomicLong connectionsOpened = new AtomicLong();
+
+  /**
+   * Returns the pool of connections to the mail server of the given configuration, creating it when the
+   * configuration is used for the first time. Pools of other configurations that have been idle for longer than the
+   * idle timeout are shut down.
+   */
+  public static SmtpTransportPool getInstance( final IEmailConfiguration emailConfig ) {
+    return getInstance( emailConfig, null );
+  }
+
+  /**
+   * Returns the pool of connections to the mail server of the given configuration, see
+   * {@link #getInstance(IEmailConfiguration)}.
+   *
+   * @param defaultFromName
+   *          the sender name used when the configuration does not set one
+   */
+  public static SmtpTransportPool getInstance( final IEmailConfiguration emailConfig, final String defaultFromName ) {
+    final String fromName =
+        StringUtils.isEmpty( emailConfig.getFromName() ) ? defaultFromName : emailConfig.getFromName();
+    // copied, so that later changes to the configuration object don't affect the key
+    final EmailConfiguration key =
+        new EmailConfiguration( emailConfig.isAuthenticate(), emailConfig.isDebug(), emailConfig.getDefaultFrom(),
+            fromName, emailConfig.getSmtpHost(), emailConfig.getSmtpPort(), emailConfig
+                .getSmtpProtocol(), emailConfig.isSmtpQuitWait(), emailConfig.getUserId(), emailConfig
+                .getPassword(), emailConfig.isUseSsl(), emailConfig.isUseStartTls() );
+    SmtpTransportPool pool = pools.get( key );
+    if ( pool == null ) {
+      final SmtpTransportPool newPool =
+          new SmtpTransportPool( key, MAX_CONNECTIONS, MAX_IDLE_SECONDS * 1000L, MAX_MESSAGES_PER_CONNECTION,
+              MAX_RETRIES, RETRY_DELAY_MILLIS, QUEUE_CAPACITY );
+      pool = pools.putIfAbsent( key, newPool );
+      if ( pool == null ) {
+        pool = newPool;
+      }
+      retireIdlePools( pool );
+    }
+    pool.lastUsed = System.currentTimeMillis();
+    return pool;
+  }
+
+  private static void retireIdlePools( final SmtpTransportPool current ) {
+    long now = System.currentTimeMillis();
+    for ( Iterator<Map.Entry<EmailConfiguration, SmtpTransportPool>> it = pools.entrySet().iterator(); it.hasNext(); ) {
+      SmtpTransportPool pool = it.next().getValue();
+      if ( ( pool != current ) && ( now - pool.lastUsed > pool.maxIdleMillis ) ) {
+        it.remove();
+        pool.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Shuts down the pools of all configurations, closing their connections.
+   */
+  public static void shutdownAll() {
+    for ( Iterator<SmtpTransportPool> it = pools.values().iterator(); it.hasNext(); ) {
+      SmtpTransportPool pool = it.next();
+      it.remove();
+      pool.shutdown();
+    }
+  }
+
+  SmtpTransportPool( final IEmailConfiguration emailConfig, final int maxConnections, final long maxIdleMillis,
+      final int maxMessagesPerConnection, final int maxRetries, final long retryDelayMillis, final int queueCapacity ) {
+    this.maxConnections = Math.max( 1, maxConnections );
+    this.maxIdleMillis = maxIdleMillis;
+    this.maxMessagesPerConnection = Math.max( 1, maxMessagesPerConnection );
+    this.maxRetries = Math.max( 0, maxRetries );
+    this.retryDelayMillis = retryDelayMillis;
+    this.queueCapacity = Math.max( 1, queueCapacity );
+    this.connectionPermits = new Semaphore( this.maxConnections, true );
+    this.emailConfig = emailConfig;
+    this.session = createSession( emailConfig, emailConfig.isDebug() );
+  }
+
+  private static Session createSession( final IEmailConfiguration emailConfig, final boolean debug ) {
+    final Properties props = new Properties();
+    props.put( "mail.smtp.host", emailConfig.getSmtpHost() ); //$NON-NLS-1$
+    props.put( "mail.smtp.port", ObjectUtils.toString( emailConfig.getSmtpPort() ) ); //$NON-NLS-1$
+    props.put( "mail.transport.protocol", emailConfig.getSmtpProtocol() ); //$NON-NLS-1$
+    props.put( "mail.smtp.starttls.enable", ObjectUtils.toString( emailConfig.isUseStartTls() ) ); //$NON-NLS-1$
+    props.put( "mail.smtp.auth", ObjectUtils.toString( emailConfig.isAuthenticate() ) ); //$NON-NLS-1$
+    props.put( "mail.smtp.ssl", ObjectUtils.toString( emailConfig.isUseSsl() ) ); //$NON-NLS-1$
+    props.put( "mail.smtp.quitwait", ObjectUtils.toString( emailConfig.isSmtpQuitWait() ) ); //$NON-NLS-1$
+    props.put( "mail.from.default", emailConfig.getDefaultFrom() ); //$NON-NLS-1$
+    props.put( "mail.from.name", ObjectUtils.toString( emailConfig.getFromName() ) ); //$NON-NLS-1$
+    props.put( "mail.debug", ObjectUtils.toString( emailConfig.isDebug() ) ); //$NON-NLS-1$
+
+    final Session session;
+    if ( emailConfig.isAuthenticate() ) {
+      final String userId = emailConfig.getUserId();
+      final String password = emailConfig.getPassword();
+      props.put( "mail.userid", userId ); //$NON-NLS-1$
+      Authenticator authenticator = new Authenticator() {
+        @Override
+        protected PasswordAuthentication getPasswordAuthentication() {
+          return new PasswordAuthentication( userId, new PasswordHelper().getPassword( password ) );
+        }
+      };
+      session = Session.getInstance( props, authenticator );
+    } else {
+      session = Session.getInstance( props );
+    }
+    if ( debug ) {
+      session.setDebug( true );
+    }
+    return session;
+  }
+
+  /**
+   * The session to create the messages sent by this pool with. It is shared, so it must not be changed.
+   */
+  public Session getSession() {
+    return session;
+  }
+
+  /**
+   * Creates a session like the one of this pool that prints the SMTP conversation. It is meant for a single message
+   * sent with {@link Transport#send(javax.mail.Message)} rather than through the pool, so that the shared session and
+   * its connections are left alone.
+   */
+  public Session createDebugSession() {
+    return createSession( emailConfig, true );
+  }
+
+  /**
+   * Sends the message on a pooled connection, waiting while all connections are busy.
+   *
+   * @throws SendFailedException
+   *           if some or all of the addresses were rejected; the message was sent to the valid addresses
+   * @throws MessagingException
+   *           if the message could not be sent after the configured retries
+   */
+  public void send( final MimeMessage msg ) throws MessagingException {
+    send( msg, null );
+  }
+
+  private void send( final MimeMessage msg, final Batch batch ) throws MessagingException {
+    lastUsed = System.currentTimeMillis();
+    msg.saveChanges();
+    Address[] recipients = msg.getAllRecipients();
+    if ( ( recipients == null ) || ( recipients.length == 0 ) ) {
+      messagesFailed.incrementAndGet();
+      throw new SendFailedException( "No recipient addresses" ); //$NON-NLS-1$
+    }
+    try {
+      connectionPermits.acquire();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      messagesFailed.incrementAndGet();
+      throw new MessagingException(
+          messages.getErrorString( "SmtpTransportPool.ERROR_0001_INTERRUPTED" ), e ); //$NON-NLS-1$
+    }
+    try {
+      deliver( borrow( recipients[0], batch ), msg, recipients );
+      messagesSent.incrementAndGet();
+    } catch ( MessagingException e ) {
+      messagesFailed.incrementAndGet();
+      throw e;
+    } finally {
+      connectionPermits.release();
+    }
+  }
+
+  /**
+   * Hands the message to the server. This is not retried: a failure may happen after the server accepted the message.
+   */
+  private void deliver( final PooledTransport pooled, final MimeMessage msg, final Address[] recipients )
+    throws MessagingException {
+    boolean reusable = false;
+    try {
+      pooled.transport.sendMessage( msg, recipients );
+      reusable = true;
+    } catch ( SendFailedException e ) {
+      // when the server rejected addresses, the connection is still good
+      reusable = isAddressFailure( e );
+      throw e;
+    } finally {
+      pooled.messages++;
+      release( pooled, reusable );
+    }
+  }
+
+  private static boolean isAddressFailure( final SendFailedException e ) {
+    Address[] invalid = e.getInvalidAddresses();
+    Address[] sent = e.getValidSentAddresses();
+    return ( ( invalid != null ) && ( invalid.length > 0 ) ) || ( ( sent != null ) && ( sent.length > 0 ) );
+  }
+
+  /**
+   * Takes an idle connection that still answers, or opens a new one. Opening a connection is retried, since nothing has
+   * been sent yet.
+   */
+  private PooledTransport borrow( final Address address, final Batch batch ) throws MessagingException {
+    long now = System.currentTimeMillis();
+    for ( PooledTransport pooled = idleTransports.pollFirst(); pooled != null; pooled = idleTransports.pollFirst() ) {
+      // isConnected() sends a NOOP, so that a connection closed by the server is replaced before anything is sent on
+      // it
+      if ( ( now - pooled.lastUsed <= maxIdleMillis ) && pooled.transport.isConnected() ) {
+        return pooled;
+      }
+      close( pooled );
+    }
+    for ( int attempt = 0;; attempt++ ) {
+      try {
+        Transport transport = session.getTransport( address );
+        transport.connect();
+        connectionsOpened.incrementAndGet();
+        if ( logger.isDebugEnabled() ) {
+          logger.debug( "Opened mail server connection " + connectionsOpened.get() ); //$NON-NLS-1$
+        }
+        return new PooledTransport( transport );
+      } catch ( AuthenticationFailedException e ) {
+        throw e;
+      } catch ( MessagingException e ) {
+        if ( shutdown || ( attempt >= maxRetries ) ) {
+          throw e;
+        }
+        retries.incrementAndGet();
+        if ( batch != null ) {
+          batch.retries.incrementAndGet();
+        }
+        logger.warn( messages.getString( "SmtpTransportPool.WARN_RETRYING_CONNECT", e.getMessage(), //$NON-NLS-1$
+            String.valueOf( attempt + 1 ), String.valueOf( maxRetries ) ) );
+        try {
+          Thread.sleep( retryDelayMillis * ( attempt + 1 ) );
+        } catch ( InterruptedException ie ) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+      }
+    }
+  }
+
+  private void release( final PooledTransport pooled, final boolean reusable ) {
+    if ( reusable && !shutdown && ( pooled.messages < maxMessagesPerConnection ) ) {
+      pooled.lastUsed = System.currentTimeMillis();
+      idleTransports.offerFirst( pooled );
+      if ( shutdown ) {
+        // raced with shutdown()
+        closeIdleTransports();
+      }
+    } else {
+      close( pooled );
+    }
+  }
+
+  private static void close( final PooledTransport pooled ) {
+    try {
+      pooled.transport.close();
+    } catch ( MessagingException e ) {
+      logger.debug( "Error closing connection to the mail server", e ); //$NON-NLS-1$
+    }
+  }
+
+  private void closeIdleTransports() {
+    for ( PooledTransport pooled = idleTransports.pollFirst(); pooled != null; pooled = idleTransports.pollFirst() ) {
+      close( pooled );
+    }
+  }
+
+  private synchronized ThreadPoolExecutor getSender() {
+    if ( sender == null ) {
+      final AtomicInteger threadCount = new AtomicInteger();
+      sender =
+          new ThreadPoolExecutor( maxConnections, maxConnections, 60, TimeUnit.SECONDS,
+              new ArrayBlockingQueue<Runnable>( queueCapacity ), new ThreadFactory() {
+                public Thread newThread( final Runnable r ) {
+                  Thread thread = new Thread( r, "smtp-sender-" + threadCount.incrementAndGet() ); //$NON-NLS-1$
+                  thread.setDaemon( true );
+                  return thread;
+                }
+              }, new RejectedExecutionHandler() {
+                public void rejectedExecution( final Runnable r, final ThreadPoolExecutor executor ) {
+                  // the queue is full or the pool is shut down: the caller sends the message itself
+                  r.run();
+                }
+              } );
+      sender.allowCoreThreadTimeOut( true );
+    }
+    return sender;
+  }
+
+  /**
+   * Starts a batch of messages to be sent in the background.
+   */
+  public Batch newBatch() {
+    return new Batch();
+  }
+
+  /**
+   * Closes the pooled connections and stops the background senders. Messages being sent or already queued are still
+   * sent, their connections are closed afterwards.
+   */
+  public void shutdown() {
+    shutdown = true;
+    closeIdleTransports();
+    synchronized ( this ) {
+      if ( sender != null ) {
+        sender.shutdown();
+      }
+    }
+  }
+
+  public long getMessagesSent() {
+    return messagesSent.get();
+  }
+
+  public long getMessagesFailed() {
+    return messagesFailed.get();
+  }
+
+  public long getRetries() {
+    return retries.get();
+  }
+
+  public long getConnectionsOpened() {
+    return connectionsOpened.get();
+  }
+
+  public int getIdleConnections() {
+    return idleTransports.size();
+  }
+
+  private static class PooledTransport {
+    final Transport transport;
+
+    int messages;
+
+    long lastUsed;
+
+    PooledTransport( final Transport transport ) {
+      this.transport = transport;
+    }
+  }
+
+  /**
+   * Messages sent in the background, with the counts of one burst of mail. Use {@link #await()} to wait until all of
+   * them have been sent or have failed.
+   */
+  public class Batch {
+    private final long started = System.currentTimeMillis();
+
+    private final List<Future<Void>> pending = new ArrayList<Future<Void>>();
+
+    private final List<MessagingException> failures =
+        Collections.synchronizedList( new ArrayList<MessagingException>() );
+
+    private final AtomicInteger sent = new AtomicInteger();
+
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private final AtomicInteger retries = new AtomicInteger();
+
+    private volatile long finished;
+
+    Batch() {
+    }
+
+    /**
+     * Queues the message. If the queue is full the message is sent by the calling thread.
+     */
+    public void send( final MimeMessage msg ) {
+      Future<Void> future = getSender().submit( new Callable<Void>() {
+        public Void call() {
+          try {
+            SmtpTransportPool.this.send( msg, Batch.this );
+            sent.incrementAndGet();
+          } catch ( MessagingException e ) {
+            failed.incrementAndGet();
+            failures.add( e );
+          }
+          return null;
+        }
+      } );
+      synchronized ( pending ) {
+        pending.add( future );
+      }
+    }
+
+    /**
+     * Waits until all queued messages have been sent or have failed.
+     */
+    public void await() throws InterruptedException {
+      List<Future<Void>> futures;
+      synchronized ( pending ) {
+        futures = new ArrayList<Future<Void>>( pending );
+      }
+      for ( Future<Void> future : futures ) {
+        try {
+          future.get();
+        } catch ( ExecutionException e ) {
+          // the task catches all failures it reports
+          logger.error( e.getCause() );
+        }
+      }
+      finished = System.currentTimeMillis();
+      if ( logger.isDebugEnabled() ) {
+        logger.debug( "Batch of " + futures.size() + " messages: " //$NON-NLS-1$ //$NON-NLS-2$
+            + sent.get() + " sent, " + failed.get() + " failed, " //$NON-NLS-1$ //$NON-NLS-2$
+            + retries.get() + " retries in " + getElapsedMillis() + " ms" ); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+    }
+
+    public int getSent() {
+      return sent.get();
+    }
+
+    public int getFailed() {
+      return failed.get();
+    }
+
+    /**
+     * The number of times opening a connection was retried for the messages of this batch.
+     */
+    public int getRetries() {
+      return retries.get();
+    }
+
+    /**
+     * The time from the start of the batch until the end of the last {@link #await()}, or until now.
+     */
+    public long getElapsedMillis() {
+      return ( finished > 0 ? finished : System.currentTimeMillis() ) - started;
+    }
+
+    public List<MessagingException> getFailures() {
+      synchronized ( failures ) {
+        return new ArrayList<MessagingException>( failures );
+      }
+    }
+  }
+
+}
@@ -39,6 +39,7 @@ import org.pentaho.platform.api.repository2.unified.RepositoryFileAcl;
 import org.pentaho.platform.api.repository2.unified.RepositoryFilePermission;
 import org.pentaho.platform.api.repository2.unified.UnifiedRepositoryException;
 import org.pentaho.platform.api.repository2.unified.data.simple.SimpleRepositoryFileData;
+import org.pentaho.platform.plugin.action.pentahometadata.MetadataQueryResultCache;
 import org.pentaho.platform.plugin.services.messages.Messages;
 import org.pentaho.platform.repository2.unified.RepositoryUtils;
 import org.pentaho.platform.repository2.unified.fileio.RepositoryFileInputStream;
@@ -287,6 +288,7 @@ public class PentahoMetadataDomainRepository implements IMetadataDomainRepositor
 
     // This invalidates any caching
     flushDomains();
+    MetadataQueryResultCache.getInstance().clearDomain( domainId );
 
     getAclHelper().setAclFor( newDomainFile, acl );
   }
@@ -469,6 +471,7 @@ public class PentahoMetadataDomainRepository implements IMetadataDomainRepositor
     if ( !domainFiles.isEmpty() ) {
       flushDomains();
     }
+    MetadataQueryResultCache.getInstance().clearDomain( domainId );
   }
 
   /**
@@ -526,6 +529,7 @@ public class PentahoMetadataDomainRepository implements IMetadataDomainRepositor
   public void reloadDomains() {
     logger.debug( "reloadDomains()" );
     internalReloadDomains();
+    MetadataQueryResultCache.getInstance().clear();
   }
 
   /**
@@ -81,6 +81,8 @@ import org.springframework.beans.factory.xml.XmlBeanDefinitionReader;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.GenericApplicationContext;
 import org.springframework.core.io.FileSystemResource;
+import org.springframework.security.context.SecurityContext;
+import org.springframework.security.context.SecurityContextHolder;
 
 import java.io.File;
 import java.io.IOException;
@@ -89,12 +91,22 @@ import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * An IPluginManager implementation based on registering objects to the PentahoSystem and querying for them there. This
@@ -117,6 +129,11 @@ public class PentahoSystemPluginManager implements IPluginManager {
   private ISystemConfig systemConfig = PentahoSystem.get( ISystemConfig.class );
   private Logger logger = LoggerFactory.getLogger( getClass() );
   private Set<IPluginManagerListener> listeners = new HashSet<IPluginManagerListener>();
+  private volatile Map<String, Long> pluginStartupTimes = Collections.emptyMap();
+
+  private static final String REGISTRATION_THREADS_PROPERTY =
+      PentahoSystemPluginManager.class.getName() + ".registrationThreads";
+  private static final int DEFAULT_MAX_REGISTRATION_THREADS = 4;
 
   private static void createAndRegisterLifecycleListeners( IPlatformPlugin plugin, ClassLoader loader )
       throws PlatformPluginRegistrationException {
@@ -251,87 +268,77 @@ public class PentahoSystemPluginManager implements IPluginManager {
       anyErrors = true;
     }
 
-    for ( IPlatformPlugin plugin : providedPlugins ) {
-      try {
-        IPlatformPlugin existingPlugin =
-            PentahoSystem.get( IPlatformPlugin.class, null, Collections.singletonMap( PLUGIN_ID, plugin.getId() ) );
-        if ( existingPlugin != null ) {
-          throw new PlatformPluginRegistrationException( Messages.getInstance().getErrorString(
-              "PluginManager.ERROR_0024_PLUGIN_ALREADY_LOADED_BY_SAME_NAME", plugin.getId() ) );
+    // create the classloaders and spring contexts of the plugins in parallel, they do not depend on each other
+    final Map<String, Long> createTimes = new HashMap<String, Long>();
+    final Map<String, Long> registerTimes = new HashMap<String, Long>();
+    final List<IPlatformPlugin> createdPlugins = new ArrayList<IPlatformPlugin>();
+    final List<Future<CreatedPlugin>> creations = new ArrayList<Future<CreatedPlugin>>();
+    final Set<String> pluginIds = new HashSet<String>();
+    ExecutorService executor = createRegistrationExecutor( providedPlugins.size() );
+    try {
+      for ( final IPlatformPlugin plugin : providedPlugins ) {
+        if ( !pluginIds.add( plugin.getId() ) ) {
+          anyErrors = true;
+          logRegistrationFailure( plugin, new PlatformPluginRegistrationException( Messages.getInstance()
+              .getErrorString( "PluginManager.ERROR_0024_PLUGIN_ALREADY_LOADED_BY_SAME_NAME", plugin.getId() ) ) );
+          continue;
+        }
+        Callable<CreatedPlugin> creation = newPluginCreation( plugin, session );
+        createdPlugins.add( plugin );
+        if ( executor == null ) {
+          FutureTask<CreatedPlugin> task = new FutureTask<CreatedPlugin>( creation );
+          task.run();
+          creations.add( task );
+        } else {
+          creations.add( executor.submit( creation ) );
         }
-
-        final ClassLoader classloader = createClassloader( plugin );
-
-        // Register the classloader, Spring App Context and Object Factory with PentahoSystem
-        IPentahoObjectRegistration handle = PentahoSystem.registerReference(
-            new SingletonPentahoObjectReference.Builder<IPlatformPlugin>( IPlatformPlugin.class )
-                .object( plugin )
-                .attributes( Collections.<String, Object>singletonMap( PLUGIN_ID, plugin.getId() ) ).build(),
-            IPlatformPlugin.class
-        );
-        registerReference( plugin.getId(), handle );
-        handle =
-            PentahoSystem.registerReference(
-                new SingletonPentahoObjectReference.Builder<ClassLoader>( ClassLoader.class ).object( classloader )
-                    .attributes( Collections.<String, Object>singletonMap( PLUGIN_ID, plugin.getId() ) ).build(),
-                ClassLoader.class
-            );
-        registerReference( plugin.getId(), handle );
-
-        final GenericApplicationContext beanFactory = createBeanFactory( plugin, classloader );
-
-        final StandaloneSpringPentahoObjectFactory pentahoFactory =
-            new StandaloneSpringPentahoObjectFactory( "Plugin Factory ( " + plugin.getId() + " )" );
-        pentahoFactory.init( null, beanFactory );
-        beanFactory.refresh();
-
-        handle =
-            PentahoSystem.registerReference(
-                new SingletonPentahoObjectReference.Builder<GenericApplicationContext>(
-                    GenericApplicationContext.class )
-                    .object( beanFactory )
-                    .attributes( Collections.<String, Object>singletonMap( PLUGIN_ID, plugin.getId() ) ).build(),
-                IPentahoRegistrableObjectFactory.Types.ALL
-            );
-        registerReference( plugin.getId(), handle );
-
-        handle =
-            PentahoSystem.registerReference(
-                new SingletonPentahoObjectReference.Builder<IPentahoObjectFactory>( IPentahoObjectFactory.class )
-                    .object( pentahoFactory )
-                    .attributes( Collections.<String, Object>singletonMap( PLUGIN_ID, plugin.getId() ) ).build(),
-                IPentahoObjectFactory.class
-            );
-        registerReference( plugin.getId(), handle );
-
-
-      } catch ( Throwable t ) {
-        // this has been logged already
-        anyErrors = true;
-        String msg =
-            Messages.getInstance().getErrorString(
-                "PluginManager.ERROR_0011_FAILED_TO_REGISTER_PLUGIN", plugin.getId() );
-        org.pentaho.platform.util.logging.Logger.error( getClass().toString(), msg, t );
-        PluginMessageLogger.add( msg );
+      }
+      // the references are registered in provider order, so that the order of the plugins and of the objects they
+      // publish does not depend on which plugin was created first
+      for ( int i = 0; i < createdPlugins.size(); i++ ) {
+        IPlatformPlugin plugin = createdPlugins.get( i );
+        try {
+          CreatedPlugin created = creations.get( i ).get();
+          createTimes.put( plugin.getId(), created.createTime );
+          long start = System.currentTimeMillis();
+          registerPluginReferences( plugin, created );
+          registerTimes.put( plugin.getId(), System.currentTimeMillis() - start );
+        } catch ( PlatformPluginRegistrationException e ) {
+          anyErrors = true;
+          logRegistrationFailure( plugin, e );
+        } catch ( ExecutionException e ) {
+          anyErrors = true;
+          logRegistrationFailure( plugin, e.getCause() );
+        } catch ( InterruptedException e ) {
+          anyErrors = true;
+          logRegistrationFailure( plugin, e );
+          Thread.currentThread().interrupt();
+        }
+      }
+    } finally {
+      if ( executor != null ) {
+        executor.shutdownNow();
       }
     }
 
-
     for ( IPlatformPlugin plugin : providedPlugins ) {
+      long start = System.currentTimeMillis();
       try {
         registerPlugin( plugin );
       } catch ( Throwable t ) {
         // this has been logged already
         anyErrors = true;
-        String msg =
-            Messages.getInstance().getErrorString(
-                "PluginManager.ERROR_0011_FAILED_TO_REGISTER_PLUGIN", plugin.getId() );
-        org.pentaho.platform.util.logging.Logger.error( getClass().toString(), msg, t );
-        PluginMessageLogger.add( msg );
+        logRegistrationFailure( plugin, t );
+      }
+      if ( plugin.getId() != null ) {
+        Long referencesTime = registerTimes.get( plugin.getId() );
+        registerTimes.put( plugin.getId(), System.currentTimeMillis() - start
+            + ( referencesTime == null ? 0 : referencesTime ) );
       }
-
     }
 
+    reportStartupTimes( providedPlugins, createTimes, registerTimes );
+
     IServiceManager svcManager = PentahoSystem.get( IServiceManager.class, null );
     if ( svcManager != null ) {
       try {
@@ -351,6 +358,199 @@ public class PentahoSystemPluginManager implements IPluginManager {
     return !anyErrors;
   }
 
+  /**
+   * Returns the pool that creates the classloaders and spring contexts of the plugins, or <code>null</code> to create
+   * them one after the other on the calling thread. The number of threads is
+   * <code>org.pentaho.platform.plugin.services.pluginmgr.PentahoSystemPluginManager.registrationThreads</code>, by
+   * default the number of processors up to 4.
+   */
+  private ExecutorService createRegistrationExecutor( int pluginCount ) {
+    int threads = Math.min( pluginCount, Integer.getInteger( REGISTRATION_THREADS_PROPERTY,
+        Math.min( Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_REGISTRATION_THREADS ) ) );
+    if ( threads <= 1 ) {
+      return null;
+    }
+    return Executors.newFixedThreadPool( threads, new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread( Runnable r ) {
+        Thread thread = new Thread( r, "PluginRegistration-" + count.incrementAndGet() );
+        thread.setDaemon( true );
+        return thread;
+      }
+    } );
+  }
+
+  /**
+   * Creates the task that creates the classloader and spring context of a plugin. The task runs with the session,
+   * security context and context classloader of the caller.
+   */
+  private Callable<CreatedPlugin> newPluginCreation( final IPlatformPlugin plugin, final IPentahoSession session ) {
+    final SecurityContext securityContext = SecurityContextHolder.getContext();
+    final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+    final Thread caller = Thread.currentThread();
+    return new Callable<CreatedPlugin>() {
+      @Override
+      public CreatedPlugin call() throws Exception {
+        boolean pooled = Thread.currentThread() != caller;
+        ClassLoader poolClassLoader = Thread.currentThread().getContextClassLoader();
+        if ( pooled ) {
+          PentahoSessionHolder.setSession( session );
+          SecurityContextHolder.setContext( securityContext );
+          Thread.currentThread().setContextClassLoader( contextClassLoader );
+        }
+        try {
+          return createPlugin( plugin );
+        } finally {
+          if ( pooled ) {
+            PentahoSessionHolder.removeSession();
+            SecurityContextHolder.clearContext();
+            Thread.currentThread().setContextClassLoader( poolClassLoader );
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * The classloader and spring context of a plugin, created but not yet registered with the PentahoSystem.
+   */
+  private static class CreatedPlugin {
+    final ClassLoader classloader;
+
+    final GenericApplicationContext beanFactory;
+
+    final StandaloneSpringPentahoObjectFactory pentahoFactory;
+
+    final long createTime;
+
+    CreatedPlugin( ClassLoader classloader, GenericApplicationContext beanFactory,
+        StandaloneSpringPentahoObjectFactory pentahoFactory, long createTime ) {
+      this.classloader = classloader;
+      this.beanFactory = beanFactory;
+      this.pentahoFactory = pentahoFactory;
+      this.createTime = createTime;
+    }
+  }
+
+  private CreatedPlugin createPlugin( final IPlatformPlugin plugin ) throws PlatformPluginRegistrationException {
+    long start = System.currentTimeMillis();
+    final ClassLoader classloader = createClassloader( plugin );
+
+    final GenericApplicationContext beanFactory = createBeanFactory( plugin, classloader );
+
+    final StandaloneSpringPentahoObjectFactory pentahoFactory =
+        new StandaloneSpringPentahoObjectFactory( "Plugin Factory ( " + plugin.getId() + " )" );
+    pentahoFactory.init( null, beanFactory );
+    beanFactory.refresh();
+
+    return new CreatedPlugin( classloader, beanFactory, pentahoFactory, System.currentTimeMillis() - start );
+  }
+
+  /**
+   * Registers the plugin, its classloader, Spring App Context and Object Factory with PentahoSystem.
+   */
+  private void registerPluginReferences( final IPlatformPlugin plugin, final CreatedPlugin created )
+    throws PlatformPluginRegistrationException {
+    IPlatformPlugin existingPlugin =
+        PentahoSystem.get( IPlatformPlugin.class, null, Collections.singletonMap( PLUGIN_ID, plugin.getId() ) );
+    if ( existingPlugin != null ) {
+      throw new PlatformPluginRegistrationException( Messages.getInstance().getErrorString(
+          "PluginManager.ERROR_0024_PLUGIN_ALREADY_LOADED_BY_SAME_NAME", plugin.getId() ) );
+    }
+
+    IPentahoObjectRegistration handle = PentahoSystem.registerReference(
+        new SingletonPentahoObjectReference.Builder<IPlatformPlugin>( IPlatformPlugin.class )
+            .object( plugin )
+            .attributes( Collections.<String, Object>singletonMap( PLUGIN_ID, plugin.getId() ) ).build(),
+        IPlatformPlugin.class
+    );
+    registerReference( plugin.getId(), handle );
+    handle =
+        PentahoSystem.registerReference(
+            new SingletonPentahoObjectReference.Builder<ClassLoader>( ClassLoader.class )
+                .object( created.classloader )
+                .attributes( Collections.<String, Object>singletonMap( PLUGIN_ID, plugin.getId() ) ).build(),
+            ClassLoader.class
+        );
+    registerReference( plugin.getId(), handle );
+
+    handle =
+        PentahoSystem.registerReference(
+            new SingletonPentahoObjectReference.Builder<GenericApplicationContext>(
+                GenericApplicationContext.class )
+                .object( created.beanFactory )
+                .attributes( Collections.<String, Object>singletonMap( PLUGIN_ID, plugin.getId() ) ).build(),
+            IPentahoRegistrableObjectFactory.Types.ALL
+        );
+    registerReference( plugin.getId(), handle );
+
+    handle =
+        PentahoSystem.registerReference(
+            new SingletonPentahoObjectReference.Builder<IPentahoObjectFactory>( IPentahoObjectFactory.class )
+                .object( created.pentahoFactory )
+                .attributes( Collections.<String, Object>singletonMap( PLUGIN_ID, plugin.getId() ) ).build(),
+            IPentahoObjectFactory.class
+        );
+    registerReference( plugin.getId(), handle );
+  }
+
+  private void logRegistrationFailure( IPlatformPlugin plugin, Throwable t ) {
+    String msg =
+        Messages.getInstance().getErrorString(
+            "PluginManager.ERROR_0011_FAILED_TO_REGISTER_PLUGIN", plugin.getId() );
+    org.pentaho.platform.util.logging.Logger.error( getClass().toString(), msg, t );
+    PluginMessageLogger.add( msg );
+  }
+
+  /**
+   * Logs how long each plugin took to start, slowest first, and keeps the times for
+   * {@link #getPluginStartupTimes()}.
+   */
+  private void reportStartupTimes( List<IPlatformPlugin> plugins, Map<String, Long> createTimes,
+                                   Map<String, Long> registerTimes ) {
+    List<String> ids = new ArrayList<String>();
+    final Map<String, Long> totals = new HashMap<String, Long>();
+    for ( IPlatformPlugin plugin : plugins ) {
+      String id = plugin.getId();
+      if ( id == null || totals.containsKey( id ) ) {
+        continue;
+      }
+      ids.add( id );
+      totals.put( id, getTime( createTimes, id ) + getTime( registerTimes, id ) );
+    }
+    Collections.sort( ids, new Comparator<String>() {
+      @Override
+      public int compare( String id1, String id2 ) {
+        return totals.get( id2 ).compareTo( totals.get( id1 ) );
+      }
+    } );
+
+    Map<String, Long> startupTimes = new LinkedHashMap<String, Long>();
+    StringBuilder report = new StringBuilder( "Plugin startup times (ms):" );
+    for ( String id : ids ) {
+      startupTimes.put( id, totals.get( id ) );
+      report.append( "\n  " ).append( id ).append( ": " ).append( totals.get( id ) ).append( " (context " )
+          .append( getTime( createTimes, id ) ).append( ", registration " ).append( getTime( registerTimes, id ) )
+          .append( ")" );
+    }
+    pluginStartupTimes = Collections.unmodifiableMap( startupTimes );
+    logger.info( report.toString() );
+  }
+
+  private static long getTime( Map<String, Long> times, String id ) {
+    Long time = times.get( id );
+    return time == null ? 0 : time;
+  }
+
+  /**
+   * @return the time (in milliseconds) each plugin took to start on the last reload, slowest first
+   */
+  public Map<String, Long> getPluginStartupTimes() {
+    return pluginStartupTimes;
+  }
+
   @SuppressWarnings( "unchecked" )
   private void registerPlugin( final IPlatformPlugin plugin ) throws PlatformPluginRegistrationException,
       PluginLifecycleException {
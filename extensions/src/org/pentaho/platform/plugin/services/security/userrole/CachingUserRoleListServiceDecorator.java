@@ -1,21 +1,42 @@
 package org.pentaho.platform.plugin.services.security.userrole;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.pentaho.platform.api.engine.ICacheManager;
 import org.pentaho.platform.api.engine.IUserRoleListService;
 import org.pentaho.platform.api.mt.ITenant;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Caching Decorator for an IUserRoleListService. It will use the configured ICacheManager in the PentahoSystem to cache
  * all calls being made to the decorated instance.
  * <p/>
+ * Concurrent requests for an entry that is not cached wait for a single call to the decorated instance. Entries older
+ * than <code>refreshAheadTime</code> milliseconds are still returned, while a background thread reloads them. Entries
+ * older than <code>expireTime</code> milliseconds are reloaded before they are returned, but if the decorated instance
+ * fails (the directory is down) they are returned for up to <code>staleIfErrorTime</code> milliseconds more. All of
+ * these are off (0) by default, entries then live as long as the cache region keeps them; the region's time to live
+ * should be longer than the times set here.
+ * <p/>
  * Created by nbaker on 5/20/14.
  */
 public class CachingUserRoleListServiceDecorator implements IUserRoleListService {
+  private static final Log logger = LogFactory.getLog( CachingUserRoleListServiceDecorator.class );
   private IUserRoleListService delegate;
   private ICacheManager cacheManager = PentahoSystem.getCacheManager( null );
   private static final String REGION = "userRoleListCache";
@@ -24,10 +45,74 @@ public class CachingUserRoleListServiceDecorator implements IUserRoleListService
   private static final String SYSTEM_ROLES = "system roles";
   private static final String ROLES_BY_USER = "roles by user";
 
+  private long refreshAheadTime;
+  private long expireTime;
+  private long staleIfErrorTime;
+  private Executor refreshExecutor;
+  private final ConcurrentMap<String, FutureTask<CachedResults>> loads =
+      new ConcurrentHashMap<String, FutureTask<CachedResults>>();
+  private final ConcurrentMap<String, OperationStatistics> statistics =
+      new ConcurrentHashMap<String, OperationStatistics>();
+
   private static interface DelegateOperation {
     List<String> perform();
   }
 
+  /**
+   * The results of an operation, as kept in the cache region.
+   */
+  private static class CachedResults implements Serializable {
+    private static final long serialVersionUID = -6010218727366410254L;
+    private final ArrayList<String> results;
+    private final long loadTime;
+
+    CachedResults( List<String> results, long loadTime ) {
+      this.results = new ArrayList<String>( results );
+      this.loadTime = loadTime;
+    }
+  }
+
+  /**
+   * Counts the calls of one operation of the decorator.
+   */
+  public static class OperationStatistics {
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong loadNanos = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+
+    /** Calls answered from the cache. */
+    public long getHits() {
+      return hits.get();
+    }
+
+    /** Calls of the decorated instance, in the foreground or background. */
+    public long getLoads() {
+      return loads.get();
+    }
+
+    public long getLoadMillis() {
+      return loadNanos.get() / 1000000L;
+    }
+
+    /** Background reloads started. */
+    public long getRefreshes() {
+      return refreshes.get();
+    }
+
+    /** Failed calls of the decorated instance. */
+    public long getFailures() {
+      return failures.get();
+    }
+
+    /** Expired entries returned because the decorated instance failed. */
+    public long getStaleHits() {
+      return staleHits.get();
+    }
+  }
+
   private final DelegateOperation ALL_ROLES_OPERATION = new DelegateOperation() {
     @Override public List<String> perform() {
       return delegate.getAllRoles();
@@ -56,33 +141,190 @@ public class CachingUserRoleListServiceDecorator implements IUserRoleListService
     }
   }
 
-  @SuppressWarnings( "unchecked" )
-  private List<String> performOperation( String cacheEntry, DelegateOperation operation ) {
-      List<String> results = null;
+  private List<String> performOperation( String name, String cacheEntry, DelegateOperation operation ) {
+    OperationStatistics stats = getStatistics( name );
     Object fromRegionCache = cacheManager.getFromRegionCache( REGION, cacheEntry );
-    if (fromRegionCache instanceof List ) {
-        results = (List<String>) fromRegionCache;
-    }else{
-        results = operation.perform();
-        cacheManager.putInRegionCache( REGION, cacheEntry, results );
+    CachedResults cached = ( fromRegionCache instanceof CachedResults ) ? (CachedResults) fromRegionCache : null;
+    if ( cached != null ) {
+      long age = currentTimeMillis() - cached.loadTime;
+      if ( expireTime <= 0 || age < expireTime ) {
+        stats.hits.incrementAndGet();
+        if ( refreshAheadTime > 0 && age >= refreshAheadTime ) {
+          refresh( cacheEntry, operation, stats );
+        }
+        return new ArrayList<String>( cached.results );
+      }
+      try {
+        return new ArrayList<String>( load( cacheEntry, operation, stats ).results );
+      } catch ( RuntimeException e ) {
+        if ( age >= expireTime + staleIfErrorTime ) {
+          throw e;
+        }
+        logger.warn( "Returning expired " + name + " results, the decorated service failed", e );
+        stats.staleHits.incrementAndGet();
+        return new ArrayList<String>( cached.results );
+      }
+    }
+    return new ArrayList<String>( load( cacheEntry, operation, stats ).results );
+  }
+
+  /**
+   * Calls the decorated instance and caches the results, or waits for such a call already under way for the entry.
+   */
+  private CachedResults load( String cacheEntry, DelegateOperation operation, OperationStatistics stats ) {
+    FutureTask<CachedResults> task = createLoad( cacheEntry, operation, stats );
+    FutureTask<CachedResults> running = loads.putIfAbsent( cacheEntry, task );
+    if ( running == null ) {
+      running = task;
+      try {
+        task.run();
+      } finally {
+        loads.remove( cacheEntry, task );
+      }
+    }
+    try {
+      return running.get();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException( e );
+    } catch ( ExecutionException e ) {
+      if ( e.getCause() instanceof RuntimeException ) {
+        throw (RuntimeException) e.getCause();
+      }
+      if ( e.getCause() instanceof Error ) {
+        throw (Error) e.getCause();
+      }
+      throw new IllegalStateException( e.getCause() );
+    }
+  }
+
+  /**
+   * Reloads an entry in the background unless it is being loaded already. The cached results stay in place if the
+   * decorated instance fails.
+   */
+  private void refresh( final String cacheEntry, DelegateOperation operation, OperationStatistics stats ) {
+    final FutureTask<CachedResults> task = createLoad( cacheEntry, operation, stats );
+    if ( loads.putIfAbsent( cacheEntry, task ) != null ) {
+      return;
+    }
+    stats.refreshes.incrementAndGet();
+    try {
+      getRefreshExecutor().execute( new Runnable() {
+        public void run() {
+          try {
+            task.run();
+            task.get();
+          } catch ( Exception e ) {
+            logger.warn( "Refreshing cached user and role list failed", e );
+          } finally {
+            loads.remove( cacheEntry, task );
+          }
+        }
+      } );
+    } catch ( RuntimeException e ) {
+      loads.remove( cacheEntry, task );
+      logger.warn( "Refreshing cached user and role list failed", e );
     }
-    return new ArrayList<String>(results);
+  }
+
+  private FutureTask<CachedResults> createLoad( final String cacheEntry, final DelegateOperation operation,
+                                                final OperationStatistics stats ) {
+    return new FutureTask<CachedResults>( new Callable<CachedResults>() {
+      public CachedResults call() {
+        long start = System.nanoTime();
+        stats.loads.incrementAndGet();
+        try {
+          CachedResults results = new CachedResults( operation.perform(), currentTimeMillis() );
+          cacheManager.putInRegionCache( REGION, cacheEntry, results );
+          return results;
+        } catch ( RuntimeException e ) {
+          stats.failures.incrementAndGet();
+          throw e;
+        } finally {
+          stats.loadNanos.addAndGet( System.nanoTime() - start );
+        }
+      }
+    } );
+  }
+
+  /**
+   * The clock the age of cached entries is measured with.
+   */
+  protected long currentTimeMillis() {
+    return System.currentTimeMillis();
+  }
+
+  private OperationStatistics getStatistics( String name ) {
+    OperationStatistics stats = statistics.get( name );
+    if ( stats == null ) {
+      statistics.putIfAbsent( name, new OperationStatistics() );
+      stats = statistics.get( name );
+    }
+    return stats;
+  }
+
+  /**
+   * Returns the statistics of each operation called so far, keyed by method name.
+   */
+  public Map<String, OperationStatistics> getStatistics() {
+    return Collections.unmodifiableMap( statistics );
+  }
+
+  private synchronized Executor getRefreshExecutor() {
+    if ( refreshExecutor == null ) {
+      refreshExecutor = Executors.newFixedThreadPool( 2, new ThreadFactory() {
+        public Thread newThread( Runnable r ) {
+          Thread t = new Thread( r, "CachingUserRoleListServiceDecorator-Refresh" );
+          t.setDaemon( true );
+          return t;
+        }
+      } );
+    }
+    return refreshExecutor;
+  }
+
+  public synchronized void setRefreshExecutor( Executor refreshExecutor ) {
+    this.refreshExecutor = refreshExecutor;
+  }
+
+  public long getRefreshAheadTime() {
+    return refreshAheadTime;
+  }
+
+  public void setRefreshAheadTime( long refreshAheadTime ) {
+    this.refreshAheadTime = refreshAheadTime;
+  }
+
+  public long getExpireTime() {
+    return expireTime;
+  }
+
+  public void setExpireTime( long expireTime ) {
+    this.expireTime = expireTime;
+  }
+
+  public long getStaleIfErrorTime() {
+    return staleIfErrorTime;
+  }
+
+  public void setStaleIfErrorTime( long staleIfErrorTime ) {
+    this.staleIfErrorTime = staleIfErrorTime;
   }
 
 
   @Override
   public List<String> getAllRoles() {
-    return performOperation( ALL_ROLES, ALL_ROLES_OPERATION );
+    return performOperation( "getAllRoles", ALL_ROLES, ALL_ROLES_OPERATION );
   }
 
   @Override
   public List<String> getSystemRoles() {
-    return performOperation( SYSTEM_ROLES, SYSTEM_ROLES_OPERATION );
+    return performOperation( "getSystemRoles", SYSTEM_ROLES, SYSTEM_ROLES_OPERATION );
   }
 
   @Override
   public List<String> getRolesForUser( final ITenant tenant, final String username ) {
-    return performOperation( ROLES_BY_USER + getTenantKey( tenant ) + username,
+    return performOperation( "getRolesForUser", ROLES_BY_USER + getTenantKey( tenant ) + username,
       new DelegateOperation() {
         @Override public List<String> perform() {
           return delegate.getRolesForUser( tenant, username );
@@ -97,7 +339,7 @@ public class CachingUserRoleListServiceDecorator implements IUserRoleListService
 
   @Override
   public List<String> getAllUsers( final ITenant tenant ) {
-    return performOperation( ALL_USERS + getTenantKey( tenant ), new DelegateOperation() {
+    return performOperation( "getAllUsers", ALL_USERS + getTenantKey( tenant ), new DelegateOperation() {
       @Override public List<String> perform() {
         return delegate.getAllUsers( tenant );
       }
@@ -106,7 +348,7 @@ public class CachingUserRoleListServiceDecorator implements IUserRoleListService
 
   @Override
   public List<String> getAllRoles( final ITenant tenant ) {
-    return performOperation( ALL_ROLES + getTenantKey( tenant ), new DelegateOperation() {
+    return performOperation( "getAllRoles", ALL_ROLES + getTenantKey( tenant ), new DelegateOperation() {
       @Override public List<String> perform() {
         return delegate.getAllRoles( tenant );
       }
@@ -115,7 +357,7 @@ public class CachingUserRoleListServiceDecorator implements IUserRoleListService
 
   @Override
   public List<String> getUsersInRole( final ITenant tenant, final String role ) {
-    return performOperation( ALL_USERS + getTenantKey( tenant ) + role, new DelegateOperation() {
+    return performOperation( "getUsersInRole", ALL_USERS + getTenantKey( tenant ) + role, new DelegateOperation() {
       @Override public List<String> perform() {
         return delegate.getUsersInRole( tenant, role );
       }
@@ -125,6 +367,6 @@ public class CachingUserRoleListServiceDecorator implements IUserRoleListService
   @Override
   public List<String> getAllUsers() {
 
-    return performOperation( ALL_USERS, ALL_USERS_OPERATION );
+    return performOperation( "getAllUsers", ALL_USERS, ALL_USERS_OPERATION );
   }
 }
@@ -19,12 +19,16 @@ package org.pentaho.platform.plugin.services.security.userrole.ldap;
 
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.ldap.core.ContextSource;
+import org.springframework.security.GrantedAuthority;
 import org.springframework.security.GrantedAuthorityImpl;
 import org.springframework.security.ldap.populator.DefaultLdapAuthoritiesPopulator;
 import org.springframework.util.Assert;
 
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -55,6 +59,18 @@ import java.util.Set;
  * </pre>
  * 
  * <p>
+ * The ancestors of each role are worked out once from the mapping and remembered, the mapping is not walked pass
+ * after pass on every login. Cycles in the mapping are tolerated.
+ * </p>
+ * 
+ * <p>
+ * The group memberships found in the directory for a user can be remembered for
+ * <code>groupMembershipCacheTimeout</code> milliseconds so that repeated logins and role lookups of the same user do
+ * not search the directory again. This is off (0) by default; when set, membership changes in the directory take
+ * effect for a user after at most this long.
+ * </p>
+ * 
+ * <p>
  * Based on http://forum.springframework.org/showthread.php?t=28007
  * </p>
  * 
@@ -69,6 +85,29 @@ public class NestedLdapAuthoritiesPopulator extends DefaultLdapAuthoritiesPopula
    */
   private Map extraRolesMapping;
 
+  /**
+   * Map where keys are roles and values are all of their ancestors in <code>extraRolesMapping</code>. Built on first
+   * use.
+   */
+  private volatile Map<Object, Set<Object>> ancestorRoles;
+
+  /**
+   * Milliseconds the group memberships of a user are remembered for, 0 to always search the directory.
+   */
+  private long groupMembershipCacheTimeout;
+
+  private int groupMembershipCacheSize = 1000;
+
+  private final Map<String, CachedRoles> groupMembershipCache = new LinkedHashMap<String, CachedRoles>( 16, 0.75f,
+      true ) {
+    private static final long serialVersionUID = 5529361466451707040L;
+
+    @Override
+    protected boolean removeEldestEntry( final Map.Entry<String, CachedRoles> eldest ) {
+      return size() > groupMembershipCacheSize;
+    }
+  };
+
   // ~ Constructors ==========================================================
 
   public NestedLdapAuthoritiesPopulator( final ContextSource contextSource, final String groupSearchBase ) {
@@ -81,18 +120,85 @@ public class NestedLdapAuthoritiesPopulator extends DefaultLdapAuthoritiesPopula
    * Calls super's implementation then adds extra roles.
    */
   public Set getGroupMembershipRoles( String userDn, String username ) {
-    Set roles = super.getGroupMembershipRoles( userDn, username );
-    Set newRolesFromPreviousPass = new HashSet( roles );
+    Set roles = getDirectGroupMembershipRoles( userDn, username );
+    Map<Object, Set<Object>> ancestors = getAncestorRoles();
     Set allNewRoles = new HashSet();
-    // keep going until no new roles are found
-    while ( !newRolesFromPreviousPass.isEmpty() ) {
-      newRolesFromPreviousPass = getParentRoles( newRolesFromPreviousPass );
-      allNewRoles.addAll( newRolesFromPreviousPass );
+    Iterator iter = roles.iterator();
+    while ( iter.hasNext() ) {
+      Object role = iter.next();
+      Set<Object> roleAncestors =
+          ancestors.get( role instanceof GrantedAuthority ? ( (GrantedAuthority) role ).getAuthority() : role );
+      if ( null != roleAncestors ) {
+        allNewRoles.addAll( roleAncestors );
+      }
     }
     roles.addAll( toGrantedAuthorities( allNewRoles ) );
     return roles;
   }
 
+  /**
+   * Returns the roles the user is a direct member of in the directory, remembered for
+   * <code>groupMembershipCacheTimeout</code> milliseconds if set. The returned set belongs to the caller.
+   */
+  protected Set getDirectGroupMembershipRoles( final String userDn, final String username ) {
+    if ( groupMembershipCacheTimeout <= 0 || userDn == null ) {
+      return searchGroupMembershipRoles( userDn, username );
+    }
+    long now = System.currentTimeMillis();
+    CachedRoles cached;
+    synchronized ( groupMembershipCache ) {
+      cached = groupMembershipCache.get( userDn );
+    }
+    if ( cached == null || cached.expires <= now ) {
+      cached = new CachedRoles( searchGroupMembershipRoles( userDn, username ), now + groupMembershipCacheTimeout );
+      synchronized ( groupMembershipCache ) {
+        groupMembershipCache.put( userDn, cached );
+      }
+    }
+    return new HashSet( cached.roles );
+  }
+
+  /**
+   * Searches the directory for the roles the user is a direct member of.
+   */
+  protected Set searchGroupMembershipRoles( final String userDn, final String username ) {
+    return super.getGroupMembershipRoles( userDn, username );
+  }
+
+  /**
+   * Forgets the remembered group memberships of all users.
+   */
+  public void clearGroupMembershipCache() {
+    synchronized ( groupMembershipCache ) {
+      groupMembershipCache.clear();
+    }
+  }
+
+  /**
+   * Returns the transitive closure of <code>extraRolesMapping</code>, building it on first use.
+   */
+  protected Map<Object, Set<Object>> getAncestorRoles() {
+    Map<Object, Set<Object>> ancestors = ancestorRoles;
+    if ( ancestors == null ) {
+      ancestors = new HashMap<Object, Set<Object>>();
+      Iterator iter = extraRolesMapping.keySet().iterator();
+      while ( iter.hasNext() ) {
+        Object role = iter.next();
+        Set<Object> roleAncestors = new HashSet<Object>();
+        // keep going until no new roles are found, stopping at roles seen before in case of cycles
+        Set newRolesFromPreviousPass = Collections.singleton( role );
+        while ( !newRolesFromPreviousPass.isEmpty() ) {
+          newRolesFromPreviousPass = getParentRoles( newRolesFromPreviousPass );
+          newRolesFromPreviousPass.removeAll( roleAncestors );
+          roleAncestors.addAll( newRolesFromPreviousPass );
+        }
+        ancestors.put( role, Collections.unmodifiableSet( roleAncestors ) );
+      }
+      ancestorRoles = ancestors;
+    }
+    return ancestors;
+  }
+
   /**
    * Iterates over the set, using the items as keys into the extraRolesMapping.
    * 
@@ -135,10 +241,38 @@ public class NestedLdapAuthoritiesPopulator extends DefaultLdapAuthoritiesPopula
 
   public void setExtraRolesMapping( final Map extraRolesMapping ) {
     this.extraRolesMapping = extraRolesMapping;
+    this.ancestorRoles = null;
+  }
+
+  public long getGroupMembershipCacheTimeout() {
+    return groupMembershipCacheTimeout;
+  }
+
+  public void setGroupMembershipCacheTimeout( final long groupMembershipCacheTimeout ) {
+    this.groupMembershipCacheTimeout = groupMembershipCacheTimeout;
+  }
+
+  public int getGroupMembershipCacheSize() {
+    return groupMembershipCacheSize;
+  }
+
+  public void setGroupMembershipCacheSize( final int groupMembershipCacheSize ) {
+    this.groupMembershipCacheSize = groupMembershipCacheSize;
   }
 
   public void afterPropertiesSet() throws Exception {
     Assert.notNull( extraRolesMapping );
   }
 
+  private static class CachedRoles {
+    private final Set roles;
+
+    private final long expires;
+
+    CachedRoles( final Set roles, final long expires ) {
+      this.roles = Collections.unmodifiableSet( new HashSet( roles ) );
+      this.expires = expires;
+    }
+  }
+
 }
@@ -54,6 +54,7 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
@@ -1449,6 +1450,9 @@ public class FileResource extends AbstractJaxRSResource {
    *                   Omission of a member filter will return all members. It is invalid to both and includeMembers= and an
    *                   excludeMembers= clause in the same service call.
    * @param showHidden Include or exclude hidden files from the file list.
+   * @param offset Index of the first child of the top folder to return, for paging through large folders.
+   * @param limit Number of children of the top folder to return. The total number of children is returned in the
+   *              X-Total-Count header.
    *
    * @return A RepositoryFileTreeDto object containing the files at the root of the repository. Will return files but not folders under the "/" folder. The fields returned will include the name, filesize, description, id and title.
    *
@@ -1484,8 +1488,17 @@ public class FileResource extends AbstractJaxRSResource {
   } )
   public RepositoryFileTreeDto doGetRootTree( @QueryParam ( "depth" ) Integer depth,
                                               @QueryParam ( "filter" ) String filter, @QueryParam ( "showHidden" ) Boolean showHidden,
-                                              @DefaultValue ( "false" ) @QueryParam ( "includeAcls" ) Boolean includeAcls ) {
-    return fileService.doGetTree( FileUtils.PATH_SEPARATOR, depth, filter, showHidden, includeAcls );
+                                              @DefaultValue ( "false" ) @QueryParam ( "includeAcls" ) Boolean includeAcls,
+                                              @QueryParam ( "offset" ) Integer offset, @QueryParam ( "limit" ) Integer limit ) {
+    return conditionalTree( fileService.doGetTree( FileUtils.PATH_SEPARATOR, depth, filter, showHidden, includeAcls ),
+      offset, limit );
+  }
+
+  /**
+   * Retrieve the recursive list of files from root of the repository, without paging.
+   */
+  public RepositoryFileTreeDto doGetRootTree( Integer depth, String filter, Boolean showHidden, Boolean includeAcls ) {
+    return doGetRootTree( depth, filter, showHidden, includeAcls, null, null );
   }
 
   /**
@@ -1581,6 +1594,9 @@ public class FileResource extends AbstractJaxRSResource {
    *                    excludeMembers= clause in the same service call.
    * @param showHidden  Include or exclude hidden files from the file list.
    * @param includeAcls Include permission information about the file in the output.
+   * @param offset Index of the first child of the top folder to return, for paging through large folders.
+   * @param limit Number of children of the top folder to return. The total number of children is returned in the
+   *              X-Total-Count header.
    *
    * @return A RepositoryFileTreeDto object containing the files at the root of the repository. Will return files but not folders under the "/" folder. The fields returned will include the name, filesize, description, id and title.
    *
@@ -1616,8 +1632,47 @@ public class FileResource extends AbstractJaxRSResource {
   } )
   public RepositoryFileTreeDto doGetTree( @PathParam ( "pathId" ) String pathId, @QueryParam ( "depth" ) Integer depth,
                                           @QueryParam ( "filter" ) String filter, @QueryParam ( "showHidden" ) Boolean showHidden,
-                                          @DefaultValue ( "false" ) @QueryParam ( "includeAcls" ) Boolean includeAcls ) {
-    return fileService.doGetTree( pathId, depth, filter, showHidden, includeAcls );
+                                          @DefaultValue ( "false" ) @QueryParam ( "includeAcls" ) Boolean includeAcls,
+                                          @QueryParam ( "offset" ) Integer offset, @QueryParam ( "limit" ) Integer limit ) {
+    return conditionalTree( fileService.doGetTree( pathId, depth, filter, showHidden, includeAcls ), offset, limit );
+  }
+
+  /**
+   * Retrieve the recursive list of children of the selected repository file, without paging.
+   */
+  public RepositoryFileTreeDto doGetTree( String pathId, Integer depth, String filter, Boolean showHidden,
+                                          Boolean includeAcls ) {
+    return doGetTree( pathId, depth, filter, showHidden, includeAcls, null, null );
+  }
+
+  /**
+   * Pages the children of the top folder of a tree and tags the response with the entity tag of the result. Replies
+   * 304 (Not Modified) when the client already holds that tree.
+   */
+  protected RepositoryFileTreeDto conditionalTree( RepositoryFileTreeDto tree, Integer offset, Integer limit ) {
+    if ( tree == null ) {
+      return null;
+    }
+    int total = fileService.pageChildren( tree, offset, limit );
+    if ( httpServletResponse != null && ( offset != null || limit != null ) ) {
+      httpServletResponse.setHeader( "X-Total-Count", String.valueOf( total ) );
+    }
+    String accept = httpServletRequest != null ? httpServletRequest.getHeader( "Accept" ) : null;
+    String etag = fileService.getTreeEtag( tree, String.valueOf( accept ) );
+    if ( etag == null || httpServletRequest == null ) {
+      return tree;
+    }
+    // the tree depends on the user's permissions, so it may be kept by the browser but must be revalidated
+    if ( httpServletResponse != null ) {
+      httpServletResponse.setHeader( "Cache-Control", "private, no-cache" );
+    }
+    if ( etag.equals( httpServletRequest.getHeader( "If-None-Match" ) ) ) {
+      throw new WebApplicationException( Response.notModified( etag.substring( 1, etag.length() - 1 ) ).build() );
+    }
+    if ( httpServletResponse != null ) {
+      httpServletResponse.setHeader( "ETag", etag );
+    }
+    return tree;
   }
 
   /**
@@ -21,13 +21,13 @@ import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.codehaus.enunciate.Facet;
-import org.pentaho.platform.api.engine.ICacheManager;
 import org.pentaho.platform.api.engine.IPluginManager;
 import org.pentaho.platform.api.engine.IPluginResourceLoader;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.util.web.MimeHelper;
 import org.pentaho.platform.web.http.messages.Messages;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
@@ -36,9 +36,9 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.StreamingOutput;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -47,11 +47,20 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.MessageFormat;
 import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import static javax.ws.rs.core.MediaType.WILDCARD;
 
 /**
  * Represents the public files available in a plugin.
+ * <p/>
+ * Files of plugins that set <code>settings/cache</code> to <code>true</code> are served from the
+ * {@link PluginStaticResourceCache}, unless they are too large to be kept. Files served from it carry a strong ETag,
+ * are answered with a 304 when the client already has them, are gzipped for clients that accept it and support single
+ * byte ranges. Files whose name carries a content hash (<code>app.3f2a9c1b.js</code>, <code>app-3f2a9c1b.js</code>)
+ * never change, so they may be kept by browsers and proxies for a year, unless the plugin sets its own
+ * <code>settings/max-age</code>.
  * 
  * @author aaron
  * 
@@ -59,9 +68,16 @@ import static javax.ws.rs.core.MediaType.WILDCARD;
 @Path( "/plugins/{pluginId}" )
 public class PluginResource {
 
-  private static final String CACHE_FILE = "file"; //$NON-NLS-1$
+  // a content hash is at least 8 hex digits mixing letters and digits, so that dates and version numbers
+  // (report-20140312.js) do not count
+  private static final Pattern FINGERPRINTED = Pattern.compile(
+      ".*[.-](?=[0-9a-fA-F]*[a-fA-F])(?=[0-9a-fA-F]*[0-9])[0-9a-fA-F]{8,}\\.[a-zA-Z0-9]+$" ); //$NON-NLS-1$
 
-  private static ICacheManager cache = PentahoSystem.getCacheManager( null );
+  private static final Pattern BYTE_RANGE = Pattern.compile( "bytes=(\\d*)-(\\d*)" ); //$NON-NLS-1$
+
+  private static final String IMMUTABLE = "public, max-age=31536000"; //$NON-NLS-1$
+
+  private static final String GZIP = "gzip"; //$NON-NLS-1$
 
   protected File systemFolder;
 
@@ -71,17 +87,17 @@ public class PluginResource {
 
   protected IPluginManager pluginMgr = PentahoSystem.get( IPluginManager.class );
 
-  static {
-    if ( cache != null ) {
-      cache.addCacheRegion( CACHE_FILE );
-    }
-  }
+  protected PluginStaticResourceCache staticResources = PluginStaticResourceCache.getInstance();
+
+  @Context
+  protected HttpServletRequest httpServletRequest;
 
   @Context
   protected HttpServletResponse httpServletResponse;
 
   public PluginResource() {
     systemFolder = new File( PentahoSystem.getApplicationContext().getSolutionRootPath(), "system" ); //$NON-NLS-1$
+    staticResources.clearOnReload( pluginManager );
   }
 
   public PluginResource( HttpServletResponse httpServletResponse ) {
@@ -89,43 +105,65 @@ public class PluginResource {
     this.httpServletResponse = httpServletResponse;
   }
 
-  protected InputStream getCacheBackedStream( String pluginId, String path, boolean useCache ) throws IOException {
-    InputStream inputStream = null;
-
-    final String canonicalPath = pluginId + "/" + path; //$NON-NLS-1$
+  public PluginResource( HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse ) {
+    this( httpServletResponse );
+    this.httpServletRequest = httpServletRequest;
+  }
 
+  protected InputStream getCacheBackedStream( String pluginId, String path, boolean useCache ) throws IOException {
     if ( useCache ) {
-      byte[] bytes = (byte[]) cache.getFromRegionCache( CACHE_FILE, canonicalPath );
-      if ( bytes != null ) {
-        return new ByteArrayInputStream( bytes );
+      PluginStaticResourceCache.Resource resource = getCachedResource( pluginId, path );
+      if ( resource != null ) {
+        return resource.getInputStream();
       }
     }
+    return getResourceStream( pluginId, path );
+  }
 
+  private InputStream getResourceStream( String pluginId, String path ) throws IOException {
     ClassLoader loader = pluginManager.getClassLoader( pluginId );
     IPluginResourceLoader resLoader = PentahoSystem.get( IPluginResourceLoader.class );
-    inputStream = resLoader.getResourceAsStream( loader, path );
+    InputStream inputStream = resLoader.getResourceAsStream( loader, path );
 
     if ( inputStream == null ) {
       throw new FileNotFoundException( Messages.getInstance()
           .getString( "PluginFileResource.COULD_NOT_READ_FILE", path ) ); //$NON-NLS-1$
     }
+    return inputStream;
+  }
 
-    if ( useCache ) {
-      // store bytes for next time
-      ByteArrayOutputStream bos = null;
+  /**
+   * Returns the file from the cache, reading it into the cache first.
+   *
+   * @return the file, or <code>null</code> if it is too large to be kept and has to be streamed from the plugin
+   */
+  private PluginStaticResourceCache.Resource getCachedResource( String pluginId, String path ) throws IOException {
+    if ( staticResources.isOversized( pluginId, path ) ) {
+      return null;
+    }
+    PluginStaticResourceCache.Resource resource = staticResources.get( pluginId, path );
+    if ( resource == null ) {
+      InputStream inputStream = getResourceStream( pluginId, path );
       try {
-        bos = new ByteArrayOutputStream();
-        IOUtils.copy( inputStream, bos );
-        byte[] bytes = bos.toByteArray();
-        cache.putInRegionCache( CACHE_FILE, canonicalPath, bytes );
-        // new InputStream for caller since we just read it (can't call reset() as it's a generic InputStream)
-        inputStream = new ByteArrayInputStream( bytes );
+        // no need to read more than can be kept to find out that a file is too large
+        resource = staticResources.put( pluginId, path,
+            readAtMost( inputStream, staticResources.getMaxEntryBytes() + 1 ) );
       } finally {
-        IOUtils.closeQuietly( bos );
+        IOUtils.closeQuietly( inputStream );
       }
     }
+    return resource;
+  }
 
-    return inputStream;
+  private static byte[] readAtMost( InputStream inputStream, long limit ) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int count;
+    while ( bytes.size() < limit
+        && ( count = inputStream.read( buffer, 0, (int) Math.min( buffer.length, limit - bytes.size() ) ) ) != -1 ) {
+      bytes.write( buffer, 0, count );
+    }
+    return bytes.toByteArray();
   }
 
   /**
@@ -149,7 +187,8 @@ public class PluginResource {
     // //
     // Set browser cache if valid value and if the path is not one of the plugin REST perspectives. (/viewer, /editor,
     // /scheduler)
-    if ( !pluginRestPerspectives.contains( path ) && maxAge != null && !"0".equals( maxAge ) ) { //$NON-NLS-1$
+    boolean perspective = pluginRestPerspectives.contains( path );
+    if ( !perspective && maxAge != null && !"0".equals( maxAge ) ) { //$NON-NLS-1$
       httpServletResponse.setHeader( "Cache-Control", "max-age=" + maxAge ); //$NON-NLS-1$ //$NON-NLS-2$
     }
 
@@ -161,9 +200,35 @@ public class PluginResource {
       return Response.status( Status.FORBIDDEN ).build();
     }
 
+    MediaType mediaType = MediaType.WILDCARD_TYPE;
+    String mimeType = MimeHelper.getMimeTypeFromFileName( path );
+    if ( mimeType != null ) {
+      try {
+        mediaType = MediaType.valueOf( mimeType );
+      } catch ( IllegalArgumentException iae ) {
+        logger.warn( MessageFormat.format( "PluginFileResource.UNDETERMINED_MIME_TYPE", path ) ); //$NON-NLS-1$
+      }
+    }
+
+    if ( useCache ) {
+      PluginStaticResourceCache.Resource resource;
+      try {
+        resource = getCachedResource( pluginId, path );
+      } catch ( FileNotFoundException e ) {
+        return Response.status( Status.NOT_FOUND ).build();
+      }
+      if ( resource != null ) {
+        // a max-age configured by the plugin wins over the one derived from the file name
+        if ( !perspective && maxAge == null && FINGERPRINTED.matcher( path ).matches() ) {
+          httpServletResponse.setHeader( "Cache-Control", IMMUTABLE ); //$NON-NLS-1$
+        }
+        return buildCachedResponse( resource, mediaType );
+      }
+    }
+
     InputStream isTmp;
     try {
-      isTmp = getCacheBackedStream( pluginId, path, useCache );
+      isTmp = getResourceStream( pluginId, path );
     } catch ( FileNotFoundException e ) {
       return Response.status( Status.NOT_FOUND ).build();
     }
@@ -180,16 +245,101 @@ public class PluginResource {
       }
     };
 
-    MediaType mediaType = MediaType.WILDCARD_TYPE;
-    String mimeType = MimeHelper.getMimeTypeFromFileName( path );
-    if ( mimeType != null ) {
-      try {
-        mediaType = MediaType.valueOf( mimeType );
-      } catch ( IllegalArgumentException iae ) {
-        logger.warn( MessageFormat.format( "PluginFileResource.UNDETERMINED_MIME_TYPE", path ) ); //$NON-NLS-1$
+    return Response.ok( streamingOutput, mediaType ).build();
+  }
+
+  /**
+   * Answers with the whole file, gzipped if the client accepts it, a range of it, or a 304 if the client already has
+   * it.
+   */
+  private Response buildCachedResponse( final PluginStaticResourceCache.Resource resource, MediaType mediaType ) {
+    String acceptEncoding = getRequestHeader( "Accept-Encoding" ); //$NON-NLS-1$
+    String range = getRequestHeader( "Range" ); //$NON-NLS-1$
+    String ifRange = getRequestHeader( "If-Range" ); //$NON-NLS-1$
+    if ( ifRange != null && !ifRange.equals( resource.getEtag() ) ) {
+      range = null;
+    }
+    final boolean gzip = range == null && resource.hasGzipped() && acceptEncoding != null
+        && acceptEncoding.contains( GZIP );
+    String etag = gzip ? resource.getGzippedEtag() : resource.getEtag();
+
+    if ( matches( getRequestHeader( "If-None-Match" ), etag ) ) { //$NON-NLS-1$
+      return Response.notModified().header( "ETag", etag ).build(); //$NON-NLS-1$
+    }
+
+    ResponseBuilder builder;
+    if ( gzip ) {
+      builder = Response.ok( new StreamingOutput() {
+        public void write( OutputStream output ) throws IOException {
+          resource.writeGzipped( output );
+        }
+      }, mediaType ).header( "Content-Encoding", GZIP ) //$NON-NLS-1$
+          .header( "Content-Length", resource.getGzippedLength() ); //$NON-NLS-1$
+    } else {
+      int length = resource.getLength();
+      int start = 0;
+      int end = length - 1;
+      if ( range != null ) {
+        Matcher matcher = BYTE_RANGE.matcher( range.trim() );
+        if ( matcher.matches() && ( matcher.group( 1 ).length() > 0 || matcher.group( 2 ).length() > 0 ) ) {
+          try {
+            if ( matcher.group( 1 ).length() == 0 ) {
+              // the last n bytes
+              start = Math.max( 0, length - Integer.parseInt( matcher.group( 2 ) ) );
+            } else {
+              start = Integer.parseInt( matcher.group( 1 ) );
+              if ( matcher.group( 2 ).length() > 0 ) {
+                end = Math.min( end, Integer.parseInt( matcher.group( 2 ) ) );
+              }
+            }
+          } catch ( NumberFormatException e ) {
+            start = length;
+          }
+          if ( start >= length || start > end ) {
+            return Response.status( 416 ).header( "Content-Range", "bytes */" + length ) //$NON-NLS-1$ //$NON-NLS-2$
+                .header( "ETag", etag ).build(); //$NON-NLS-1$
+          }
+        } else {
+          // several ranges or another unit, send it all
+          range = null;
+        }
+      }
+      final int offset = start;
+      final int count = end - start + 1;
+      StreamingOutput output = new StreamingOutput() {
+        public void write( OutputStream output ) throws IOException {
+          resource.write( output, offset, count );
+        }
+      };
+      if ( range != null ) {
+        builder = Response.status( 206 ).entity( output ).type( mediaType ).header( "Content-Range", //$NON-NLS-1$
+            "bytes " + start + "-" + end + "/" + length ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      } else {
+        builder = Response.ok( output, mediaType );
       }
+      builder.header( "Content-Length", count ); //$NON-NLS-1$
     }
+    builder.header( "ETag", etag ).header( "Accept-Ranges", "bytes" ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    if ( resource.hasGzipped() ) {
+      builder.header( "Vary", "Accept-Encoding" ); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    return builder.build();
+  }
 
-    return Response.ok( streamingOutput, mediaType ).build();
+  private String getRequestHeader( String name ) {
+    return httpServletRequest == null ? null : httpServletRequest.getHeader( name );
+  }
+
+  private static boolean matches( String ifNoneMatch, String etag ) {
+    if ( ifNoneMatch == null ) {
+      return false;
+    }
+    for ( String tag : ifNoneMatch.split( "," ) ) { //$NON-NLS-1$
+      tag = tag.trim();
+      if ( tag.equals( "*" ) || tag.equals( etag ) ) { //$NON-NLS-1$
+        return true;
+      }
+    }
+    return false;
   }
 }
@@ -0,0 +1,326 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.web.http.api.resources;
+
+import org.apache.commons.codec.binary.Hex;
+import org.pentaho.platform.api.engine.IPluginManager;
+import org.pentaho.platform.api.engine.IPluginManagerListener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the static files served from plugins, so that a file is read from its plugin and compressed once. The content
+ * and its gzipped form are kept outside of the heap, together with a strong ETag computed from the content.
+ * <p/>
+ * At most <code>org.pentaho.platform.web.http.api.resources.PluginStaticResourceCache.maxBytes</code> bytes (64MB by
+ * default) are kept, the least recently used files are dropped beyond that. Files larger than
+ * <code>org.pentaho.platform.web.http.api.resources.PluginStaticResourceCache.maxEntryBytes</code> (2MB by default)
+ * are not kept, and are not compressed or hashed either. Everything is dropped when the plugins are reloaded.
+ */
+public class PluginStaticResourceCache {
+
+  private static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+  private static final long DEFAULT_MAX_ENTRY_BYTES = 2L * 1024 * 1024;
+
+  private static final PluginStaticResourceCache instance = new PluginStaticResourceCache( Long.getLong(
+      PluginStaticResourceCache.class.getName() + ".maxBytes", DEFAULT_MAX_BYTES ), Long.getLong( //$NON-NLS-1$
+      PluginStaticResourceCache.class.getName() + ".maxEntryBytes", DEFAULT_MAX_ENTRY_BYTES ) ); //$NON-NLS-1$
+
+  private final long maxBytes;
+
+  private final long maxEntryBytes;
+
+  private final Map<String, Resource> resources = new LinkedHashMap<String, Resource>( 16, 0.75f, true );
+
+  private final Set<String> oversized = new HashSet<String>();
+
+  private long bytes;
+
+  private volatile IPluginManager listenedTo;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  public static PluginStaticResourceCache getInstance() {
+    return instance;
+  }
+
+  PluginStaticResourceCache( final long maxBytes, final long maxEntryBytes ) {
+    this.maxBytes = maxBytes;
+    this.maxEntryBytes = maxEntryBytes;
+  }
+
+  /**
+   * @return the file, or <code>null</code> if it is not kept
+   */
+  public Resource get( final String pluginId, final String path ) {
+    Resource resource;
+    synchronized ( resources ) {
+      resource = resources.get( pluginId + "/" + path ); //$NON-NLS-1$
+    }
+    if ( resource != null ) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+    return resource;
+  }
+
+  /**
+   * @return the size of the largest file that is kept
+   */
+  public long getMaxEntryBytes() {
+    return maxEntryBytes;
+  }
+
+  /**
+   * @return whether the file was found too large to be kept, so that it is streamed without being read first
+   */
+  public boolean isOversized( final String pluginId, final String path ) {
+    synchronized ( resources ) {
+      return oversized.contains( pluginId + "/" + path ); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Keeps the content of a file. A file larger than {@link #getMaxEntryBytes()} is neither compressed nor hashed, it
+   * is only remembered as {@link #isOversized(String, String) oversized}.
+   *
+   * @return the file, or <code>null</code> if it is too large
+   */
+  public Resource put( final String pluginId, final String path, final byte[] content ) throws IOException {
+    if ( content.length > maxEntryBytes ) {
+      synchronized ( resources ) {
+        oversized.add( pluginId + "/" + path ); //$NON-NLS-1$
+      }
+      return null;
+    }
+    Resource resource = new Resource( content );
+    synchronized ( resources ) {
+      Resource previous = resources.put( pluginId + "/" + path, resource ); //$NON-NLS-1$
+      if ( previous != null ) {
+        bytes -= previous.getSize();
+      }
+      bytes += resource.getSize();
+      Iterator<Resource> eldest = resources.values().iterator();
+      while ( bytes > maxBytes && eldest.hasNext() ) {
+        bytes -= eldest.next().getSize();
+        eldest.remove();
+      }
+    }
+    return resource;
+  }
+
+  /**
+   * Drops all files when <code>pluginManager</code> reloads the plugins. Only the last plugin manager given is
+   * listened to.
+   */
+  public void clearOnReload( final IPluginManager pluginManager ) {
+    if ( pluginManager == null || pluginManager == listenedTo ) {
+      return;
+    }
+    synchronized ( this ) {
+      if ( pluginManager == listenedTo ) {
+        return;
+      }
+      listenedTo = pluginManager;
+    }
+    pluginManager.addPluginManagerListener( new IPluginManagerListener() {
+      @Override
+      public void onReload() {
+        if ( listenedTo == pluginManager ) {
+          clear();
+        }
+      }
+    } );
+  }
+
+  public void clear() {
+    synchronized ( resources ) {
+      resources.clear();
+      oversized.clear();
+      bytes = 0;
+    }
+  }
+
+  public int getSize() {
+    synchronized ( resources ) {
+      return resources.size();
+    }
+  }
+
+  /**
+   * @return the number of bytes kept for the content of the files and their gzipped forms
+   */
+  public long getBytes() {
+    synchronized ( resources ) {
+      return bytes;
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * The content of a static file. The gzipped form is only kept if it is noticeably smaller.
+   */
+  public static class Resource {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final ByteBuffer content;
+
+    private final ByteBuffer gzipped;
+
+    private final String etag;
+
+    Resource( final byte[] content ) throws IOException {
+      this.content = toDirectBuffer( content );
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream( content.length / 2 + 32 );
+      GZIPOutputStream gzip = new GZIPOutputStream( bytes );
+      gzip.write( content );
+      gzip.close();
+      this.gzipped = bytes.size() < content.length * 0.9 ? toDirectBuffer( bytes.toByteArray() ) : null;
+      try {
+        byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( content ); //$NON-NLS-1$
+        this.etag = "\"" + new String( Hex.encodeHex( digest ) ) + "\""; //$NON-NLS-1$ //$NON-NLS-2$
+      } catch ( NoSuchAlgorithmException e ) {
+        throw new IOException( e );
+      }
+    }
+
+    private static ByteBuffer toDirectBuffer( final byte[] bytes ) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect( bytes.length );
+      buffer.put( bytes );
+      buffer.flip();
+      return buffer;
+    }
+
+    /**
+     * @return the strong ETag of the content, quoted
+     */
+    public String getEtag() {
+      return etag;
+    }
+
+    /**
+     * @return the strong ETag of the gzipped content, quoted
+     */
+    public String getGzippedEtag() {
+      return etag.substring( 0, etag.length() - 1 ) + "-gzip\""; //$NON-NLS-1$
+    }
+
+    public int getLength() {
+      return content.capacity();
+    }
+
+    public boolean hasGzipped() {
+      return gzipped != null;
+    }
+
+    public int getGzippedLength() {
+      return gzipped == null ? -1 : gzipped.capacity();
+    }
+
+    long getSize() {
+      return getLength() + ( gzipped == null ? 0 : gzipped.capacity() );
+    }
+
+    public InputStream getInputStream() {
+      return new ByteBufferInputStream( content.duplicate() );
+    }
+
+    /**
+     * Writes <code>length</code> bytes of the content, from <code>offset</code>.
+     */
+    public void write( final OutputStream out, final int offset, final int length ) throws IOException {
+      ByteBuffer buffer = content.duplicate();
+      buffer.position( offset );
+      buffer.limit( offset + length );
+      copy( buffer, out );
+    }
+
+    /**
+     * Writes the gzipped content.
+     */
+    public void writeGzipped( final OutputStream out ) throws IOException {
+      copy( gzipped.duplicate(), out );
+    }
+
+    private static void copy( final ByteBuffer buffer, final OutputStream out ) throws IOException {
+      byte[] chunk = new byte[Math.min( BUFFER_SIZE, buffer.remaining() )];
+      while ( buffer.hasRemaining() ) {
+        int count = Math.min( chunk.length, buffer.remaining() );
+        buffer.get( chunk, 0, count );
+        out.write( chunk, 0, count );
+      }
+    }
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream( final ByteBuffer buffer ) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read( final byte[] b, final int off, final int len ) {
+      if ( len == 0 ) {
+        return 0;
+      }
+      if ( !buffer.hasRemaining() ) {
+        return -1;
+      }
+      int count = Math.min( len, buffer.remaining() );
+      buffer.get( b, off, count );
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.web.http.api.resources;
+
+import javax.xml.bind.annotation.XmlRootElement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * How long (in milliseconds) each system listener and each plugin took to start.
+ */
+@XmlRootElement
+public class StartupTimesWrapper {
+  Map<String, Long> systemListeners = new LinkedHashMap<String, Long>();
+  Map<String, Long> plugins = new LinkedHashMap<String, Long>();
+
+  public StartupTimesWrapper() {
+  }
+
+  public StartupTimesWrapper( Map<String, Long> systemListeners, Map<String, Long> plugins ) {
+    super();
+    this.systemListeners.putAll( systemListeners );
+    this.plugins.putAll( plugins );
+  }
+
+  public Map<String, Long> getSystemListeners() {
+    return systemListeners;
+  }
+
+  public void setSystemListeners( Map<String, Long> systemListeners ) {
+    if ( systemListeners != this.systemListeners ) {
+      this.systemListeners.clear();
+      this.systemListeners.putAll( systemListeners );
+    }
+  }
+
+  public Map<String, Long> getPlugins() {
+    return plugins;
+  }
+
+  public void setPlugins( Map<String, Long> plugins ) {
+    if ( plugins != this.plugins ) {
+      this.plugins.clear();
+      this.plugins.putAll( plugins );
+    }
+  }
+}
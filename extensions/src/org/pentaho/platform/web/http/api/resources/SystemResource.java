@@ -30,6 +30,7 @@ import org.pentaho.platform.api.engine.IPluginOperation;
 import org.pentaho.platform.api.engine.ISystemConfig;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.pentaho.platform.plugin.services.pluginmgr.PentahoSystemPluginManager;
 import org.pentaho.platform.repository2.unified.webservices.ExecutableFileTypeDto;
 import org.pentaho.platform.security.policy.rolebased.actions.AdministerSecurityAction;
 import org.pentaho.platform.security.policy.rolebased.actions.RepositoryCreateAction;
@@ -47,6 +48,7 @@ import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -153,6 +155,26 @@ public class SystemResource extends AbstractJaxRSResource {
     return new TimeZoneWrapper( timeZones, TimeZone.getDefault().getID() );
   }
 
+  /**
+   * Returns how long (in milliseconds) each system listener and each plugin took to start, slowest plugins first
+   *
+   * @return startup times of the system listeners and plugins
+   */
+  @GET
+  @Path( "/startup-times" )
+  @Produces( { APPLICATION_JSON, APPLICATION_XML } )
+  @Facet ( name = "Unsupported" )
+  public Response getStartupTimes() {
+    if ( !canAdminister() ) {
+      return Response.status( UNAUTHORIZED ).build();
+    }
+    Map<String, Long> pluginTimes = Collections.emptyMap();
+    if ( pluginManager instanceof PentahoSystemPluginManager ) {
+      pluginTimes = ( (PentahoSystemPluginManager) pluginManager ).getPluginStartupTimes();
+    }
+    return Response.ok( new StartupTimesWrapper( PentahoSystem.getSystemListenerStartupTimes(), pluginTimes ) ).build();
+  }
+
   /**
    * Return the server side locale
    *
@@ -5,6 +5,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.net.URLDecoder;
@@ -12,12 +13,15 @@ import java.net.URLEncoder;
 import java.nio.channels.IllegalSelectorException;
 import java.security.GeneralSecurityException;
 import java.security.InvalidParameterException;
+import java.security.MessageDigest;
+import java.text.CollationKey;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -28,6 +32,7 @@ import java.util.StringTokenizer;
 
 import javax.ws.rs.core.StreamingOutput;
 
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
@@ -1217,24 +1222,87 @@ public class FileService {
       return;
     }
 
+    // collation keys are built once per file instead of on each comparison
+    final Map<RepositoryFileTreeDto, CollationKey> keys = new IdentityHashMap<RepositoryFileTreeDto, CollationKey>();
     for ( RepositoryFileTreeDto rft : tree.getChildren() ) {
       sortByLocaleTitle( collator, rft );
+      keys.put( rft, collator.getCollationKey( rft.getFile().getTitle() ) );
     }
     Collections.sort( tree.getChildren(), new Comparator<RepositoryFileTreeDto>() {
       @Override
       public int compare( RepositoryFileTreeDto repositoryFileTree, RepositoryFileTreeDto repositoryFileTree2 ) {
-        String title1 = repositoryFileTree.getFile().getTitle();
-        String title2 = repositoryFileTree2.getFile().getTitle();
-
-        if ( collator.compare( title1, title2 ) == 0 ) {
-          return title1.compareTo( title2 ); // use lexical order if equals ignore case
+        int result = keys.get( repositoryFileTree ).compareTo( keys.get( repositoryFileTree2 ) );
+        if ( result == 0 ) {
+          // use lexical order if equals ignore case
+          return repositoryFileTree.getFile().getTitle().compareTo( repositoryFileTree2.getFile().getTitle() );
         }
-
-        return collator.compare( title1, title2 );
+        return result;
       }
     } );
   }
 
+  /**
+   * Keeps a page of the children of the top folder of a tree
+   *
+   * @param tree   the tree
+   * @param offset index of the first child to keep, <code>null</code> for the first
+   * @param limit  number of children to keep, <code>null</code> for all
+   * @return the number of children before paging
+   */
+  public int pageChildren( RepositoryFileTreeDto tree, Integer offset, Integer limit ) {
+    List<RepositoryFileTreeDto> children = tree.getChildren();
+    if ( children == null ) {
+      return 0;
+    }
+    int total = children.size();
+    int from = ( offset == null || offset < 0 ) ? 0 : Math.min( offset, total );
+    int to = ( limit == null || limit < 0 ) ? total : Math.min( from + limit, total );
+    if ( from > 0 || to < total ) {
+      tree.setChildren( new ArrayList<RepositoryFileTreeDto>( children.subList( from, to ) ) );
+    }
+    return total;
+  }
+
+  /**
+   * Returns a strong entity tag for a tree, computed from the files and folders in it, so that a client can be told
+   * that the tree it holds has not changed
+   *
+   * @param tree    the tree
+   * @param variant what else the response depends on, such as the requested media type
+   * @return the quoted entity tag, or <code>null</code> if it cannot be computed
+   */
+  public String getTreeEtag( RepositoryFileTreeDto tree, String variant ) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance( "SHA-1" );
+      ObjectOutputStream out = new ObjectOutputStream( new DigestStream( digest ) );
+      out.writeObject( variant );
+      out.writeObject( tree );
+      out.close();
+      return "\"" + new String( Hex.encodeHex( digest.digest() ) ) + "\"";
+    } catch ( Exception e ) {
+      logger.debug( "Unable to compute the entity tag of a repository tree", e );
+      return null;
+    }
+  }
+
+  private static class DigestStream extends OutputStream {
+    private final MessageDigest digest;
+
+    DigestStream( MessageDigest digest ) {
+      this.digest = digest;
+    }
+
+    @Override
+    public void write( int b ) {
+      digest.update( (byte) b );
+    }
+
+    @Override
+    public void write( byte[] b, int off, int len ) {
+      digest.update( b, off, len );
+    }
+  }
+
   /**
    * Retrieve the executed contents for a selected repository file
    *
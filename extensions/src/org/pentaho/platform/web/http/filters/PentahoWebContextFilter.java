@@ -17,12 +17,14 @@
 
 package org.pentaho.platform.web.http.filters;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
 import org.owasp.esapi.ESAPI;
 import org.owasp.esapi.Encoder;
 import org.pentaho.platform.api.engine.IPentahoRequestContext;
 import org.pentaho.platform.api.engine.IPluginManager;
+import org.pentaho.platform.api.engine.IPluginManagerListener;
 import org.pentaho.platform.engine.core.system.PentahoRequestContextHolder;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
@@ -39,15 +41,25 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * If the request is searching for a webcontext.js, it writes out the content of the webcontext.js
+ * <p/>
+ * The parts of the script that only change when the plugins are reloaded (the context path and require-js setup, the
+ * reserved characters and the external resources of each context) are kept as bytes and dropped on reload; only the
+ * session name, home folder and locale are written for each request. The response carries an ETag on its content, so
+ * a browser that still has the script gets a 304, and its gzipped form is kept for clients that accept it. At most
+ * <code>org.pentaho.platform.web.http.filters.PentahoWebContextFilter.maxEntries</code> parts and gzipped responses
+ * (200 by default) are kept.
  * 
  * @author Ramaiz Mansoor
  * 
@@ -72,9 +84,13 @@ public class PentahoWebContextFilter implements Filter {
   private static final byte[] REQUIRE_JS_CFG_START =
       "var requireCfg = {waitSeconds: 30, paths: {}, shim: {}, map: {\"*\": {}}, bundles: {}, config: {service: {}}, packages: []};\n".getBytes(); //$NON-NLS-1$
   private static final String REQUIRE_JS = "requirejs"; //$NON-NLS-1$
+  private static final String GZIP = "gzip"; //$NON-NLS-1$
+  private static final int DEFAULT_MAX_ENTRIES = 200;
+  private static final int MAX_ENTRIES = Integer.getInteger( PentahoWebContextFilter.class.getName()
+      + ".maxEntries", DEFAULT_MAX_ENTRIES ); //$NON-NLS-1$
   // Changed to not do so much work for every request
-  private static final ThreadLocal<byte[]> THREAD_LOCAL_CONTEXT_PATH = new ThreadLocal<byte[]>();
-  private static final ThreadLocal<byte[]> THREAD_LOCAL_REQUIRE_SCRIPT = new ThreadLocal<byte[]>();
+  private final Map<String, byte[]> staticParts = newCache();
+  private final Map<String, byte[]> gzippedResponses = newCache();
 
   public void destroy() {
     // TODO Auto-generated method stub
@@ -104,29 +120,9 @@ public class PentahoWebContextFilter implements Filter {
       IPentahoRequestContext requestContext = PentahoRequestContextHolder.getRequestContext();
       String contextPath = requestContext.getContextPath();
       try {
-        response.setContentType( "text/javascript" ); //$NON-NLS-1$
-        OutputStream out = response.getOutputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream( 8192 );
         out.write( initialCommentBytes );
 
-        byte[] contextPathBytes = THREAD_LOCAL_CONTEXT_PATH.get();
-        byte[] requireScriptBytes = THREAD_LOCAL_REQUIRE_SCRIPT.get();
-        if ( contextPathBytes == null ) {
-          String webContext = "var CONTEXT_PATH = '" + contextPath + "';\n\n"; //$NON-NLS-1$ //$NON-NLS-2$
-          contextPathBytes = webContext.getBytes();
-          THREAD_LOCAL_CONTEXT_PATH.set( contextPathBytes );
-          if ( requireScriptBytes == null ) {
-            String requireJsLocation = "content/common-ui/resources/web/require.js";
-            String requireJsConfigLocation = "content/common-ui/resources/web/require-cfg.js";
-            String requireScript =
-                "document.write(\"<script type='text/javascript' src='" + contextPath
-                + requireJsLocation + "'></scr\"+\"ipt>\");\n"
-                + "document.write(\"<script type=\'text/javascript\' src='" + contextPath
-                + requireJsConfigLocation + "'></scr\"+\"ipt>\");\n";
-            requireScriptBytes = requireScript.getBytes();
-            THREAD_LOCAL_REQUIRE_SCRIPT.set( requireScriptBytes );
-          }
-        }
-
         String basicAuthFlag = (String) httpRequest.getSession().getAttribute( "BasicAuth" );
         if ( basicAuthFlag != null && basicAuthFlag.equals( "true" ) ) {
           out.write( ( "document.write(\"<script type='text/javascript' src='"
@@ -134,9 +130,8 @@ public class PentahoWebContextFilter implements Filter {
               .getBytes( "UTF-8" ) );
         }
 
-        out.write( contextPathBytes );
-        out.write( fullyQualifiedUrl.getBytes() );
-        out.write( serverProtocol.getBytes() );
+        // the context path, urls and the RequireJS config object for plugins to extend
+        out.write( getContextPathScript( contextPath ) );
         // Compute the effective locale and set it in the global scope. Also provide it as a module if the RequireJs
         // system is available.
         Locale effectiveLocale = LocaleHelper.getLocale();
@@ -144,39 +139,36 @@ public class PentahoWebContextFilter implements Filter {
           effectiveLocale = new Locale( request.getParameter( "locale" ) );
         }
 
-        // setup the RequireJS config object for plugins to extend
-        out.write( REQUIRE_JS_CFG_START );
+        String reqStr = getRequestString( httpRequest );
 
         // Let all plugins contribute to the RequireJS config
-        printResourcesForContext( REQUIRE_JS, out, httpRequest, false );
+        out.write( getResourcesForContext( REQUIRE_JS, reqStr, false ) );
 
-        out.write( requireScriptBytes );
+        out.write( getRequireScript( contextPath ) );
 
         printSessionName( out );
         printLocale( effectiveLocale, out );
         printHomeFolder( out );
-        printReservedChars( out );
-        printReservedCharsDisplay( out );
-        printReservedRegexPattern( out );
+        out.write( getReservedCharsScript() );
 
         boolean requireJsOnly = "true".equals( request.getParameter( "requireJsOnly" ) );
 
         if ( !requireJsOnly ) {
           // print global resources defined in plugins
-          printResourcesForContext( GLOBAL, out, httpRequest, false );
+          out.write( getResourcesForContext( GLOBAL, reqStr, false ) );
 
           // print out external-resources defined in plugins if a context has been passed in
           String contextName = request.getParameter( CONTEXT );
           boolean cssOnly = "true".equals( request.getParameter( "cssOnly" ) );
           if ( StringUtils.isNotEmpty( contextName ) ) {
-            printResourcesForContext( contextName, out, httpRequest, cssOnly );
+            out.write( getResourcesForContext( contextName, reqStr, cssOnly ) );
           }
         }
 
         // Any subclass can add more information to webcontext.js
         addCustomInfo( out );
 
-        out.close();
+        writeResponse( httpRequest, httpResponse, out.toByteArray() );
         return;
       } finally {
         httpRequest.removeAttribute( FILTER_APPLIED );
@@ -269,13 +261,147 @@ public class PentahoWebContextFilter implements Filter {
     out.write( sb.toString().getBytes() );
   }
 
-  private void printResourcesForContext( String contextName, OutputStream out, HttpServletRequest request,
-      boolean printCssOnly ) throws IOException {
+  /**
+   * Writes the script, or a 304 if the client already has it. The ETag is a digest of the script, so any change to
+   * it, including one made by {@link #addCustomInfo(OutputStream)}, is seen by the client.
+   */
+  private void writeResponse( HttpServletRequest request, HttpServletResponse response, byte[] content )
+    throws IOException {
+    String digest = DigestUtils.md5Hex( content );
+    String acceptEncoding = request.getHeader( "Accept-Encoding" ); //$NON-NLS-1$
+    boolean gzip = acceptEncoding != null && acceptEncoding.contains( GZIP );
+    // the gzipped script is a different representation, so it has its own tag
+    String etag = "\"" + digest + ( gzip ? "-" + GZIP : "" ) + "\""; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+    response.setContentType( "text/javascript" ); //$NON-NLS-1$
+    // the script depends on the session, so it may be kept by the browser but must be revalidated
+    response.setHeader( "Cache-Control", "private, no-cache" ); //$NON-NLS-1$ //$NON-NLS-2$
+    response.setHeader( "Vary", "Accept-Encoding" ); //$NON-NLS-1$ //$NON-NLS-2$
+    response.setHeader( "ETag", etag ); //$NON-NLS-1$
+    if ( etag.equals( request.getHeader( "If-None-Match" ) ) ) { //$NON-NLS-1$
+      response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+      return;
+    }
 
-    IPluginManager pluginManager = PentahoSystem.get( IPluginManager.class );
-    Encoder encoder = ESAPI.encoder();
+    byte[] body = content;
+    if ( gzip ) {
+      synchronized ( gzippedResponses ) {
+        body = gzippedResponses.get( digest );
+      }
+      if ( body == null ) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream( content.length / 2 );
+        GZIPOutputStream gzipOut = new GZIPOutputStream( bytes );
+        gzipOut.write( content );
+        gzipOut.close();
+        body = bytes.toByteArray();
+        synchronized ( gzippedResponses ) {
+          gzippedResponses.put( digest, body );
+        }
+      }
+      response.setHeader( "Content-Encoding", GZIP ); //$NON-NLS-1$
+    }
+    response.setContentLength( body.length );
+    OutputStream out = response.getOutputStream();
+    out.write( body );
+    out.close();
+  }
+
+  private byte[] getContextPathScript( String contextPath ) throws IOException {
+    String key = "contextPath:" + contextPath; //$NON-NLS-1$
+    byte[] part = getStaticPart( key );
+    if ( part == null ) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      String webContext = "var CONTEXT_PATH = '" + contextPath + "';\n\n"; //$NON-NLS-1$ //$NON-NLS-2$
+      out.write( webContext.getBytes() );
+      out.write( fullyQualifiedUrl.getBytes() );
+      out.write( serverProtocol.getBytes() );
+      // setup the RequireJS config object for plugins to extend
+      out.write( REQUIRE_JS_CFG_START );
+      part = putStaticPart( key, out.toByteArray() );
+    }
+    return part;
+  }
+
+  private byte[] getRequireScript( String contextPath ) {
+    String key = "requireScript:" + contextPath; //$NON-NLS-1$
+    byte[] part = getStaticPart( key );
+    if ( part == null ) {
+      String requireJsLocation = "content/common-ui/resources/web/require.js";
+      String requireJsConfigLocation = "content/common-ui/resources/web/require-cfg.js";
+      String requireScript =
+          "document.write(\"<script type='text/javascript' src='" + contextPath
+          + requireJsLocation + "'></scr\"+\"ipt>\");\n"
+          + "document.write(\"<script type=\'text/javascript\' src='" + contextPath
+          + requireJsConfigLocation + "'></scr\"+\"ipt>\");\n";
+      part = putStaticPart( key, requireScript.getBytes() );
+    }
+    return part;
+  }
+
+  private byte[] getReservedCharsScript() throws IOException {
+    String key = "reservedChars"; //$NON-NLS-1$
+    byte[] part = getStaticPart( key );
+    if ( part == null ) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      printReservedChars( out );
+      printReservedCharsDisplay( out );
+      printReservedRegexPattern( out );
+      part = putStaticPart( key, out.toByteArray() );
+    }
+    return part;
+  }
+
+  private byte[] getResourcesForContext( String contextName, String reqStr, boolean printCssOnly )
+    throws IOException {
+    String key =
+        "resources:" + printCssOnly + ":" + contextName + ":" + reqStr; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    byte[] part = getStaticPart( key );
+    if ( part == null ) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      printResourcesForContext( contextName, out, reqStr, printCssOnly );
+      part = putStaticPart( key, out.toByteArray() );
+    }
+    return part;
+  }
 
-    HttpServletRequest req = ( (HttpServletRequest) request );
+  private byte[] getStaticPart( String key ) {
+    synchronized ( staticParts ) {
+      return staticParts.get( key );
+    }
+  }
+
+  private byte[] putStaticPart( String key, byte[] part ) {
+    synchronized ( staticParts ) {
+      staticParts.put( key, part );
+    }
+    return part;
+  }
+
+  /**
+   * Drops the parts of webcontext.js kept from earlier requests, so that they are built again on the next one.
+   */
+  public void clearCache() {
+    synchronized ( staticParts ) {
+      staticParts.clear();
+    }
+    synchronized ( gzippedResponses ) {
+      gzippedResponses.clear();
+    }
+  }
+
+  private static Map<String, byte[]> newCache() {
+    return new LinkedHashMap<String, byte[]>( 16, 0.75f, true ) {
+      private static final long serialVersionUID = -2930578203431620754L;
+
+      @Override
+      protected boolean removeEldestEntry( final Map.Entry<String, byte[]> eldest ) {
+        return size() > MAX_ENTRIES;
+      }
+    };
+  }
+
+  private String getRequestString( HttpServletRequest req ) {
+    Encoder encoder = ESAPI.encoder();
     String reqStr = "";
     Map paramMap = req.getParameterMap();
 
@@ -300,6 +426,14 @@ public class PentahoWebContextFilter implements Filter {
       }
       reqStr = sb.toString(); // get the request string.
     }
+    return reqStr;
+  }
+
+  private void printResourcesForContext( String contextName, OutputStream out, String reqStr,
+      boolean printCssOnly ) throws IOException {
+
+    IPluginManager pluginManager = PentahoSystem.get( IPluginManager.class );
+    Encoder encoder = ESAPI.encoder();
 
     List<String> externalResources = pluginManager.getExternalResourcesForContext( contextName );
     out.write( ( "<!-- Injecting web resources defined in by plugins as external-resources for: "
@@ -341,6 +475,15 @@ public class PentahoWebContextFilter implements Filter {
     }
     fullyQualifiedUrl = "var FULL_QUALIFIED_URL = '" + fullyQualifiedServerURL + "';\n\n"; //$NON-NLS-1$ //$NON-NLS-2$
     serverProtocol = "var SERVER_PROTOCOL = '" + serverProtocolValue + "';\n\n"; //$NON-NLS-1$ //$NON-NLS-2$
+
+    IPluginManager pluginManager = PentahoSystem.get( IPluginManager.class );
+    if ( pluginManager != null ) {
+      pluginManager.addPluginManagerListener( new IPluginManagerListener() {
+        @Override public void onReload() {
+          clearCache();
+        }
+      } );
+    }
   }
 
 }
@@ -112,6 +112,15 @@ public class GetImage extends ServletBase {
         return;
       }
 
+      // temporary images are written once under a unique name, their date and size identify the content
+      String etag = "\"" + Long.toHexString( tmpFile.lastModified() ) + "-" //$NON-NLS-1$ //$NON-NLS-2$
+          + Long.toHexString( tmpFile.length() ) + "\""; //$NON-NLS-1$
+      response.setHeader( "ETag", etag ); //$NON-NLS-1$
+      if ( etag.equals( request.getHeader( "If-None-Match" ) ) ) { //$NON-NLS-1$
+        response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+        return;
+      }
+
       // Open the file and output streams
       InputStream in = new FileInputStream( tmpFile );
 
@@ -123,15 +132,14 @@ public class GetImage extends ServletBase {
       } else {
         response.setContentType( mimeType );
       }
+      response.setContentLength( (int) tmpFile.length() );
       OutputStream out = response.getOutputStream();
       try {
-        byte[] buffer = new byte[2048];
-        int n, length = 0;
+        byte[] buffer = new byte[8192];
+        int n;
         while ( ( n = in.read( buffer ) ) > 0 ) {
           out.write( buffer, 0, n );
-          length += n;
         }
-        response.setContentLength( length );
       } finally {
         in.close();
         out.close();
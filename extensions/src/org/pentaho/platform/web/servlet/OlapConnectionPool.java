@@ -0,0 +1,234 @@
+/*
+ * Copyright 2002 - 2014 Pentaho Corporation.  All rights reserved.
+ *
+ * This software was developed by Pentaho Corporation and is provided under the terms
+ * of the Mozilla Public License, Version 1.1, or any later version. You may not use
+ * this file except in compliance with the license. If you need a copy of the license,
+ * please go to http://www.mozilla.org/MPL/MPL-1.1.txt. TThe Initial Developer is Pentaho Corporation.
+ *
+ * Software distributed under the Mozilla Public License is distributed on an "AS IS"
+ * basis, WITHOUT WARRANTY OF ANY KIND, either express or  implied. Please refer to
+ * the license for the specific language governing your rights and limitations.
+ */
+
+package org.pentaho.platform.web.servlet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.olap4j.OlapConnection;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the olap4j connections handed out to XMLA requests once they are closed, so that the next request for the same
+ * catalog and roles reuses one instead of opening a new one. At most <code>maxIdlePerKey</code> connections are kept
+ * for each key and at most <code>maxKeys</code> keys, the least recently used ones are closed beyond that. All
+ * connections are closed when the version of the catalogs changes.
+ * <p/>
+ * A connection is only put back if nothing was changed on it (no <code>set</code> method was called). The statements
+ * created on it are closed when it is put back.
+ */
+class OlapConnectionPool {
+
+  /**
+   * Opens a new connection when none is kept.
+   */
+  interface Opener {
+    OlapConnection open() throws SQLException;
+  }
+
+  private static final Log logger = LogFactory.getLog( OlapConnectionPool.class );
+
+  private final int maxIdlePerKey;
+
+  private final Map<String, Deque<OlapConnection>> idle;
+
+  private long version = -1;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  OlapConnectionPool( final int maxIdlePerKey, final int maxKeys ) {
+    this.maxIdlePerKey = maxIdlePerKey;
+    this.idle = new LinkedHashMap<String, Deque<OlapConnection>>( 16, 0.75f, true ) {
+      private static final long serialVersionUID = -4503468927163364128L;
+
+      @Override
+      protected boolean removeEldestEntry( final Map.Entry<String, Deque<OlapConnection>> eldest ) {
+        if ( size() > maxKeys ) {
+          closeAll( eldest.getValue() );
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Returns a kept connection for <code>key</code>, or a new one. Closing the returned connection puts it back.
+   *
+   * @param version
+   *          the version of the catalogs, kept connections of other versions are closed
+   */
+  OlapConnection getConnection( final String key, final long version, final Opener opener ) throws SQLException {
+    OlapConnection connection = null;
+    synchronized ( idle ) {
+      if ( version != this.version ) {
+        clear();
+        this.version = version;
+      }
+      Deque<OlapConnection> connections = idle.get( key );
+      while ( connection == null && connections != null && !connections.isEmpty() ) {
+        connection = connections.pop();
+        if ( connection.isClosed() ) {
+          connection = null;
+        }
+      }
+    }
+    if ( connection != null ) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+      connection = opener.open();
+      if ( connection == null ) {
+        return null;
+      }
+    }
+    return wrap( key, version, connection );
+  }
+
+  private void release( final String key, final long version, final OlapConnection connection ) {
+    synchronized ( idle ) {
+      if ( version == this.version ) {
+        Deque<OlapConnection> connections = idle.get( key );
+        if ( connections == null ) {
+          connections = new ArrayDeque<OlapConnection>();
+          idle.put( key, connections );
+        }
+        if ( connections.size() < maxIdlePerKey ) {
+          connections.push( connection );
+          return;
+        }
+      }
+    }
+    close( connection );
+  }
+
+  /**
+   * Closes all kept connections.
+   */
+  void clear() {
+    synchronized ( idle ) {
+      for ( Deque<OlapConnection> connections : idle.values() ) {
+        closeAll( connections );
+      }
+      idle.clear();
+    }
+  }
+
+  int getIdleCount() {
+    synchronized ( idle ) {
+      int count = 0;
+      for ( Deque<OlapConnection> connections : idle.values() ) {
+        count += connections.size();
+      }
+      return count;
+    }
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+
+  private static void closeAll( final Deque<OlapConnection> connections ) {
+    for ( OlapConnection connection : connections ) {
+      close( connection );
+    }
+    connections.clear();
+  }
+
+  private static void close( final Object closeable ) {
+    try {
+      if ( closeable instanceof OlapConnection ) {
+        ( (OlapConnection) closeable ).close();
+      } else {
+        ( (Statement) closeable ).close();
+      }
+    } catch ( SQLException e ) {
+      logger.debug( e.getMessage(), e );
+    }
+  }
+
+  private OlapConnection wrap( final String key, final long version, final OlapConnection connection ) {
+    return (OlapConnection) Proxy.newProxyInstance( OlapConnection.class.getClassLoader(),
+        new Class<?>[] { OlapConnection.class }, new InvocationHandler() {
+          private final List<Statement> statements = new ArrayList<Statement>();
+
+          private boolean closed;
+
+          private boolean changed;
+
+          @Override
+          public synchronized Object invoke( Object proxy, Method method, Object[] args ) throws Throwable {
+            String name = method.getName();
+            int arity = method.getParameterTypes().length;
+            if ( "close".equals( name ) && arity == 0 ) { //$NON-NLS-1$
+              if ( !closed ) {
+                closed = true;
+                for ( Statement statement : statements ) {
+                  close( statement );
+                }
+                if ( changed ) {
+                  close( connection );
+                } else {
+                  release( key, version, connection );
+                }
+              }
+              return null;
+            }
+            if ( "isClosed".equals( name ) && arity == 0 ) { //$NON-NLS-1$
+              return closed || connection.isClosed();
+            }
+            if ( "equals".equals( name ) && arity == 1 ) { //$NON-NLS-1$
+              return proxy == args[0];
+            }
+            if ( "hashCode".equals( name ) && arity == 0 ) { //$NON-NLS-1$
+              return System.identityHashCode( proxy );
+            }
+            if ( closed ) {
+              throw new SQLException( "Connection is closed" ); //$NON-NLS-1$
+            }
+            if ( name.startsWith( "set" ) ) { //$NON-NLS-1$
+              changed = true;
+            }
+            Object result;
+            try {
+              result = method.invoke( connection, args );
+            } catch ( InvocationTargetException e ) {
+              throw e.getCause();
+            }
+            if ( result instanceof Statement ) {
+              statements.add( (Statement) result );
+            }
+            return result;
+          }
+        } );
+  }
+}
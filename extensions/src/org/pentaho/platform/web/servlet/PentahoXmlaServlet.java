@@ -13,15 +13,30 @@
 
 package org.pentaho.platform.web.servlet;
 
+import java.io.IOException;
+import java.io.Serializable;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import mondrian.olap.Connection;
 import mondrian.olap.DriverManager;
@@ -44,10 +59,12 @@ import org.dom4j.tree.DefaultElement;
 import org.olap4j.OlapConnection;
 import org.pentaho.platform.api.engine.ICacheManager;
 import org.pentaho.platform.api.engine.IConnectionUserRoleMapper;
+import org.pentaho.platform.api.engine.IPentahoRequestContext;
 import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.api.engine.PentahoAccessControlException;
 import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
 import org.pentaho.platform.api.util.XmlParseException;
+import org.pentaho.platform.engine.core.system.PentahoRequestContextHolder;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.security.SecurityHelper;
@@ -58,8 +75,11 @@ import org.pentaho.platform.plugin.action.mondrian.catalog.MondrianCatalogHelper
 import org.pentaho.platform.plugin.services.connections.mondrian.MDXConnection;
 import org.pentaho.platform.repository.solution.filebased.MondrianVfs;
 import org.pentaho.platform.repository.solution.filebased.SolutionRepositoryVfsFileObject;
+import org.pentaho.platform.util.messages.LocaleHelper;
 import org.pentaho.platform.util.xml.dom4j.XmlDom4JHelper;
 import org.pentaho.platform.web.servlet.messages.Messages;
+import org.springframework.security.context.SecurityContext;
+import org.springframework.security.context.SecurityContextHolder;
 import org.xml.sax.EntityResolver;
 
 import mondrian.server.DynamicContentFinder;
@@ -80,6 +100,15 @@ import static org.apache.commons.collections.CollectionUtils.*;
  * <p/>
  * The convention here is that any <code>DataSource</code> elements with
  * <code>&lt;ProviderType&gt;None&lt;/ProviderType&gt;</code> are considered non-XMLA and are filtered out.
+ * <p/>
+ * The Mondrian server and repository of each catalog, the mapped roles of each session and the olap4j connections
+ * are kept until the catalogs change (see {@link MondrianCatalogHelper#getCatalogVersion()}), connections in an
+ * {@link OlapConnectionPool} of <code>org.pentaho.platform.web.servlet.PentahoXmlaServlet.maxIdleConnections</code>
+ * (4 by default) per catalog and role set. When the container supports asynchronous processing for the request, it is
+ * run on a pool of <code>org.pentaho.platform.web.servlet.PentahoXmlaServlet.asyncThreads</code> threads (8 by
+ * default, 0 to disable), so that long MDX queries do not hold container threads. Mapped roles are also mapped again
+ * after <code>org.pentaho.platform.web.servlet.PentahoXmlaServlet.rolesTtlSeconds</code> (300 by default), so that a
+ * change to the roles of a user reaches long lived sessions.
  *
  * @author mlowery
  */
@@ -103,6 +132,61 @@ public class PentahoXmlaServlet extends DynamicDatasourceXmlaServlet {
 
   private final MondrianCatalogHelper mondrianCatalogService;
 
+  private static final String ROLES_ATTRIBUTE = PentahoXmlaServlet.class.getName() + ".roles"; //$NON-NLS-1$
+
+  private static final long ROLES_TTL_MILLIS = 1000L * Integer.getInteger(
+      PentahoXmlaServlet.class.getName() + ".rolesTtlSeconds", 300 ); //$NON-NLS-1$
+
+  private static final int ASYNC_THREADS = Integer.getInteger(
+      PentahoXmlaServlet.class.getName() + ".asyncThreads", 8 ); //$NON-NLS-1$
+
+  private final OlapConnectionPool connectionPool = new OlapConnectionPool( Integer.getInteger(
+      PentahoXmlaServlet.class.getName() + ".maxIdleConnections", 4 ), Integer.getInteger( //$NON-NLS-1$
+      PentahoXmlaServlet.class.getName() + ".maxPooledCatalogs", 100 ) ); //$NON-NLS-1$
+
+  private final ConcurrentMap<String, CatalogServer> catalogServers = new ConcurrentHashMap<String, CatalogServer>();
+
+  private ThreadPoolExecutor executor;
+
+  /**
+   * The roles of a session mapped for a catalog, and when they have to be mapped again.
+   */
+  private static class MappedRoles implements Serializable {
+    private static final long serialVersionUID = -6420473857372014713L;
+
+    final String[] roles;
+
+    final long expires;
+
+    MappedRoles( String[] roles, long expires ) {
+      this.roles = roles;
+      this.expires = expires;
+    }
+  }
+
+  /**
+   * The Mondrian server and repository used for the connections to a catalog.
+   */
+  private static class CatalogServer {
+    final long version;
+
+    final MondrianServer server;
+
+    final FileRepository repository;
+
+    /**
+     * Whether the schema is processed for each user, in which case connections are not shared between users.
+     */
+    final boolean dynamicSchema;
+
+    CatalogServer( long version, MondrianServer server, FileRepository repository, boolean dynamicSchema ) {
+      this.version = version;
+      this.server = server;
+      this.repository = repository;
+      this.dynamicSchema = dynamicSchema;
+    }
+  }
+
   // - Constructors ================================
 
   public PentahoXmlaServlet() {
@@ -124,6 +208,88 @@ public class PentahoXmlaServlet extends DynamicDatasourceXmlaServlet {
 
   // ~ Methods =========================================================================================================
 
+  @Override
+  public void init( ServletConfig config ) throws ServletException {
+    super.init( config );
+    if ( ASYNC_THREADS > 0 ) {
+      executor = new ThreadPoolExecutor( ASYNC_THREADS, ASYNC_THREADS, 60, TimeUnit.SECONDS,
+          new ArrayBlockingQueue<Runnable>( ASYNC_THREADS * 16 ), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread( Runnable r ) {
+              Thread thread = new Thread( r, "PentahoXmlaServlet-" + count.incrementAndGet() ); //$NON-NLS-1$
+              thread.setDaemon( true );
+              return thread;
+            }
+          } );
+      executor.allowCoreThreadTimeOut( true );
+    }
+  }
+
+  @Override
+  public void destroy() {
+    if ( executor != null ) {
+      executor.shutdown();
+    }
+    connectionPool.clear();
+    catalogServers.clear();
+    super.destroy();
+  }
+
+  /**
+   * Runs the request on the servlet's own threads when the container allows it, with the caller's session, security
+   * context, request context and locale. Requests are run on the container thread when the pool is busy.
+   */
+  @Override
+  protected void doPost( final HttpServletRequest request, final HttpServletResponse response )
+    throws ServletException, IOException {
+    if ( executor == null || !request.isAsyncSupported() ) {
+      super.doPost( request, response );
+      return;
+    }
+    final AsyncContext asyncContext = request.startAsync( request, response );
+    asyncContext.setTimeout( 0 );
+    final IPentahoSession session = PentahoSessionHolder.getSession();
+    final SecurityContext securityContext = SecurityContextHolder.getContext();
+    final IPentahoRequestContext requestContext = PentahoRequestContextHolder.getRequestContext();
+    final Locale locale = LocaleHelper.getLocale();
+    Runnable task = new Runnable() {
+      public void run() {
+        IPentahoSession origSession = PentahoSessionHolder.getSession();
+        SecurityContext origSecurityContext = SecurityContextHolder.getContext();
+        IPentahoRequestContext origRequestContext = PentahoRequestContextHolder.getRequestContext();
+        Locale origLocale = LocaleHelper.getLocale();
+        try {
+          PentahoSessionHolder.setSession( session );
+          SecurityContextHolder.setContext( securityContext );
+          PentahoRequestContextHolder.setRequestContext( requestContext );
+          LocaleHelper.setLocale( locale );
+          PentahoXmlaServlet.super.doPost( request, response );
+        } catch ( Exception e ) {
+          logger.error( e.getMessage(), e );
+          if ( !response.isCommitted() ) {
+            try {
+              response.sendError( HttpServletResponse.SC_INTERNAL_SERVER_ERROR );
+            } catch ( IOException ioe ) {
+              logger.debug( ioe.getMessage(), ioe );
+            }
+          }
+        } finally {
+          PentahoSessionHolder.setSession( origSession );
+          SecurityContextHolder.setContext( origSecurityContext );
+          PentahoRequestContextHolder.setRequestContext( origRequestContext );
+          LocaleHelper.setLocale( origLocale );
+          asyncContext.complete();
+        }
+      }
+    };
+    try {
+      executor.execute( task );
+    } catch ( RejectedExecutionException e ) {
+      task.run();
+    }
+  }
+
   @Override
   protected RepositoryContentFinder makeContentFinder( String dataSourcesUrl ) {
     // It is safe to cache these for now because their lambda doesn't
@@ -269,11 +435,7 @@ public class PentahoXmlaServlet extends DynamicDatasourceXmlaServlet {
         final IPentahoSession session =
             PentahoSessionHolder.getSession();
 
-        final IConnectionUserRoleMapper mondrianUserRoleMapper =
-            PentahoSystem.get(
-                IConnectionUserRoleMapper.class,
-                MDXConnection.MDX_CONNECTION_MAPPER_KEY,
-                null ); // Don't use the user session here yet.
+        final long version = getCatalogVersion();
 
         String[] effectiveRoles = new String[0];
 
@@ -282,21 +444,8 @@ public class PentahoXmlaServlet extends DynamicDatasourceXmlaServlet {
          * like DISCOVER_DATASOURCES) we can't use the role mapper, even if it
          * is present and configured.
          */
-        if ( mondrianUserRoleMapper != null
-            && catalogName != null ) {
-          // Use the role mapper.
-          try {
-            effectiveRoles =
-                mondrianUserRoleMapper
-                    .mapConnectionRoles(
-                        session,
-                        catalogName );
-            if ( effectiveRoles == null ) {
-              effectiveRoles = new String[0];
-            }
-          } catch ( PentahoAccessControlException e ) {
-            throw new SQLException( e );
-          }
+        if ( catalogName != null ) {
+          effectiveRoles = getMappedRoles( session, catalogName, version );
         }
 
         // Now we tokenize that list.
@@ -325,45 +474,146 @@ public class PentahoXmlaServlet extends DynamicDatasourceXmlaServlet {
           );
 
         } else {
-          //We create a connection differently so we can ensure that
-          //the XMLA servlet shares the same MondrianServer instance as the rest
-          //of the platform
-          IMondrianCatalogService mcs =
-              PentahoSystem.get( IMondrianCatalogService.class );
-
-          MondrianCatalog mc =
-              mcs.getCatalog( catalogName, PentahoSessionHolder.getSession() );
-
-          if ( mc == null ) {
-            throw new XmlaException(
-                CLIENT_FAULT_FC,
-                HSB_BAD_RESTRICTION_LIST_CODE,
-                HSB_BAD_RESTRICTION_LIST_FAULT_FS,
-                new MondrianException(
-                    "No such catalog: " + catalogName )
-            );
+          final CatalogServer catalogServer = getCatalogServer( catalogName, version, servletConfig );
+          final String dbName = databaseName;
+          final String catName = catalogName;
+          final String roles = roleName;
+          final Properties properties = props;
+          String key = getConnectionKey( databaseName, catalogName, roleName, props );
+          if ( catalogServer.dynamicSchema ) {
+            key += "\u0000" + ( session == null ? "" : session.getName() ); //$NON-NLS-1$ //$NON-NLS-2$
           }
+          return connectionPool.getConnection( key, version,
+              new OlapConnectionPool.Opener() {
+                public OlapConnection open() throws SQLException {
+                  return catalogServer.repository.getConnection(
+                      catalogServer.server, dbName, catName, roles, properties );
+                }
+              } );
+        }
+      }
+    };
+  }
 
-          Connection con =
-              DriverManager.getConnection(
-                  mc.getDataSourceInfo() + ";Catalog=" + mc.getDefinition(),
-                  makeCatalogLocator( servletConfig ) );
-
-          try {
-            final MondrianServer server = MondrianServer.forConnection( con );
+  private long getCatalogVersion() {
+    return mondrianCatalogService == null ? 0 : mondrianCatalogService.getCatalogVersion();
+  }
 
-            FileRepository fr =
-                new FileRepository(
-                    makeContentFinder( makeDataSourcesUrl( servletConfig ) ),
-                    makeCatalogLocator( servletConfig ) );
+  /**
+   * Returns the roles of the session mapped for a catalog, kept in the session until the catalogs change or, at the
+   * latest, for <code>rolesTtlSeconds</code>.
+   */
+  private String[] getMappedRoles( IPentahoSession session, String catalogName, long version ) throws SQLException {
+    ConcurrentMap<String, MappedRoles> mappedRoles = null;
+    String key = version + ":" + catalogName; //$NON-NLS-1$
+    if ( session != null ) {
+      @SuppressWarnings ( "unchecked" )
+      ConcurrentMap<String, MappedRoles> sessionRoles =
+          (ConcurrentMap<String, MappedRoles>) session.getAttribute( ROLES_ATTRIBUTE );
+      mappedRoles = sessionRoles;
+      if ( mappedRoles == null ) {
+        mappedRoles = new ConcurrentHashMap<String, MappedRoles>();
+        session.setAttribute( ROLES_ATTRIBUTE, mappedRoles );
+      }
+      MappedRoles roles = mappedRoles.get( key );
+      if ( roles != null && roles.expires > System.currentTimeMillis() ) {
+        return roles.roles;
+      }
+    }
 
-            return fr.getConnection(
-                server, databaseName, catalogName, roleName, props );
-          } finally {
-            con.close();
-          }
+    final IConnectionUserRoleMapper mondrianUserRoleMapper =
+        PentahoSystem.get(
+            IConnectionUserRoleMapper.class,
+            MDXConnection.MDX_CONNECTION_MAPPER_KEY,
+            null ); // Don't use the user session here yet.
+
+    String[] effectiveRoles = new String[0];
+    if ( mondrianUserRoleMapper != null ) {
+      // Use the role mapper.
+      try {
+        effectiveRoles =
+            mondrianUserRoleMapper
+                .mapConnectionRoles(
+                    session,
+                    catalogName );
+        if ( effectiveRoles == null ) {
+          effectiveRoles = new String[0];
         }
+      } catch ( PentahoAccessControlException e ) {
+        throw new SQLException( e );
       }
-    };
+    }
+    if ( mappedRoles != null ) {
+      for ( String oldKey : mappedRoles.keySet() ) {
+        if ( !oldKey.startsWith( version + ":" ) ) { //$NON-NLS-1$
+          mappedRoles.remove( oldKey );
+        }
+      }
+      mappedRoles.put( key, new MappedRoles( effectiveRoles, System.currentTimeMillis() + ROLES_TTL_MILLIS ) );
+    }
+    return effectiveRoles;
+  }
+
+  /**
+   * Returns the Mondrian server and repository for a catalog, kept until the catalogs change.
+   */
+  private CatalogServer getCatalogServer( String catalogName, long version, ServletConfig servletConfig )
+    throws SQLException {
+    //We create a connection differently so we can ensure that
+    //the XMLA servlet shares the same MondrianServer instance as the rest
+    //of the platform
+    IMondrianCatalogService mcs =
+        PentahoSystem.get( IMondrianCatalogService.class );
+
+    MondrianCatalog mc =
+        mcs.getCatalog( catalogName, PentahoSessionHolder.getSession() );
+
+    if ( mc == null ) {
+      throw new XmlaException(
+          CLIENT_FAULT_FC,
+          HSB_BAD_RESTRICTION_LIST_CODE,
+          HSB_BAD_RESTRICTION_LIST_FAULT_FS,
+          new MondrianException(
+              "No such catalog: " + catalogName )
+      );
+    }
+
+    // the catalog is looked up for each request, as it checks that the user may read it
+    CatalogServer catalogServer = catalogServers.get( catalogName );
+    if ( catalogServer != null && catalogServer.version == version ) {
+      return catalogServer;
+    }
+    boolean dynamicSchema = mc.getDataSourceInfo() != null
+        && mc.getDataSourceInfo().toLowerCase().contains( "dynamicschemaprocessor" ); //$NON-NLS-1$
+
+    Connection con =
+        DriverManager.getConnection(
+            mc.getDataSourceInfo() + ";Catalog=" + mc.getDefinition(),
+            makeCatalogLocator( servletConfig ) );
+
+    try {
+      final MondrianServer server = MondrianServer.forConnection( con );
+
+      FileRepository fr =
+          new FileRepository(
+              makeContentFinder( makeDataSourcesUrl( servletConfig ) ),
+              makeCatalogLocator( servletConfig ) );
+
+      catalogServer = new CatalogServer( version, server, fr, dynamicSchema );
+    } finally {
+      con.close();
+    }
+    if ( catalogServers.size() > 0 && catalogServers.values().iterator().next().version != version ) {
+      catalogServers.clear();
+    }
+    catalogServers.put( catalogName, catalogServer );
+    return catalogServer;
+  }
+
+  private static String getConnectionKey( String databaseName, String catalogName, String roleName,
+                                          Properties props ) {
+    return databaseName + "\u0000" + catalogName + "\u0000" + roleName //$NON-NLS-1$ //$NON-NLS-2$
+        + "\u0000" //$NON-NLS-1$
+        + ( props == null ? "" : new TreeMap<Object, Object>( props ).toString() ); //$NON-NLS-1$
   }
 }
@@ -6,6 +6,11 @@ import static org.mockito.Matchers.anyInt;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
 import org.apache.log4j.Level;
 import org.apache.log4j.LogManager;
 import org.dom4j.Node;
@@ -135,6 +140,42 @@ public class ResultSetCompareComponentTest {
     assertEquals( IRuntimeContext.RUNTIME_STATUS_SUCCESS, actualExecuteResult );
   }
 
+  @Test
+  public void executeSuccessful_with_unordered_resultSets() {
+    ResultSetCompareComponent rscc = createResultSetCompareComponent();
+    IPentahoResultSet rs1 = createResultSet( new String[][] { { FIRST_ROW }, { SECOND_ROW } } );
+    IPentahoResultSet rs2 = createResultSet( new String[][] { { SECOND_ROW }, { FIRST_ROW } } );
+    ResultSetCompareAction resultSetCompareAction = createResultSetCompareAction( rs1, rs2, 0, false, true );
+    rscc.setActionDefinition( resultSetCompareAction );
+    rscc.validate();
+    int actualExecuteResult = rscc.execute();
+    assertEquals( IRuntimeContext.RUNTIME_STATUS_SUCCESS, actualExecuteResult );
+  }
+
+  @Test
+  public void getMismatches_returns_missing_values_in_row_order() {
+    IPentahoResultSet rs1 = createResultSet( new String[][] { { "A" }, { "B" }, { "C" }, { "B" }, { "D" } } );
+    IPentahoResultSet rs2 = createResultSet( new String[][] { { "D" }, { "A" }, { "E" } } );
+    assertEquals( Arrays.<Object>asList( "B", "C", "B" ), ResultSetCompareComponent.getMismatches( rs1, rs2, 0,
+        false ) );
+    assertEquals( Arrays.<Object>asList( "B" ), ResultSetCompareComponent.getMismatches( rs1, rs2, 0, true ) );
+  }
+
+  @Test
+  public void getMismatches_matches_values_symmetrically_and_nulls() {
+    Timestamp timestamp = new Timestamp( 1394582400000L );
+    Date date = new Date( timestamp.getTime() );
+    // a Date equals a Timestamp of the same time, the Timestamp does not equal the Date
+    IPentahoResultSet rs1 = createResultSet( new Object[][] { { timestamp }, { null } } );
+    IPentahoResultSet rs2 = createResultSet( new Object[][] { { null }, { date } } );
+    assertEquals( Collections.emptyList(), ResultSetCompareComponent.getMismatches( rs1, rs2, 0, false ) );
+    assertEquals( Collections.emptyList(), ResultSetCompareComponent.getMismatches( rs2, rs1, 0, false ) );
+
+    IPentahoResultSet rs3 = createResultSet( new Object[][] { { date } } );
+    assertEquals( Arrays.<Object>asList( (Object) null ), ResultSetCompareComponent.getMismatches( rs2, rs3, 0,
+        false ) );
+  }
+
   @After
   public void tearDown() {
     LogManager.getRootLogger().setLevel( level );
@@ -22,6 +22,7 @@ import mondrian.olap.Connection;
 import mondrian.olap.Schema;
 import mondrian.olap.Util.PropertyList;
 import mondrian.spi.DynamicSchemaProcessor;
+import mondrian.xmla.DataSourcesConfig;
 import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.AfterClass;
@@ -77,6 +78,7 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
 import static org.mockito.Mockito.*;
 import static org.pentaho.platform.repository2.unified.UnifiedRepositoryTestUtils.*;
 
@@ -399,6 +401,119 @@ public class MondrianCatalogHelperTest {
     verify( mondrianCacheControl, never() ).flushSchema( mondrianSchema );
   }
 
+  @Test
+  public void testListCatalog_SchemasParsedOnDemand() throws Exception {
+    stubSteelWheelsAndSampleData();
+
+    IPentahoSession session = new StandaloneSession( "admin" );
+    helper = spy( helper );
+    IAclNodeHelper aclHelper = mock( IAclNodeHelper.class );
+    when( aclHelper.canAccess( any( RepositoryFile.class ), any( EnumSet.class ) ) ).thenReturn( true );
+    doReturn( aclHelper ).when( helper ).getAclHelper();
+
+    List<MondrianCatalog> cats = helper.listCatalogs( session, false );
+    assertEquals( 2, cats.size() );
+    verify( helper, never() ).makeSchema( anyString() );
+
+    MondrianCatalog steelWheels = helper.getCatalog( CATALOG_NAME, session );
+    assertFalse( steelWheels.isSchemaLoaded() );
+    assertEquals( CATALOG_NAME, steelWheels.getSchema().getName() );
+    assertTrue( steelWheels.isSchemaLoaded() );
+    verify( helper, times( 1 ) ).makeSchema( anyString() );
+  }
+
+  @Test
+  public void testReInitCatalog_KeepsOtherCatalogs() throws Exception {
+    stubSteelWheelsAndSampleData();
+
+    IPentahoSession session = new StandaloneSession( "admin" );
+    helper = spy( helper );
+    IAclNodeHelper aclHelper = mock( IAclNodeHelper.class );
+    when( aclHelper.canAccess( any( RepositoryFile.class ), any( EnumSet.class ) ) ).thenReturn( true );
+    doReturn( aclHelper ).when( helper ).getAclHelper();
+
+    MondrianCatalog steelWheels = helper.getCatalog( CATALOG_NAME, session );
+    MondrianCatalog sampleData = helper.getCatalog( "SampleData", session );
+    sampleData.getSchema();
+
+    IPentahoSession reInitSession = new StandaloneSession( "admin" );
+    helper.reInitCatalog( CATALOG_NAME, reInitSession );
+
+    assertNotSame( steelWheels, helper.getCatalog( CATALOG_NAME, session ) );
+    assertSame( sampleData, helper.getCatalog( "SampleData", session ) );
+    assertTrue( helper.getCatalog( "SampleData", session ).isSchemaLoaded() );
+    verify( helper ).loadCatalogsIntoCache( any( DataSourcesConfig.DataSources.class ), same( reInitSession ) );
+  }
+
+  @Test
+  public void testListCatalog_HostedCatalogNamedAfterSchema() throws Exception {
+    File file = new File( "test-src/solution/test/charts/steelwheels.mondrian.xml" );
+    String mondrianSchema = IOUtils.toString( new FileInputStream( file ) );
+
+    final String mondrianFolderPath = ClientRepositoryPaths.getEtcFolderPath() + RepositoryFile.SEPARATOR + "mondrian";
+    stubGetFolder( repo, mondrianFolderPath );
+    stubGetChildren( repo, mondrianFolderPath, "Renamed/" );
+
+    final String renamedFolderPath = mondrianFolderPath + RepositoryFile.SEPARATOR + "Renamed";
+    final String renamedMetadataPath = renamedFolderPath + RepositoryFile.SEPARATOR + "metadata";
+    final String renamedSchemaPath = renamedFolderPath + RepositoryFile.SEPARATOR + "schema.xml";
+    stubGetFile( repo, renamedMetadataPath );
+    stubGetData( repo, renamedMetadataPath, "catalog", pathPropertyPair( "/catalog/definition", "mondrian:/Renamed" ),
+        pathPropertyPair( "/catalog/datasourceInfo", "Provider=mondrian;DataSource=SteelWheels;" ) );
+    stubGetFile( repo, renamedSchemaPath );
+    stubGetData( repo, renamedSchemaPath, mondrianSchema );
+
+    IPentahoSession session = new StandaloneSession( "admin" );
+    helper = spy( helper );
+    IAclNodeHelper aclHelper = mock( IAclNodeHelper.class );
+    when( aclHelper.canAccess( any( RepositoryFile.class ), any( EnumSet.class ) ) ).thenReturn( true );
+    doReturn( aclHelper ).when( helper ).getAclHelper();
+
+    MondrianCatalog catalog = helper.getCatalog( CATALOG_NAME, session );
+    assertNotNull( catalog );
+    assertEquals( "mondrian:/Renamed", catalog.getDefinition() );
+    assertFalse( catalog.isSchemaLoaded() );
+    verify( helper, never() ).makeSchema( anyString() );
+    // the name is read from the stored file, the schema is fetched only once it is used
+    verify( helper, never() ).getCatalogAsString( any( IPentahoSession.class ),
+        any( DataSourcesConfig.Catalog.class ) );
+
+    assertEquals( CATALOG_NAME, catalog.getSchema().getName() );
+    verify( helper, times( 1 ) ).getCatalogAsString( any( IPentahoSession.class ),
+        any( DataSourcesConfig.Catalog.class ) );
+  }
+
+  private void stubSteelWheelsAndSampleData() throws Exception {
+    File file1 = new File( "test-src/solution/test/charts/steelwheels.mondrian.xml" );
+    String mondrianSchema1 = IOUtils.toString( new FileInputStream( file1 ) );
+    File file2 = new File( "test-src/solution/samples/reporting/SampleData.mondrian.xml" );
+    String mondrianSchema2 = IOUtils.toString( new FileInputStream( file2 ) );
+
+    final String mondrianFolderPath = ClientRepositoryPaths.getEtcFolderPath() + RepositoryFile.SEPARATOR + "mondrian";
+    stubGetFolder( repo, mondrianFolderPath );
+    stubGetChildren( repo, mondrianFolderPath, "SampleData/", "SteelWheels/" );
+
+    final String sampleDataFolderPath = mondrianFolderPath + RepositoryFile.SEPARATOR + "SampleData";
+    final String sampleDataMetadataPath = sampleDataFolderPath + RepositoryFile.SEPARATOR + "metadata";
+    final String sampleDataSchemaPath = sampleDataFolderPath + RepositoryFile.SEPARATOR + "schema.xml";
+    stubGetFile( repo, sampleDataMetadataPath );
+    stubGetData( repo, sampleDataMetadataPath, "catalog", pathPropertyPair( "/catalog/definition",
+        "mondrian:/SampleData" ), pathPropertyPair( "/catalog/datasourceInfo",
+        "Provider=mondrian;DataSource=SampleData;" ) );
+    stubGetFile( repo, sampleDataSchemaPath );
+    stubGetData( repo, sampleDataSchemaPath, mondrianSchema2 );
+
+    final String steelWheelsFolderPath = mondrianFolderPath + RepositoryFile.SEPARATOR + CATALOG_NAME;
+    final String steelWheelsMetadataPath = steelWheelsFolderPath + RepositoryFile.SEPARATOR + "metadata";
+    final String steelWheelsSchemaPath = steelWheelsFolderPath + RepositoryFile.SEPARATOR + "schema.xml";
+    stubGetFile( repo, steelWheelsMetadataPath );
+    stubGetData( repo, steelWheelsMetadataPath, "catalog", pathPropertyPair( "/catalog/definition",
+        "mondrian:/SteelWheels" ), pathPropertyPair( "/catalog/datasourceInfo",
+        "Provider=mondrian;DataSource=SteelWheels;" ) );
+    stubGetFile( repo, steelWheelsSchemaPath );
+    stubGetData( repo, steelWheelsSchemaPath, mondrianSchema1 );
+  }
+
   @Test
   public void testRemoveCatalog() throws Exception {
     File file1 = new File( "test-src/solution/test/charts/steelwheels.mondrian.xml" );
@@ -445,7 +560,7 @@ public class MondrianCatalogHelperTest {
 
     helper = spy( helper );
     doReturn( createTestCatalog() ).when( helper ).getCatalog( eq( CATALOG_NAME ), eq( session ) );
-    doNothing().when( helper ).reInit( eq( session ) );
+    doNothing().when( helper ).reInitCatalog( anyString(), eq( session ) );
 
     MondrianCatalogRepositoryHelper repositoryHelper = mock( MondrianCatalogRepositoryHelper.class );
     doReturn( repositoryHelper ).when( helper ).getMondrianCatalogRepositoryHelper();
@@ -469,7 +584,7 @@ public class MondrianCatalogHelperTest {
 
     helper = spy( helper );
     doReturn( createTestCatalog() ).when( helper ).getCatalog( eq( CATALOG_NAME ), eq( session ) );
-    doNothing().when( helper ).reInit( eq( session ) );
+    doNothing().when( helper ).reInitCatalog( anyString(), eq( session ) );
 
     MondrianCatalogRepositoryHelper repositoryHelper = mock( MondrianCatalogRepositoryHelper.class );
     doReturn( repositoryHelper ).when( helper ).getMondrianCatalogRepositoryHelper();
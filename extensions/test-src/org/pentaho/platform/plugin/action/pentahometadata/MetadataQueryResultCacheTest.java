@@ -0,0 +1,142 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.plugin.action.pentahometadata;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.commons.connection.IPentahoResultSet;
+import org.pentaho.commons.connection.memory.MemoryMetaData;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@SuppressWarnings( "nls" )
+public class MetadataQueryResultCacheTest {
+
+  private MetadataQueryResultCache cache;
+
+  private MemoryMetaData metaData;
+
+  private List<Object[]> rows;
+
+  @Before
+  public void setUp() {
+    cache = new MetadataQueryResultCache( 2, 3, 0 );
+    metaData = new MemoryMetaData( new String[][] { { "col1", "col2" } }, null );
+    rows = new ArrayList<Object[]>();
+    rows.add( new Object[] { "a", 1 } );
+    rows.add( new Object[] { "b", 2 } );
+  }
+
+  @Test
+  public void testKeyDependsOnRowLevelSecurityConstraint() {
+    String key = MetadataQueryResultCache.createKey( "DOMAIN", "<mql/>", "IN([REGION];\"EAST\")" );
+    assertEquals( key, MetadataQueryResultCache.createKey( "DOMAIN", "<mql/>", "IN([REGION];\"EAST\")" ) );
+    assertNotEquals( key, MetadataQueryResultCache.createKey( "DOMAIN", "<mql/>", "IN([REGION];\"WEST\")" ) );
+    assertNotEquals( key, MetadataQueryResultCache.createKey( "DOMAIN", "<mql/>", null ) );
+    assertNotEquals( MetadataQueryResultCache.createKey( "DOMAIN", "a", "bc" ),
+        MetadataQueryResultCache.createKey( "DOMAIN", "ab", "c" ) );
+  }
+
+  @Test
+  public void testKeyPartDependsOnTypeAndFullValue() {
+    Date date = new Date( 1400000000123L );
+    assertEquals( MetadataQueryResultCache.toKeyPart( date ),
+        MetadataQueryResultCache.toKeyPart( new Date( 1400000000123L ) ) );
+    assertNotEquals( MetadataQueryResultCache.toKeyPart( date ),
+        MetadataQueryResultCache.toKeyPart( new Date( 1400000000456L ) ) );
+    assertNotEquals( MetadataQueryResultCache.toKeyPart( date ),
+        MetadataQueryResultCache.toKeyPart( new Timestamp( 1400000000123L ) ) );
+    assertNotEquals( MetadataQueryResultCache.toKeyPart( 1 ), MetadataQueryResultCache.toKeyPart( 1L ) );
+    assertNotEquals( MetadataQueryResultCache.toKeyPart( "1" ), MetadataQueryResultCache.toKeyPart( 1 ) );
+    assertNotEquals( MetadataQueryResultCache.toKeyPart( null ), MetadataQueryResultCache.toKeyPart( "null" ) );
+    assertNotEquals( MetadataQueryResultCache.toKeyPart( new String[] { "a,b" } ),
+        MetadataQueryResultCache.toKeyPart( new String[] { "a", "b" } ) );
+    assertEquals( MetadataQueryResultCache.toKeyPart( new Object[] { "a", new int[] { 1, 2 } } ),
+        MetadataQueryResultCache.toKeyPart( new Object[] { "a", new int[] { 1, 2 } } ) );
+    assertNotEquals( MetadataQueryResultCache.toKeyPart( Arrays.asList( "a", "b" ) ),
+        MetadataQueryResultCache.toKeyPart( Arrays.asList( "a", "c" ) ) );
+  }
+
+  @Test
+  public void testGetReturnsIndependentCopies() {
+    assertTrue( cache.put( "DOMAIN", "key", metaData, rows, 60 ) );
+    rows.get( 0 )[0] = "changed";
+
+    IPentahoResultSet first = cache.get( "key" );
+    assertNotNull( first );
+    assertEquals( 2, first.getRowCount() );
+    Object[] row = first.next();
+    assertEquals( "a", row[0] );
+    row[0] = "changed";
+    first.close();
+
+    IPentahoResultSet second = cache.get( "key" );
+    assertEquals( "a", second.next()[0] );
+    assertEquals( 2, cache.getHits() );
+  }
+
+  @Test
+  public void testNothingStoredWithoutTtlOrWithTooManyRows() {
+    assertFalse( cache.put( "DOMAIN", "key", metaData, rows, 0 ) );
+    rows.add( new Object[] { "c", 3 } );
+    rows.add( new Object[] { "d", 4 } );
+    assertFalse( cache.put( "DOMAIN", "key", metaData, rows, 60 ) );
+    assertNull( cache.get( "key" ) );
+    assertEquals( 1, cache.getMisses() );
+  }
+
+  @Test
+  public void testExpiredEntriesAreDropped() throws Exception {
+    assertTrue( cache.put( "DOMAIN", "key", metaData, rows, 1 ) );
+    assertNotNull( cache.get( "key" ) );
+    Thread.sleep( 1100 );
+    assertNull( cache.get( "key" ) );
+    assertEquals( 0, cache.getSize() );
+  }
+
+  @Test
+  public void testClearDomain() {
+    cache.put( "DOMAIN", "key1", metaData, rows, 60 );
+    cache.put( "OTHER", "key2", metaData, rows, 60 );
+    cache.clearDomain( "DOMAIN" );
+    assertNull( cache.get( "key1" ) );
+    assertNotNull( cache.get( "key2" ) );
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntriesAreDropped() {
+    cache.put( "DOMAIN", "key1", metaData, rows, 60 );
+    cache.put( "DOMAIN", "key2", metaData, rows, 60 );
+    cache.get( "key1" );
+    cache.put( "DOMAIN", "key3", metaData, rows, 60 );
+    assertEquals( 2, cache.getSize() );
+    assertNotNull( cache.get( "key1" ) );
+    assertNull( cache.get( "key2" ) );
+  }
+}
@@ -0,0 +1,123 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.plugin.condition.javascript;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.pentaho.platform.api.engine.IActionParameter;
+import org.pentaho.platform.engine.services.actionsequence.ActionParameter;
+import org.pentaho.platform.plugin.services.connections.javascript.JavaScriptResultSet;
+
+/**
+ * Measures a condition of an action sequence evaluated for each of 100k iterations of a <code>loop-on</code>, with
+ * the compiled script and shared scope of {@link ConditionalExecution} and with the set up from scratch it did before.
+ * Run it from the extensions directory with the test classpath:
+ *
+ * <pre>
+ * java -cp &lt;test classpath&gt; org.openjdk.jmh.Main ConditionalExecutionBenchmark
+ * </pre>
+ */
+@BenchmarkMode( Mode.SingleShotTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+public class ConditionalExecutionBenchmark {
+
+  private static final int ITERATIONS = 100000;
+
+  private static final String SCRIPT = "REGION == 'EAST' && SALES > 1000"; //$NON-NLS-1$
+
+  private static final Log logger = LogFactory.getLog( ConditionalExecutionBenchmark.class );
+
+  @State( Scope.Benchmark )
+  public static class Condition {
+    ConditionalExecution conditionalExecution;
+
+    Map<String, IActionParameter> inputs;
+
+    ActionParameter sales;
+
+    @Setup
+    public void setUp() {
+      conditionalExecution = new ConditionalExecution();
+      conditionalExecution.setScript( SCRIPT );
+      inputs = new HashMap<String, IActionParameter>();
+      ActionParameter region =
+          new ActionParameter( "REGION", "string", "EAST", null, null ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+      inputs.put( "REGION", region ); //$NON-NLS-1$
+      sales = new ActionParameter( "SALES", "long", Long.valueOf( 0 ), null, null ); //$NON-NLS-1$ //$NON-NLS-2$
+      inputs.put( "SALES", sales ); //$NON-NLS-1$
+    }
+  }
+
+  @Benchmark
+  public int cachedScript( final Condition condition ) throws Exception {
+    int executed = 0;
+    for ( int i = 0; i < ITERATIONS; i++ ) {
+      condition.sales.setValue( Long.valueOf( i ) );
+      if ( condition.conditionalExecution.shouldExecute( condition.inputs, logger ) ) {
+        executed++;
+      }
+    }
+    return executed;
+  }
+
+  @Benchmark
+  public int scriptFromScratch( final Condition condition ) throws Exception {
+    int executed = 0;
+    for ( int i = 0; i < ITERATIONS; i++ ) {
+      condition.sales.setValue( Long.valueOf( i ) );
+      if ( evaluateFromScratch( condition.inputs ) ) {
+        executed++;
+      }
+    }
+    return executed;
+  }
+
+  /**
+   * What each evaluation of the condition did before the scripts were cached.
+   */
+  private static boolean evaluateFromScratch( final Map<String, IActionParameter> inputs ) throws Exception {
+    Context cx = ContextFactory.getGlobal().enterContext();
+    try {
+      ScriptableObject scriptable = new RhinoScriptable();
+      Scriptable scope = cx.initStandardObjects( scriptable );
+      ScriptableObject.defineClass( scope, JavaScriptResultSet.class );
+      for ( Map.Entry<String, IActionParameter> input : inputs.entrySet() ) {
+        ScriptableObject.putProperty( scope, input.getKey(), Context.javaToJS( input.getValue().getValue(), scope ) );
+      }
+      Object result = cx.evaluateString( scope, SCRIPT, "<cmd>", 1, null ); //$NON-NLS-1$
+      return Boolean.TRUE.equals( result );
+    } finally {
+      Context.exit();
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package org.pentaho.platform.plugin.condition.javascript;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
@@ -84,6 +85,38 @@ public class ConditionalExecutionTest {
     assertFalse( actualResult );
   }
 
+  @Test
+  public void testShouldExecute_compiles_script_once() throws Exception {
+    RhinoScriptCache scriptCache = RhinoScriptCache.getInstance();
+    ConditionalExecution conditionalExecution = new ConditionalExecution();
+    conditionalExecution.setScript( "var compiledOnce = 1; compiledOnce;" );
+    long misses = scriptCache.getMisses();
+    long hits = scriptCache.getHits();
+    for ( int i = 0; i < 3; i++ ) {
+      assertTrue( conditionalExecution.shouldExecute( Collections.EMPTY_MAP, logger ) );
+    }
+    assertEquals( misses + 1, scriptCache.getMisses() );
+    assertEquals( hits + 2, scriptCache.getHits() );
+  }
+
+  @Test
+  public void testShouldExecute_does_not_share_variables_between_executions() throws Exception {
+    ConditionalExecution conditionalExecution = new ConditionalExecution();
+    conditionalExecution.setScript( "var seen = typeof leaked != 'undefined'; leaked = 1; !seen;" );
+    assertTrue( conditionalExecution.shouldExecute( Collections.EMPTY_MAP, logger ) );
+    assertTrue( conditionalExecution.shouldExecute( Collections.EMPTY_MAP, logger ) );
+  }
+
+  @Test
+  public void testShouldExecute_changes_to_standard_objects_stay_in_their_execution() throws Exception {
+    ConditionalExecution conditionalExecution = new ConditionalExecution();
+    conditionalExecution.setScript( "String.prototype.shout = function() { return this + '!'; }; Math.answer = 42; "
+        + "'a'.shout() == 'a!' && Math.answer == 42;" );
+    assertTrue( conditionalExecution.shouldExecute( Collections.EMPTY_MAP, logger ) );
+    conditionalExecution.setScript( "typeof ''.shout == 'undefined' && typeof Math.answer == 'undefined';" );
+    assertTrue( conditionalExecution.shouldExecute( Collections.EMPTY_MAP, logger ) );
+  }
+
   private static IActionParameter createParameterWithResult( int rowsCount ) {
     IActionParameter parameter = mock( IActionParameter.class );
     IPentahoResultSet resultSet = mock( IPentahoResultSet.class );
@@ -0,0 +1,372 @@
+/*
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License, version 2 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/gpl-2.0.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ *
+ * Copyright 2006 - 2014 Pentaho Corporation.  All rights reserved.
+ */
+
+package org.pentaho.platform.plugin.services.email;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.SendFailedException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SmtpTransportPoolTest {
+
+  private SmtpStandIn server;
+
+  @Before
+  public void setUp() throws Exception {
+    server = new SmtpStandIn();
+    server.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.stop();
+  }
+
+  private EmailConfiguration createEmailConfig() {
+    return new EmailConfiguration( false, false, "pentaho@localhost", "", "localhost", server.getPort(), "smtp",
+        false, "", "", false, false );
+  }
+
+  private SmtpTransportPool createPool( final int maxConnections, final int maxMessagesPerConnection ) {
+    return new SmtpTransportPool( createEmailConfig(), maxConnections, 60000, maxMessagesPerConnection, 2, 10, 4 );
+  }
+
+  private MimeMessage createMessage( final SmtpTransportPool pool, final String to ) throws Exception {
+    MimeMessage msg = new MimeMessage( pool.getSession() );
+    msg.setFrom( new InternetAddress( "pentaho@localhost" ) );
+    msg.setRecipients( Message.RecipientType.TO, InternetAddress.parse( to, false ) );
+    msg.setSubject( "test" );
+    msg.setText( "test message" );
+    return msg;
+  }
+
+  @Test
+  public void testConnectionReused() throws Exception {
+    SmtpTransportPool pool = createPool( 2, 100 );
+    try {
+      for ( int i = 0; i < 5; i++ ) {
+        pool.send( createMessage( pool, "user" + i + "@localhost" ) );
+      }
+      assertEquals( 5, server.getMessages() );
+      assertEquals( 1, server.getConnections() );
+      assertEquals( 1, pool.getConnectionsOpened() );
+      assertEquals( 5, pool.getMessagesSent() );
+      assertEquals( 1, pool.getIdleConnections() );
+    } finally {
+      pool.shutdown();
+    }
+    assertEquals( 0, pool.getIdleConnections() );
+  }
+
+  @Test
+  public void testMaxMessagesPerConnection() throws Exception {
+    SmtpTransportPool pool = createPool( 2, 2 );
+    try {
+      for ( int i = 0; i < 5; i++ ) {
+        pool.send( createMessage( pool, "user" + i + "@localhost" ) );
+      }
+      assertEquals( 5, server.getMessages() );
+      assertEquals( 3, pool.getConnectionsOpened() );
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testClosedConnectionReplaced() throws Exception {
+    SmtpTransportPool pool = createPool( 1, 100 );
+    try {
+      pool.send( createMessage( pool, "user@localhost" ) );
+      // the server drops the idle connection, which is noticed before the next message is sent on it
+      server.dropConnections();
+      pool.send( createMessage( pool, "user@localhost" ) );
+      assertEquals( 2, server.getMessages() );
+      assertEquals( 2, pool.getConnectionsOpened() );
+      assertEquals( 0, pool.getRetries() );
+      assertEquals( 0, pool.getMessagesFailed() );
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testConnectFailureRetried() throws Exception {
+    SmtpTransportPool pool = createPool( 1, 100 );
+    try {
+      server.refuseConnections( 1 );
+      pool.send( createMessage( pool, "user@localhost" ) );
+      assertEquals( 1, server.getMessages() );
+      assertEquals( 2, server.getConnections() );
+      assertEquals( 1, pool.getRetries() );
+      assertEquals( 0, pool.getMessagesFailed() );
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testFailureAfterDataNotRetried() throws Exception {
+    SmtpTransportPool pool = createPool( 1, 100 );
+    try {
+      try {
+        // the server takes the message, then drops the connection before it replies
+        pool.send( createMessage( pool, "drop@localhost" ) );
+        fail( "the connection should have been dropped" );
+      } catch ( MessagingException success ) {
+        // expected
+      }
+      assertEquals( 1, server.getMessages() );
+      assertEquals( 0, pool.getRetries() );
+      assertEquals( 1, pool.getMessagesFailed() );
+      assertEquals( 0, pool.getIdleConnections() );
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testRejectedAddressNotRetried() throws Exception {
+    SmtpTransportPool pool = createPool( 1, 100 );
+    try {
+      try {
+        pool.send( createMessage( pool, "reject@localhost" ) );
+        fail( "the address should have been rejected" );
+      } catch ( SendFailedException success ) {
+        // expected
+      }
+      assertEquals( 0, pool.getRetries() );
+      assertEquals( 1, pool.getMessagesFailed() );
+
+      // the connection is still used
+      pool.send( createMessage( pool, "user@localhost" ) );
+      assertEquals( 1, pool.getConnectionsOpened() );
+      assertEquals( 1, server.getMessages() );
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testBatch() throws Exception {
+    SmtpTransportPool pool = createPool( 2, 100 );
+    try {
+      server.refuseConnections( 1 );
+      SmtpTransportPool.Batch batch = pool.newBatch();
+      for ( int i = 0; i < 20; i++ ) {
+        // more messages than the queue holds, the caller sends some of them itself
+        batch.send( createMessage( pool, ( i == 7 ) ? "reject@localhost" : "user" + i + "@localhost" ) );
+      }
+      batch.await();
+      assertEquals( 19, batch.getSent() );
+      assertEquals( 1, batch.getFailed() );
+      assertEquals( 1, batch.getFailures().size() );
+      assertTrue( batch.getFailures().get( 0 ) instanceof SendFailedException );
+      assertEquals( 1, batch.getRetries() );
+      assertEquals( 19, server.getMessages() );
+      assertTrue( pool.getConnectionsOpened() <= 2 );
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testDebugSessionIsSeparate() throws Exception {
+    SmtpTransportPool pool = createPool( 1, 100 );
+    try {
+      Session debugSession = pool.createDebugSession();
+      assertNotSame( pool.getSession(), debugSession );
+      assertTrue( debugSession.getDebug() );
+      assertFalse( pool.getSession().getDebug() );
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testDefaultFromName() throws Exception {
+    try {
+      SmtpTransportPool pool = SmtpTransportPool.getInstance( createEmailConfig(), "Pentaho Scheduler" );
+      assertEquals( "Pentaho Scheduler", pool.getSession().getProperty( "mail.from.name" ) );
+
+      EmailConfiguration named = createEmailConfig();
+      named.setFromName( "Reports" );
+      pool = SmtpTransportPool.getInstance( named, "Pentaho Scheduler" );
+      assertEquals( "Reports", pool.getSession().getProperty( "mail.from.name" ) );
+    } finally {
+      SmtpTransportPool.shutdownAll();
+    }
+  }
+
+  /**
+   * Accepts mail on a local port, rejecting recipients that start with "reject". For recipients that start with
+   * "drop" the message is taken, then the connection is closed without a reply.
+   */
+  private static class SmtpStandIn implements Runnable {
+    private ServerSocket serverSocket;
+
+    private final AtomicInteger connections = new AtomicInteger();
+
+    private final AtomicInteger messages = new AtomicInteger();
+
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private final AtomicInteger refusals = new AtomicInteger();
+
+    void start() throws IOException {
+      serverSocket = new ServerSocket( 0 );
+      Thread thread = new Thread( this, "smtp-stand-in" );
+      thread.setDaemon( true );
+      thread.start();
+    }
+
+    void stop() throws IOException {
+      serverSocket.close();
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    int getConnections() {
+      return connections.get();
+    }
+
+    int getMessages() {
+      return messages.get();
+    }
+
+    /**
+     * Turns away the next connections with a "service not available" greeting.
+     */
+    void refuseConnections( final int count ) {
+      refusals.set( count );
+    }
+
+    /**
+     * Closes the open connections when they receive their next command.
+     */
+    void dropConnections() {
+      generation.incrementAndGet();
+    }
+
+    public void run() {
+      while ( !serverSocket.isClosed() ) {
+        try {
+          final Socket socket = serverSocket.accept();
+          connections.incrementAndGet();
+          Thread thread = new Thread( new Runnable() {
+            public void run() {
+              handle( socket );
+            }
+          }, "smtp-stand-in-session" );
+          thread.setDaemon( true );
+          thread.start();
+        } catch ( IOException e ) {
+          // closed
+        }
+      }
+    }
+
+    private void handle( final Socket socket ) {
+      int connectionGeneration = generation.get();
+      try {
+        BufferedReader in = new BufferedReader( new InputStreamReader( socket.getInputStream(), "US-ASCII" ) );
+        OutputStream out = socket.getOutputStream();
+        if ( refusals.getAndDecrement() > 0 ) {
+          reply( out, "421 localhost busy" );
+          return;
+        }
+        reply( out, "220 localhost SMTP stand-in" );
+        boolean rejected = false;
+        boolean drop = false;
+        for ( String line = in.readLine(); line != null; line = in.readLine() ) {
+          if ( connectionGeneration != generation.get() ) {
+            break;
+          }
+          String command = line.toUpperCase();
+          if ( command.startsWith( "QUIT" ) ) {
+            reply( out, "221 bye" );
+            break;
+          } else if ( command.startsWith( "MAIL" ) ) {
+            rejected = false;
+            drop = false;
+            reply( out, "250 OK" );
+          } else if ( command.startsWith( "RCPT" ) ) {
+            if ( command.contains( "REJECT" ) ) {
+              rejected = true;
+              reply( out, "550 no such user" );
+            } else {
+              drop |= command.contains( "DROP" );
+              reply( out, "250 OK" );
+            }
+          } else if ( command.startsWith( "DATA" ) ) {
+            reply( out, "354 end with ." );
+            for ( String data = in.readLine(); data != null && !data.equals( "." ); data = in.readLine() ) {
+              // message content
+            }
+            if ( !rejected ) {
+              messages.incrementAndGet();
+            }
+            if ( drop ) {
+              break;
+            }
+            reply( out, "250 OK" );
+          } else {
+            // HELO, EHLO, RSET, NOOP
+            reply( out, "250 OK" );
+          }
+        }
+      } catch ( IOException e ) {
+        // connection closed by the client
+      } finally {
+        try {
+          socket.close();
+        } catch ( IOException e ) {
+          // ignore
+        }
+      }
+    }
+
+    private void reply( final OutputStream out, final String reply ) throws IOException {
+      out.write( ( reply + "\r\n" ).getBytes( "US-ASCII" ) );
+      out.flush();
+    }
+  }
+
+}
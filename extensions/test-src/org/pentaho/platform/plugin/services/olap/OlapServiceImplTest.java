@@ -18,6 +18,7 @@ import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Locale;
@@ -31,6 +32,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.olap4j.OlapConnection;
+import org.olap4j.metadata.NamedList;
 import org.pentaho.platform.api.engine.IPentahoSession;
 import org.pentaho.platform.api.repository2.unified.IRepositoryFileData;
 import org.pentaho.platform.api.repository2.unified.IUnifiedRepository;
@@ -752,6 +754,55 @@ public class OlapServiceImplTest {
       anyString() );
   }
 
+  @Test
+  public void testGetCatalogsBuildsSnapshotOnce() throws Exception {
+    stubHostedServer();
+    final Properties properties = new Properties();
+    properties.put( RolapConnectionProperties.Locale.name(), getLocale().toString() );
+    final OlapConnection conn = mockConnectionWithoutSchemas();
+    when( server.getConnection( "Pentaho", "myHostedServer", null, properties ) ).thenReturn( conn );
+
+    final List<IOlapService.Catalog> catalogs = olapService.getCatalogs( session );
+    assertEquals( 1, catalogs.size() );
+    assertEquals( "myHostedServer", catalogs.get( 0 ).name );
+
+    // The second call is served from the published snapshot.
+    assertSame( catalogs.get( 0 ), olapService.getCatalogs( session ).get( 0 ) );
+    verify( server, times( 1 ) ).getConnection( "Pentaho", "myHostedServer", null, properties );
+    assertEquals( 1, ( (OlapServiceImpl) olapService ).getCatalogCacheRebuildCount() );
+  }
+
+  @Test
+  public void testGetCatalogsWithoutReadAccess() throws Exception {
+    stubHostedServer();
+    final Properties properties = new Properties();
+    properties.put( RolapConnectionProperties.Locale.name(), getLocale().toString() );
+    final OlapConnection conn = mockConnectionWithoutSchemas();
+    when( server.getConnection( "Pentaho", "myHostedServer", null, properties ) ).thenReturn( conn );
+
+    // Build the snapshot with full access first.
+    assertEquals( 1, olapService.getCatalogs( session ).size() );
+
+    accessMock = new DefaultAccessImpl() {
+      public boolean hasAccess(
+        String catalogName,
+        EnumSet<RepositoryFilePermission> perms,
+        IPentahoSession session ) {
+        return !catalogName.equals( "myHostedServer" );
+      }
+    };
+    assertEquals( 0, olapService.getCatalogs( session ).size() );
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private OlapConnection mockConnectionWithoutSchemas() throws Exception {
+    final OlapConnection conn = mock( OlapConnection.class );
+    final NamedList<org.olap4j.metadata.Schema> schemas = mock( NamedList.class );
+    when( schemas.iterator() ).thenReturn( Collections.<org.olap4j.metadata.Schema>emptyList().iterator() );
+    when( conn.getOlapSchemas() ).thenReturn( schemas );
+    return conn;
+  }
+
   @Test
   public void testFlushesAllConnections() throws Exception {
     stubHostedServer();
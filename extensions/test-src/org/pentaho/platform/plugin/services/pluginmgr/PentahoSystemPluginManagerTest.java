@@ -31,11 +31,14 @@ import org.pentaho.test.platform.plugin.pluginmgr.DefaultPluginManagerTest;
 import org.pentaho.ui.xul.XulOverlay;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 
 /**
@@ -160,4 +163,57 @@ public class PentahoSystemPluginManagerTest extends DefaultPluginManagerTest {
     assertEquals( "ContentInfo should have be deregistered.", 0, contentInfos.size() );
   }
 
+  @Test
+  public void testPluginStartupTimes() throws Exception {
+    init0();
+    microPlatform.start();
+
+    PluginMessageLogger.clear();
+    pluginManager.reload();
+
+    Map<String, Long> startupTimes = ( (PentahoSystemPluginManager) pluginManager ).getPluginStartupTimes();
+    assertTrue( startupTimes.containsKey( "Plugin 1" ) );
+    Long previous = Long.MAX_VALUE;
+    for ( Long time : startupTimes.values() ) {
+      assertTrue( "slowest plugins come first", time <= previous );
+      previous = time;
+    }
+  }
+
+  @Test
+  public void testPluginsRegisteredInProviderOrder() throws Exception {
+    init0();
+    microPlatform.define( IPluginProvider.class, OrderedPluginProvider.class );
+    microPlatform.start();
+
+    System.setProperty( PentahoSystemPluginManager.class.getName() + ".registrationThreads", "4" );
+    try {
+      PluginMessageLogger.clear();
+      pluginManager.reload();
+    } finally {
+      System.clearProperty( PentahoSystemPluginManager.class.getName() + ".registrationThreads" );
+    }
+
+    assertEquals( Arrays.asList( OrderedPluginProvider.IDS ), pluginManager.getRegisteredPlugins() );
+  }
+
+  /**
+   * Provides several plugins, in an order that is neither alphabetical nor the order they finish being created in.
+   */
+  public static class OrderedPluginProvider implements IPluginProvider {
+    static final String[] IDS = { "plugin-f", "plugin-b", "plugin-e", "plugin-a", "plugin-d", "plugin-c" };
+
+    @Override
+    public List<IPlatformPlugin> getPlugins( IPentahoSession session ) throws PlatformPluginRegistrationException {
+      List<IPlatformPlugin> plugins = new ArrayList<IPlatformPlugin>();
+      for ( String id : IDS ) {
+        PlatformPlugin plugin = new PlatformPlugin();
+        plugin.setId( id );
+        plugin.setSourceDescription( "good-plugin1" );
+        plugins.add( plugin );
+      }
+      return plugins;
+    }
+  }
+
 }
@@ -4,8 +4,15 @@ import org.junit.Test;
 import org.pentaho.platform.api.engine.IUserRoleListService;
 import org.pentaho.platform.api.mt.ITenant;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import static org.junit.Assert.*;
 
@@ -146,4 +153,116 @@ public class CachingUserRoleListServiceDecoratorTest {
 
     verify( mockService, times( 1 ) ).getAllUsers( tenant );
   }
+
+  private static final Executor DIRECT_EXECUTOR = new Executor() {
+    public void execute( Runnable command ) {
+      command.run();
+    }
+  };
+
+  @Test
+  public void testConcurrentMissesLoadOnce() throws Exception {
+    final CountDownLatch loading = new CountDownLatch( 1 );
+    final CountDownLatch release = new CountDownLatch( 1 );
+    IUserRoleListService mockService = mock( IUserRoleListService.class );
+    when( mockService.getRolesForUser( tenant, "singleFlight" ) ).thenAnswer( new Answer<List<String>>() {
+      public List<String> answer( InvocationOnMock invocation ) throws Throwable {
+        loading.countDown();
+        release.await( 10, TimeUnit.SECONDS );
+        return Arrays.asList( "foo", "bar" );
+      }
+    } );
+
+    final CachingUserRoleListServiceDecorator decorator = new CachingUserRoleListServiceDecorator( mockService );
+    List<Thread> threads = new ArrayList<Thread>();
+    for ( int i = 0; i < 5; i++ ) {
+      Thread thread = new Thread() {
+        public void run() {
+          decorator.getRolesForUser( tenant, "singleFlight" );
+        }
+      };
+      thread.start();
+      threads.add( thread );
+    }
+    assertTrue( loading.await( 10, TimeUnit.SECONDS ) );
+    Thread.sleep( 100 );
+    release.countDown();
+    for ( Thread thread : threads ) {
+      thread.join( 10000 );
+    }
+
+    verify( mockService, times( 1 ) ).getRolesForUser( tenant, "singleFlight" );
+    assertEquals( 1, decorator.getStatistics().get( "getRolesForUser" ).getLoads() );
+  }
+
+  /**
+   * A decorator whose clock only moves when the test moves it.
+   */
+  private static class ManualClockDecorator extends CachingUserRoleListServiceDecorator {
+    private long now = 1000000L;
+
+    ManualClockDecorator( IUserRoleListService delegate ) {
+      super( delegate );
+    }
+
+    @Override
+    protected long currentTimeMillis() {
+      return now;
+    }
+
+    void advance( long millis ) {
+      now += millis;
+    }
+  }
+
+  @Test
+  public void testRefreshAhead() throws Exception {
+    IUserRoleListService mockService = mock( IUserRoleListService.class );
+    when( mockService.getRolesForUser( tenant, "refreshAhead" ) ).thenReturn( Arrays.asList( "foo" ),
+        Arrays.asList( "foo", "bar" ) );
+
+    ManualClockDecorator decorator = new ManualClockDecorator( mockService );
+    decorator.setRefreshAheadTime( 60000 );
+    decorator.setRefreshExecutor( DIRECT_EXECUTOR );
+    assertArrayEquals( new String[] { "foo" }, decorator.getRolesForUser( tenant, "refreshAhead" ).toArray() );
+
+    decorator.advance( 59999 );
+    assertArrayEquals( new String[] { "foo" }, decorator.getRolesForUser( tenant, "refreshAhead" ).toArray() );
+    assertEquals( 0, decorator.getStatistics().get( "getRolesForUser" ).getRefreshes() );
+
+    decorator.advance( 1 );
+    // the cached entry is returned while it is being reloaded
+    assertArrayEquals( new String[] { "foo" }, decorator.getRolesForUser( tenant, "refreshAhead" ).toArray() );
+    // the reloaded entry is fresh, so it is not reloaded again
+    assertArrayEquals( new String[] { "foo", "bar" }, decorator.getRolesForUser( tenant, "refreshAhead" )
+        .toArray() );
+
+    verify( mockService, times( 2 ) ).getRolesForUser( tenant, "refreshAhead" );
+    assertEquals( 1, decorator.getStatistics().get( "getRolesForUser" ).getRefreshes() );
+  }
+
+  @Test
+  public void testStaleIfError() throws Exception {
+    IUserRoleListService mockService = mock( IUserRoleListService.class );
+    when( mockService.getRolesForUser( tenant, "staleIfError" ) ).thenReturn( Arrays.asList( "foo" ) ).thenThrow(
+        new IllegalStateException( "directory down" ) );
+
+    ManualClockDecorator decorator = new ManualClockDecorator( mockService );
+    decorator.setExpireTime( 60000 );
+    decorator.setStaleIfErrorTime( 60000 );
+    decorator.getRolesForUser( tenant, "staleIfError" );
+
+    decorator.advance( 60000 );
+    assertArrayEquals( new String[] { "foo" }, decorator.getRolesForUser( tenant, "staleIfError" ).toArray() );
+    assertEquals( 1, decorator.getStatistics().get( "getRolesForUser" ).getStaleHits() );
+    assertEquals( 1, decorator.getStatistics().get( "getRolesForUser" ).getFailures() );
+
+    decorator.setStaleIfErrorTime( 0 );
+    try {
+      decorator.getRolesForUser( tenant, "staleIfError" );
+      fail( "expired entry returned" );
+    } catch ( IllegalStateException e ) {
+      // expected
+    }
+  }
 }
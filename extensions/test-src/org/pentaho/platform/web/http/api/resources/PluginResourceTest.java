@@ -0,0 +1,188 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+
+package org.pentaho.platform.web.http.api.resources;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.pentaho.platform.api.engine.IApplicationContext;
+import org.pentaho.platform.api.engine.IPluginManager;
+import org.pentaho.platform.api.engine.IPluginResourceLoader;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PluginResourceTest {
+
+  private static final String CONTENT = "0123456789abcdefghij"; //$NON-NLS-1$
+
+  private IPluginManager pluginManager;
+
+  private IPluginResourceLoader resourceLoader;
+
+  private MockHttpServletRequest request;
+
+  private MockHttpServletResponse response;
+
+  private PluginResource pluginResource;
+
+  @Before
+  public void setUp() throws Exception {
+    IApplicationContext applicationContext = mock( IApplicationContext.class );
+    when( applicationContext.getSolutionRootPath() ).thenReturn( "." );
+    PentahoSystem.setApplicationContext( applicationContext );
+
+    pluginManager = mock( IPluginManager.class );
+    when( pluginManager.getRegisteredPlugins() ).thenReturn( Arrays.asList( "plugin" ) );
+    when( pluginManager.getPluginRESTPerspectivesForId( "plugin" ) ).thenReturn( Collections.<String>emptyList() );
+    when( pluginManager.isPublic( eq( "plugin" ), anyString() ) ).thenReturn( true );
+    when( pluginManager.getPluginSetting( "plugin", "settings/cache", "false" ) ).thenReturn( "true" );
+    PentahoSystem.registerObject( pluginManager, IPluginManager.class );
+
+    resourceLoader = mock( IPluginResourceLoader.class );
+    when( resourceLoader.getResourceAsStream( any( ClassLoader.class ), anyString() ) ).thenAnswer(
+        new Answer<Object>() {
+          @Override
+          public Object answer( InvocationOnMock invocation ) {
+            return new ByteArrayInputStream( CONTENT.getBytes() );
+          }
+        } );
+    PentahoSystem.registerObject( resourceLoader, IPluginResourceLoader.class );
+
+    request = new MockHttpServletRequest();
+    response = new MockHttpServletResponse();
+    pluginResource = new PluginResource( request, response );
+    pluginResource.staticResources = new PluginStaticResourceCache( 1024 * 1024, 1024 * 1024 );
+  }
+
+  @After
+  public void tearDown() {
+    PentahoSystem.clearObjectFactory();
+    PentahoSystem.setApplicationContext( null );
+  }
+
+  @Test
+  public void testFileIsReadOnce() throws Exception {
+    Response first = pluginResource.readFile( "plugin", "js/app.js" );
+    assertEquals( 200, first.getStatus() );
+    assertEquals( CONTENT, write( first ) );
+    assertNotNull( first.getMetadata().getFirst( "ETag" ) );
+    assertEquals( CONTENT, write( pluginResource.readFile( "plugin", "js/app.js" ) ) );
+    verify( resourceLoader, times( 1 ) ).getResourceAsStream( any( ClassLoader.class ), eq( "js/app.js" ) );
+    assertNull( response.getHeader( "Cache-Control" ) );
+  }
+
+  @Test
+  public void testNotModified() throws Exception {
+    Object etag = pluginResource.readFile( "plugin", "js/app.js" ).getMetadata().getFirst( "ETag" );
+    request.addHeader( "If-None-Match", "\"other\", " + etag );
+    Response response = pluginResource.readFile( "plugin", "js/app.js" );
+    assertEquals( 304, response.getStatus() );
+    assertNull( response.getEntity() );
+  }
+
+  @Test
+  public void testRange() throws Exception {
+    request.addHeader( "Range", "bytes=10-14" );
+    Response response = pluginResource.readFile( "plugin", "js/app.js" );
+    assertEquals( 206, response.getStatus() );
+    assertEquals( "bytes 10-14/20", response.getMetadata().getFirst( "Content-Range" ) );
+    assertEquals( "abcde", write( response ) );
+  }
+
+  @Test
+  public void testSuffixRange() throws Exception {
+    request.addHeader( "Range", "bytes=-5" );
+    assertEquals( "fghij", write( pluginResource.readFile( "plugin", "js/app.js" ) ) );
+  }
+
+  @Test
+  public void testUnsatisfiableRange() throws Exception {
+    request.addHeader( "Range", "bytes=20-" );
+    Response response = pluginResource.readFile( "plugin", "js/app.js" );
+    assertEquals( 416, response.getStatus() );
+    assertEquals( "bytes */20", response.getMetadata().getFirst( "Content-Range" ) );
+  }
+
+  @Test
+  public void testFingerprintedFilesAreImmutable() throws Exception {
+    pluginResource.readFile( "plugin", "js/app.3f2a9c1b.js" );
+    assertEquals( "public, max-age=31536000", response.getHeader( "Cache-Control" ) );
+  }
+
+  @Test
+  public void testDatedFilesAreNotImmutable() throws Exception {
+    pluginResource.readFile( "plugin", "js/report-20140312.js" );
+    assertNull( response.getHeader( "Cache-Control" ) );
+  }
+
+  @Test
+  public void testConfiguredMaxAgeWins() throws Exception {
+    when( pluginManager.getPluginSetting( "plugin", "settings/max-age", null ) ).thenReturn( "60" );
+    pluginResource.readFile( "plugin", "js/app.3f2a9c1b.js" );
+    assertEquals( "max-age=60", response.getHeader( "Cache-Control" ) );
+  }
+
+  @Test
+  public void testOversizedFilesAreStreamed() throws Exception {
+    pluginResource.staticResources = new PluginStaticResourceCache( 1024 * 1024, CONTENT.length() - 1 );
+    Response first = pluginResource.readFile( "plugin", "js/app.js" );
+    assertNull( first.getMetadata().getFirst( "ETag" ) );
+    assertEquals( CONTENT, write( first ) );
+    assertEquals( CONTENT, write( pluginResource.readFile( "plugin", "js/app.js" ) ) );
+    assertEquals( 0, pluginResource.staticResources.getSize() );
+    // read once to find out it is too large, then streamed on each request
+    verify( resourceLoader, times( 3 ) ).getResourceAsStream( any( ClassLoader.class ), eq( "js/app.js" ) );
+  }
+
+  @Test
+  public void testFilesAreStreamedUnlessPluginEnablesCache() throws Exception {
+    when( pluginManager.getPluginSetting( "plugin", "settings/cache", "false" ) ).thenReturn( "false" );
+    Response response = pluginResource.readFile( "plugin", "js/app.js" );
+    assertNull( response.getMetadata().getFirst( "ETag" ) );
+    assertEquals( CONTENT, write( response ) );
+    assertEquals( 0, pluginResource.staticResources.getSize() );
+  }
+
+  private static String write( Response response ) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ( (StreamingOutput) response.getEntity() ).write( out );
+    return out.toString();
+  }
+}
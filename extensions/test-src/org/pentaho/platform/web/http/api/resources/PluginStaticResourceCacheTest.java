@@ -0,0 +1,128 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+
+package org.pentaho.platform.web.http.api.resources;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.pentaho.platform.api.engine.IPluginManager;
+import org.pentaho.platform.api.engine.IPluginManagerListener;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class PluginStaticResourceCacheTest {
+
+  private static final byte[] SCRIPT = repeat( "var a = 'some javascript';\n", 100 ).getBytes();
+
+  @Test
+  public void testContentAndGzippedContent() throws Exception {
+    PluginStaticResourceCache cache = new PluginStaticResourceCache( 1024 * 1024, 1024 * 1024 );
+    assertNull( cache.get( "plugin", "js/a.js" ) );
+    cache.put( "plugin", "js/a.js", SCRIPT );
+
+    PluginStaticResourceCache.Resource resource = cache.get( "plugin", "js/a.js" );
+    assertNotNull( resource );
+    assertEquals( 1, cache.getHits() );
+    assertEquals( 1, cache.getMisses() );
+    assertTrue( Arrays.equals( SCRIPT, IOUtils.toByteArray( resource.getInputStream() ) ) );
+    assertEquals( SCRIPT.length, resource.getLength() );
+
+    assertTrue( resource.hasGzipped() );
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+    resource.writeGzipped( gzipped );
+    assertEquals( resource.getGzippedLength(), gzipped.size() );
+    assertTrue( Arrays.equals( SCRIPT, IOUtils.toByteArray( new GZIPInputStream( new ByteArrayInputStream( gzipped
+        .toByteArray() ) ) ) ) );
+    assertFalse( resource.getEtag().equals( resource.getGzippedEtag() ) );
+    assertEquals( resource.getEtag(), new PluginStaticResourceCache.Resource( SCRIPT ).getEtag() );
+
+    ByteArrayOutputStream range = new ByteArrayOutputStream();
+    resource.write( range, 4, 10 );
+    assertEquals( "a = 'some ", range.toString() );
+  }
+
+  @Test
+  public void testIncompressibleContentIsNotGzipped() throws Exception {
+    byte[] random = new byte[4096];
+    new Random( 42 ).nextBytes( random );
+    PluginStaticResourceCache.Resource resource = new PluginStaticResourceCache.Resource( random );
+    assertFalse( resource.hasGzipped() );
+    assertEquals( -1, resource.getGzippedLength() );
+  }
+
+  @Test
+  public void testLeastRecentlyUsedAreDroppedBeyondMaxBytes() throws Exception {
+    long size = new PluginStaticResourceCache.Resource( SCRIPT ).getSize();
+    PluginStaticResourceCache cache = new PluginStaticResourceCache( size * 2, size );
+    cache.put( "plugin", "a.js", SCRIPT );
+    cache.put( "plugin", "b.js", SCRIPT );
+    cache.get( "plugin", "a.js" );
+    cache.put( "plugin", "c.js", SCRIPT );
+    assertEquals( 2, cache.getSize() );
+    assertEquals( size * 2, cache.getBytes() );
+    assertNotNull( cache.get( "plugin", "a.js" ) );
+    assertNull( cache.get( "plugin", "b.js" ) );
+
+    PluginStaticResourceCache small = new PluginStaticResourceCache( size * 2, SCRIPT.length - 1 );
+    assertNull( small.put( "plugin", "a.js", SCRIPT ) );
+    assertTrue( small.isOversized( "plugin", "a.js" ) );
+    assertEquals( 0, small.getSize() );
+    assertEquals( 0, small.getBytes() );
+    small.clear();
+    assertFalse( small.isOversized( "plugin", "a.js" ) );
+  }
+
+  @Test
+  public void testClearedOnReload() throws Exception {
+    PluginStaticResourceCache cache = new PluginStaticResourceCache( 1024 * 1024, 1024 * 1024 );
+    IPluginManager pluginManager = mock( IPluginManager.class );
+    cache.clearOnReload( pluginManager );
+    cache.clearOnReload( pluginManager );
+    ArgumentCaptor<IPluginManagerListener> listener = ArgumentCaptor.forClass( IPluginManagerListener.class );
+    verify( pluginManager, times( 1 ) ).addPluginManagerListener( listener.capture() );
+
+    PluginStaticResourceCache.Resource resource = cache.put( "plugin", "a.js", SCRIPT );
+    assertSame( resource, cache.get( "plugin", "a.js" ) );
+    listener.getValue().onReload();
+    assertEquals( 0, cache.getSize() );
+    assertEquals( 0, cache.getBytes() );
+  }
+
+  private static String repeat( String s, int count ) {
+    StringBuilder sb = new StringBuilder();
+    for ( int i = 0; i < count; i++ ) {
+      sb.append( s );
+    }
+    return sb.toString();
+  }
+}
@@ -29,6 +29,7 @@ import java.security.GeneralSecurityException;
 import java.security.InvalidParameterException;
 import java.text.Collator;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -1861,4 +1862,57 @@ public class FileServiceTest {
       assertEquals( e.getMessage(), "negativetest" );
     }
   }
+
+  private RepositoryFileTreeDto createTree( String title, RepositoryFileTreeDto... children ) {
+    RepositoryFileDto file = new RepositoryFileDto();
+    file.setName( title );
+    file.setPath( "/" + title );
+    file.setTitle( title );
+    RepositoryFileTreeDto tree = new RepositoryFileTreeDto();
+    tree.setFile( file );
+    tree.setChildren( new ArrayList<RepositoryFileTreeDto>( Arrays.asList( children ) ) );
+    return tree;
+  }
+
+  @Test
+  public void testSortByLocaleTitle() {
+    RepositoryFileTreeDto tree =
+      createTree( "root", createTree( "b" ), createTree( "B" ), createTree( "a", createTree( "z" ), createTree( "y" ) ) );
+    Collator collator = Collator.getInstance();
+    collator.setStrength( Collator.PRIMARY );
+
+    fileService.sortByLocaleTitle( collator, tree );
+
+    assertEquals( "a", tree.getChildren().get( 0 ).getFile().getTitle() );
+    assertEquals( "B", tree.getChildren().get( 1 ).getFile().getTitle() );
+    assertEquals( "b", tree.getChildren().get( 2 ).getFile().getTitle() );
+    assertEquals( "y", tree.getChildren().get( 0 ).getChildren().get( 0 ).getFile().getTitle() );
+  }
+
+  @Test
+  public void testPageChildren() {
+    RepositoryFileTreeDto tree = createTree( "root", createTree( "a" ), createTree( "b" ), createTree( "c" ) );
+
+    assertEquals( 3, fileService.pageChildren( tree, 1, 1 ) );
+    assertEquals( 1, tree.getChildren().size() );
+    assertEquals( "b", tree.getChildren().get( 0 ).getFile().getTitle() );
+
+    tree = createTree( "root", createTree( "a" ), createTree( "b" ), createTree( "c" ) );
+    assertEquals( 3, fileService.pageChildren( tree, 2, null ) );
+    assertEquals( 1, tree.getChildren().size() );
+
+    tree = createTree( "root", createTree( "a" ), createTree( "b" ), createTree( "c" ) );
+    assertEquals( 3, fileService.pageChildren( tree, 5, 10 ) );
+    assertEquals( 0, tree.getChildren().size() );
+  }
+
+  @Test
+  public void testGetTreeEtag() {
+    String etag = fileService.getTreeEtag( createTree( "root", createTree( "a" ) ), "application/json" );
+    assertNotNull( etag );
+    assertTrue( etag.startsWith( "\"" ) && etag.endsWith( "\"" ) );
+    assertEquals( etag, fileService.getTreeEtag( createTree( "root", createTree( "a" ) ), "application/json" ) );
+    assertFalse( etag.equals( fileService.getTreeEtag( createTree( "root", createTree( "b" ) ), "application/json" ) ) );
+    assertFalse( etag.equals( fileService.getTreeEtag( createTree( "root", createTree( "a" ) ), "application/xml" ) ) );
+  }
 }
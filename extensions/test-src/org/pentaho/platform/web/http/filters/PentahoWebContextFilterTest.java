@@ -0,0 +1,142 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+
+package org.pentaho.platform.web.http.filters;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.pentaho.platform.api.engine.IApplicationContext;
+import org.pentaho.platform.api.engine.IPentahoRequestContext;
+import org.pentaho.platform.api.engine.IPluginManager;
+import org.pentaho.platform.api.engine.IPluginManagerListener;
+import org.pentaho.platform.engine.core.system.PentahoRequestContextHolder;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class PentahoWebContextFilterTest {
+
+  private PentahoWebContextFilter filter;
+
+  private IPluginManager pluginManager;
+
+  private IPluginManagerListener reloadListener;
+
+  @Before
+  public void setUp() throws Exception {
+    IApplicationContext applicationContext = mock( IApplicationContext.class );
+    when( applicationContext.getFullyQualifiedServerURL() ).thenReturn( "http://localhost:8080/pentaho/" );
+    PentahoSystem.setApplicationContext( applicationContext );
+
+    pluginManager = mock( IPluginManager.class );
+    when( pluginManager.getExternalResourcesForContext( "mantle" ) ).thenReturn(
+        Arrays.asList( "content/plugin/first.js" ) );
+    PentahoSystem.registerObject( pluginManager, IPluginManager.class );
+
+    IPentahoRequestContext requestContext = mock( IPentahoRequestContext.class );
+    when( requestContext.getContextPath() ).thenReturn( "/pentaho/" );
+    PentahoRequestContextHolder.setRequestContext( requestContext );
+
+    filter = new PentahoWebContextFilter();
+    filter.init( null );
+    ArgumentCaptor<IPluginManagerListener> listener = ArgumentCaptor.forClass( IPluginManagerListener.class );
+    verify( pluginManager ).addPluginManagerListener( listener.capture() );
+    reloadListener = listener.getValue();
+  }
+
+  @After
+  public void tearDown() {
+    PentahoRequestContextHolder.removeRequestContext();
+    PentahoSystem.clearObjectFactory();
+    PentahoSystem.setApplicationContext( null );
+  }
+
+  @Test
+  public void testResourcesAreKeptUntilReload() throws Exception {
+    String first = doFilter( newRequest() ).getContentAsString();
+    assertTrue( first.contains( "content/plugin/first.js?context=mantle" ) );
+    assertTrue( first.contains( "var CONTEXT_PATH = '/pentaho/';" ) );
+    assertEquals( first, doFilter( newRequest() ).getContentAsString() );
+    verify( pluginManager, times( 1 ) ).getExternalResourcesForContext( "mantle" );
+
+    when( pluginManager.getExternalResourcesForContext( "mantle" ) ).thenReturn(
+        Arrays.asList( "content/plugin/second.js" ) );
+    reloadListener.onReload();
+    String reloaded = doFilter( newRequest() ).getContentAsString();
+    assertTrue( reloaded.contains( "content/plugin/second.js?context=mantle" ) );
+    assertFalse( reloaded.contains( "content/plugin/first.js" ) );
+  }
+
+  @Test
+  public void testNotModified() throws Exception {
+    MockHttpServletResponse response = doFilter( newRequest() );
+    String etag = (String) response.getHeader( "ETag" );
+    assertNotNull( etag );
+    assertEquals( "private, no-cache", response.getHeader( "Cache-Control" ) );
+
+    MockHttpServletRequest request = newRequest();
+    request.addHeader( "If-None-Match", etag );
+    response = doFilter( request );
+    assertEquals( HttpServletResponse.SC_NOT_MODIFIED, response.getStatus() );
+    assertEquals( 0, response.getContentAsByteArray().length );
+  }
+
+  @Test
+  public void testGzip() throws Exception {
+    MockHttpServletResponse plain = doFilter( newRequest() );
+
+    MockHttpServletRequest request = newRequest();
+    request.addHeader( "Accept-Encoding", "gzip, deflate" );
+    MockHttpServletResponse gzipped = doFilter( request );
+    assertEquals( "gzip", gzipped.getHeader( "Content-Encoding" ) );
+    assertFalse( plain.getHeader( "ETag" ).equals( gzipped.getHeader( "ETag" ) ) );
+    byte[] content = IOUtils.toByteArray( new GZIPInputStream(
+        new ByteArrayInputStream( gzipped.getContentAsByteArray() ) ) );
+    assertTrue( Arrays.equals( plain.getContentAsByteArray(), content ) );
+  }
+
+  private MockHttpServletRequest newRequest() {
+    MockHttpServletRequest request = new MockHttpServletRequest( "GET", "/pentaho/webcontext.js" );
+    request.addParameter( "context", "mantle" );
+    return request;
+  }
+
+  private MockHttpServletResponse doFilter( MockHttpServletRequest request ) throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    filter.doFilter( request, response, new MockFilterChain() );
+    return response;
+  }
+}
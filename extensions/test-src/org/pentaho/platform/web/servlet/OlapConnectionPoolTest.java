@@ -0,0 +1,126 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2014 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.web.servlet;
+
+import org.junit.Test;
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapStatement;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class OlapConnectionPoolTest {
+
+  private final List<OlapConnection> opened = new ArrayList<OlapConnection>();
+
+  private final OlapConnectionPool.Opener opener = new OlapConnectionPool.Opener() {
+    public OlapConnection open() throws SQLException {
+      OlapConnection connection = mock( OlapConnection.class );
+      opened.add( connection );
+      return connection;
+    }
+  };
+
+  @Test
+  public void testClosedConnectionIsReused() throws Exception {
+    OlapConnectionPool pool = new OlapConnectionPool( 2, 10 );
+    OlapConnection first = pool.getConnection( "SteelWheels:Admin", 1, opener );
+    first.close();
+    assertTrue( first.isClosed() );
+    assertEquals( 1, pool.getIdleCount() );
+
+    OlapConnection second = pool.getConnection( "SteelWheels:Admin", 1, opener );
+    assertNotSame( first, second );
+    assertEquals( 1, opened.size() );
+    assertEquals( 1, pool.getHits() );
+    assertEquals( 1, pool.getMisses() );
+    verify( opened.get( 0 ), never() ).close();
+    try {
+      first.getCatalog();
+      fail( "closed connection was usable" );
+    } catch ( SQLException e ) {
+      // expected
+    }
+
+    pool.getConnection( "SteelWheels:Authenticated", 1, opener );
+    assertEquals( 2, opened.size() );
+  }
+
+  @Test
+  public void testStatementsAreClosedOnRelease() throws Exception {
+    OlapConnectionPool pool = new OlapConnectionPool( 2, 10 );
+    OlapConnection connection = pool.getConnection( "SteelWheels:Admin", 1, opener );
+    OlapStatement statement = mock( OlapStatement.class );
+    when( opened.get( 0 ).createStatement() ).thenReturn( statement );
+    connection.createStatement();
+    connection.close();
+    verify( statement ).close();
+    assertEquals( 1, pool.getIdleCount() );
+  }
+
+  @Test
+  public void testChangedConnectionIsNotReused() throws Exception {
+    OlapConnectionPool pool = new OlapConnectionPool( 2, 10 );
+    OlapConnection connection = pool.getConnection( "SteelWheels:Admin", 1, opener );
+    connection.setRoleName( "Other" );
+    connection.close();
+    verify( opened.get( 0 ) ).close();
+    assertEquals( 0, pool.getIdleCount() );
+  }
+
+  @Test
+  public void testLimits() throws Exception {
+    OlapConnectionPool pool = new OlapConnectionPool( 1, 1 );
+    OlapConnection first = pool.getConnection( "SteelWheels:Admin", 1, opener );
+    OlapConnection second = pool.getConnection( "SteelWheels:Admin", 1, opener );
+    first.close();
+    second.close();
+    assertEquals( 1, pool.getIdleCount() );
+    verify( opened.get( 1 ) ).close();
+
+    pool.getConnection( "SampleData:Admin", 1, opener ).close();
+    assertEquals( 1, pool.getIdleCount() );
+    verify( opened.get( 0 ) ).close();
+  }
+
+  @Test
+  public void testNewCatalogVersionClosesConnections() throws Exception {
+    OlapConnectionPool pool = new OlapConnectionPool( 2, 10 );
+    OlapConnection connection = pool.getConnection( "SteelWheels:Admin", 1, opener );
+    pool.getConnection( "SteelWheels:Admin", 1, opener ).close();
+    pool.getConnection( "SteelWheels:Admin", 2, opener );
+    verify( opened.get( 1 ) ).close();
+    assertEquals( 3, opened.size() );
+
+    // released after the version changed
+    connection.close();
+    verify( opened.get( 0 ) ).close();
+    assertFalse( pool.getIdleCount() > 0 );
+  }
+}
@@ -45,6 +45,7 @@ import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.services.connection.datasource.dbcp.JndiDatasourceService;
 import org.pentaho.platform.engine.services.solution.SolutionEngine;
 import org.pentaho.platform.plugin.action.pentahometadata.MetadataQueryComponent;
+import org.pentaho.platform.plugin.action.pentahometadata.MetadataQueryResultCache;
 import org.pentaho.platform.plugin.services.connections.sql.SQLConnection;
 import org.pentaho.platform.repository2.unified.fs.FileSystemBackedUnifiedRepository;
 import org.pentaho.test.platform.engine.core.MicroPlatform;
@@ -91,10 +92,16 @@ public class MetadataQueryComponentTest {
       ( (SqlPhysicalModel) domain4.getPhysicalModels().get( 0 ) ).getDatasource().setAttributes( attributes );
 
       domain4.setId( "MYSQL_DOMAIN" );
+
+      Domain domain5 = getBasicDomain();
+      domain5.setId( "CACHED_DOMAIN" );
+      domain5.getLogicalModels().get( 0 ).setProperty( "result_cache_ttl", new BigDecimal( 60 ) );
+
       repo.storeDomain( domain, true );
       repo.storeDomain( domain2, true );
       repo.storeDomain( domain3, true );
       repo.storeDomain( domain4, true );
+      repo.storeDomain( domain5, true );
     } catch ( Exception e ) {
       e.printStackTrace();
     }
@@ -167,6 +174,56 @@ public class MetadataQueryComponentTest {
 
   }
 
+  @Test
+  public void testResultCache() {
+    String mql =
+        "<mql><domain_id>CACHED_DOMAIN</domain_id><model_id>MODEL</model_id>"
+            + "<parameters><parameter name=\"param1\" type=\"STRING\" defaultValue=\"A%\"/></parameters>"
+            + "<selections><selection>"
+            + "<view>CATEGORY</view>"
+            + "<column>LC_CUSTOMERNAME</column>"
+            + "</selection>"
+            + "</selections>"
+            + "<constraints>"
+            + "<constraint><operator>AND</operator><condition>LIKE([CATEGORY.LC_CUSTOMERNAME];"
+            + "[param:param1])</condition></constraint>"
+            + "</constraints>" + "</mql>";
+    MetadataQueryResultCache cache = MetadataQueryResultCache.getInstance();
+    cache.clear();
+    long hits = cache.getHits();
+
+    Assert.assertEquals( 16, getRowCount( mql, "A%" ) );
+    Assert.assertEquals( hits, cache.getHits() );
+    Assert.assertEquals( 1, cache.getSize() );
+
+    // the same query with the same parameter value is answered from the cache
+    Assert.assertEquals( 16, getRowCount( mql, "A%" ) );
+    Assert.assertEquals( hits + 1, cache.getHits() );
+
+    // another value is another query
+    Assert.assertEquals( 5, getRowCount( mql, "B%" ) );
+    Assert.assertEquals( hits + 1, cache.getHits() );
+    Assert.assertEquals( 2, cache.getSize() );
+    cache.clear();
+  }
+
+  private int getRowCount( String mql, Object param1 ) {
+    MetadataQueryComponent component = new MetadataQueryComponent();
+    Map<String, Object> inputs = new HashMap<String, Object>();
+    inputs.put( "param1", param1 );
+    component.setInputs( inputs );
+    component.setQuery( mql );
+    Assert.assertTrue( component.execute() );
+    IPentahoResultSet rs = component.getResultSet();
+    try {
+      Assert.assertNotNull( rs );
+      return rs.getRowCount();
+    } finally {
+      rs.close();
+      rs.closeConnection();
+    }
+  }
+
   @Test
   public void testMultiValuedParameters() {
     String mql =
@@ -0,0 +1,99 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.test.platform.plugin.services.security.userrole.ldap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.pentaho.platform.plugin.services.security.userrole.ldap.NestedLdapAuthoritiesPopulator;
+import org.springframework.ldap.core.ContextSource;
+import org.springframework.security.GrantedAuthorityImpl;
+
+/**
+ * Tests the <code>NestedLdapAuthoritiesPopulator</code> class against a stand-in for the directory.
+ */
+@SuppressWarnings( { "nls", "unchecked" } )
+public class NestedLdapAuthoritiesPopulatorTest {
+
+  private static class StubPopulator extends NestedLdapAuthoritiesPopulator {
+    private int searches;
+
+    StubPopulator() {
+      super( mock( ContextSource.class ), "ou=groups" );
+    }
+
+    @Override
+    protected Set searchGroupMembershipRoles( final String userDn, final String username ) {
+      searches++;
+      Set roles = new HashSet();
+      roles.add( new GrantedAuthorityImpl( "Marketing" ) );
+      return roles;
+    }
+  }
+
+  private static Map createMapping() {
+    Map mapping = new HashMap();
+    mapping.put( "Marketing", "BIReporting" );
+    mapping.put( "BIReporting", "Reporting" );
+    mapping.put( "Reporting", "Authenticated" );
+    // a cycle must not keep the expansion going forever
+    mapping.put( "Authenticated", "BIReporting" );
+    return mapping;
+  }
+
+  @Test
+  public void testNestedRolesExpanded() throws Exception {
+    StubPopulator populator = new StubPopulator();
+    populator.setExtraRolesMapping( createMapping() );
+    populator.afterPropertiesSet();
+
+    Set roles = populator.getGroupMembershipRoles( "uid=suzy,ou=users", "suzy" );
+    assertEquals( 4, roles.size() );
+    assertTrue( roles.contains( new GrantedAuthorityImpl( "Marketing" ) ) );
+    assertTrue( roles.contains( new GrantedAuthorityImpl( "BIReporting" ) ) );
+    assertTrue( roles.contains( new GrantedAuthorityImpl( "Reporting" ) ) );
+    assertTrue( roles.contains( new GrantedAuthorityImpl( "Authenticated" ) ) );
+  }
+
+  @Test
+  public void testGroupMembershipsRemembered() throws Exception {
+    StubPopulator populator = new StubPopulator();
+    populator.setExtraRolesMapping( createMapping() );
+
+    populator.getGroupMembershipRoles( "uid=suzy,ou=users", "suzy" );
+    populator.getGroupMembershipRoles( "uid=suzy,ou=users", "suzy" );
+    assertEquals( 2, populator.searches );
+
+    populator.setGroupMembershipCacheTimeout( 60000 );
+    populator.getGroupMembershipRoles( "uid=suzy,ou=users", "suzy" );
+    Set roles = populator.getGroupMembershipRoles( "uid=suzy,ou=users", "suzy" );
+    assertEquals( 3, populator.searches );
+    assertEquals( 4, roles.size() );
+
+    populator.clearGroupMembershipCache();
+    populator.getGroupMembershipRoles( "uid=suzy,ou=users", "suzy" );
+    assertEquals( 4, populator.searches );
+  }
+}
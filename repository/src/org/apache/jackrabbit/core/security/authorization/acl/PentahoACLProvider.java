@@ -37,7 +37,9 @@ import javax.jcr.security.AccessControlManager;
 import javax.jcr.security.AccessControlPolicy;
 import javax.jcr.security.Privilege;
 import java.security.Principal;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 
@@ -53,8 +55,23 @@ public class PentahoACLProvider extends ACLProvider {
   // Overrides to CompiledPermissions creation require we keep an extra reference
   // because this is private in ACLProvider
   private EntryCollector entryCollector;
-  private Map<Integer, PentahoCompiledPermissionsImpl> compiledPermissionsCache =
-      new HashMap<Integer, PentahoCompiledPermissionsImpl>();
+  // compiled permissions are shared by every session with the same set of principal names; the least recently used
+  // ones are evicted once more than maxCompiledPermissions distinct sets are known, and disposed of when the last
+  // session holding them logs out (disposing of them earlier would stop their ACL change notifications)
+  private final int maxCompiledPermissions = getMaxCompiledPermissions();
+  private final Map<Set<String>, PentahoCompiledPermissionsImpl> compiledPermissionsCache =
+      new LinkedHashMap<Set<String>, PentahoCompiledPermissionsImpl>( 16, 0.75f, true ) {
+        private static final long serialVersionUID = 2376104432217587441L;
+
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<Set<String>, PentahoCompiledPermissionsImpl> eldest ) {
+          if ( size() > maxCompiledPermissions ) {
+            eldest.getValue().evict();
+            return true;
+          }
+          return false;
+        }
+      };
   private boolean useCachingEntryCollector;
   private Logger logger = LoggerFactory.getLogger( getClass().getName() );
   private boolean initialized;
@@ -166,15 +183,54 @@ public class PentahoACLProvider extends ACLProvider {
 
   protected PentahoCompiledPermissionsImpl getCompiledPermissions( Set<Principal> principals )
     throws RepositoryException {
-    // check the cache first
-    if ( compiledPermissionsCache.containsKey( principals.hashCode() ) ) {
-      return compiledPermissionsCache.get( principals.hashCode() );
+    // entries are evaluated against principal names only, so the names are the cache key (the hash code of the
+    // principals alone is not: two different role sets colliding would share each other's permissions)
+    Set<String> principalNames = new HashSet<String>( principals.size() );
+    for ( Principal principal : principals ) {
+      principalNames.add( principal.getName() );
     }
+    principalNames = Collections.unmodifiableSet( principalNames );
 
-    PentahoCompiledPermissionsImpl compiledPermissions =
-        new PentahoCompiledPermissionsImpl( principals, session, entryCollector, this, true );
-    compiledPermissionsCache.put( principals.hashCode(), compiledPermissions );
-    return compiledPermissions;
+    synchronized ( compiledPermissionsCache ) {
+      PentahoCompiledPermissionsImpl compiledPermissions = compiledPermissionsCache.get( principalNames );
+      if ( compiledPermissions == null ) {
+        compiledPermissions = createCompiledPermissions( principals );
+        compiledPermissionsCache.put( principalNames, compiledPermissions );
+      }
+      compiledPermissions.acquire();
+      return compiledPermissions;
+    }
+  }
+
+  /**
+   * Creates the compiled permissions shared by all sessions with the given principal names.
+   */
+  protected PentahoCompiledPermissionsImpl createCompiledPermissions( Set<Principal> principals )
+    throws RepositoryException {
+    return new PentahoCompiledPermissionsImpl( principals, session, entryCollector, this, true, true );
+  }
+
+  @Override
+  public void close() {
+    synchronized ( compiledPermissionsCache ) {
+      for ( PentahoCompiledPermissionsImpl compiledPermissions : compiledPermissionsCache.values() ) {
+        compiledPermissions.dispose();
+      }
+      compiledPermissionsCache.clear();
+    }
+    super.close();
+  }
+
+  private static int getMaxCompiledPermissions() {
+    int maxsize = 256;
+    String propname = "org.apache.jackrabbit.core.security.authorization.acl.PentahoACLProvider.maxCompiledPermissions";
+    try {
+      maxsize = Integer.parseInt( System.getProperty( propname, Integer.toString( maxsize ) ) );
+    } catch ( NumberFormatException ex ) {
+      LoggerFactory.getLogger( PentahoACLProvider.class ).debug(
+          "Parsing system property " + propname + " with value: " + System.getProperty( propname ), ex );
+    }
+    return maxsize;
   }
 
   /**
@@ -30,6 +30,7 @@ import org.apache.jackrabbit.core.security.authorization.AbstractCompiledPermiss
 import org.apache.jackrabbit.core.security.authorization.AccessControlConstants;
 import org.apache.jackrabbit.core.security.authorization.AccessControlListener;
 import org.apache.jackrabbit.core.security.authorization.AccessControlModifications;
+import org.apache.jackrabbit.core.security.authorization.AccessControlObserver;
 import org.apache.jackrabbit.core.security.authorization.AccessControlUtils;
 import org.apache.jackrabbit.core.security.authorization.Permission;
 import org.apache.jackrabbit.core.security.authorization.PrivilegeBits;
@@ -43,11 +44,14 @@ import org.pentaho.platform.repository2.unified.ServerRepositoryPaths;
 import org.pentaho.platform.repository2.unified.jcr.JcrRepositoryFileAclUtils;
 import org.pentaho.platform.repository2.unified.jcr.JcrRepositoryFileUtils;
 import org.pentaho.platform.repository2.unified.jcr.PentahoJcrConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.jcr.ItemNotFoundException;
 import javax.jcr.RepositoryException;
 import java.security.Principal;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -59,29 +63,61 @@ import java.util.Set;
  * href="http://jira.pentaho.com/browse/BISERVER-8382">BISERVER-8382</a><br/>
  * This shouldn't differ from {@code CompiledPermissionsImpl} except for the extra lock and the
  * <code>synchronized</code> changes within {@link #canRead(Path, ItemId)}
+ * <p/>
+ * Instances created by {@link PentahoACLProvider} are shared by all sessions with the same principal names, so the
+ * read cache survives individual sessions. It is therefore pruned per modified subtree in
+ * {@link #acModified(AccessControlModifications)} rather than dropped as a whole, and results computed while an ACL
+ * was being modified are not cached.
  * 
  * @see CompiledPermissionsImpl
  */
 public class PentahoCompiledPermissionsImpl extends AbstractCompiledPermissions implements AccessControlListener {
 
+  private static final Logger log = LoggerFactory.getLogger( PentahoCompiledPermissionsImpl.class );
+
   private final List<String> principalNames;
   private final SessionImpl session;
   private final EntryCollector entryCollector;
   private final AccessControlUtils util;
+  private final boolean shared;
 
   /*
    * Start with initial map size of 1024 and grow up to 5000 before removing LRU items.
    */
   @SuppressWarnings( "unchecked" )
-  private final Map<ItemId, Boolean> readCache = new GrowingLRUMap( 1024, 5000 );
+  private final Map<ItemId, ReadResult> readCache = new GrowingLRUMap( 1024, 5000 );
   private final Object monitor = new Object();
   private final Object readMonitor = new Object();
 
+  /*
+   * Incremented (under monitor) on every access control modification; a read result is only cached if no modification
+   * happened while it was being evaluated.
+   */
+  private long aclVersion;
+
+  /*
+   * Sessions holding a shared instance, and whether the owner still hands it out (guarded by referenceMonitor).
+   */
+  private final Object referenceMonitor = new Object();
+  private int references;
+  private boolean evicted;
+  private boolean disposed;
+
   PentahoCompiledPermissionsImpl( Set<Principal> principals, SessionImpl session, EntryCollector entryCollector,
       AccessControlUtils util, boolean listenToEvents ) throws RepositoryException {
+    this( principals, session, entryCollector, util, listenToEvents, false );
+  }
+
+  /**
+   * @param shared {@code true} if the instance is shared between sessions; {@link #close()} then only releases the
+   *               reference taken by {@link #acquire()} and the owner is responsible for calling {@link #evict()}
+   */
+  PentahoCompiledPermissionsImpl( Set<Principal> principals, SessionImpl session, EntryCollector entryCollector,
+      AccessControlUtils util, boolean listenToEvents, boolean shared ) throws RepositoryException {
     this.session = session;
     this.entryCollector = entryCollector;
     this.util = util;
+    this.shared = shared;
 
     principalNames = new ArrayList<String>( principals.size() );
     for ( Principal princ : principals ) {
@@ -248,6 +284,60 @@ public class PentahoCompiledPermissionsImpl extends AbstractCompiledPermissions
    */
   @Override
   public void close() {
+    if ( shared ) {
+      // closing one of the sessions must neither drop the cache of the others nor stop listening to modifications;
+      // an evicted instance is disposed of once the last session holding it is closed
+      boolean dispose;
+      synchronized ( referenceMonitor ) {
+        if ( references > 0 ) {
+          references--;
+        }
+        dispose = evicted && references == 0;
+      }
+      if ( dispose ) {
+        dispose();
+      }
+      return;
+    }
+    dispose();
+  }
+
+  /**
+   * Records that one more session holds this shared instance; each call is matched by a {@link #close()}.
+   */
+  void acquire() {
+    synchronized ( referenceMonitor ) {
+      references++;
+    }
+  }
+
+  /**
+   * Called when the owner no longer hands out this shared instance. It is disposed of right away if no session holds
+   * it, otherwise when the last one is closed, so that the sessions holding it keep receiving access control
+   * modifications.
+   */
+  void evict() {
+    boolean dispose;
+    synchronized ( referenceMonitor ) {
+      evicted = true;
+      dispose = references == 0;
+    }
+    if ( dispose ) {
+      dispose();
+    }
+  }
+
+  /**
+   * Stops listening to access control modifications and clears the caches, regardless of whether the instance is
+   * shared.
+   */
+  void dispose() {
+    synchronized ( referenceMonitor ) {
+      if ( disposed ) {
+        return;
+      }
+      disposed = true;
+    }
     entryCollector.removeListener( this );
     // NOTE: do not logout shared session.
     super.close();
@@ -264,12 +354,15 @@ public class PentahoCompiledPermissionsImpl extends AbstractCompiledPermissions
     // no extra check for existence as method may only be called for existing items.
     boolean isExistingNode = id.denotesNode();
     boolean canRead = false;
+    long version;
     // emulates behavior of CompiledPermissionsImpl with two locks
     // synchronized (readMonitor) {
     synchronized ( monitor ) {
-      if ( readCache.containsKey( id ) ) {
-        return readCache.get( id );
+      ReadResult cached = readCache.get( id );
+      if ( cached != null ) {
+        return cached.canRead;
       }
+      version = aclVersion;
     }
 
     ItemManager itemMgr = session.getItemManager();
@@ -319,7 +412,9 @@ public class PentahoCompiledPermissionsImpl extends AbstractCompiledPermissions
       }
     }
     synchronized ( monitor ) {
-      readCache.put( id, canRead );
+      if ( version == aclVersion ) {
+        readCache.put( id, new ReadResult( canRead, node.getPath() ) );
+      }
     }
     // } // readMonitor
     return canRead;
@@ -331,8 +426,51 @@ public class PentahoCompiledPermissionsImpl extends AbstractCompiledPermissions
    *      acModified(org.apache.jackrabbit.core.security.authorization.AccessControlModifications)
    */
   public void acModified( AccessControlModifications modifications ) {
-    // ignore the details of the modifications and clear all caches.
-    clearCache();
+    // a modified ACL only affects the access controlled node and the nodes below it, so only those read results are
+    // dropped. The full permission results are cached by path in the super class and are simply cleared.
+    Set<String> modifiedPaths = getModifiedPaths( modifications );
+    synchronized ( monitor ) {
+      aclVersion++;
+      if ( modifiedPaths == null ) {
+        readCache.clear();
+      } else {
+        Iterator<Map.Entry<ItemId, ReadResult>> it = readCache.entrySet().iterator();
+        while ( it.hasNext() ) {
+          if ( it.next().getValue().isBelowAny( modifiedPaths ) ) {
+            it.remove();
+          }
+        }
+      }
+    }
+    super.clearCache();
+  }
+
+  /**
+   * Returns the paths of the access controlled nodes of the given modifications, or {@code null} if the affected part
+   * of the hierarchy cannot be determined (moves, removed nodes, the root node).
+   */
+  private Set<String> getModifiedPaths( AccessControlModifications modifications ) {
+    Set<String> paths = new HashSet<String>();
+    for ( Object key : modifications.getNodeIdentifiers() ) {
+      if ( !( key instanceof NodeId ) ) {
+        return null;
+      }
+      int type = modifications.getType( key );
+      if ( ( type & AccessControlObserver.MOVE ) == AccessControlObserver.MOVE ) {
+        return null;
+      }
+      try {
+        String path = ( (NodeImpl) session.getItemManager().getItem( (NodeId) key ) ).getPath();
+        if ( "/".equals( path ) ) {
+          return null;
+        }
+        paths.add( path );
+      } catch ( RepositoryException e ) {
+        log.debug( "Unable to resolve access controlled node " + key + ", clearing the read cache", e );
+        return null;
+      }
+    }
+    return paths;
   }
 
   /**
@@ -357,4 +495,27 @@ public class PentahoCompiledPermissionsImpl extends AbstractCompiledPermissions
     return node != null && isBelowRootFolder( node )
             && JcrRepositoryFileUtils.isPentahoHierarchyNode( session, new PentahoJcrConstants( session ), node );
   }
+
+  /**
+   * A cached read evaluation together with the path of the node it was evaluated for.
+   */
+  private static class ReadResult {
+
+    private final boolean canRead;
+    private final String path;
+
+    ReadResult( boolean canRead, String path ) {
+      this.canRead = canRead;
+      this.path = path;
+    }
+
+    boolean isBelowAny( Set<String> ancestorPaths ) {
+      for ( String ancestorPath : ancestorPaths ) {
+        if ( path.equals( ancestorPath ) || path.startsWith( ancestorPath + "/" ) ) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
 }
@@ -32,19 +32,70 @@ import org.slf4j.LoggerFactory;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores user settings as metadata of the user home folder, and global user settings as metadata of the tenant etc
+ * folder.
+ * <p/>
+ * The settings of a user are read from the repository and kept in the session, the global settings are read once per
+ * tenant and shared by all sessions; both are read again after {@link #setSettingsTimeout(long) settingsTimeout}
+ * milliseconds, so that changes made through other sessions or servers are seen, and are updated right away when a
+ * setting is changed through this service. When a {@link #setWriteBehindDelay(long) writeBehindDelay} is set, changed
+ * settings are written to the repository after that delay, so that several changes of the same folder are written at
+ * once; {@link #flush()} writes them right away. A failed background write is tried again after the delay, and given
+ * up with an error logged after a few attempts, so write-behind can lose a change that write-through (the default)
+ * reports to the caller.
+ */
 public class UserSettingService implements IUserSettingService {
 
   public static final String SETTING_PREFIX = "_USERSETTING"; //$NON-NLS-1$
+
+  private static final String SESSION_SETTINGS_ATTRIBUTE =
+      UserSettingService.class.getName() + ".userSettings"; //$NON-NLS-1$
+
+  private static final int MAX_WRITE_ATTEMPTS = 3;
+
+  private static final long DEFAULT_SETTINGS_TIMEOUT = TimeUnit.MINUTES.toMillis( 1 );
+
   IPentahoSession session = null;
   private static final byte[] lock = new byte[0];
 
   protected IUnifiedRepository repository;
   private Logger log = LoggerFactory.getLogger( getClass() );
 
+  private long settingsTimeout = DEFAULT_SETTINGS_TIMEOUT;
+
+  private long writeBehindDelay = 0;
+
+  /**
+   * Global settings of each tenant, by tenant id.
+   */
+  private final ConcurrentMap<String, SettingsSnapshot> globalSettings =
+      new ConcurrentHashMap<String, SettingsSnapshot>();
+
+  /**
+   * Settings waiting to be written, by the id of the folder they belong to.
+   */
+  private final Map<Serializable, Map<String, String>> pendingWrites =
+      new LinkedHashMap<Serializable, Map<String, String>>();
+
+  /**
+   * Failed background writes so far, by the id of the folder they belong to.
+   */
+  private final Map<Serializable, Integer> writeAttempts = new HashMap<Serializable, Integer>();
+
+  private ScheduledExecutorService writeExecutor;
+
   public UserSettingService( IUnifiedRepository repository ) {
     this.repository = repository;
   }
@@ -59,17 +110,24 @@ public class UserSettingService implements IUserSettingService {
 
   // delete all settings for a given user
   public void deleteUserSettings() {
-    String homePath = ClientRepositoryPaths.getUserHomeFolderPath( PentahoSessionHolder.getSession().getName() );
+    IPentahoSession currentSession = PentahoSessionHolder.getSession();
+    String homePath = ClientRepositoryPaths.getUserHomeFolderPath( currentSession.getName() );
     Serializable id = repository.getFile( homePath ).getId();
 
-    Map<String, Serializable> fileMetadata = repository.getFileMetadata( id );
-    Map<String, Serializable> finalMetadata = new HashMap<String, Serializable>();
-    for ( String key : fileMetadata.keySet() ) {
-      if ( !key.startsWith( SETTING_PREFIX ) ) {
-        finalMetadata.put( key, fileMetadata.get( key ) );
+    synchronized ( lock ) {
+      synchronized ( pendingWrites ) {
+        pendingWrites.remove( id );
       }
+      Map<String, Serializable> fileMetadata = repository.getFileMetadata( id );
+      Map<String, Serializable> finalMetadata = new HashMap<String, Serializable>();
+      for ( String key : fileMetadata.keySet() ) {
+        if ( !key.startsWith( SETTING_PREFIX ) ) {
+          finalMetadata.put( key, fileMetadata.get( key ) );
+        }
+      }
+      repository.setFileMetadata( id, finalMetadata );
     }
-    repository.setFileMetadata( id, finalMetadata );
+    currentSession.removeAttribute( SESSION_SETTINGS_ATTRIBUTE );
   }
 
   // ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -81,34 +139,17 @@ public class UserSettingService implements IUserSettingService {
     // merge unseen global settings into the user settings list
     List<IUserSetting> userSettings = new ArrayList<IUserSetting>();
 
-    String tentantHomePath = ClientRepositoryPaths.getEtcFolderPath();
-    Serializable tenantHomeId = repository.getFile( tentantHomePath ).getId();
-    Map<String, Serializable> tenantMetadata = repository.getFileMetadata( tenantHomeId );
-
-    for ( String key : tenantMetadata.keySet() ) {
-      if ( key.startsWith( SETTING_PREFIX ) ) {
-        UserSetting setting = new UserSetting();
-        setting.setSettingName( key.substring( SETTING_PREFIX.length() ) );
-        setting.setSettingValue( tenantMetadata.get( key ).toString() );
-        userSettings.add( setting );
-      }
+    for ( Map.Entry<String, String> entry : getGlobalSettings().getSettings().entrySet() ) {
+      userSettings.add( createSetting( entry.getKey(), entry.getValue() ) );
     }
 
-    String homePath = ClientRepositoryPaths.getUserHomeFolderPath( PentahoSessionHolder.getSession().getName() );
-    Serializable userHomeId = repository.getFile( homePath ).getId();
-    Map<String, Serializable> userMetadata = repository.getFileMetadata( userHomeId );
-
-    for ( String key : userMetadata.keySet() ) {
-      if ( key.startsWith( SETTING_PREFIX ) ) {
-        UserSetting setting = new UserSetting();
-        setting.setSettingName( key.substring( SETTING_PREFIX.length() ) );
-        setting.setSettingValue( userMetadata.get( key ).toString() );
-        // see if a global setting exists which will be overridden
-        if ( userSettings.contains( setting ) ) {
-          userSettings.remove( setting );
-        }
-        userSettings.add( setting );
+    for ( Map.Entry<String, String> entry : getSessionSettings().getSettings().entrySet() ) {
+      UserSetting setting = createSetting( entry.getKey(), entry.getValue() );
+      // see if a global setting exists which will be overridden
+      if ( userSettings.contains( setting ) ) {
+        userSettings.remove( setting );
       }
+      userSettings.add( setting );
     }
     return userSettings;
   }
@@ -118,35 +159,12 @@ public class UserSettingService implements IUserSettingService {
     boolean hasAuth = PentahoSessionHolder.getSession().getAttribute( "SPRING_SECURITY_CONTEXT" ) != null;
     if ( hasAuth ) {
       try {
-        String homePath = ClientRepositoryPaths.getUserHomeFolderPath( PentahoSessionHolder.getSession().getName() );
-
-        Serializable userHomeId = repository.getFile( homePath ).getId();
-        Map<String, Serializable> userMetadata = repository.getFileMetadata( userHomeId );
-
-        for ( String key : userMetadata.keySet() ) {
-          if ( key.startsWith( SETTING_PREFIX ) ) {
-            UserSetting setting = new UserSetting();
-            setting.setSettingName( key.substring( SETTING_PREFIX.length() ) );
-            setting.setSettingValue( userMetadata.get( key ).toString() );
-            if ( setting.getSettingName().equals( settingName ) ) {
-              return setting;
-            }
-          }
+        String value = getSessionSettings().getSettings().get( settingName );
+        if ( value == null ) {
+          value = getGlobalSettings().getSettings().get( settingName );
         }
-
-        String tentantHomePath = ClientRepositoryPaths.getEtcFolderPath();
-        Serializable tenantHomeId = repository.getFile( tentantHomePath ).getId();
-        Map<String, Serializable> tenantMetadata = repository.getFileMetadata( tenantHomeId );
-
-        for ( String key : tenantMetadata.keySet() ) {
-          if ( key.startsWith( SETTING_PREFIX ) ) {
-            UserSetting setting = new UserSetting();
-            setting.setSettingName( key.substring( SETTING_PREFIX.length() ) );
-            setting.setSettingValue( tenantMetadata.get( key ).toString() );
-            if ( setting.getSettingName().equals( settingName ) ) {
-              return setting;
-            }
-          }
+        if ( value != null ) {
+          return createSetting( settingName, value );
         }
       } catch ( Throwable ignored ) {
         // if anything goes wrong with authentication (anonymous user) or permissions
@@ -154,20 +172,32 @@ public class UserSettingService implements IUserSettingService {
         // we'll see *many* errors in the logs which are not helpful
       }
     }
-    UserSetting defaultSetting = new UserSetting();
-    defaultSetting.setSettingName( settingName );
-    defaultSetting.setSettingValue( defaultValue );
-    return defaultSetting;
+    return createSetting( settingName, defaultValue );
   }
 
+  /**
+   * Stores a setting of the current user.
+   *
+   * @throws IllegalStateException
+   *           if the setting could not be written to the repository (without write-behind)
+   */
   public void setUserSetting( String settingName, String settingValue ) {
 
     String name = PentahoSessionHolder.getSession().getName();
     String homePath = ClientRepositoryPaths.getUserHomeFolderPath( name );
 
-    synchronized ( lock ) {
+    final Serializable id = repository.getFile( homePath ).getId();
+    SettingsSnapshot snapshot = getCachedSessionSettings();
 
-      final Serializable id = repository.getFile( homePath ).getId();
+    if ( writeBehindDelay > 0 ) {
+      if ( snapshot != null ) {
+        snapshot.put( settingName, settingValue );
+      }
+      scheduleWrite( id, settingName, settingValue );
+      return;
+    }
+
+    synchronized ( lock ) {
 
       final Map<String, Serializable> fileMetadata = repository.getFileMetadata( id );
       if ( fileMetadata.containsKey( SETTING_PREFIX + settingName ) ) {
@@ -185,9 +215,12 @@ public class UserSettingService implements IUserSettingService {
       } catch ( Exception e ) {
         log.debug( "Error storing user setting for user: " + name + ", setting: " + settingName + ", value: "
             + settingValue, e );
-        log.error( "Error storing user setting", e );
+        throw new IllegalStateException( "Error storing user setting", e ); //$NON-NLS-1$
       }
     }
+    if ( snapshot != null ) {
+      snapshot.put( settingName, settingValue );
+    }
   }
 
   // ////////////////////////////////////////////////////////////////////////////////////////////////
@@ -195,37 +228,14 @@ public class UserSettingService implements IUserSettingService {
   // ////////////////////////////////////////////////////////////////////////////////////////////////
 
   public IUserSetting getGlobalUserSetting( String settingName, String defaultValue ) {
-    String tentantHomePath = ClientRepositoryPaths.getEtcFolderPath();
-    Serializable tenantHomeId = repository.getFile( tentantHomePath ).getId();
-    Map<String, Serializable> tenantMetadata = repository.getFileMetadata( tenantHomeId );
-
-    if ( tenantMetadata.containsKey( SETTING_PREFIX + settingName ) ) {
-      UserSetting setting = new UserSetting();
-      setting.setSettingName( settingName );
-      setting.setSettingValue( tenantMetadata.get( SETTING_PREFIX + settingName ).toString() );
-      return setting;
-    }
-
-    UserSetting defaultSetting = new UserSetting();
-    defaultSetting.setSettingName( settingName );
-    defaultSetting.setSettingValue( defaultValue );
-    return defaultSetting;
+    String value = getGlobalSettings().getSettings().get( settingName );
+    return createSetting( settingName, value != null ? value : defaultValue );
   }
 
   public List<IUserSetting> getGlobalUserSettings() {
     List<IUserSetting> userSettings = new ArrayList<IUserSetting>();
-
-    String tentantHomePath = ClientRepositoryPaths.getEtcFolderPath();
-    Serializable tenantHomeId = repository.getFile( tentantHomePath ).getId();
-    Map<String, Serializable> tenantMetadata = repository.getFileMetadata( tenantHomeId );
-
-    for ( String key : tenantMetadata.keySet() ) {
-      if ( key.startsWith( SETTING_PREFIX ) ) {
-        UserSetting setting = new UserSetting();
-        setting.setSettingName( key.substring( SETTING_PREFIX.length() ) );
-        setting.setSettingValue( tenantMetadata.get( key ).toString() );
-        userSettings.add( setting );
-      }
+    for ( Map.Entry<String, String> entry : getGlobalSettings().getSettings().entrySet() ) {
+      userSettings.add( createSetting( entry.getKey(), entry.getValue() ) );
     }
     return userSettings;
   }
@@ -234,12 +244,312 @@ public class UserSettingService implements IUserSettingService {
     if ( SecurityHelper.getInstance().isPentahoAdministrator( session ) ) {
       String tentantHomePath = ClientRepositoryPaths.getEtcFolderPath();
       Serializable tenantHomeId = repository.getFile( tentantHomePath ).getId();
-      Map<String, Serializable> tenantMetadata = repository.getFileMetadata( tenantHomeId );
-      if ( tenantMetadata.containsKey( SETTING_PREFIX + settingName ) ) {
-        tenantMetadata.remove( SETTING_PREFIX + settingName );
+      SettingsSnapshot snapshot = globalSettings.get( getTenantKey() );
+      if ( snapshot != null ) {
+        snapshot.put( settingName, settingValue );
+      }
+
+      if ( writeBehindDelay > 0 ) {
+        scheduleWrite( tenantHomeId, settingName, settingValue );
+        return;
+      }
+
+      synchronized ( lock ) {
+        Map<String, Serializable> tenantMetadata = repository.getFileMetadata( tenantHomeId );
+        if ( tenantMetadata.containsKey( SETTING_PREFIX + settingName ) ) {
+          tenantMetadata.remove( SETTING_PREFIX + settingName );
+        }
+        tenantMetadata.put( SETTING_PREFIX + settingName, settingValue );
+        repository.setFileMetadata( tenantHomeId, tenantMetadata );
+      }
+    }
+  }
+
+  // ////////////////////////////////////////////////////////////////////////////////////////////////
+  // CACHING AND WRITE-BEHIND
+  // ////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /**
+   * Writes all changed settings that are waiting for the write-behind delay to pass.
+   *
+   * @throws IllegalStateException
+   *           if some of them could not be written; they stay queued for the next attempt
+   */
+  public void flush() {
+    List<Serializable> ids;
+    synchronized ( pendingWrites ) {
+      ids = new ArrayList<Serializable>( pendingWrites.keySet() );
+    }
+    Exception error = null;
+    for ( Serializable id : ids ) {
+      Exception e = writePending( id );
+      if ( error == null ) {
+        error = e;
+      }
+    }
+    if ( error != null ) {
+      throw new IllegalStateException( "Error storing user settings", error ); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Writes the changed settings and stops the write-behind thread.
+   */
+  public void shutdown() {
+    try {
+      flush();
+    } finally {
+      synchronized ( pendingWrites ) {
+        if ( writeExecutor != null ) {
+          writeExecutor.shutdown();
+          writeExecutor = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Forgets the global settings read so far, so that they are read from the repository again.
+   */
+  public void clearGlobalSettings() {
+    globalSettings.clear();
+  }
+
+  public long getSettingsTimeout() {
+    return settingsTimeout;
+  }
+
+  /**
+   * Sets how long (in milliseconds) the settings of a session and the global settings of a tenant are used before they
+   * are read again. Zero reads them every time.
+   */
+  public void setSettingsTimeout( long settingsTimeout ) {
+    this.settingsTimeout = settingsTimeout;
+  }
+
+  public long getWriteBehindDelay() {
+    return writeBehindDelay;
+  }
+
+  /**
+   * Sets how long (in milliseconds) a changed setting may wait before it is written to the repository. Zero (the
+   * default) writes it before the setter returns.
+   */
+  public void setWriteBehindDelay( long writeBehindDelay ) {
+    this.writeBehindDelay = writeBehindDelay;
+  }
+
+  private SettingsSnapshot getCachedSessionSettings() {
+    IPentahoSession currentSession = PentahoSessionHolder.getSession();
+    Object snapshot = currentSession.getAttribute( SESSION_SETTINGS_ATTRIBUTE );
+    if ( snapshot instanceof SettingsSnapshot
+        && ( (SettingsSnapshot) snapshot ).getOwner().equals( currentSession.getName() ) ) {
+      return (SettingsSnapshot) snapshot;
+    }
+    return null;
+  }
+
+  private SettingsSnapshot getSessionSettings() {
+    SettingsSnapshot snapshot = getCachedSessionSettings();
+    if ( snapshot == null || isExpired( snapshot ) ) {
+      IPentahoSession currentSession = PentahoSessionHolder.getSession();
+      String homePath = ClientRepositoryPaths.getUserHomeFolderPath( currentSession.getName() );
+      snapshot = loadSettings( currentSession.getName(), repository.getFile( homePath ).getId() );
+      currentSession.setAttribute( SESSION_SETTINGS_ATTRIBUTE, snapshot );
+    }
+    return snapshot;
+  }
+
+  private SettingsSnapshot getGlobalSettings() {
+    String tenantKey = getTenantKey();
+    SettingsSnapshot snapshot = globalSettings.get( tenantKey );
+    if ( snapshot == null || isExpired( snapshot ) ) {
+      String tentantHomePath = ClientRepositoryPaths.getEtcFolderPath();
+      snapshot = loadSettings( tenantKey, repository.getFile( tentantHomePath ).getId() );
+      globalSettings.put( tenantKey, snapshot );
+    }
+    return snapshot;
+  }
+
+  private boolean isExpired( SettingsSnapshot snapshot ) {
+    return System.currentTimeMillis() - snapshot.getLoadTime() >= settingsTimeout;
+  }
+
+  private String getTenantKey() {
+    IPentahoSession currentSession = PentahoSessionHolder.getSession();
+    Object tenantId = currentSession == null ? null : currentSession.getAttribute( IPentahoSession.TENANT_ID_KEY );
+    return tenantId == null ? "" : tenantId.toString(); //$NON-NLS-1$
+  }
+
+  /**
+   * Reads the settings stored in the metadata of a folder, including the changes still waiting to be written.
+   */
+  private SettingsSnapshot loadSettings( String owner, Serializable id ) {
+    Map<String, String> settings = new LinkedHashMap<String, String>();
+    Map<String, Serializable> metadata = repository.getFileMetadata( id );
+    for ( Map.Entry<String, Serializable> entry : metadata.entrySet() ) {
+      if ( entry.getKey().startsWith( SETTING_PREFIX ) ) {
+        settings.put( entry.getKey().substring( SETTING_PREFIX.length() ), entry.getValue().toString() );
+      }
+    }
+    synchronized ( pendingWrites ) {
+      Map<String, String> pending = pendingWrites.get( id );
+      if ( pending != null ) {
+        settings.putAll( pending );
+      }
+    }
+    return new SettingsSnapshot( owner, settings );
+  }
+
+  private void scheduleWrite( final Serializable id, String settingName, String settingValue ) {
+    synchronized ( pendingWrites ) {
+      Map<String, String> pending = pendingWrites.get( id );
+      if ( pending != null ) {
+        // a write of this folder is already scheduled, it will take this setting along
+        pending.put( settingName, settingValue );
+        return;
+      }
+      pending = new LinkedHashMap<String, String>();
+      pending.put( settingName, settingValue );
+      pendingWrites.put( id, pending );
+      if ( writeExecutor == null ) {
+        writeExecutor = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+          @Override
+          public Thread newThread( Runnable r ) {
+            Thread thread = new Thread( r, "UserSettingService-writer" ); //$NON-NLS-1$
+            thread.setDaemon( true );
+            return thread;
+          }
+        } );
+      }
+      writeExecutor.schedule( new Runnable() {
+        @Override
+        public void run() {
+          writePendingInBackground( id );
+        }
+      }, writeBehindDelay, TimeUnit.MILLISECONDS );
+    }
+  }
+
+  /**
+   * Writes the settings waiting for a folder. If the write fails they are queued again, unless they were changed in
+   * the meantime, so that the next attempt takes them along.
+   *
+   * @return the error of a failed write, <code>null</code> if the write succeeded or nothing was waiting
+   */
+  private Exception writePending( final Serializable id ) {
+    synchronized ( lock ) {
+      final Map<String, String> pending;
+      synchronized ( pendingWrites ) {
+        pending = pendingWrites.remove( id );
+      }
+      if ( pending == null ) {
+        return null;
       }
-      tenantMetadata.put( SETTING_PREFIX + settingName, settingValue );
-      repository.setFileMetadata( tenantHomeId, tenantMetadata );
+      try {
+        SecurityHelper.getInstance().runAsSystem( new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            Map<String, Serializable> fileMetadata = repository.getFileMetadata( id );
+            for ( Map.Entry<String, String> entry : pending.entrySet() ) {
+              fileMetadata.put( SETTING_PREFIX + entry.getKey(), entry.getValue() );
+            }
+            repository.setFileMetadata( id, fileMetadata );
+            return null;
+          }
+        } );
+        synchronized ( pendingWrites ) {
+          writeAttempts.remove( id );
+        }
+        return null;
+      } catch ( Exception e ) {
+        log.debug( "Error storing settings of folder: " + id + ", settings: " + pending, e );
+        synchronized ( pendingWrites ) {
+          Map<String, String> newer = pendingWrites.get( id );
+          if ( newer != null ) {
+            pending.putAll( newer );
+          }
+          pendingWrites.put( id, pending );
+        }
+        return e;
+      }
+    }
+  }
+
+  /**
+   * Writes the settings waiting for a folder from the write-behind thread, and tries again after the delay when the
+   * write fails. The settings are dropped, with an error logged, after {@link #MAX_WRITE_ATTEMPTS} failed attempts.
+   */
+  private void writePendingInBackground( final Serializable id ) {
+    Exception error = writePending( id );
+    if ( error == null ) {
+      return;
+    }
+    synchronized ( pendingWrites ) {
+      Integer attempts = writeAttempts.get( id );
+      attempts = attempts == null ? 1 : attempts + 1;
+      if ( attempts >= MAX_WRITE_ATTEMPTS || writeExecutor == null ) {
+        writeAttempts.remove( id );
+        Map<String, String> lost = pendingWrites.remove( id );
+        log.error( "Error storing user settings, giving up after " + attempts + " attempts: " + lost, error );
+        return;
+      }
+      writeAttempts.put( id, attempts );
+      log.warn( "Error storing user settings, trying again in " + writeBehindDelay + " ms", error );
+      writeExecutor.schedule( new Runnable() {
+        @Override
+        public void run() {
+          writePendingInBackground( id );
+        }
+      }, writeBehindDelay, TimeUnit.MILLISECONDS );
+    }
+  }
+
+  private static UserSetting createSetting( String settingName, String settingValue ) {
+    UserSetting setting = new UserSetting();
+    setting.setSettingName( settingName );
+    setting.setSettingValue( settingValue );
+    return setting;
+  }
+
+  /**
+   * The settings read from one folder, kept in a session or shared by the sessions of a tenant.
+   */
+  private static class SettingsSnapshot implements Serializable {
+    private static final long serialVersionUID = -2694357150370417113L;
+
+    private final String owner;
+
+    private final long loadTime = System.currentTimeMillis();
+
+    private final Map<String, String> settings;
+
+    SettingsSnapshot( String owner, Map<String, String> settings ) {
+      this.owner = owner;
+      this.settings = new ConcurrentHashMap<String, String>();
+      for ( Map.Entry<String, String> entry : settings.entrySet() ) {
+        put( entry.getKey(), entry.getValue() );
+      }
+    }
+
+    void put( String settingName, String settingValue ) {
+      if ( settingValue == null ) {
+        settings.remove( settingName );
+      } else {
+        settings.put( settingName, settingValue );
+      }
+    }
+
+    String getOwner() {
+      return owner;
+    }
+
+    long getLoadTime() {
+      return loadTime;
+    }
+
+    Map<String, String> getSettings() {
+      return settings;
     }
   }
 
@@ -24,11 +24,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.jcr.Session;
 
-import org.apache.commons.collections.map.LRUMap;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.jackrabbit.api.security.principal.PrincipalIterator;
@@ -58,6 +58,10 @@ import org.springframework.security.userdetails.UserDetailsService;
 import org.springframework.security.userdetails.UsernameNotFoundException;
 import org.springframework.util.Assert;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
 /**
  * A Jackrabbit {@code PrincipalProvider} that delegates to a Pentaho {@link UserDetailsService}.
  * <p/>
@@ -71,9 +75,11 @@ import org.springframework.util.Assert;
  * determining the type of a principal/group from its name. </p>
  * <p/>
  * <p> This implementation caches users and roles, but not passwords. Optionally, this implementation can take advantage
- * of a Spring Security UserCache. If available, it will use said cache for role membership lookups. Also note that the
- * removal of a role or user from the system will not be noticed by this implementation. (A restart of Jackrabbit is
- * required.) </p>
+ * of a Spring Security UserCache. If available, it will use said cache for role membership lookups. Cached principals
+ * expire after {@value #DEFAULT_CACHE_TTL_SECONDS} seconds and user names unknown to the back-end are remembered for
+ * {@value #DEFAULT_NEGATIVE_CACHE_TTL_SECONDS} seconds, so the removal of a role or user from the system is noticed
+ * once the entry expires. Sizes and expiry times can be changed with the {@code userCacheSize}, {@code
+ * roleCacheSize}, {@code cacheTtlSeconds} and {@code negativeCacheTtlSeconds} options of the login module. </p>
  * <p/>
  * <p> There are users and roles that are never expected to be in any backing store. By default, these are "everyone" (a
  * role), "anonymous" (a user), "administrators" (a role), and "admin" (a user). </p>
@@ -90,6 +96,22 @@ public class SpringSecurityPrincipalProvider implements PrincipalProvider {
 
   private Log logger = LogFactory.getLog( SpringSecurityPrincipalProvider.class );
 
+  public static final String OPTION_USER_CACHE_SIZE = "userCacheSize"; //$NON-NLS-1$
+
+  public static final String OPTION_ROLE_CACHE_SIZE = "roleCacheSize"; //$NON-NLS-1$
+
+  public static final String OPTION_CACHE_TTL_SECONDS = "cacheTtlSeconds"; //$NON-NLS-1$
+
+  public static final String OPTION_NEGATIVE_CACHE_TTL_SECONDS = "negativeCacheTtlSeconds"; //$NON-NLS-1$
+
+  public static final int DEFAULT_USER_CACHE_SIZE = 4096;
+
+  public static final int DEFAULT_ROLE_CACHE_SIZE = 512;
+
+  public static final long DEFAULT_CACHE_TTL_SECONDS = 600;
+
+  public static final long DEFAULT_NEGATIVE_CACHE_TTL_SECONDS = 60;
+
   // ~ Instance fields
   // =================================================================================================
 
@@ -115,9 +137,17 @@ public class SpringSecurityPrincipalProvider implements PrincipalProvider {
    */
   private final AtomicBoolean initialized = new AtomicBoolean( false );
 
-  private final LRUMap userCache = new LRUMap( 4096 );
+  // keyed by tenanted user name
+  private volatile Cache<String, Principal> userCache = buildCache( DEFAULT_USER_CACHE_SIZE,
+      DEFAULT_CACHE_TTL_SECONDS );
+
+  // tenanted user names the back-end did not know about
+  private volatile Cache<String, Boolean> unknownUserCache = buildCache( DEFAULT_USER_CACHE_SIZE,
+      DEFAULT_NEGATIVE_CACHE_TTL_SECONDS );
 
-  private final LRUMap roleCache = new LRUMap( 512 );
+  // keyed by tenanted role name
+  private volatile Cache<String, Principal> roleCache = buildCache( DEFAULT_ROLE_CACHE_SIZE,
+      DEFAULT_CACHE_TTL_SECONDS );
 
   // ~ Constructors
   // ====================================================================================================
@@ -150,6 +180,19 @@ public class SpringSecurityPrincipalProvider implements PrincipalProvider {
       logger.trace( String.format( "using anonymousId [%s]", anonymousId ) ); //$NON-NLS-1$
     }
 
+    int userCacheSize = getIntOption( options, OPTION_USER_CACHE_SIZE, DEFAULT_USER_CACHE_SIZE );
+    int roleCacheSize = getIntOption( options, OPTION_ROLE_CACHE_SIZE, DEFAULT_ROLE_CACHE_SIZE );
+    long cacheTtl = getIntOption( options, OPTION_CACHE_TTL_SECONDS, (int) DEFAULT_CACHE_TTL_SECONDS );
+    long negativeCacheTtl =
+        getIntOption( options, OPTION_NEGATIVE_CACHE_TTL_SECONDS, (int) DEFAULT_NEGATIVE_CACHE_TTL_SECONDS );
+    userCache = buildCache( userCacheSize, cacheTtl );
+    unknownUserCache = buildCache( userCacheSize, negativeCacheTtl );
+    roleCache = buildCache( roleCacheSize, cacheTtl );
+    if ( logger.isTraceEnabled() ) {
+      logger.trace( String.format( "using userCacheSize [%d], roleCacheSize [%d], cacheTtlSeconds [%d],"
+          + " negativeCacheTtlSeconds [%d]", userCacheSize, roleCacheSize, cacheTtl, negativeCacheTtl ) ); //$NON-NLS-1$
+    }
+
     initialized.set( true );
   }
 
@@ -159,19 +202,37 @@ public class SpringSecurityPrincipalProvider implements PrincipalProvider {
     initialized.set( false );
   }
 
-  public synchronized void clearCaches() {
-    synchronized ( userCache ) {
-      userCache.clear();
-    }
-    synchronized ( roleCache ) {
-      roleCache.clear();
-    }
+  public void clearCaches() {
+    userCache.invalidateAll();
+    unknownUserCache.invalidateAll();
+    roleCache.invalidateAll();
+  }
+
+  /**
+   * Hit, miss and eviction counts of the user cache.
+   */
+  public CacheStats getUserCacheStats() {
+    return userCache.stats();
+  }
+
+  /**
+   * Hit and miss counts of the cache of user names unknown to the back-end; a hit saved a back-end lookup.
+   */
+  public CacheStats getUnknownUserCacheStats() {
+    return unknownUserCache.stats();
+  }
+
+  /**
+   * Hit, miss and eviction counts of the role cache.
+   */
+  public CacheStats getRoleCacheStats() {
+    return roleCache.stats();
   }
 
   /**
    * {@inheritDoc}
    */
-  public synchronized boolean canReadPrincipal( final Session session, final Principal principalToRead ) {
+  public boolean canReadPrincipal( final Session session, final Principal principalToRead ) {
     checkInitialized();
     return true;
   }
@@ -181,8 +242,10 @@ public class SpringSecurityPrincipalProvider implements PrincipalProvider {
    * <p/>
    * <p> Attempts to load user using given {@code principalName} using a Pentaho {@code UserDetailsService}. If it fails
    * to find user, it returns a {@link Group} which will be caught by {@code SpringSecurityLoginModule}. </p>
+   * <p> Not synchronized: Jackrabbit calls this for every ACL evaluation and the caches are safe for concurrent use. A
+   * user looked up concurrently by several threads might be loaded more than once. </p>
    */
-  public synchronized Principal getPrincipal( final String principalName ) {
+  public Principal getPrincipal( final String principalName ) {
 
     if ( logger.isDebugEnabled() ) {
       logger.debug( "principalName: [" + principalName + "]" );
@@ -204,10 +267,8 @@ public class SpringSecurityPrincipalProvider implements PrincipalProvider {
 
       if ( JcrTenantUtils.isTenantedUser( principalName ) ) {
         // 1. then try the user cache
-        Principal userFromUserCache;
-        synchronized ( userCache ) {
-          userFromUserCache = (Principal) userCache.get( JcrTenantUtils.getTenantedUser( principalName ) );
-        }
+        final String tenantedUser = JcrTenantUtils.getTenantedUser( principalName );
+        Principal userFromUserCache = userCache.getIfPresent( tenantedUser );
         if ( userFromUserCache != null ) {
           if ( logger.isTraceEnabled() ) {
             logger.trace( "user " + principalName + " found in cache" ); //$NON-NLS-1$ //$NON-NLS-2$
@@ -218,22 +279,30 @@ public class SpringSecurityPrincipalProvider implements PrincipalProvider {
             logger.trace( "user " + principalName + " not found in cache" ); //$NON-NLS-1$ //$NON-NLS-2$
           }
         }
+        if ( unknownUserCache.getIfPresent( tenantedUser ) != null ) {
+          if ( logger.isTraceEnabled() ) {
+            logger.trace( "user " + principalName + " recently not found in back-end" ); //$NON-NLS-1$ //$NON-NLS-2$
+          }
+          return null;
+        }
 
         // 2. then try the springSecurityUserCache and, failing that, actual
         // back-end user lookup
         final UserDetails userDetails = internalGetUserDetails( principalName );
         if ( userDetails != null ) {
           final Principal user = new UserPrincipal( principalName );
-          synchronized ( userCache ) {
-            userCache.put( principalName, user );
-          }
+          userCache.put( tenantedUser, user );
           return user;
+        } else if ( getUserDetailsService() != null ) {
+          // only remember the absence once the back-end could actually be asked
+          unknownUserCache.put( tenantedUser, Boolean.TRUE );
         }
 
       } else if ( JcrTenantUtils.isTenatedRole( principalName ) ) {
 
         // 1. first try the role cache
-        final Principal roleFromCache = (Principal) roleCache.get( JcrTenantUtils.getTenantedRole( principalName ) );
+        final String tenantedRole = JcrTenantUtils.getTenantedRole( principalName );
+        final Principal roleFromCache = roleCache.getIfPresent( tenantedRole );
         if ( roleFromCache != null ) {
           if ( logger.isTraceEnabled() ) {
             logger.trace( "role " + principalName + " found in cache" ); //$NON-NLS-1$ //$NON-NLS-2$
@@ -251,8 +320,8 @@ public class SpringSecurityPrincipalProvider implements PrincipalProvider {
         // present--why look it up); finally, a Group returned
         // by this class will be caught in
         // SpringSecurityLoginModule.getPrincipal and the login will fail
-        final Principal roleToCache = createSpringSecurityRolePrincipal( principalName );
-        roleCache.put( principalName, roleToCache );
+        final Principal roleToCache = new SpringSecurityRolePrincipal( tenantedRole );
+        roleCache.put( tenantedRole, roleToCache );
         if ( logger.isTraceEnabled() ) {
           logger.trace( "assuming " + principalName + " is a role" ); //$NON-NLS-1$ //$NON-NLS-2$
         }
@@ -292,15 +361,12 @@ public class SpringSecurityPrincipalProvider implements PrincipalProvider {
       }
       for ( final GrantedAuthority role : user.getAuthorities() ) {
 
-        final String roleAuthority = role.getAuthority();
-        Principal fromCache;
-        synchronized ( roleCache ) {
-          fromCache = (Principal) roleCache.get( roleAuthority );
-        }
+        final String tenantedRole = JcrTenantUtils.getTenantedRole( role.getAuthority() );
+        Principal fromCache = roleCache.getIfPresent( tenantedRole );
         if ( fromCache != null ) {
           groups.add( fromCache );
         } else {
-          groups.add( createSpringSecurityRolePrincipal( roleAuthority ) );
+          groups.add( new SpringSecurityRolePrincipal( tenantedRole ) );
         }
       }
     }
@@ -361,11 +427,8 @@ public class SpringSecurityPrincipalProvider implements PrincipalProvider {
         for ( int i = 0; i < authorities.length; i++ ) {
           String role = authorities[ i ].getAuthority();
           final String tenatedRoleString = JcrTenantUtils.getTenantedRole( role );
-          synchronized ( roleCache ) {
-            if ( !roleCache.containsKey( role ) ) {
-              final SpringSecurityRolePrincipal ssRolePrincipal = new SpringSecurityRolePrincipal( tenatedRoleString );
-              roleCache.put( role, ssRolePrincipal );
-            }
+          if ( roleCache.getIfPresent( tenatedRoleString ) == null ) {
+            roleCache.put( tenatedRoleString, new SpringSecurityRolePrincipal( tenatedRoleString ) );
           }
           auths[ i ] = new GrantedAuthorityImpl( tenatedRoleString );
         }
@@ -461,8 +524,23 @@ public class SpringSecurityPrincipalProvider implements PrincipalProvider {
     }
   }
 
-  private SpringSecurityRolePrincipal createSpringSecurityRolePrincipal( String principal ) {
-    return new SpringSecurityRolePrincipal( JcrTenantUtils.getTenantedRole( principal ) );
+  private static <V> Cache<String, V> buildCache( final int maximumSize, final long ttlSeconds ) {
+    return CacheBuilder.newBuilder().maximumSize( maximumSize ).expireAfterWrite( ttlSeconds, TimeUnit.SECONDS )
+        .recordStats().build();
+  }
+
+  private int getIntOption( final Properties options, final String name, final int defaultValue ) {
+    String value = options.getProperty( name );
+    if ( value == null ) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt( value.trim() );
+    } catch ( NumberFormatException e ) {
+      logger.warn( String.format( "invalid value [%s] for option [%s], using [%d]", value, name, //$NON-NLS-1$
+          defaultValue ) );
+      return defaultValue;
+    }
   }
 
 }
@@ -56,6 +56,11 @@ import javax.jcr.Session;
 import javax.jcr.Workspace;
 import javax.jcr.security.AccessControlException;
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Default {@link IBackingRepositoryLifecycleManager} implementation.
@@ -64,6 +69,11 @@ import java.io.IOException;
  * <strong> Note: You must be careful when changing, overriding, or substituting this class. The configuration of
  * {@code DefaultPentahoJackrabbitAccessControlHelper} depends on the behavior of this class. </strong>
  * </p>
+ * <p>
+ * Users whose home folder has been found or created are remembered for {@link #setProvisionedUserTimeout(long)
+ * provisionedUserTimeout} milliseconds, so that their later logins do not go to the repository. Users are provisioned
+ * under one of a fixed set of locks chosen by their name, instead of a single lock for all of them.
+ * </p>
  * 
  * @author mlowery
  */
@@ -72,6 +82,12 @@ public class DefaultBackingRepositoryLifecycleManager extends AbstractBackingRep
   // ~ Static fields/initializers
   // ======================================================================================
 
+  private static final int LOCK_STRIPES = 64;
+
+  private static final long DEFAULT_PROVISIONED_USER_TIMEOUT = TimeUnit.MINUTES.toMillis( 30 );
+
+  private static final int DEFAULT_MAX_PROVISIONED_USERS = 10000;
+
   // ~ Instance fields
   // =================================================================================================
   IUserRoleDao userRoleDao;
@@ -96,6 +112,25 @@ public class DefaultBackingRepositoryLifecycleManager extends AbstractBackingRep
 
   private IPasswordService passwordService;
 
+  /**
+   * Users whose home folder is known to exist, mapped to the time it was last found or created.
+   */
+  private final ConcurrentMap<String, Long> provisionedUsers = new ConcurrentHashMap<String, Long>();
+
+  private final Object[] userLocks = new Object[LOCK_STRIPES];
+
+  private long provisionedUserTimeout = DEFAULT_PROVISIONED_USER_TIMEOUT;
+
+  private int maxProvisionedUsers = DEFAULT_MAX_PROVISIONED_USERS;
+
+  private final AtomicLong provisionedUserHits = new AtomicLong();
+
+  private final AtomicLong userProvisionCount = new AtomicLong();
+
+  private final AtomicLong userProvisionTime = new AtomicLong();
+
+  private final AtomicLong maxUserProvisionTime = new AtomicLong();
+
   // ~ Constructors
   // ====================================================================================================
 
@@ -120,7 +155,9 @@ public class DefaultBackingRepositoryLifecycleManager extends AbstractBackingRep
     this.tenantAnonymousRoleName = tenantAnonymousRoleName;
     this.systemTenantAdminPassword = systemTenantAdminPassword;
     this.passwordService = passwordService;
-
+    for ( int i = 0; i < userLocks.length; i++ ) {
+      userLocks[i] = new Object();
+    }
   }
 
   // ~ Methods
@@ -132,16 +169,84 @@ public class DefaultBackingRepositoryLifecycleManager extends AbstractBackingRep
   }
 
   @Override
-  public synchronized void newTenant( final ITenant tenant ) {
+  public void newTenant( final ITenant tenant ) {
   }
 
   @Override
-  public synchronized void newUser( final ITenant tenant, final String username ) {
-    if ( getTenantManager().getUserHomeFolder( tenant, username ) == null ) {
-      getTenantManager().createUserHomeFolder( tenant, username );
+  public void newUser( final ITenant tenant, final String username ) {
+    final String key = ( tenant == null ? "" : tenant.getId() ) + ":" + username; //$NON-NLS-1$ //$NON-NLS-2$
+    if ( isProvisioned( key ) ) {
+      provisionedUserHits.incrementAndGet();
+      return;
+    }
+    synchronized ( userLocks[( key.hashCode() & 0x7fffffff ) % userLocks.length] ) {
+      // another login of the same user may have provisioned it while we were waiting
+      if ( isProvisioned( key ) ) {
+        provisionedUserHits.incrementAndGet();
+        return;
+      }
+      long start = System.currentTimeMillis();
+      ITenantManager tenantMgr = getTenantManager();
+      if ( tenantMgr.getUserHomeFolder( tenant, username ) == null ) {
+        try {
+          tenantMgr.createUserHomeFolder( tenant, username );
+        } catch ( RuntimeException e ) {
+          // the first user of a tenant also creates the tenant home folder; another first-time user of the same
+          // tenant, provisioned under a different lock, may have created it at the same time. It exists now, so try
+          // once more, unless the home folder of this user is there after all
+          if ( logger.isDebugEnabled() ) {
+            logger.debug( "retrying to create the home folder of " + key, e ); //$NON-NLS-1$
+          }
+          if ( tenantMgr.getUserHomeFolder( tenant, username ) == null ) {
+            tenantMgr.createUserHomeFolder( tenant, username );
+          }
+        }
+      }
+      recordUserProvisioned( key, System.currentTimeMillis() - start );
+    }
+  }
+
+  private boolean isProvisioned( final String key ) {
+    Long provisioned = provisionedUsers.get( key );
+    return provisioned != null && System.currentTimeMillis() - provisioned < provisionedUserTimeout;
+  }
+
+  private void recordUserProvisioned( final String key, final long elapsed ) {
+    if ( provisionedUsers.size() >= maxProvisionedUsers ) {
+      // drop the users that would have to be checked again anyway; if that is not enough start over
+      long now = System.currentTimeMillis();
+      for ( Iterator<Long> it = provisionedUsers.values().iterator(); it.hasNext(); ) {
+        if ( now - it.next() >= provisionedUserTimeout ) {
+          it.remove();
+        }
+      }
+      if ( provisionedUsers.size() >= maxProvisionedUsers ) {
+        provisionedUsers.clear();
+      }
+    }
+    provisionedUsers.put( key, System.currentTimeMillis() );
+
+    userProvisionCount.incrementAndGet();
+    userProvisionTime.addAndGet( elapsed );
+    long max = maxUserProvisionTime.get();
+    while ( elapsed > max && !maxUserProvisionTime.compareAndSet( max, elapsed ) ) {
+      max = maxUserProvisionTime.get();
+    }
+    if ( logger.isDebugEnabled() ) {
+      logger.debug( "provisioned home folder for " + key //$NON-NLS-1$
+          + " in " + elapsed + " ms" ); //$NON-NLS-1$ //$NON-NLS-2$
     }
   }
 
+  /**
+   * Forgets which users have been provisioned, so that the home folder of each user is checked again on their next
+   * login. {@code JcrUserRoleDao} calls this when a user is deleted, so that a user created again with the same name
+   * gets a home folder even if the old one was removed as well.
+   */
+  public void clearProvisionedUsers() {
+    provisionedUsers.clear();
+  }
+
   @Override
   public void newTenant() {
     newTenant( JcrTenantUtils.getTenant() );
@@ -232,6 +337,54 @@ public class DefaultBackingRepositoryLifecycleManager extends AbstractBackingRep
     this.tenantManager = tenantManager;
   }
 
+  public long getProvisionedUserTimeout() {
+    return provisionedUserTimeout;
+  }
+
+  /**
+   * Sets how long (in milliseconds) a user whose home folder exists is not checked again on login. Zero checks the
+   * repository on every login.
+   */
+  public void setProvisionedUserTimeout( final long provisionedUserTimeout ) {
+    this.provisionedUserTimeout = provisionedUserTimeout;
+  }
+
+  public int getMaxProvisionedUsers() {
+    return maxProvisionedUsers;
+  }
+
+  public void setMaxProvisionedUsers( final int maxProvisionedUsers ) {
+    this.maxProvisionedUsers = maxProvisionedUsers;
+  }
+
+  /**
+   * @return the number of logins that skipped the repository because the user was already provisioned
+   */
+  public long getProvisionedUserHits() {
+    return provisionedUserHits.get();
+  }
+
+  /**
+   * @return the number of times a home folder was checked (and created if missing) in the repository
+   */
+  public long getUserProvisionCount() {
+    return userProvisionCount.get();
+  }
+
+  /**
+   * @return the total time (in milliseconds) spent checking and creating home folders
+   */
+  public long getUserProvisionTime() {
+    return userProvisionTime.get();
+  }
+
+  /**
+   * @return the longest time (in milliseconds) spent checking and creating a single home folder
+   */
+  public long getMaxUserProvisionTime() {
+    return maxUserProvisionTime.get();
+  }
+
   public IUserRoleDao getUserRoleDao() {
     return userRoleDao;
   }
@@ -21,6 +21,7 @@ package org.pentaho.platform.repository2.unified.spring;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.pentaho.platform.api.engine.ISecurityHelper;
+import org.pentaho.platform.api.mt.ITenant;
 import org.pentaho.platform.api.repository2.unified.IBackingRepositoryLifecycleManager;
 import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.engine.security.SecurityHelper;
@@ -77,38 +78,28 @@ public class BackingRepositoryLifecycleManagerAuthenticationSuccessListener impl
       final String principalName = aEvent.getAuthentication().getName();
 
       try {
+        // The tenant and user calls share a single system context; each of them runs even if another one fails
         getSecurityHelper().runAsSystem( new Callable<Void>() {
           @Override
           public Void call() throws Exception {
-            // Execute new tenant with the tenant id from the logged in user
-            lifecycleManager.newTenant( JcrTenantUtils.getTenant( principalName, true ) );
-            return null;
-          }
-        } );
-      } catch ( Exception e ) {
-        logger.error( e.getLocalizedMessage(), e );
-      }
-
-      try {
-        getSecurityHelper().runAsSystem( new Callable<Void>() {
-          @Override
-          public Void call() throws Exception {
-            // Execute new tenant with the tenant id from the logged in user
-            lifecycleManager.newUser( JcrTenantUtils.getTenant( principalName, true ), JcrTenantUtils.getPrincipalName(
-                principalName, true ) );
-            return null;
-          }
-        } );
-      } catch ( Exception e ) {
-        logger.error( e.getLocalizedMessage(), e );
-      }
-
-      try {
-        // The newTenant() call should be executed as the system (or more correctly the tenantAdmin)
-        getSecurityHelper().runAsSystem( new Callable<Void>() {
-          @Override
-          public Void call() throws Exception {
-            lifecycleManager.newTenant();
+            final ITenant tenant = JcrTenantUtils.getTenant( principalName, true );
+            try {
+              // Execute new tenant with the tenant id from the logged in user
+              lifecycleManager.newTenant( tenant );
+            } catch ( Exception e ) {
+              logger.error( e.getLocalizedMessage(), e );
+            }
+            try {
+              lifecycleManager.newUser( tenant, JcrTenantUtils.getPrincipalName( principalName, true ) );
+            } catch ( Exception e ) {
+              logger.error( e.getLocalizedMessage(), e );
+            }
+            try {
+              // The newTenant() call should be executed as the system (or more correctly the tenantAdmin)
+              lifecycleManager.newTenant();
+            } catch ( Exception e ) {
+              logger.error( e.getLocalizedMessage(), e );
+            }
             return null;
           }
         } );
@@ -18,8 +18,8 @@
 
 package org.pentaho.platform.security.policy.rolebased;
 
-import com.google.common.collect.HashMultimap;
-import org.apache.commons.collections.map.LRUMap;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.pentaho.platform.api.engine.IAuthorizationAction;
 import org.pentaho.platform.api.engine.security.userroledao.NotFoundException;
 import org.pentaho.platform.api.mt.ITenant;
@@ -42,6 +42,7 @@ import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Value;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -53,6 +54,7 @@ import java.util.Map.Entry;
 import java.util.ResourceBundle;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
 public abstract class AbstractJcrBackedRoleBindingDao implements IRoleAuthorizationPolicyRoleBindingDao {
 
@@ -72,11 +74,15 @@ public abstract class AbstractJcrBackedRoleBindingDao implements IRoleAuthorizat
   public static final String FOLDER_NAME_ROLEBASED = "roleBased"; //$NON-NLS-1$
 
   public static final String FOLDER_NAME_RUNTIMEROLES = "runtimeRoles"; //$NON-NLS-1$
+
+  private static final int MAX_CACHED_TENANTS = 1000;
+
   /**
-   * Key: runtime role name; value: list of logical role names
+   * Key: tenant id; value: all role bindings of the tenant, read from the repository in one pass
    */
-  @SuppressWarnings( "unchecked" )
-  protected Map boundLogicalRoleNamesCache = Collections.synchronizedMap( new LRUMap() );
+  private volatile Cache<String, RoleBindingSnapshot> roleBindingSnapshots = buildRoleBindingSnapshotCache( 0 );
+
+  private final Object roleBindingSnapshotRefreshLock = new Object();
 
   public AbstractJcrBackedRoleBindingDao(final Map<String, List<IAuthorizationAction>> immutableRoleBindings,
       final Map<String, List<String>> bootstrapRoleBindings, final String superAdminRoleName,
@@ -108,6 +114,45 @@ public abstract class AbstractJcrBackedRoleBindingDao implements IRoleAuthorizat
 
   public List<String> getBoundLogicalRoleNames( Session session, List<String> runtimeRoleNames )
     throws NamespaceException, RepositoryException {
+    return internalGetBoundLogicalRoleNames( session, runtimeRoleNames );
+  }
+
+  public List<String> getBoundLogicalRoleNames( Session session, ITenant tenant, List<String> runtimeRoleNames )
+    throws NamespaceException, RepositoryException {
+    return internalGetBoundLogicalRoleNames( session, tenant, runtimeRoleNames );
+  }
+
+  /**
+   * Returns the bound logical role names if the bindings of all the tenants involved are cached, {@code null}
+   * otherwise. Allows callers to skip opening a repository session.
+   */
+  protected List<String> getCachedBoundLogicalRoleNames( List<String> runtimeRoleNames ) {
+    try {
+      return internalGetBoundLogicalRoleNames( null, runtimeRoleNames );
+    } catch ( RepositoryException e ) {
+      // not thrown without a session
+      return null;
+    }
+  }
+
+  /**
+   * @see #getCachedBoundLogicalRoleNames(List)
+   */
+  protected List<String> getCachedBoundLogicalRoleNames( ITenant tenant, List<String> runtimeRoleNames ) {
+    try {
+      return internalGetBoundLogicalRoleNames( null, tenant, runtimeRoleNames );
+    } catch ( RepositoryException e ) {
+      // not thrown without a session
+      return null;
+    }
+  }
+
+  /**
+   * @param session session used to read the bindings of tenants which are not cached yet; if {@code null}, such
+   *                tenants make this method return {@code null}
+   */
+  private List<String> internalGetBoundLogicalRoleNames( Session session, List<String> runtimeRoleNames )
+    throws RepositoryException {
     Set<String> boundRoleNames = new HashSet<String>();
     HashMap<ITenant, List<String>> tenantMap = new HashMap<ITenant, List<String>>();
     boolean includeSuperAdminLogicalRoles = false;
@@ -125,7 +170,12 @@ public abstract class AbstractJcrBackedRoleBindingDao implements IRoleAuthorizat
       }
     }
     for ( Map.Entry<ITenant, List<String>> mapEntry : tenantMap.entrySet() ) {
-      boundRoleNames.addAll( getBoundLogicalRoleNames( session, mapEntry.getKey(), mapEntry.getValue() ) );
+      List<String> tenantBoundRoleNames =
+          internalGetBoundLogicalRoleNames( session, mapEntry.getKey(), mapEntry.getValue() );
+      if ( tenantBoundRoleNames == null ) {
+        return null;
+      }
+      boundRoleNames.addAll( tenantBoundRoleNames );
     }
     if ( includeSuperAdminLogicalRoles ) {
       boundRoleNames.addAll( immutableRoleBindingNames.get( superAdminRoleName ) );
@@ -133,83 +183,99 @@ public abstract class AbstractJcrBackedRoleBindingDao implements IRoleAuthorizat
     return new ArrayList<String>( boundRoleNames );
   }
 
-  public List<String> getBoundLogicalRoleNames( Session session, ITenant tenant, List<String> runtimeRoleNames )
-    throws NamespaceException, RepositoryException {
+  private List<String> internalGetBoundLogicalRoleNames( Session session, ITenant tenant,
+      List<String> runtimeRoleNames ) throws RepositoryException {
     if ( ( tenant == null ) || ( tenant.getId() == null ) ) {
-      return getBoundLogicalRoleNames( session, runtimeRoleNames );
+      return internalGetBoundLogicalRoleNames( session, runtimeRoleNames );
     }
 
     if ( !TenantUtils.isAccessibleTenant( tenant ) ) {
       return new ArrayList<String>();
     }
 
-    final List<String> uncachedRuntimeRoleNames = new ArrayList<String>();
-    final Set<String> cachedBoundLogicalRoleNames = new HashSet<String>();
-    for ( String runtimeRoleName : runtimeRoleNames ) {
-      String roleName = tenantedRoleNameUtils.getPrincipleName( runtimeRoleName );
-      String roleId = tenantedRoleNameUtils.getPrincipleId( tenant, runtimeRoleName );
-      if ( boundLogicalRoleNamesCache.containsKey( roleId ) ) {
-        cachedBoundLogicalRoleNames.addAll( (Collection<String>) boundLogicalRoleNamesCache.get( roleId ) );
-      } else {
-        uncachedRuntimeRoleNames.add( roleName );
+    RoleBindingSnapshot snapshot = roleBindingSnapshots.getIfPresent( tenant.getId() );
+    if ( snapshot == null ) {
+      if ( session == null ) {
+        return null;
+      }
+      snapshot = loadRoleBindingSnapshot( session, tenant );
+      // a snapshot published concurrently by setRoleBindings is at least as recent as this one
+      RoleBindingSnapshot existing = roleBindingSnapshots.asMap().putIfAbsent( tenant.getId(), snapshot );
+      if ( existing != null ) {
+        snapshot = existing;
       }
     }
-    if ( uncachedRuntimeRoleNames.isEmpty() ) {
-      // no need to hit the repo
-      return new ArrayList<String>( cachedBoundLogicalRoleNames );
+
+    List<String> roleNames = new ArrayList<String>( runtimeRoleNames.size() );
+    for ( String runtimeRoleName : runtimeRoleNames ) {
+      roleNames.add( tenantedRoleNameUtils.getPrincipleName( runtimeRoleName ) );
     }
+    return snapshot.getBoundLogicalRoleNames( roleNames );
+  }
 
+  /**
+   * Reads all role bindings of the given tenant. Falls back on the bootstrap bindings if none have been set up yet and
+   * adds the immutable bindings.
+   */
+  protected RoleBindingSnapshot loadRoleBindingSnapshot( Session session, ITenant tenant )
+    throws RepositoryException {
     PentahoJcrConstants pentahoJcrConstants = new PentahoJcrConstants( session );
     final String phoNsPrefix = session.getNamespacePrefix( PentahoJcrConstants.PHO_NS ) + ":"; //$NON-NLS-1$
     final String onlyPentahoPattern = phoNsPrefix + "*"; //$NON-NLS-1$
-    HashMultimap<String, String> boundLogicalRoleNames = HashMultimap.create();
+    Map<String, Set<String>> boundLogicalRoleNames = new HashMap<String, Set<String>>();
     Node runtimeRolesFolderNode = getRuntimeRolesFolderNode( session, tenant );
     NodeIterator runtimeRoleNodes = runtimeRolesFolderNode.getNodes( onlyPentahoPattern );
     if ( !runtimeRoleNodes.hasNext() ) {
       // no bindings setup yet; fall back on bootstrap bindings
-      for ( String runtimeRoleName : uncachedRuntimeRoleNames ) {
-        String roleId = tenantedRoleNameUtils.getPrincipleId( tenant, runtimeRoleName );
-        if ( bootstrapRoleBindings.containsKey( runtimeRoleName ) ) {
-          boundLogicalRoleNames.putAll( roleId, bootstrapRoleBindings.get( runtimeRoleName ) );
-        }
+      for ( Map.Entry<String, List<String>> entry : bootstrapRoleBindings.entrySet() ) {
+        addBindings( boundLogicalRoleNames, entry.getKey(), entry.getValue() );
       }
     } else {
-      for ( String runtimeRoleName : uncachedRuntimeRoleNames ) {
-        if ( NodeHelper.hasNode( runtimeRolesFolderNode, phoNsPrefix , runtimeRoleName ) ) {
-          Node runtimeRoleFolderNode = NodeHelper.getNode( runtimeRolesFolderNode, phoNsPrefix , runtimeRoleName );
-          if ( runtimeRoleFolderNode.hasProperty( pentahoJcrConstants.getPHO_BOUNDROLES() ) ) {
-            Value[] values = runtimeRoleFolderNode.getProperty( pentahoJcrConstants.getPHO_BOUNDROLES() ).getValues();
-            String roleId = tenantedRoleNameUtils.getPrincipleId( tenant, runtimeRoleName );
-            for ( Value value : values ) {
-              boundLogicalRoleNames.put( roleId, value.getString() );
-            }
+      while ( runtimeRoleNodes.hasNext() ) {
+        Node runtimeRoleNode = runtimeRoleNodes.nextNode();
+        if ( runtimeRoleNode.hasProperty( pentahoJcrConstants.getPHO_BOUNDROLES() ) ) {
+          String runtimeRoleName =
+              JcrStringHelper.fileNameDecode( runtimeRoleNode.getName().substring( phoNsPrefix.length() ) );
+          List<String> logicalRoleNames = new ArrayList<String>();
+          for ( Value value : runtimeRoleNode.getProperty( pentahoJcrConstants.getPHO_BOUNDROLES() ).getValues() ) {
+            logicalRoleNames.add( value.getString() );
           }
+          addBindings( boundLogicalRoleNames, runtimeRoleName, logicalRoleNames );
         }
       }
     }
     // now add in immutable bound logical role names
-    for ( String runtimeRoleName : uncachedRuntimeRoleNames ) {
-      if ( immutableRoleBindings.containsKey( runtimeRoleName ) ) {
-        String roleId = tenantedRoleNameUtils.getPrincipleId( tenant, runtimeRoleName );
-        boundLogicalRoleNames.putAll( roleId, immutableRoleBindingNames.get( runtimeRoleName ) );
-      }
+    for ( Map.Entry<String, List<String>> entry : immutableRoleBindingNames.entrySet() ) {
+      addBindings( boundLogicalRoleNames, entry.getKey(), entry.getValue() );
     }
+    return new RoleBindingSnapshot( boundLogicalRoleNames );
+  }
 
-    // update cache
-    boundLogicalRoleNamesCache.putAll( boundLogicalRoleNames.asMap() );
-    // now add in those runtime roles that have no bindings to the cache
-    for ( String runtimeRoleName : uncachedRuntimeRoleNames ) {
-      String roleId = tenantedRoleNameUtils.getPrincipleId( tenant, runtimeRoleName );
-      if ( !boundLogicalRoleNamesCache.containsKey( roleId ) ) {
-        boundLogicalRoleNamesCache.put( roleId, Collections.emptyList() );
-      }
+  private static void addBindings( Map<String, Set<String>> bindings, String runtimeRoleName,
+      Collection<String> logicalRoleNames ) {
+    Set<String> names = bindings.get( runtimeRoleName );
+    if ( names == null ) {
+      names = new HashSet<String>();
+      bindings.put( runtimeRoleName, names );
     }
+    names.addAll( logicalRoleNames );
+  }
 
-    // combine cached findings plus ones from repo
-    Set<String> res = new HashSet<String>();
-    res.addAll( cachedBoundLogicalRoleNames );
-    res.addAll( boundLogicalRoleNames.values() );
-    return new ArrayList<String>( res );
+  /**
+   * Seconds after which the role bindings of a tenant are read from the repository again; only needed if bindings can
+   * be changed other than through this instance (e.g. by another server sharing the repository). Defaults to
+   * {@code 0}, never.
+   */
+  public void setRoleBindingCacheTtlSeconds( final long roleBindingCacheTtlSeconds ) {
+    roleBindingSnapshots = buildRoleBindingSnapshotCache( roleBindingCacheTtlSeconds );
+  }
+
+  private static Cache<String, RoleBindingSnapshot> buildRoleBindingSnapshotCache( final long ttlSeconds ) {
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().maximumSize( MAX_CACHED_TENANTS );
+    if ( ttlSeconds > 0 ) {
+      builder.expireAfterWrite( ttlSeconds, TimeUnit.SECONDS );
+    }
+    return builder.build();
   }
 
   public void setRoleBindings( Session session, ITenant tenant, String runtimeRoleName, List<String> logicalRoleNames )
@@ -251,9 +317,11 @@ public abstract class AbstractJcrBackedRoleBindingDao implements IRoleAuthorizat
     session.save();
     Assert.isTrue( NodeHelper.hasNode( runtimeRolesFolderNode, phoNsPrefix, runtimeRoleName ) );
 
-    // update cache
-    String roleId = tenantedRoleNameUtils.getPrincipleId( tenant, runtimeRoleName );
-    boundLogicalRoleNamesCache.put( roleId, logicalRoleNames );
+    // update cache; reading the bindings under the lock guarantees the last published snapshot was read after every
+    // save that happened before it
+    synchronized ( roleBindingSnapshotRefreshLock ) {
+      roleBindingSnapshots.put( tenant.getId(), loadRoleBindingSnapshot( session, tenant ) );
+    }
   }
 
   private String getPrincipalName( String principalId ) {
@@ -333,4 +401,51 @@ public abstract class AbstractJcrBackedRoleBindingDao implements IRoleAuthorizat
     Node roleBasedFolderNode = authzFolderNode.getNode( FOLDER_NAME_ROLEBASED );
     return roleBasedFolderNode.getNode( FOLDER_NAME_RUNTIMEROLES );
   }
+
+  /**
+   * Immutable role bindings of one tenant. Each runtime role maps to a bit set over the logical role names, so
+   * resolving the logical roles of a user is a union of bit sets.
+   */
+  protected static final class RoleBindingSnapshot {
+
+    private final List<String> logicalRoleNames;
+
+    private final Map<String, BitSet> boundLogicalRoles;
+
+    RoleBindingSnapshot( final Map<String, ? extends Collection<String>> bindings ) {
+      Map<String, Integer> indexes = new HashMap<String, Integer>();
+      List<String> names = new ArrayList<String>();
+      Map<String, BitSet> bound = new HashMap<String, BitSet>();
+      for ( Map.Entry<String, ? extends Collection<String>> entry : bindings.entrySet() ) {
+        BitSet bits = new BitSet();
+        for ( String logicalRoleName : entry.getValue() ) {
+          Integer index = indexes.get( logicalRoleName );
+          if ( index == null ) {
+            index = names.size();
+            indexes.put( logicalRoleName, index );
+            names.add( logicalRoleName );
+          }
+          bits.set( index );
+        }
+        bound.put( entry.getKey(), bits );
+      }
+      this.logicalRoleNames = Collections.unmodifiableList( names );
+      this.boundLogicalRoles = Collections.unmodifiableMap( bound );
+    }
+
+    List<String> getBoundLogicalRoleNames( final Collection<String> runtimeRoleNames ) {
+      BitSet bits = new BitSet( logicalRoleNames.size() );
+      for ( String runtimeRoleName : runtimeRoleNames ) {
+        BitSet bound = boundLogicalRoles.get( runtimeRoleName );
+        if ( bound != null ) {
+          bits.or( bound );
+        }
+      }
+      List<String> result = new ArrayList<String>( bits.cardinality() );
+      for ( int i = bits.nextSetBit( 0 ); i >= 0; i = bits.nextSetBit( i + 1 ) ) {
+        result.add( logicalRoleNames.get( i ) );
+      }
+      return result;
+    }
+  }
 }
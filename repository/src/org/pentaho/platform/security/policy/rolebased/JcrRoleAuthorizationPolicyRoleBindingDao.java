@@ -147,7 +147,11 @@ public class JcrRoleAuthorizationPolicyRoleBindingDao extends AbstractJcrBackedR
   @Override
   @SuppressWarnings( "unchecked" )
   public List<String> getBoundLogicalRoleNames( final List<String> runtimeRoleNames ) {
-    // what runtimeRoleNames are in the cache; we don't need to fetch them
+    // no need to open a session if the bindings are cached
+    List<String> cached = getCachedBoundLogicalRoleNames( runtimeRoleNames );
+    if ( cached != null ) {
+      return cached;
+    }
     return (List<String>) jcrTemplate.execute( new JcrCallback() {
       @Override
       public Object doInJcr( final Session session ) throws RepositoryException, IOException {
@@ -161,7 +165,11 @@ public class JcrRoleAuthorizationPolicyRoleBindingDao extends AbstractJcrBackedR
     if ( ( tenant != null ) && !TenantUtils.isAccessibleTenant( tenant ) ) {
       return new ArrayList<String>();
     }
-    // what runtimeRoleNames are in the cache; we don't need to fetch them
+    // no need to open a session if the bindings are cached
+    List<String> cached = getCachedBoundLogicalRoleNames( tenant, runtimeRoleNames );
+    if ( cached != null ) {
+      return cached;
+    }
     return (List<String>) jcrTemplate.execute( new JcrCallback() {
       @Override
       public Object doInJcr( final Session session ) throws RepositoryException, IOException {
@@ -30,11 +30,14 @@ import org.pentaho.platform.api.engine.security.userroledao.UncategorizedUserRol
 import org.pentaho.platform.api.mt.ITenant;
 import org.pentaho.platform.api.mt.ITenantedPrincipleNameResolver;
 import org.pentaho.platform.api.repository2.unified.IRepositoryDefaultAclHandler;
+import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
+import org.pentaho.platform.engine.core.system.PentahoSystem;
 import org.pentaho.platform.repository2.unified.IRepositoryFileAclDao;
 import org.pentaho.platform.repository2.unified.IRepositoryFileDao;
 import org.pentaho.platform.repository2.unified.jcr.ILockHelper;
 import org.pentaho.platform.repository2.unified.jcr.IPathConversionHelper;
 import org.pentaho.platform.repository2.unified.jcr.JcrTenantUtils;
+import org.pentaho.platform.repository2.unified.lifecycle.DefaultBackingRepositoryLifecycleManager;
 import org.pentaho.platform.security.userroledao.messages.Messages;
 import org.springframework.dao.DataAccessException;
 import org.springframework.extensions.jcr.JcrCallback;
@@ -178,6 +181,7 @@ public class JcrUserRoleDao extends AbstractJcrBackedUserRoleDao {
           return null;
         }
       } );
+      forgetProvisionedUsers();
     } catch ( DataAccessException e ) {
       if ( ( e instanceof JcrSystemException ) && ( e.getCause() instanceof NotFoundException ) ) {
         throw (NotFoundException) e.getCause();
@@ -187,6 +191,19 @@ public class JcrUserRoleDao extends AbstractJcrBackedUserRoleDao {
     }
   }
 
+  /**
+   * The lifecycle manager remembers which users have a home folder. A user created again with the name of a deleted
+   * one must be checked again, since the old home folder may have been removed in the meantime.
+   */
+  private void forgetProvisionedUsers() {
+    DefaultBackingRepositoryLifecycleManager lifecycleManager =
+        PentahoSystem.get( DefaultBackingRepositoryLifecycleManager.class,
+            "defaultBackingRepositoryLifecycleManager", PentahoSessionHolder.getSession() ); //$NON-NLS-1$
+    if ( lifecycleManager != null ) {
+      lifecycleManager.clearProvisionedUsers();
+    }
+  }
+
   @Override
   public List<IPentahoRole> getRoles() throws UncategorizedUserRoleDaoException {
     return getRoles( JcrTenantUtils.getTenant() );
@@ -0,0 +1,167 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2014 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.apache.jackrabbit.core.security.authorization.acl;
+
+import org.apache.jackrabbit.core.ItemManager;
+import org.apache.jackrabbit.core.NodeImpl;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.security.authorization.AccessControlListener;
+import org.apache.jackrabbit.core.security.authorization.AccessControlModifications;
+import org.apache.jackrabbit.core.security.authorization.AccessControlObserver;
+import org.apache.jackrabbit.core.security.authorization.AccessControlUtils;
+import org.apache.jackrabbit.core.security.authorization.PrivilegeBits;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import javax.jcr.RepositoryException;
+import java.security.Principal;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@SuppressWarnings( { "nls", "unchecked", "rawtypes" } )
+public class PentahoACLProviderTest {
+
+  private static final String MAX_COMPILED_PERMISSIONS =
+      "org.apache.jackrabbit.core.security.authorization.acl.PentahoACLProvider.maxCompiledPermissions";
+
+  private final Set<AccessControlListener> listeners = new HashSet<AccessControlListener>();
+
+  private SessionImpl session;
+
+  private PentahoEntryCollector entryCollector;
+
+  private AccessControlUtils util;
+
+  private NodeId nodeId;
+
+  private NodeImpl node;
+
+  private PentahoEntry readEntry;
+
+  private PentahoACLProvider provider;
+
+  @Before
+  public void setUp() throws Exception {
+    session = mock( SessionImpl.class );
+    ItemManager itemManager = mock( ItemManager.class );
+    when( session.getItemManager() ).thenReturn( itemManager );
+    nodeId = NodeId.randomId();
+    node = mock( NodeImpl.class );
+    when( node.getPath() ).thenReturn( "/pentaho/tenant0/home/suzy/report.prpt" );
+    when( itemManager.getItem( nodeId ) ).thenReturn( node );
+    util = mock( AccessControlUtils.class );
+
+    PrivilegeBits readBits = mock( PrivilegeBits.class );
+    when( readBits.includesRead() ).thenReturn( true );
+    readEntry = mock( PentahoEntry.class );
+    when( readEntry.getPrivilegeBits() ).thenReturn( readBits );
+    when( readEntry.isAllow() ).thenReturn( true );
+
+    entryCollector = mock( PentahoEntryCollector.class );
+    when( entryCollector.collectEntries( eq( node ), any( EntryFilter.class ) ) ).thenReturn(
+        Collections.singletonList( readEntry ) );
+    doAnswer( new Answer<Object>() {
+      @Override
+      public Object answer( InvocationOnMock invocation ) throws Throwable {
+        listeners.add( (AccessControlListener) invocation.getArguments()[0] );
+        return null;
+      }
+    } ).when( entryCollector ).addListener( any( AccessControlListener.class ) );
+    doAnswer( new Answer<Object>() {
+      @Override
+      public Object answer( InvocationOnMock invocation ) throws Throwable {
+        listeners.remove( invocation.getArguments()[0] );
+        return null;
+      }
+    } ).when( entryCollector ).removeListener( any( AccessControlListener.class ) );
+
+    System.setProperty( MAX_COMPILED_PERMISSIONS, "1" );
+    provider = new PentahoACLProvider() {
+      @Override
+      protected PentahoCompiledPermissionsImpl createCompiledPermissions( Set<Principal> principals )
+        throws RepositoryException {
+        return new PentahoCompiledPermissionsImpl( principals, session, entryCollector, util, true, true );
+      }
+    };
+  }
+
+  @After
+  public void tearDown() {
+    System.clearProperty( MAX_COMPILED_PERMISSIONS );
+  }
+
+  @Test
+  public void testEvictedPermissionsHeldBySessionSeeRevokedAcl() throws Exception {
+    PentahoCompiledPermissionsImpl suzy = provider.getCompiledPermissions( principals( "suzy" ) );
+    assertTrue( suzy.canRead( null, nodeId ) );
+
+    // a second principal set evicts the first, which the session of suzy still holds
+    PentahoCompiledPermissionsImpl tiffany = provider.getCompiledPermissions( principals( "tiffany" ) );
+    assertTrue( listeners.contains( suzy ) );
+
+    // the ACL of the node is revoked
+    when( readEntry.isAllow() ).thenReturn( false );
+    AccessControlModifications modifications = mock( AccessControlModifications.class );
+    when( modifications.getNodeIdentifiers() ).thenReturn( (Set) Collections.singleton( nodeId ) );
+    when( modifications.getType( nodeId ) ).thenReturn( AccessControlObserver.POLICY_MODIFIED );
+    for ( AccessControlListener listener : new HashSet<AccessControlListener>( listeners ) ) {
+      listener.acModified( modifications );
+    }
+
+    assertFalse( suzy.canRead( null, nodeId ) );
+
+    // the instance is disposed of once the last session holding it logs out
+    suzy.close();
+    assertFalse( listeners.contains( suzy ) );
+    assertTrue( listeners.contains( tiffany ) );
+  }
+
+  @Test
+  public void testCachedPermissionsSurviveLogoutOfOneSession() throws Exception {
+    PentahoCompiledPermissionsImpl first = provider.getCompiledPermissions( principals( "suzy" ) );
+    PentahoCompiledPermissionsImpl second = provider.getCompiledPermissions( principals( "suzy" ) );
+    assertTrue( first == second );
+
+    first.close();
+    second.close();
+    // still handed out by the provider, so it keeps listening even though no session holds it
+    assertTrue( listeners.contains( first ) );
+
+    provider.getCompiledPermissions( principals( "tiffany" ) );
+    assertFalse( listeners.contains( first ) );
+  }
+
+  private static Set<Principal> principals( String name ) {
+    Principal principal = mock( Principal.class );
+    when( principal.getName() ).thenReturn( name );
+    return Collections.singleton( principal );
+  }
+}
@@ -292,4 +292,136 @@ public class UserSettingServiceTest {
 
     verify( repository ).setFileMetadata( eq( TENANT_FOLDER_ID ), anyMap() );
   }
+
+  @Test
+  public void testUserSettingsAreReadOncePerSession() throws Exception {
+    keepSessionAttributes();
+    when( session.getAttribute( eq( "SPRING_SECURITY_CONTEXT" ) ) ).thenReturn( 1 );
+
+    assertEquals( USER_SETTING_VALUE_3, userSettingService.getUserSetting( USER_SETTING_NAME_3, "" )
+        .getSettingValue() );
+    assertEquals( GLOBAL_SETTING_VALUE_3, userSettingService.getUserSetting( GLOBAL_SETTING_NAME_3, "" )
+        .getSettingValue() );
+    assertEquals( 3, userSettingService.getUserSettings().size() );
+
+    verify( repository, times( 1 ) ).getFileMetadata( eq( USER_FOLDER_ID ) );
+    verify( repository, times( 1 ) ).getFileMetadata( eq( TENANT_FOLDER_ID ) );
+
+    // a changed setting is seen by the session without reading it again
+    userSettingService.setUserSetting( USER_SETTING_NAME_3, "changed" );
+    assertEquals( "changed", userSettingService.getUserSetting( USER_SETTING_NAME_3, "" ).getSettingValue() );
+  }
+
+  @Test
+  public void testUserSettingsChangedElsewhereAreReadAfterTimeout() throws Exception {
+    keepSessionAttributes();
+    when( session.getAttribute( eq( "SPRING_SECURITY_CONTEXT" ) ) ).thenReturn( 1 );
+    assertEquals( USER_SETTING_VALUE_3, userSettingService.getUserSetting( USER_SETTING_NAME_3, "" )
+        .getSettingValue() );
+
+    // another session of the same user changes the setting
+    userSettings.put( UserSettingService.SETTING_PREFIX + USER_SETTING_NAME_3, "elsewhere" );
+    assertEquals( USER_SETTING_VALUE_3, userSettingService.getUserSetting( USER_SETTING_NAME_3, "" )
+        .getSettingValue() );
+
+    userSettingService.setSettingsTimeout( 0 );
+    assertEquals( "elsewhere", userSettingService.getUserSetting( USER_SETTING_NAME_3, "" ).getSettingValue() );
+  }
+
+  @Test
+  public void testFailedWriteReachesCaller() throws Exception {
+    keepSessionAttributes();
+    when( session.getAttribute( eq( "SPRING_SECURITY_CONTEXT" ) ) ).thenReturn( 1 );
+    doThrow( new RuntimeException( "repository down" ) ).when( repository ).setFileMetadata( eq( USER_FOLDER_ID ),
+        anyMap() );
+    userSettingService.getUserSettings();
+
+    try {
+      userSettingService.setUserSetting( USER_SETTING_NAME_3, "changed" );
+      fail( "a failed write must be reported" );
+    } catch ( IllegalStateException e ) {
+      // expected
+    }
+    // the session does not see a setting that was not stored
+    assertEquals( USER_SETTING_VALUE_3, userSettingService.getUserSetting( USER_SETTING_NAME_3, "" )
+        .getSettingValue() );
+  }
+
+  @Test
+  public void testGlobalSettingsAreSharedAndUpdated() throws Exception {
+    when( securityHelper.isPentahoAdministrator( eq( session ) ) ).thenReturn( true );
+
+    assertEquals( 2, userSettingService.getGlobalUserSettings().size() );
+    userSettingService.setGlobalUserSetting( GLOBAL_SETTING_NAME_3, "changed" );
+    assertEquals( "changed", userSettingService.getGlobalUserSetting( GLOBAL_SETTING_NAME_3, "" ).getSettingValue() );
+    assertEquals( 2, userSettingService.getGlobalUserSettings().size() );
+
+    // only the write reads the folder again
+    verify( repository, times( 2 ) ).getFileMetadata( eq( TENANT_FOLDER_ID ) );
+
+    userSettingService.setSettingsTimeout( 0 );
+    userSettingService.getGlobalUserSettings();
+    verify( repository, times( 3 ) ).getFileMetadata( eq( TENANT_FOLDER_ID ) );
+  }
+
+  @Test
+  public void testWriteBehindCoalescesWrites() throws Exception {
+    keepSessionAttributes();
+    userSettingService.setWriteBehindDelay( 60000 );
+
+    userSettingService.setUserSetting( "first", "1" );
+    userSettingService.setUserSetting( "second", "2" );
+    userSettingService.setUserSetting( "first", "3" );
+    verify( repository, never() ).setFileMetadata( any( Serializable.class ), anyMap() );
+
+    // pending settings are visible before they are written
+    when( session.getAttribute( eq( "SPRING_SECURITY_CONTEXT" ) ) ).thenReturn( 1 );
+    assertEquals( "3", userSettingService.getUserSetting( "first", "" ).getSettingValue() );
+
+    userSettingService.flush();
+    verify( repository, times( 1 ) ).setFileMetadata( eq( USER_FOLDER_ID ), anyMap() );
+    assertEquals( "3", userSettings.get( UserSettingService.SETTING_PREFIX + "first" ) );
+    assertEquals( "2", userSettings.get( UserSettingService.SETTING_PREFIX + "second" ) );
+
+    userSettingService.shutdown();
+    verify( repository, times( 1 ) ).setFileMetadata( eq( USER_FOLDER_ID ), anyMap() );
+  }
+
+  @Test
+  public void testFailedWriteBehindIsKeptAndReported() throws Exception {
+    keepSessionAttributes();
+    userSettingService.setWriteBehindDelay( 60000 );
+    doThrow( new RuntimeException( "repository down" ) ).doNothing().when( repository ).setFileMetadata(
+        eq( USER_FOLDER_ID ), anyMap() );
+
+    userSettingService.setUserSetting( "first", "1" );
+    try {
+      userSettingService.flush();
+      fail( "a failed write must be reported" );
+    } catch ( IllegalStateException e ) {
+      // expected
+    }
+
+    userSettingService.flush();
+    verify( repository, times( 2 ) ).setFileMetadata( eq( USER_FOLDER_ID ), anyMap() );
+    assertEquals( "1", userSettings.get( UserSettingService.SETTING_PREFIX + "first" ) );
+    userSettingService.shutdown();
+  }
+
+  private void keepSessionAttributes() {
+    final Map<String, Object> attributes = new HashMap<String, Object>();
+    doAnswer( new Answer<Object>() {
+      @Override
+      public Object answer( InvocationOnMock invocation ) throws Throwable {
+        attributes.put( (String) invocation.getArguments()[0], invocation.getArguments()[1] );
+        return null;
+      }
+    } ).when( session ).setAttribute( anyString(), any() );
+    when( session.getAttribute( anyString() ) ).thenAnswer( new Answer<Object>() {
+      @Override
+      public Object answer( InvocationOnMock invocation ) throws Throwable {
+        return attributes.get( invocation.getArguments()[0] );
+      }
+    } );
+  }
 }
@@ -0,0 +1,136 @@
+/*!
+ * This program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU Lesser General Public License, version 2.1 as published by the Free Software
+ * Foundation.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along with this
+ * program; if not, you can obtain a copy at http://www.gnu.org/licenses/old-licenses/lgpl-2.1.html
+ * or from the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU Lesser General Public License for more details.
+ *
+ * Copyright (c) 2002-2013 Pentaho Corporation..  All rights reserved.
+ */
+
+package org.pentaho.platform.repository2.unified.lifecycle;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.pentaho.platform.api.mt.ITenant;
+import org.pentaho.platform.api.mt.ITenantManager;
+import org.pentaho.platform.api.repository2.unified.RepositoryFile;
+import org.pentaho.platform.core.mt.Tenant;
+import org.pentaho.platform.repository2.unified.IRepositoryFileAclDao;
+import org.pentaho.platform.repository2.unified.IRepositoryFileDao;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class DefaultBackingRepositoryLifecycleManagerTest {
+  private static final ITenant TENANT = new Tenant( "/pentaho/tenant0", true );
+
+  private ITenantManager tenantManager;
+
+  private DefaultBackingRepositoryLifecycleManager manager;
+
+  @Before
+  public void setUp() {
+    tenantManager = mock( ITenantManager.class );
+    manager =
+        new DefaultBackingRepositoryLifecycleManager( mock( IRepositoryFileDao.class ),
+            mock( IRepositoryFileAclDao.class ), mock( TransactionTemplate.class ), "admin", "system", "password",
+            "Administrator", "Authenticated", "Anonymous", null, null, null );
+    manager.setTenantManager( tenantManager );
+  }
+
+  @Test
+  public void testNewUserCreatesMissingHomeFolderOnce() {
+    manager.newUser( TENANT, "joe" );
+    manager.newUser( TENANT, "joe" );
+    manager.newUser( TENANT, "joe" );
+
+    verify( tenantManager, times( 1 ) ).getUserHomeFolder( TENANT, "joe" );
+    verify( tenantManager, times( 1 ) ).createUserHomeFolder( TENANT, "joe" );
+    assertEquals( 1, manager.getUserProvisionCount() );
+    assertEquals( 2, manager.getProvisionedUserHits() );
+  }
+
+  @Test
+  public void testNewUserDoesNotCreateExistingHomeFolder() {
+    when( tenantManager.getUserHomeFolder( TENANT, "suzy" ) ).thenReturn(
+        new RepositoryFile.Builder( "suzy" ).folder( true ).build() );
+
+    manager.newUser( TENANT, "suzy" );
+    manager.newUser( TENANT, "suzy" );
+
+    verify( tenantManager, times( 1 ) ).getUserHomeFolder( TENANT, "suzy" );
+    verify( tenantManager, never() ).createUserHomeFolder( TENANT, "suzy" );
+  }
+
+  @Test
+  public void testUsersAreProvisionedSeparately() {
+    manager.newUser( TENANT, "joe" );
+    manager.newUser( TENANT, "suzy" );
+    manager.newUser( new Tenant( "/pentaho/tenant1", true ), "joe" );
+
+    verify( tenantManager, times( 3 ) ).createUserHomeFolder( any( ITenant.class ), anyString() );
+    assertEquals( 3, manager.getUserProvisionCount() );
+    assertEquals( 0, manager.getProvisionedUserHits() );
+  }
+
+  @Test
+  public void testHomeFolderCreationRetriedAfterConflict() {
+    // another first-time user of the tenant created the tenant home folder at the same time
+    when( tenantManager.createUserHomeFolder( TENANT, "joe" ) ).thenThrow( new RuntimeException( "item exists" ) )
+        .thenReturn( new RepositoryFile.Builder( "joe" ).folder( true ).build() );
+
+    manager.newUser( TENANT, "joe" );
+
+    verify( tenantManager, times( 2 ) ).getUserHomeFolder( TENANT, "joe" );
+    verify( tenantManager, times( 2 ) ).createUserHomeFolder( TENANT, "joe" );
+    assertEquals( 1, manager.getUserProvisionCount() );
+  }
+
+  @Test
+  public void testHomeFolderNotCreatedAgainWhenItAppeared() {
+    when( tenantManager.createUserHomeFolder( TENANT, "joe" ) ).thenThrow( new RuntimeException( "item exists" ) );
+    when( tenantManager.getUserHomeFolder( TENANT, "joe" ) ).thenReturn( null,
+        new RepositoryFile.Builder( "joe" ).folder( true ).build() );
+
+    manager.newUser( TENANT, "joe" );
+
+    verify( tenantManager, times( 1 ) ).createUserHomeFolder( TENANT, "joe" );
+    assertEquals( 1, manager.getUserProvisionCount() );
+  }
+
+  @Test
+  public void testHomeFolderIsCheckedAgainAfterTimeoutOrClear() {
+    manager.newUser( TENANT, "joe" );
+    manager.clearProvisionedUsers();
+    manager.newUser( TENANT, "joe" );
+    verify( tenantManager, times( 2 ) ).getUserHomeFolder( TENANT, "joe" );
+
+    manager.setProvisionedUserTimeout( 0 );
+    manager.newUser( TENANT, "joe" );
+    verify( tenantManager, times( 3 ) ).getUserHomeFolder( TENANT, "joe" );
+  }
+
+  @Test
+  public void testProvisionedUsersAreBounded() {
+    manager.setMaxProvisionedUsers( 2 );
+    manager.newUser( TENANT, "joe" );
+    manager.newUser( TENANT, "suzy" );
+    manager.newUser( TENANT, "pat" );
+
+    // the first users were dropped to make room
+    manager.newUser( TENANT, "joe" );
+    verify( tenantManager, times( 2 ) ).getUserHomeFolder( TENANT, "joe" );
+    manager.newUser( TENANT, "pat" );
+    verify( tenantManager, times( 1 ) ).getUserHomeFolder( TENANT, "pat" );
+  }
+}
@@ -123,12 +123,10 @@ public class RepositoryFileTreeManager {
     if ( showHidden == null ) {
       showHidden = Boolean.FALSE;
     }
-    url =
-        url
-            + "depth=" + depth + "&filter=" + filter + "&showHidden=" + showHidden + "&ts=" + System.currentTimeMillis(); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    // no cache buster, the server tags the tree and the browser revalidates its copy (304 when unchanged)
+    url = url + "depth=" + depth + "&filter=" + filter + "&showHidden=" + showHidden; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
     builder = new RequestBuilder( RequestBuilder.GET, url );
     builder.setHeader( "Accept", "application/json" );
-    builder.setHeader( "If-Modified-Since", "01 Jan 1970 00:00:00 GMT" );
 
     RequestCallback innerCallback = new RequestCallback() {
 